@@ -11,6 +11,7 @@ import static com.google.appinventor.client.Ode.MESSAGES;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.appinventor.client.boxes.GalleryListBox;
 import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.explorer.youngandroid.GalleryList;
 import com.google.appinventor.client.youngandroid.TextValidators;
@@ -113,11 +114,11 @@ public class GalleryClient {
   }
  /**
   * GetAppsByDeveloper gets apps by developer and then tells listeners when done
-  * @param start staring index for search
+  * @param pageToken token of the page, or null for the first page
   * @param count number of results
   * @param developerId id of developer
   */
-  public void GetAppsByDeveloper(int start, int count, String developerId) {
+  public void GetAppsByDeveloper(String pageToken, int count, String developerId) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -132,7 +133,7 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getDeveloperApps(developerId, start,count,callback);
+    ode.getGalleryService().getDeveloperApps(developerId, pageToken,count,callback);
   }
  /**
   * GetFeatured gets featured apps, currently unimplemented
@@ -159,10 +160,10 @@ public class GalleryClient {
   }
  /**
   * GetMostRecent gets most recently updated apps then tells listeners
-  * @param start staring index
+  * @param pageToken token of the page, or null for the first page
   * @param count number of results
   */
-  public void GetMostRecent(int start, int count, final boolean refreshable) {
+  public void GetMostRecent(String pageToken, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -177,14 +178,14 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getRecentApps(start, count, callback);
+    ode.getGalleryService().getRecentApps(pageToken, count, callback);
   }
   /**
   * GetMostLiked gets the most liked apps then tells listeners
-  * @param start staring index
+  * @param pageToken token of the page, or null for the first page
   * @param count number of results
   */
-  public void GetMostLiked(int start, int count, final boolean refreshable) {
+  public void GetMostLiked(String pageToken, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -200,14 +201,14 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostLikedApps(start,count,callback);
+    ode.getGalleryService().getMostLikedApps(pageToken,count,callback);
   }
   /**
   * GetMostDownloaded gets the most downloaded apps then tells listeners
-  * @param start staring index
+  * @param pageToken token of the page, or null for the first page
   * @param count number of results
   */
-  public void GetMostDownloaded(int start, int count, final boolean refreshable) {
+  public void GetMostDownloaded(String pageToken, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -223,7 +224,7 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostDownloadedApps(start,count,callback);
+    ode.getGalleryService().getMostDownloadedApps(pageToken,count,callback);
   }
   /**
    * GetRemixedToList gets children list that apps remixed to then tells listeners
@@ -313,8 +314,14 @@ public class GalleryClient {
   */
   public void appWasChanged() {
     // for now, let's update the recent list, the popular list and feature list (in case one was deleted)
-    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, true);
+    // The lists are reloaded from their first pages, so the pages that were
+    // shown are no longer continued from.
+    GalleryList galleryList = GalleryListBox.getGalleryListBox().getGalleryList();
+    if (galleryList != null) {
+      galleryList.resetPageTokens();
+    }
+    GetMostRecent(null, GalleryList.NUMAPPSTOSHOW, true);
+    GetMostLiked(null, GalleryList.NUMAPPSTOSHOW, true);
     GetFeatured(0, GalleryList.NUMAPPSTOSHOW, 0, true);
   }
 
@@ -17,6 +17,8 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
@@ -25,6 +27,7 @@ import com.google.gwt.user.client.Timer;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,6 +61,10 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // The content of each file as it was last sent to the server, keyed by project id and file id.
+  // Later saves of a file only send the change from this content.
+  private final Map<String, String> savedContents;
+
   private class DateHolder {
     long date;
     long projectId;
@@ -71,6 +78,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -149,6 +157,9 @@ public final class EditorManager {
       }
       projectEditor.closeFileEditors(fileIds);
     }
+    for (String fileId : fileIds) {
+      savedContents.remove(projectId + "/" + fileId);
+    }
   }
 
   /**
@@ -165,6 +176,12 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    String keyPrefix = projectId + "/";
+    for (Iterator<String> it = savedContents.keySet().iterator(); it.hasNext(); ) {
+      if (it.next().startsWith(keyPrefix)) {
+        it.remove();
+      }
+    }
   }
 
   /**
@@ -369,8 +386,9 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        final String contentKey = projectId + "/" + fileId;
+        OdeAsyncCallback<Long> callback =
+          new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
               if (dateHolder.date != 0) {
@@ -389,6 +407,25 @@ public final class EditorManager {
             }
             @Override
             public void onFailure(Throwable caught) {
+              if (caught instanceof FileDeltaMismatchException) {
+                if (!content.equals(savedContents.get(contentKey))) {
+                  // The file has been saved again since, and that save carries newer content,
+                  // which sending this content now could overwrite.
+                  if (afterSavingFiles != null) {
+                    afterSavingFiles.execute();
+                  }
+                  return;
+                }
+                // The server doesn't have the content the change was computed from (it may
+                // have been saved from another window), so send all of the content.
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
+                return;
+              }
+              // We no longer know what the server has, unless the file has been saved again since
+              if (content.equals(savedContents.get(contentKey))) {
+                savedContents.remove(contentKey);
+              }
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
@@ -396,7 +433,20 @@ public final class EditorManager {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        // Send only the change from the content that was saved before, unless the change is
+        // not much smaller than the content.
+        String savedContent = savedContents.put(contentKey, content);
+        if (savedContent != null) {
+          FileDelta delta = FileDelta.compute(savedContent, content);
+          if (delta.getTextLength() < content.length() / 2) {
+            Ode.getInstance().getProjectService().saveDelta(Ode.getInstance().getSessionId(),
+                projectId, fileId, false, delta, callback);
+            continue;
+          }
+        }
+        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+          projectId, fileId, false, content, callback);
       }
     }
   }
@@ -77,9 +77,9 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   public static final int REQUEST_ALL = 9;
   public static final int REQUEST_REMIXED_TO = 10;
 
-  private int appRecentCounter = 0;
+  private String appRecentPageToken = null;
   private int appFeaturedCounter = 0;
-  private int appPopularCounter = 0;
+  private String appPopularPageToken = null;
   private int appSearchCounter = 0;
   private boolean appRecentExhausted = false;
   private boolean appFeaturedExhausted = false;
@@ -251,11 +251,11 @@ public class GalleryList extends Composite implements GalleryRequestListener {
       } else if (request == REQUEST_RECENT) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostRecent(null, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_MOSTLIKED) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostLiked(null, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_FEATURED){
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
@@ -289,8 +289,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_RECENT:
               if (!appRecentExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appRecentCounter += NUMAPPSTOSHOW;
-                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostRecent(appRecentPageToken, NUMAPPSTOSHOW, false);
               }
               break;
             case REQUEST_SEARCH:
@@ -303,8 +302,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_MOSTLIKED:
               if (!appPopularExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appPopularCounter += NUMAPPSTOSHOW;
-                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostLiked(appPopularPageToken, NUMAPPSTOSHOW, false);
               }
               break;
           }
@@ -371,18 +369,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         break;
       case REQUEST_RECENT:
         appRecentTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW  || appRecentCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appRecentTab.getButtonNext().setVisible(false);
-        }else{
-          appRecentTab.getButtonNext().setVisible(true);
-        }
-
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appRecentExhausted = true;
-        } else {
-          appRecentExhausted = false;
-        }
+        // There is no next page token at the end of the list
+        appRecentPageToken = appsResult.getNextPageToken();
+        appRecentExhausted = (appRecentPageToken == null);
+        appRecentTab.getButtonNext().setVisible(!appRecentExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appRecentContent, refreshable);
         break;
       case REQUEST_SEARCH:
@@ -407,22 +397,27 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         break;
       case REQUEST_MOSTLIKED:
         appPopularTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appPopularCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appPopularTab.getButtonNext().setVisible(false);
-        }else{
-          appPopularTab.getButtonNext().setVisible(true);
-        }
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appPopularExhausted = true;
-        } else {
-          appPopularExhausted = false;
-        }
+        // There is no next page token at the end of the list
+        appPopularPageToken = appsResult.getNextPageToken();
+        appPopularExhausted = (appPopularPageToken == null);
+        appPopularTab.getButtonNext().setVisible(!appPopularExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appPopularContent, refreshable);
         break;
     }
   }
 
+  /**
+   * Forgets the page tokens of the recent and most liked lists, which are
+   * about to be reloaded from their first pages. Until the first pages
+   * arrive, there are no next pages to load.
+   */
+  public void resetPageTokens() {
+    appRecentPageToken = null;
+    appRecentExhausted = true;
+    appPopularPageToken = null;
+    appPopularExhausted = true;
+  }
+
   /**
    * Gets the number of projects
    *
@@ -322,7 +322,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
                   MESSAGES.galleryAppsByAuthorSidebar() + " this user", false, true);
             }
         };
-      Ode.getInstance().getGalleryService().getDeveloperApps(userId, 0,5, byAuthorCallback);
+      Ode.getInstance().getGalleryService().getDeveloperApps(userId, null,5, byAuthorCallback);
     }
 
     //TODO this callback should combine with previous ones. Leave it out for now
@@ -76,8 +76,9 @@ public class ReportList extends Composite  {
   public static final int EMAIL_INAPPROPRIATE_USER_PROFILE_CONTENT = 3;
 
   public static final int NUMREPORTSSHOW = 10;
-  private int reportRecentCounter = 0;
-  private int reportAllRecentCounter = 0;
+  // Token of the next page of the reports that are shown, null if there is
+  // none
+  private String reportPageToken = null;
 
   /**
    * Creates a new ProjectList
@@ -96,8 +97,7 @@ public class ReportList extends Composite  {
       public void onValueChange(ValueChangeEvent<Boolean> event) {
         boolean isChecked = event.getValue(); // auto-unbox from Boolean to boolean
         //reset start position
-        reportAllRecentCounter = 0;
-        reportRecentCounter = 0;
+        reportPageToken = null;
         buttonNext.setVisible(true);
         if (isChecked) {
           initializeAllReports();
@@ -139,11 +139,9 @@ public class ReportList extends Composite  {
               }
           };
           if(checkBox.isChecked()){
-            reportAllRecentCounter += NUMREPORTSSHOW;
-            Ode.getInstance().getGalleryService().getAllAppReports(reportAllRecentCounter,NUMREPORTSSHOW,callback);
+            Ode.getInstance().getGalleryService().getAllAppReports(reportPageToken,NUMREPORTSSHOW,callback);
           }else{
-            reportRecentCounter += NUMREPORTSSHOW;
-            Ode.getInstance().getGalleryService().getRecentReports(reportRecentCounter,NUMREPORTSSHOW,callback);
+            Ode.getInstance().getGalleryService().getRecentReports(reportPageToken,NUMREPORTSSHOW,callback);
           }
       }
     });
@@ -219,7 +217,7 @@ public class ReportList extends Composite  {
           refreshTable(reportListResult, true);
         }
     };
-    Ode.getInstance().getGalleryService().getRecentReports(reportRecentCounter,NUMREPORTSSHOW,callback);
+    Ode.getInstance().getGalleryService().getRecentReports(null,NUMREPORTSSHOW,callback);
   }
 
   /**
@@ -240,7 +238,7 @@ public class ReportList extends Composite  {
           refreshTable(reportListResult, true);
         }
       };
-    Ode.getInstance().getGalleryService().getAllAppReports(reportAllRecentCounter,NUMREPORTSSHOW,callback);
+    Ode.getInstance().getGalleryService().getAllAppReports(null,NUMREPORTSSHOW,callback);
   }
   /**
    * Helper wrapper Class of Report Widgets
@@ -324,8 +322,9 @@ public class ReportList extends Composite  {
       prepareGalleryAppReport(report, rw);
       row++;
     }
-    //if the total num of row - 1(head row) == total count of reports, there are no more results
-    if(table.getRowCount()-1 == reportListResult.getTotalCount()){
+    //if there is no next page token, there are no more results
+    reportPageToken = reportListResult.getNextPageToken();
+    if(reportPageToken == null){
       buttonNext.setVisible(false);
     }
   }
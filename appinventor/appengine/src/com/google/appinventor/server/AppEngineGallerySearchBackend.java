@@ -0,0 +1,111 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.search.DeleteException;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.Results;
+import com.google.appengine.api.search.ScoredDocument;
+import com.google.appengine.api.search.SearchException;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.StatusCode;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// see sample at https://developers.google.com/appengine/docs/java/search/
+
+/**
+ * Gallery search backend that uses the App Engine Search API.
+ *
+ */
+class AppEngineGallerySearchBackend implements GallerySearchBackend {
+
+  private static final Logger LOG = Logger.getLogger(AppEngineGallerySearchBackend.class.getName());
+  private static final String GALLERYINDEX = "GalleryIndex";
+
+  // The Search API takes at most this many documents in one put
+  private static final int MAX_DOCUMENTS_PER_PUT = 200;
+
+  @Override
+  public void indexApps(List<GalleryApp> apps) {
+    List<Document> docs = new ArrayList<Document>();
+    for (GalleryApp app : apps) {
+      docs.add(Document.newBuilder()
+          .setId(String.valueOf(app.getGalleryAppId()))
+          .addField(Field.newBuilder().setName("content")
+              .setText(GallerySearchIndex.getIndexWords(app)))
+          .build());
+    }
+    for (int i = 0; i < docs.size(); i += MAX_DOCUMENTS_PER_PUT) {
+      List<Document> batch = docs.subList(i, Math.min(docs.size(), i + MAX_DOCUMENTS_PER_PUT));
+      try {
+        getIndex().put(batch);
+      } catch (PutException e) {
+        if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
+          // retry putting the documents once
+          try {
+            getIndex().put(batch);
+            continue;
+          } catch (PutException e2) {
+            e = e2;
+          }
+        }
+        LOG.log(Level.WARNING, "error indexing gallery apps", e);
+      }
+    }
+  }
+
+  @Override
+  public void unIndexApp(long galleryId) {
+    try {
+      getIndex().delete(String.valueOf(galleryId));
+    } catch (DeleteException e) {
+      LOG.info("error deleting index entry");
+    }
+  }
+
+  @Override
+  public Hits find(String searchWords, int start, int count) {
+    List<Long> galleryIds = new ArrayList<Long>();
+    int totalCount = 0;
+    try {
+      Query query = Query.newBuilder()
+          .setOptions(QueryOptions.newBuilder()
+              .setOffset(start)
+              .setLimit(count)
+              .setReturningIdsOnly(true)
+              .build())
+          .build(searchWords);
+      LOG.info("Sending query " + query);
+      Results<ScoredDocument> results = getIndex().search(query);
+      for (ScoredDocument document : results) {
+        galleryIds.add(Long.parseLong(document.getId()));
+      }
+      totalCount = (int) results.getNumberFound();
+    } catch (SearchException e) {
+      LOG.log(Level.WARNING, "error searching gallery apps", e);
+    }
+    return new Hits(galleryIds, totalCount);
+  }
+
+  /**
+   * @return the search index
+   */
+  private Index getIndex() {
+    IndexSpec indexSpec = IndexSpec.newBuilder().setName(GALLERYINDEX).build();
+    return SearchServiceFactory.getSearchService().getIndex(indexSpec);
+  }
+}
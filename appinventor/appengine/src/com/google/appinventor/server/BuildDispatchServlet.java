@@ -0,0 +1,45 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * BuildDispatchServlet -- Send a queued build to a build server
+ *
+ * This Servlet is called from the task queue manager when a build was
+ * queued because all build servers were busy or unavailable. Like the
+ * BlobUpgradeServlet it is restricted to admin users only.
+ *
+ * The build is tried again, and queued again if the build servers are
+ * still busy. Retries are handled there, so this servlet always succeeds
+ * and the task queue doesn't retry on its own.
+ *
+ */
+public class BuildDispatchServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildDispatchServlet.class.getName());
+  private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String userId = req.getParameter("user");
+    long projectId = Long.parseLong(req.getParameter("project"));
+    int attempt = Integer.parseInt(req.getParameter("attempt"));
+    LOG.info("Dispatching queued build of project " + projectId + ", attempt " + attempt);
+    new YoungAndroidProjectService(storageIo).dispatchQueuedBuild(req.getParameter("email"),
+        userId, projectId, req.getParameter("target"), attempt);
+  }
+}
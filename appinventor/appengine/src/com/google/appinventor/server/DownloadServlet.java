@@ -7,6 +7,7 @@
 package com.google.appinventor.server;
 
 import com.google.appinventor.common.utils.StringUtils;
+import com.google.appinventor.server.storage.ProjectSourceExport;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.util.CacheHeaders;
@@ -86,6 +87,10 @@ public class DownloadServlet extends OdeServlet {
   // Content type for response header (to avoid security vulnerabilities)
   private static final String CONTENT_TYPE = "text/html; charset=utf-8";
 
+  // Response buffer for source zips. Failures while the zip is still in the
+  // buffer are reported as errors instead of aborting the download.
+  private static final int SOURCE_EXPORT_BUFFER_SIZE = 64 * 1024;
+
   private final FileExporter fileExporter = new FileExporterImpl();
 
   @Override
@@ -94,7 +99,9 @@ public class DownloadServlet extends OdeServlet {
     CACHE_HEADERS.setNotCacheable(resp);
     resp.setContentType(CONTENT_TYPE);
 
-    RawFile downloadableFile;
+    RawFile downloadableFile = null;
+    // Project sources are zipped while they are streamed to the response.
+    ProjectSourceExport sourceExport = null;
 
     String userId = null;
 
@@ -122,9 +129,8 @@ public class DownloadServlet extends OdeServlet {
         final boolean includeProjectHistory = true;
         String zipName = (projectTitle == null) ? null :
             StringUtils.normalizeForFilename(projectTitle) + ".aia";
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
+        sourceExport = fileExporter.openProjectSourceZip(userId,
             projectId, includeProjectHistory, false, zipName, false);
-        downloadableFile = zipFile.getRawFile();
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         // Download project source files for the specified user project as a zip.
@@ -173,9 +179,8 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
+        sourceExport = fileExporter.openProjectSourceZip(projectUserId,
             projectId, /* include history*/ true, /* include keystore */ true, zipName, false);
-        downloadableFile = zipFile.getRawFile();
         
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
@@ -208,13 +213,32 @@ public class DownloadServlet extends OdeServlet {
       throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
     }
 
+    if (sourceExport != null) {
+      // The length of the zip is not known until it has been written. Errors are
+      // reported normally until the response is committed; after that, the
+      // stream is left unclosed, so the container aborts the connection instead
+      // of ending the response as if the zip were complete.
+      setDownloadHeaders(resp, sourceExport.getFileName());
+      resp.setBufferSize(SOURCE_EXPORT_BUFFER_SIZE);
+      ServletOutputStream out = resp.getOutputStream();
+      try {
+        sourceExport.writeTo(out);
+      } catch (IOException e) {
+        sourceExportFailed(resp, userId);
+        throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
+      } catch (RuntimeException e) {
+        sourceExportFailed(resp, userId);
+        throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
+      }
+      out.close();
+      return;
+    }
+
     String fileName = downloadableFile.getFileName();
     byte[] content = downloadableFile.getContent();
 
     // Set http response information
-    resp.setStatus(HttpServletResponse.SC_OK);
-    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
-    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+    setDownloadHeaders(resp, fileName);
     resp.setContentLength(content.length);
 
     // Attach download data
@@ -222,4 +246,25 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Prepares the response for the error thrown when writing a source zip
+   * fails. If nothing has been sent yet, the download headers are dropped so
+   * the error is reported like any other.
+   */
+  private static void sourceExportFailed(HttpServletResponse resp, String userId) {
+    if (!resp.isCommitted()) {
+      resp.reset();
+      CACHE_HEADERS.setNotCacheable(resp);
+      resp.setContentType(CONTENT_TYPE);
+    } else {
+      LOG.warning("Aborting download of partly sent source zip for user=" + userId);
+    }
+  }
+
+  private static void setDownloadHeaders(HttpServletResponse resp, String fileName) {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+  }
 }
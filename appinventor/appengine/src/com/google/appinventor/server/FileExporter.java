@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server;
 
+import com.google.appinventor.server.storage.ProjectSourceExport;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
@@ -56,6 +57,29 @@ public interface FileExporter {
                                           boolean fatalError)
       throws IOException;
 
+  /**
+   * Prepares the project source files to be written as a zip to a stream,
+   * without holding the zip in memory.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param zipName the desired name for the zip, or null for a name to be generated
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @return the export, which writes the zip when asked to
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files)
+   * @throws IOException if the project cannot be read
+   */
+  ProjectSourceExport openProjectSourceZip(String userId, long projectId,
+                                           boolean includeProjectHistory,
+                                           boolean includeAndroidKeystore,
+                                           @Nullable String zipName,
+                                           boolean fatalError)
+      throws IOException;
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -8,6 +8,7 @@ package com.google.appinventor.server;
 
 import com.google.common.base.Strings;
 import com.google.appinventor.server.storage.ObjectifyStorageIo;
+import com.google.appinventor.server.storage.ProjectSourceExport;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
@@ -72,6 +73,16 @@ public final class FileExporterImpl implements FileExporter {
     }
   }
 
+  @Override
+  public ProjectSourceExport openProjectSourceZip(String userId, long projectId,
+                                                  boolean includeProjectHistory,
+                                                  boolean includeAndroidKeystore,
+                                                  @Nullable String zipName,
+                                                  boolean fatalError) throws IOException {
+    return storageIo.openProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName, fatalError);
+  }
+
   @Override
   public ProjectSourceZip exportAllProjectsSourceZip(String userId,
       String zipName) throws IOException {
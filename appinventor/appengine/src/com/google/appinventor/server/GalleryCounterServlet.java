@@ -0,0 +1,41 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryCounterServlet -- Roll up the download and like counters of a
+ * gallery app
+ *
+ * This Servlet is called from the task queue manager some time after the
+ * counters of an app were updated, so that the counts that came in after
+ * the last roll up reach the gallery listings. Like the BlobUpgradeServlet
+ * it is restricted to admin users only.
+ *
+ * If the roll up fails, the request fails and the task queue retries it.
+ *
+ */
+public class GalleryCounterServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryCounterServlet.class.getName());
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    long galleryId = Long.parseLong(req.getParameter("gallery"));
+    LOG.fine("Rolling up the counters of gallery app " + galleryId);
+    galleryStorageIo.rollUpGalleryAppCounters(galleryId);
+  }
+}
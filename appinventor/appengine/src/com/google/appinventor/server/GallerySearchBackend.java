@@ -0,0 +1,59 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import java.util.List;
+
+/**
+ * A search engine that holds the gallery search index. The
+ * "gallery.search.backend" flag chooses the engine that
+ * {@link GallerySearchIndex} uses.
+ *
+ */
+interface GallerySearchBackend {
+
+  /**
+   * One page of search results.
+   */
+  class Hits {
+    final List<Long> galleryIds;
+    final int totalCount;
+
+    Hits(List<Long> galleryIds, int totalCount) {
+      this.galleryIds = galleryIds;
+      this.totalCount = totalCount;
+    }
+  }
+
+  /**
+   * Adds apps to the index, or replaces their entries if they are already
+   * indexed.
+   *
+   * @param apps the apps to index
+   */
+  void indexApps(List<GalleryApp> apps);
+
+  /**
+   * Removes an app from the index.
+   *
+   * @param galleryId the gallery id of the app
+   */
+  void unIndexApp(long galleryId);
+
+  /**
+   * Finds the apps that match the search words. Only the requested page of
+   * results is read from the engine.
+   *
+   * @param searchWords the search words, as typed by the user
+   * @param start the index of the first result to return
+   * @param count the maximum number of results to return
+   * @return the gallery ids of the apps in the page, best match first, and
+   *     the total number of matches
+   */
+  Hits find(String searchWords, int start, int count);
+}
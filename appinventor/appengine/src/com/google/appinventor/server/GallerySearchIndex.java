@@ -5,46 +5,62 @@
 // http://www.apache.org/licenses/LICENSE-2.0
 
 package com.google.appinventor.server;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.google.appengine.api.search.DeleteException;
-import com.google.appengine.api.search.Document;
-import com.google.appengine.api.search.Field;
-import com.google.appengine.api.search.Index;
-import com.google.appengine.api.search.IndexSpec;
-import com.google.appengine.api.search.PutException;
-import com.google.appengine.api.search.Query;
-import com.google.appengine.api.search.QueryOptions;
-import com.google.appengine.api.search.Results;
-import com.google.appengine.api.search.ScoredDocument;
-import com.google.appengine.api.search.SearchException;
-import com.google.appengine.api.search.SearchServiceFactory;
-import com.google.appengine.api.search.StatusCode;
+import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.GalleryStorageIo;
 import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.GalleryApp;
 import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
-import com.googlecode.objectify.NotFoundException;
 
 
-// see sample at https://developers.google.com/appengine/docs/java/search/
-
+/**
+ * The gallery search index. The search itself is done by the
+ * {@link GallerySearchBackend} chosen by the "gallery.search.backend" flag,
+ * and the apps in each page of results are then read from the gallery
+ * storage all at once.
+ */
 public class GallerySearchIndex {
 
   private static final Logger LOG = Logger.getLogger(GallerySearchIndex.class.getName());
-  private static String GALLERYINDEX="GalleryIndex";
+
+  // "appengine" for the App Engine Search API or "lucene" for a local Lucene
+  // index
+  private static final Flag<String> searchBackend =
+      Flag.createFlag("gallery.search.backend", "appengine");
+  // The directory of the Lucene index. If it is empty, the index is kept in
+  // memory and has to be rebuilt with indexAll after each restart.
+  private static final Flag<String> luceneIndexDir =
+      Flag.createFlag("gallery.search.lucene.dir", "");
+
   private final transient GalleryStorageIo galleryStorageIo =
       GalleryStorageIoInstanceHolder.INSTANCE;
+  private final GallerySearchBackend backend;
   private static volatile GallerySearchIndex  instance= null;
 
   /**
    * The default constructor of GallerySearchIndex
    */
   private GallerySearchIndex () {
-
+    String backendName = searchBackend.get();
+    if (backendName.equals("lucene")) {
+      try {
+        backend = LuceneGallerySearchBackend.create(luceneIndexDir.get());
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null, "cannot open the gallery search index", e);
+      }
+    } else {
+      if (!backendName.equals("appengine")) {
+        LOG.severe("Unknown gallery.search.backend " + backendName + ", using appengine");
+      }
+      backend = new AppEngineGallerySearchBackend();
+    }
   }
 
   /**
@@ -53,7 +69,10 @@ public class GallerySearchIndex {
   public static GallerySearchIndex getInstance () {
     if (instance == null) {
       synchronized (GallerySearchIndex.class) {
-        instance = new GallerySearchIndex();
+        // The Lucene backend locks its index, so there must only be one
+        if (instance == null) {
+          instance = new GallerySearchIndex();
+        }
       }
     }
     return instance;
@@ -64,24 +83,15 @@ public class GallerySearchIndex {
    * @param app galleryapp
    */
   public void indexApp (GalleryApp app) {
-    // take the title, description, and the user name and index it
-    // need to build up a string with all meta data
-    String indexWords = app.getTitle()+" "+app.getDescription() + " " + app.getDeveloperName();
-    // now create the doc
-    Document doc = Document.newBuilder()
-      .setId(String.valueOf(app.getGalleryAppId()))
-      .addField(Field.newBuilder().setName("content").setText(indexWords))
-      .build();
-
-    Index index = getIndex();
+    backend.indexApps(Collections.singletonList(app));
+  }
 
-    try {
-      index.put(doc);
-    } catch (PutException e) {
-      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-          // retry putting the document
-      }
-    }
+  /**
+   * index gallery apps into search index, all at once
+   * @param apps galleryapps
+   */
+  public void indexApps (List<GalleryApp> apps) {
+    backend.indexApps(apps);
   }
 
   /**
@@ -89,13 +99,7 @@ public class GallerySearchIndex {
    * @param galleryId gallery id
    */
   public void unIndexApp(long galleryId) {
-    Index index = getIndex();
-    try {
-      index.delete(String.valueOf(galleryId));
-    } catch (DeleteException e) {
-      LOG.info("error deleting index entry");
-    }
-
+    backend.unIndexApp(galleryId);
   }
 
   /**
@@ -107,60 +111,26 @@ public class GallerySearchIndex {
    * @return GalleryAppListResult gallery applist result
    */
   public GalleryAppListResult find (String searchWords, int start, int count) {
-    //TODO page sliced has not implemented yet
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    final Result<Integer> size = new Result<Integer>();
-    try {
-      Query query = Query.newBuilder()
-          .setOptions(QueryOptions.newBuilder().
-              //setLimit(10).
-              // for deployed apps, uncomment the line below to demo snippeting.
-              // This will not work on the dev_appserver.
-              // setFieldsToSnippet("content").
-              build())
-          .build(searchWords);
-      LOG.info("Sending query " + query);
-      Results<ScoredDocument> results = getIndex().search(query);
-
-      // Iterate over the documents in the results
-      for (ScoredDocument document : results) {
-        LOG.info("Find:" + document.getId());
-      }
-
-      // Iterate over the documents in the results
-      int index = 0;
-      for (ScoredDocument document : results) {
-        if((index++) < start) continue;
-        if(count == 0) break;
-        count--;
-        try{
-          GalleryApp app = galleryStorageIo.getGalleryApp(Long.parseLong(document.getId()));
-          apps.add(app);
-        }catch(NotFoundException e){
-          LOG.log(Level.SEVERE, "Didn't Find GalleryAppData.id: " + document.getId());
-          unIndexApp(Long.parseLong(document.getId()));
-        }
-      }
-      size.t = (int) results.getNumberFound();
-    } catch (SearchException e) {
-      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-        // retry
+    GallerySearchBackend.Hits hits = backend.find(searchWords, start, count);
+    Map<Long, GalleryApp> foundApps = galleryStorageIo.getGalleryApps(hits.galleryIds);
+    for (long galleryId : hits.galleryIds) {
+      GalleryApp app = foundApps.get(galleryId);
+      if (app != null) {
+        apps.add(app);
+      } else {
+        LOG.log(Level.SEVERE, "Didn't Find GalleryAppData.id: " + galleryId);
+        unIndexApp(galleryId);
       }
     }
-    return new GalleryAppListResult(apps, size.t, searchWords);
+    return new GalleryAppListResult(apps, hits.totalCount, searchWords);
   }
 
   /**
-   * @return the search index
+   * @return the words of an app that searches match: its title,
+   *     description and developer name
    */
-  private Index getIndex() {
-    IndexSpec indexSpec = IndexSpec.newBuilder().setName(GALLERYINDEX).build();
-    Index index = SearchServiceFactory.getSearchService().getIndex(indexSpec);
-    return index;
-  }
-  // Create a final object of this class to hold a modifiable result value that
-  // can be used in a method of an inner class.
-  private class Result<T> {
-    T t;
+  static String getIndexWords(GalleryApp app) {
+    return app.getTitle() + " " + app.getDescription() + " " + app.getDeveloperName();
   }
-}
\ No newline at end of file
+}
@@ -133,10 +133,8 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    */
   @Override
   public void indexAll(int count) {
-    List<GalleryApp> apps= getRecentApps(1,count).getApps();
-    for (GalleryApp app:apps) {
-      GallerySearchIndex.getInstance().indexApp(app);
-    }
+    List<GalleryApp> apps= getRecentApps(null,count).getApps();
+    GallerySearchIndex.getInstance().indexApps(apps);
   }
 
   /**
@@ -151,13 +149,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
   @Override
-  public GalleryAppListResult getRecentApps(int start,int count) {
-    return galleryStorageIo.getRecentGalleryApps(start,count);
+  public GalleryAppListResult getRecentApps(String pageToken,int count) {
+    return galleryStorageIo.getRecentGalleryApps(pageToken,count);
   }
 
   /**
@@ -192,13 +190,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param pageToken token of the page to return, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
   @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start,int count) {
-    return galleryStorageIo.getDeveloperApps(userId, start,count);
+  public GalleryAppListResult getDeveloperApps(String userId, String pageToken,int count) {
+    return galleryStorageIo.getDeveloperApps(userId, pageToken,count);
   }
 
   /**
@@ -228,25 +226,25 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, int count) {
-    return galleryStorageIo.getMostDownloadedApps(start,count);
+  public GalleryAppListResult getMostDownloadedApps(String pageToken, int count) {
+    return galleryStorageIo.getMostDownloadedApps(pageToken,count);
   }
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, int count) {
-    return galleryStorageIo.getMostLikedApps(start,count);
+  public GalleryAppListResult getMostLikedApps(String pageToken, int count) {
+    return galleryStorageIo.getMostLikedApps(pageToken,count);
   }
 
   /**
@@ -369,24 +367,24 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
 
   /**
   * gets recent reports
-  * @param start start index
+  * @param pageToken token of the page to retrieve, or null for the first page
   * @param count number to retrieve
-  * @return the list of reports
+  * @return the list of reports, with the token of the next page
   */
   @Override
-  public GalleryReportListResult getRecentReports(int start, int count) {
-    return galleryStorageIo.getAppReports(start,count);
+  public GalleryReportListResult getRecentReports(String pageToken, int count) {
+    return galleryStorageIo.getAppReports(pageToken,count);
 
   }
   /**
   * gets existing reports
-  * @param start start index
+  * @param pageToken token of the page to retrieve, or null for the first page
   * @param count number to retrieve
-  * @return the list of reports
+  * @return the list of reports, with the token of the next page
   */
   @Override
-  public GalleryReportListResult getAllAppReports(int start, int count){
-    return galleryStorageIo.getAllAppReports(start,count);
+  public GalleryReportListResult getAllAppReports(String pageToken, int count){
+    return galleryStorageIo.getAllAppReports(pageToken,count);
   }
 
   /**
@@ -0,0 +1,142 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gallery search backend that keeps the index in a local Lucene index, for
+ * the development server and self-hosted deployments that run a single
+ * server.
+ *
+ * <p>The index holds one document per app, with the gallery id as a stored
+ * field and the indexed words as an analyzed field. Searches only collect as
+ * many hits as the requested page needs.
+ *
+ */
+class LuceneGallerySearchBackend implements GallerySearchBackend {
+
+  private static final Logger LOG = Logger.getLogger(LuceneGallerySearchBackend.class.getName());
+
+  private static final Version VERSION = Version.LUCENE_36;
+  private static final String ID_FIELD = "id";
+  private static final String CONTENT_FIELD = "content";
+
+  private final Analyzer analyzer = new StandardAnalyzer(VERSION);
+  private final IndexWriter writer;
+  private final SearcherManager searcherManager;
+
+  /**
+   * Creates a backend with an index in the given directory.
+   *
+   * @param directory the directory of the index
+   * @throws IOException if the index cannot be opened
+   */
+  LuceneGallerySearchBackend(Directory directory) throws IOException {
+    writer = new IndexWriter(directory, new IndexWriterConfig(VERSION, analyzer));
+    // Commit once, so that there is an index to search even if it is new.
+    writer.commit();
+    searcherManager = new SearcherManager(writer, true, null);
+  }
+
+  /**
+   * Creates a backend with an index in the file system directory with the
+   * given path, or in memory if the path is empty.
+   *
+   * @param path the path of the index directory, or the empty string
+   * @throws IOException if the index cannot be opened
+   */
+  static LuceneGallerySearchBackend create(String path) throws IOException {
+    Directory directory = path.isEmpty() ? new RAMDirectory() : FSDirectory.open(new File(path));
+    return new LuceneGallerySearchBackend(directory);
+  }
+
+  @Override
+  public void indexApps(List<GalleryApp> apps) {
+    try {
+      for (GalleryApp app : apps) {
+        String id = String.valueOf(app.getGalleryAppId());
+        Document doc = new Document();
+        doc.add(new Field(ID_FIELD, id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field(CONTENT_FIELD, GallerySearchIndex.getIndexWords(app),
+            Field.Store.NO, Field.Index.ANALYZED));
+        writer.updateDocument(new Term(ID_FIELD, id), doc);
+      }
+      writer.commit();
+      searcherManager.maybeRefresh();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "error indexing gallery apps", e);
+    }
+  }
+
+  @Override
+  public void unIndexApp(long galleryId) {
+    try {
+      writer.deleteDocuments(new Term(ID_FIELD, String.valueOf(galleryId)));
+      writer.commit();
+      searcherManager.maybeRefresh();
+    } catch (IOException e) {
+      LOG.info("error deleting index entry");
+    }
+  }
+
+  @Override
+  public Hits find(String searchWords, int start, int count) {
+    List<Long> galleryIds = new ArrayList<Long>();
+    Query query;
+    try {
+      // Like the App Engine Search API, match the apps that have all the words.
+      QueryParser parser = new QueryParser(VERSION, CONTENT_FIELD, analyzer);
+      parser.setDefaultOperator(QueryParser.AND_OPERATOR);
+      query = parser.parse(QueryParser.escape(searchWords));
+    } catch (ParseException e) {
+      // For example, the search words are all stop words
+      return new Hits(galleryIds, 0);
+    }
+    try {
+      IndexSearcher searcher = searcherManager.acquire();
+      try {
+        TopDocs topDocs = searcher.search(query, Math.max(1, start + count));
+        int end = Math.min(topDocs.scoreDocs.length, start + count);
+        for (int i = start; i < end; i++) {
+          Document doc = searcher.doc(topDocs.scoreDocs[i].doc);
+          galleryIds.add(Long.parseLong(doc.get(ID_FIELD)));
+        }
+        return new Hits(galleryIds, topDocs.totalHits);
+      } finally {
+        searcherManager.release(searcher);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "error searching gallery apps", e);
+      return new Hits(galleryIds, 0);
+    }
+  }
+}
@@ -21,6 +21,8 @@ import com.google.appinventor.shared.rpc.InvalidSessionException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
@@ -41,7 +43,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -239,18 +245,8 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   @Override
   public List<UserProject> getProjectInfos() {
     String userId = userInfoProvider.getUserId();
-    List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      UserProject up = makeUserProject(userId, projectId);
-      if (up != null) {
-        projectInfos.add(up);
-      } else {
-        LOG.log(Level.WARNING, "ProjectId " + projectId +
-          " is missing at the lower level.");
-      }
-    }
-    return projectInfos;
+    // Copied because the storage layer may return a cached, unmodifiable list
+    return Lists.newArrayList(storageIo.getUserProjects(userId));
   }
 
   /**
@@ -409,14 +405,29 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
-    List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Load the files of each project with one batch call, and then put the
+    // results back into the order of the request.
+    Map<Long, List<String>> fileIdsByProject = new LinkedHashMap<Long, List<String>>();
+    for (FileDescriptor file : files) {
+      List<String> fileIds = fileIdsByProject.get(file.getProjectId());
+      if (fileIds == null) {
+        fileIds = Lists.newArrayList();
+        fileIdsByProject.put(file.getProjectId(), fileIds);
+      }
+      fileIds.add(file.getFileId());
+    }
+    Map<Long, Iterator<String>> contentsByProject = new HashMap<Long, Iterator<String>>();
+    for (Map.Entry<Long, List<String>> entry : fileIdsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      contentsByProject.put(projectId, getProjectRpcImpl(userId, projectId)
+          .load(userId, projectId, entry.getValue()).iterator());
+    }
+    List<FileDescriptorWithContent> result = Lists.newArrayList();
     for (FileDescriptor file : files) {
       long projectId = file.getProjectId();
-      String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      result.add(new FileDescriptorWithContent(projectId, file.getFileId(),
+          contentsByProject.get(projectId).next()));
     }
     return result;
   }
@@ -465,6 +476,27 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves a change to the content of the file associated with a node in the
+   * project tree.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the content that was saved before
+   * @return modification date for project
+   */
+  @Override
+  public long saveDelta(String sessionId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws InvalidSessionException, BlocksTruncatedException,
+      FileDeltaMismatchException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).saveDelta(userId, projectId, fileId, force,
+        delta);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
@@ -478,13 +510,29 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
       BlocksTruncatedException {
     validateSessionId(sessionId);
     final String userId = userInfoProvider.getUserId();
-    long date = 0;
+    if (filesAndContent.isEmpty()) {
+      return 0;
+    }
+    // Save the files of each project with one batch call. If a file appears
+    // more than once, its last content wins, as it did when files were saved
+    // one at a time.
+    Map<Long, Map<String, String>> contentsByProject =
+        new LinkedHashMap<Long, Map<String, String>>();
     for (FileDescriptorWithContent fileAndContent : filesAndContent) {
-     long projectId = fileAndContent.getProjectId();
-     date = getProjectRpcImpl(userId, projectId).
-         save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+      Map<String, String> contents = contentsByProject.get(fileAndContent.getProjectId());
+      if (contents == null) {
+        contents = new LinkedHashMap<String, String>();
+        contentsByProject.put(fileAndContent.getProjectId(), contents);
+      }
+      contents.put(fileAndContent.getFileId(), fileAndContent.getContent());
+    }
+    Map<Long, Long> dates = new HashMap<Long, Long>();
+    for (Map.Entry<Long, Map<String, String>> entry : contentsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      dates.put(projectId,
+          getProjectRpcImpl(userId, projectId).save(userId, projectId, entry.getValue()));
     }
-    return date;
+    return dates.get(filesAndContent.get(filesAndContent.size() - 1).getProjectId());
   }
 
   /**
@@ -69,16 +69,16 @@ public class ReceiveBuildServlet extends OdeServlet {
           break;
         }
         String fileName = zipEntry.getName();
-        byte[] fileBytes = ByteStreams.toByteArray(zipInputStream);
         if (StorageUtil.ANDROID_KEYSTORE_FILENAME.equals(fileName)) {
           LOG.info("Saving android.keystore for user: " + userId);
           storageIo.addFilesToUser(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-          storageIo.uploadRawUserFile(userId, fileName, fileBytes);
+          storageIo.uploadRawUserFile(userId, fileName, ByteStreams.toByteArray(zipInputStream));
         } else {
           String filePath = buildFileDirPath + "/" + fileName;
           LOG.info("Saving build output files: " + filePath);
           storageIo.addOutputFilesToProject(userId, projectId, filePath);
-          storageIo.uploadRawFileForce(projectId, filePath, userId, fileBytes);
+          // Large outputs such as the apk are streamed to storage as they arrive
+          storageIo.uploadRawFileForce(projectId, filePath, userId, zipInputStream);
         }
       }
     } finally {
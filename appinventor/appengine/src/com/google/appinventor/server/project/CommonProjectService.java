@@ -11,6 +11,8 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.user.User;
@@ -18,6 +20,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.util.Base64Util;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -160,6 +163,19 @@ public abstract class CommonProjectService {
     return storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Loads the contents of several files of a project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  the contents of the files, in the order of {@code fileIds}
+   */
+  public List<String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Loads the file information associated with a node in the project tree. The
    * actual return value depends on the file kind. Source (text) files should
@@ -247,6 +263,20 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the contents of several files of a project at once. Like
+   * {@link #save(String, long, String, String)}, this always forces the save.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param contents  the contents to be saved, by file id
+   * @return modification date for project
+   */
+  public long save(String userId, long projectId, Map<String, String> contents) {
+    return storageIo.uploadFilesForce(projectId, userId, contents,
+        StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    * if force is false, an error is thrown if an attempt is made to save a
@@ -270,6 +300,26 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves a change to the content of the file associated with a node in the
+   * project tree. If force is false, an error is thrown if the change makes
+   * a blocks file that had contents trivial (empty).
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the content that was saved before
+   * @return modification date for project
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#saveDelta
+   */
+  public long saveDelta(String userId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws BlocksTruncatedException, FileDeltaMismatchException {
+    return storageIo.uploadFileDelta(projectId, fileId, userId, force, delta,
+        StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Invokes a build command for the project.
    *
@@ -0,0 +1,330 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The build servers that builds are dispatched to, and what is known about
+ * their load.
+ *
+ * <p>The /buildserver/health and /buildserver/vars pages of each server are
+ * polled when a build is dispatched and the last poll is older than
+ * POLL_INTERVAL_MILLIS. Only one request polls a given server at a time;
+ * others use the previous data meanwhile. The data is kept per instance.
+ *
+ * <p>Servers are offered least loaded first. The load of a server is its
+ * active and queued builds, plus the builds that were sent to it since it was
+ * polled, divided by the number of builds it runs at the same time. Ties are
+ * broken by the fraction of its memory that is free. Servers that are not
+ * healthy, or that turned a build away recently, are not offered.
+ *
+ */
+class BuildServerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildServerPool.class.getName());
+
+  // How long the data polled from a build server is used
+  private static final long POLL_INTERVAL_MILLIS = 15 * 1000;
+  private static final int POLL_TIMEOUT_MILLIS = 3000;
+
+  // How long a build server that failed, or was busy without saying for how
+  // long, is not offered
+  static final long DEFAULT_UNAVAILABLE_MILLIS = 30 * 1000;
+
+  private static final Pattern VAR_PATTERN = Pattern.compile("<b>([^<]*)</b> ([^<]*)<br>");
+  private static final Pattern QUEUED_VAR_PATTERN =
+      Pattern.compile("build-queue-[a-z]+-queued");
+
+  private static class ServerState {
+    final String host;
+    // Guarded by this
+    long checkedTime;
+    boolean refreshing;
+    boolean healthy = true;
+    int activeTasks;
+    int queuedTasks;
+    // 0 if unknown
+    int maxTasks;
+    double freeMemoryFraction;
+    int dispatchedSinceCheck;
+    long unavailableUntil;
+
+    ServerState(String host) {
+      this.host = host;
+    }
+
+    double getLoad() {
+      int capacity = Math.max(maxTasks, 1);
+      return (double) (activeTasks + queuedTasks + dispatchedSinceCheck) / capacity;
+    }
+  }
+
+  private final List<ServerState> servers = new ArrayList<ServerState>();
+
+  /**
+   * Creates a BuildServerPool.
+   *
+   * @param hosts a comma separated list of host[:port] of the build servers
+   */
+  BuildServerPool(String hosts) {
+    for (String host : hosts.split(",")) {
+      host = host.trim();
+      if (!host.isEmpty()) {
+        servers.add(new ServerState(host));
+      }
+    }
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("No build server in \"" + hosts + "\"");
+    }
+  }
+
+  /**
+   * Returns the hosts of the build servers that can take a build now, least
+   * loaded first. Stale server data is polled first.
+   */
+  List<String> selectHosts() {
+    long now = System.currentTimeMillis();
+    for (ServerState server : servers) {
+      boolean poll;
+      synchronized (server) {
+        poll = !server.refreshing && now - server.checkedTime >= POLL_INTERVAL_MILLIS;
+        if (poll) {
+          server.refreshing = true;
+        }
+      }
+      if (poll) {
+        poll(server);
+      }
+    }
+
+    List<ServerState> available = new ArrayList<ServerState>();
+    final Map<ServerState, Double> loads = new HashMap<ServerState, Double>();
+    final Map<ServerState, Double> freeMemory = new HashMap<ServerState, Double>();
+    for (ServerState server : servers) {
+      synchronized (server) {
+        if (server.healthy && server.unavailableUntil <= now) {
+          available.add(server);
+          loads.put(server, server.getLoad());
+          freeMemory.put(server, server.freeMemoryFraction);
+        }
+      }
+    }
+    Collections.sort(available, new Comparator<ServerState>() {
+      @Override
+      public int compare(ServerState server1, ServerState server2) {
+        int result = Double.compare(loads.get(server1), loads.get(server2));
+        if (result == 0) {
+          result = Double.compare(freeMemory.get(server2), freeMemory.get(server1));
+        }
+        return result;
+      }
+    });
+    List<String> hosts = new ArrayList<String>();
+    for (ServerState server : available) {
+      hosts.add(server.host);
+    }
+    return hosts;
+  }
+
+  /**
+   * Returns the host of the first build server. Used for requests that don't
+   * belong to a build that was dispatched from here.
+   */
+  String getDefaultHost() {
+    return servers.get(0).host;
+  }
+
+  /**
+   * Records that a build server accepted a build.
+   */
+  void reportAccepted(String host) {
+    ServerState server = find(host);
+    if (server != null) {
+      synchronized (server) {
+        server.dispatchedSinceCheck++;
+      }
+    }
+  }
+
+  /**
+   * Records that a build server turned a build away because it was busy.
+   *
+   * @param retryAfterMillis when the server expects to have room, or 0 if it
+   *     didn't say
+   */
+  void reportBusy(String host, long retryAfterMillis) {
+    markUnavailable(host, retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_UNAVAILABLE_MILLIS);
+  }
+
+  /**
+   * Records that a build server could not be reached or could not take a
+   * build for another reason.
+   */
+  void reportFailed(String host) {
+    markUnavailable(host, DEFAULT_UNAVAILABLE_MILLIS);
+  }
+
+  /**
+   * Returns how long to wait before trying again when no build server can
+   * take a build.
+   */
+  long getRetryDelayMillis() {
+    long now = System.currentTimeMillis();
+    long delay = DEFAULT_UNAVAILABLE_MILLIS;
+    for (ServerState server : servers) {
+      synchronized (server) {
+        if (server.unavailableUntil > now) {
+          delay = Math.min(delay, server.unavailableUntil - now);
+        }
+      }
+    }
+    return Math.max(delay, 1000);
+  }
+
+  private void markUnavailable(String host, long millis) {
+    ServerState server = find(host);
+    if (server != null) {
+      synchronized (server) {
+        server.unavailableUntil = Math.max(server.unavailableUntil,
+            System.currentTimeMillis() + millis);
+      }
+    }
+  }
+
+  private ServerState find(String host) {
+    for (ServerState server : servers) {
+      if (server.host.equals(host)) {
+        return server;
+      }
+    }
+    return null;
+  }
+
+  private void poll(ServerState server) {
+    boolean healthy;
+    Map<String, String> vars = null;
+    try {
+      healthy = fetch("http://" + server.host + "/buildserver/health") != null;
+    } catch (IOException e) {
+      LOG.log(Level.INFO, "Unable to poll build server " + server.host, e);
+      healthy = false;
+    }
+    if (healthy) {
+      try {
+        vars = parseVars(fetch("http://" + server.host + "/buildserver/vars"));
+      } catch (IOException e) {
+        // The server is used without knowing its load
+        LOG.log(Level.INFO, "Unable to get the variables of build server " + server.host, e);
+      }
+    }
+    synchronized (server) {
+      server.refreshing = false;
+      server.checkedTime = System.currentTimeMillis();
+      server.healthy = healthy;
+      server.dispatchedSinceCheck = 0;
+      if (vars != null) {
+        server.activeTasks = getInt(vars, "active-build-tasks");
+        server.queuedTasks = getQueuedTasks(vars);
+        server.maxTasks = getInt(vars, "maximum-simultaneous-build-tasks-allowed");
+        if (server.maxTasks == 0) {
+          // Unlimited; the processors are the limit that matters
+          server.maxTasks = getInt(vars, "num-processors");
+        }
+        long maxMemory = getLong(vars, "max-memory");
+        long usedMemory = getLong(vars, "total-memory") - getLong(vars, "free-memory");
+        server.freeMemoryFraction =
+            (maxMemory > 0) ? (double) (maxMemory - usedMemory) / maxMemory : 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the content of the page at the given url, or null if the server
+   * responded with an error.
+   */
+  String fetch(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(POLL_TIMEOUT_MILLIS);
+    connection.setReadTimeout(POLL_TIMEOUT_MILLIS);
+    try {
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return null;
+      }
+      Reader reader = new InputStreamReader(connection.getInputStream(), "UTF-8");
+      try {
+        return CharStreams.toString(reader);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Parses the variables on a /buildserver/vars page.
+   *
+   * @return the variables, or null if the page is null
+   */
+  static Map<String, String> parseVars(String html) {
+    if (html == null) {
+      return null;
+    }
+    Map<String, String> vars = new HashMap<String, String>();
+    Matcher matcher = VAR_PATTERN.matcher(html);
+    while (matcher.find()) {
+      vars.put(matcher.group(1), matcher.group(2));
+    }
+    return vars;
+  }
+
+  /**
+   * Returns the number of builds waiting on a build server, which is the sum
+   * of the build-queue-<i>lane</i>-queued variables of all its lanes.
+   */
+  static int getQueuedTasks(Map<String, String> vars) {
+    int queued = 0;
+    for (String name : vars.keySet()) {
+      if (QUEUED_VAR_PATTERN.matcher(name).matches()) {
+        queued += getInt(vars, name);
+      }
+    }
+    return queued;
+  }
+
+  private static int getInt(Map<String, String> vars, String name) {
+    return (int) getLong(vars, name);
+  }
+
+  private static long getLong(Map<String, String> vars, String name) {
+    String value = vars.get(name);
+    if (value != null) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        // For example "unlimited"
+      }
+    }
+    return 0;
+  }
+}
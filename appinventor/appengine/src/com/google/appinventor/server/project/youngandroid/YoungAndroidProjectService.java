@@ -6,6 +6,10 @@
 
 package com.google.appinventor.server.project.youngandroid;
 
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
@@ -19,7 +23,8 @@ import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.project.CommonProjectService;
 import com.google.appinventor.server.project.utils.Security;
-import com.google.appinventor.server.properties.json.ServerJsonParser;
+import com.google.appinventor.server.properties.json.LazyJsonParser;
+import com.google.appinventor.server.storage.ProjectSourceExport;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.shared.properties.json.JSONParser;
 import com.google.appinventor.shared.rpc.RpcResult;
@@ -50,6 +55,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -103,16 +109,42 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   public static final String PROJECT_PROPERTIES_FILE_NAME = PROJECT_DIRECTORY + "/" +
       "project.properties";
 
-  private static final JSONParser JSON_PARSER = new ServerJsonParser();
+  private static final JSONParser JSON_PARSER = new LazyJsonParser();
 
   // Build folder path
   private static final String BUILD_FOLDER = "build";
 
+  // Size of the chunks in which the project zip is sent to the build server
+  private static final int BUILD_REQUEST_CHUNK_SIZE = 64 * 1024;
+
   public static final String PROJECT_KEYSTORE_LOCATION = "android.keystore";
 
-  // host[:port] to use for connecting to the build server
+  // Comma separated host[:port] list of the build servers to use
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
+
+  // How many times a build is put on the task queue while all build servers are busy before
+  // it fails
+  private static final int MAX_BUILD_DISPATCH_ATTEMPTS = 10;
+
+  private static final String BUILD_DISPATCH_QUEUE = "builddispatch";
+
+  // Memcache key prefix for the build server that took the last build of a project
+  private static final String BUILD_SERVER_KEY_PREFIX = "buildserver|";
+
+  // How long the build server of a build is remembered, in seconds. This covers the progress
+  // polls of a build, which then fall back to the default build server.
+  private static final int BUILD_SERVER_KEY_EXPIRATION_SECONDS = 60 * 60;
+
+  // The main form of the companion app project. Builds of projects with this main form go to the
+  // companion lane of the build servers, which is served ahead of normal app builds.
+  private static final Flag<String> companionMainForm =
+      Flag.createFlag("build.companion.main", "edu.mit.appinventor.punya.aicompanion3.Screen1");
+
+  // The build server lane of companion builds
+  private static final String COMPANION_BUILD_LANE = "companion";
+
+  private static volatile BuildServerPool buildServerPool;
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
@@ -536,7 +568,6 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   public RpcResult build(User user, long projectId, String nonce, String target) {
     String userId = user.getUserId();
     String projectName = storageIo.getProjectName(userId, projectId);
-    String outputFileDir = BUILD_FOLDER + '/' + target;
 
     // Store the userId and projectId based on the nonce
 
@@ -548,26 +579,164 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    return dispatchBuild(user.getUserEmail(), userId, projectId, projectName, target, 0);
+  }
+
+  /**
+   * Sends a build that was put on the build dispatch task queue to a build server.
+   *
+   * @param userEmail the email of the user that owns the {@code projectId}
+   * @param userId the id of the user that owns the {@code projectId}
+   * @param projectId  project id to be built
+   * @param target  build target
+   * @param attempt  the number of times the build has been queued
+   */
+  public void dispatchQueuedBuild(String userEmail, String userId, long projectId, String target,
+      int attempt) {
+    String projectName = storageIo.getProjectName(userId, projectId);
+    RpcResult result = dispatchBuild(userEmail, userId, projectId, projectName, target, attempt);
+    if (result.failed()) {
+      // Nobody waits for this result except the client polling for build.out
+      storeBuildFailure(userId, projectId, target, result.getError());
+    }
+  }
+
+  /*
+   * Sends a build to the least loaded build server that takes it. If the build servers are all
+   * busy or unavailable, the build is put on the build dispatch task queue, so that it is
+   * retried without the client having to do anything. The client sees the result in build.out
+   * as usual.
+   */
+  private RpcResult dispatchBuild(String userEmail, String userId, long projectId,
+      String projectName, String target, int attempt) {
+    BuildServerPool pool = getBuildServerPool();
+    String lane = getBuildLane(userId, projectId);
+    RpcResult lastError = null;
+    boolean unavailable = false;
+    for (String host : pool.selectHosts()) {
+      try {
+        RpcResult result = sendBuild(pool, host, userEmail, userId, projectId, projectName,
+            BUILD_FOLDER + '/' + target, lane);
+        if (result.getResult() != HttpURLConnection.HTTP_CONFLICT) {
+          if (result.succeeded()) {
+            pool.reportAccepted(host);
+            MemcacheServiceFactory.getMemcacheService().put(
+                BUILD_SERVER_KEY_PREFIX + userId + "|" + projectId, host,
+                Expiration.byDeltaSeconds(BUILD_SERVER_KEY_EXPIRATION_SECONDS));
+          }
+          return result;
+        }
+        // Another build server may have the right version
+        lastError = result;
+      } catch (BuildServerUnavailableException e) {
+        LOG.info("Build server " + host + " is unavailable: " + e.getMessage());
+        unavailable = true;
+      }
+    }
+    if (lastError != null && !unavailable) {
+      return lastError;
+    }
+    if (attempt >= MAX_BUILD_DISPATCH_ATTEMPTS) {
+      return new RpcResult(false, "",
+          "The build servers are currently busy. Please try again later.");
+    }
+    long delayMillis = pool.getRetryDelayMillis();
+    LOG.info("No build server is available for project " + projectId + ", retrying in "
+        + delayMillis + " ms");
+    QueueFactory.getQueue(BUILD_DISPATCH_QUEUE).add(
+        TaskOptions.Builder.withUrl("/builddispatch")
+        .param("user", userId)
+        .param("email", userEmail)
+        .param("project", Long.toString(projectId))
+        .param("target", target)
+        .param("attempt", Integer.toString(attempt + 1))
+        .countdownMillis(delayMillis));
+    return new RpcResult(true, "Building " + projectName, "");
+  }
+
+  /*
+   * Returns the build server lane for a build of the given project: "companion" if it is the
+   * companion app, and null for a normal app build.
+   */
+  private String getBuildLane(String userId, long projectId) {
+    String projectProperties = storageIo.downloadFile(userId, projectId,
+        PROJECT_PROPERTIES_FILE_NAME, StorageUtil.DEFAULT_CHARSET);
+    Properties properties = new Properties();
+    try {
+      properties.load(new StringReader(projectProperties));
+    } catch (IOException e) {
+      // Since we are reading from a String, this exception can't actually happen.
+      return null;
+    }
+    return companionMainForm.get().equals(properties.getProperty("main"))
+        ? COMPANION_BUILD_LANE : null;
+  }
+
+  /*
+   * Stores a build.out that tells the client polling for the build result that the build
+   * failed.
+   */
+  private void storeBuildFailure(String userId, long projectId, String target, String error) {
+    String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
+    try {
+      JSONObject buildOutputJsonObj = new JSONObject();
+      buildOutputJsonObj.put("result", 1);
+      buildOutputJsonObj.put("error", error);
+      buildOutputJsonObj.put("output", "");
+      storageIo.addOutputFilesToProject(userId, projectId, buildOutputFileName);
+      storageIo.uploadRawFileForce(projectId, buildOutputFileName, userId,
+          buildOutputJsonObj.toString().getBytes("UTF-8"));
+    } catch (JSONException e) {
+      throw CrashReport.createAndLogError(LOG, null, null, e);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, null, e);
+    }
+  }
+
+  /*
+   * Sends a build to the given build server.
+   *
+   * @param lane  the build server lane of the build, or null for a normal app build
+   * @throws BuildServerUnavailableException if the build server can't be reached, is busy or
+   *     is shutting down, so that the build should go to another build server
+   */
+  private RpcResult sendBuild(BuildServerPool pool, String host, String userEmail,
+      String userId, long projectId, String projectName, String outputFileDir, String lane)
+      throws BuildServerUnavailableException {
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipOutputStream = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
-          user.getUserEmail(),
+          host,
+          userEmail,
           userId,
           projectId,
-          outputFileDir));
+          outputFileDir,
+          lane));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
+      // The length of the zip is not known until it has been written, so send it in chunks.
+      // Otherwise the connection buffers the whole request to find out its length.
+      connection.setChunkedStreamingMode(BUILD_REQUEST_CHUNK_SIZE);
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+      // The zip is written to the connection while the project files are read, so it is never
+      // held in memory as a whole.
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
+      ProjectSourceExport zipFile = fileExporter.openProjectSourceZip(userId, projectId, false,
           /* includeAndroidKeystore */ true,
           projectName + ".aia", true);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      try {
+        connection.connect();
+      } catch (IOException e) {
+        pool.reportFailed(host);
+        throw new BuildServerUnavailableException(e.getMessage());
+      }
+      zipOutputStream = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
+      zipFile.writeTo(zipOutputStream);
+      zipOutputStream.flush();
+      zipOutputStream.close();
 
       int responseCode = 0;
       try {
@@ -600,10 +769,21 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         } catch (IOException e) {
           // No error content. That's ok.
         }
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+          // The build server is at capacity and says when it expects to have room
+          pool.reportBusy(host, getRetryAfterMillis(connection));
+          throw new BuildServerUnavailableException(error);
+        }
+        if (responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
+          // The build server is shutting down, or doesn't accept builds from this host
+          pool.reportFailed(host);
+          throw new BuildServerUnavailableException(error);
+        }
         if (responseCode == HttpURLConnection.HTTP_CONFLICT) {
           // The build server is not compatible with this App Inventor instance. Log this as severe
           // so the owner of the app engine instance will know about it.
           LOG.severe(error);
+          pool.reportFailed(host);
         }
 
         return new RpcResult(responseCode, "", StringUtils.escape(error));
@@ -628,8 +808,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutputStream != null) {
+        long zipFileLength = zipOutputStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
@@ -646,24 +826,48 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return new RpcResult(true, "Building " + projectName, "");
   }
 
+  /*
+   * Returns the delay in the Retry-After header of a response, or 0 if there is none.
+   */
+  private static long getRetryAfterMillis(HttpURLConnection connection) {
+    String retryAfter = connection.getHeaderField("Retry-After");
+    if (retryAfter != null) {
+      try {
+        return Long.parseLong(retryAfter.trim()) * 1000;
+      } catch (NumberFormatException e) {
+        // Not a number of seconds
+      }
+    }
+    return 0;
+  }
+
+  private static BuildServerPool getBuildServerPool() {
+    if (buildServerPool == null) {
+      synchronized (YoungAndroidProjectService.class) {
+        if (buildServerPool == null) {
+          buildServerPool = new BuildServerPool(buildServerHost.get());
+        }
+      }
+    }
+    return buildServerPool;
+  }
+
   private String buildErrorMsg(String exceptionName, URL buildURL, String userId, long projectId) {
     return "Request to build failed with " + exceptionName + ", user=" + userId
         + ", project=" + projectId + ", build URL is " + buildURL
         + " [" + buildURL.toString().length() + "]";
   }
 
-  // Note that this is a function rather than just a constant because we assume it will get
-  // a little more complicated when we want to get the URL from an App Engine config file or
-  // command line argument.
-  private String getBuildServerUrlStr(String userName, String userId,
-                                      long projectId, String fileName)
+  private String getBuildServerUrlStr(String host, String userName, String userId,
+                                      long projectId, String fileName, String lane)
       throws UnsupportedEncodingException, EncryptionException {
-    return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
+    return "http://" + host + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
                  + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
                : "")
+           + (lane != null ? "&lane=" + URLEncoder.encode(lane, "UTF-8") : "")
            + "&callback="
            + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
                                + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
@@ -755,8 +959,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       URL buildServerUrl = null;
       ProjectSourceZip zipFile = null;
 
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
+      // Ask the build server that took the build
+      String host = (String) MemcacheServiceFactory.getMemcacheService().get(
+          BUILD_SERVER_KEY_PREFIX + userId + "|" + projectId);
+      if (host == null) {
+        host = getBuildServerPool().getDefaultHost();
+      }
+      buildServerUrl = new URL(getBuildServerUrlStr(host, user.getUserEmail(),
+        userId, projectId, outputFileDir, null));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
@@ -794,4 +1004,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           mistake = "Could not fetch the Build Server URL";
       }
   }
+
+  /**
+   * Thrown when a build server can't take a build right now, so that another build server
+   * should be tried
+   */
+  static class BuildServerUnavailableException extends Exception {
+    BuildServerUnavailableException(String message) {
+      super(message);
+    }
+  }
 }
@@ -0,0 +1,196 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+/**
+ * Finds the extent of JSON values in a source string without building them,
+ * and builds single values on request. Used by the lazy JSON values.
+ *
+ */
+final class JsonScanner {
+
+  private final String source;
+
+  JsonScanner(String source) {
+    this.source = source;
+  }
+
+  String getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the position of the first non-whitespace character at or after
+   * pos.
+   */
+  int skipWhitespace(int pos) {
+    while (pos < source.length() && isWhitespace(source.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the character at pos, failing if the source ends before it.
+   */
+  char charAt(int pos) {
+    if (pos >= source.length()) {
+      throw error(pos, "Unexpected end of JSON");
+    }
+    return source.charAt(pos);
+  }
+
+  /**
+   * Returns the position after the value that starts at pos.
+   */
+  int skipValue(int pos) {
+    char c = charAt(pos);
+    if (c == '"') {
+      return skipString(pos);
+    }
+    if (c == '{' || c == '[') {
+      int depth = 0;
+      for (int i = pos; i < source.length(); i++) {
+        char ch = source.charAt(i);
+        if (ch == '"') {
+          i = skipString(i) - 1;
+        } else if (ch == '{' || ch == '[') {
+          depth++;
+        } else if (ch == '}' || ch == ']') {
+          if (--depth == 0) {
+            return i + 1;
+          }
+        }
+      }
+      throw error(pos, "Unterminated " + (c == '{' ? "object" : "array"));
+    }
+    int end = pos;
+    while (end < source.length() && ",:}] \t\r\n".indexOf(source.charAt(end)) == -1) {
+      end++;
+    }
+    if (end == pos) {
+      throw error(pos, "Expected a value");
+    }
+    return end;
+  }
+
+  /**
+   * Returns the position after the string that starts at pos.
+   */
+  int skipString(int pos) {
+    for (int i = pos + 1; i < source.length(); i++) {
+      char c = source.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '"') {
+        return i + 1;
+      }
+    }
+    throw error(pos, "Unterminated string");
+  }
+
+  /**
+   * Decodes the string in [start, end), including its quotes.
+   */
+  String readString(int start, int end) {
+    int i = start + 1;
+    while (i < end - 1 && source.charAt(i) != '\\') {
+      i++;
+    }
+    if (i == end - 1) {
+      return source.substring(start + 1, end - 1);
+    }
+    StringBuilder sb = new StringBuilder(end - start);
+    sb.append(source, start + 1, i);
+    for (; i < end - 1; i++) {
+      char c = source.charAt(i);
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      c = source.charAt(++i);
+      switch (c) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (i + 4 >= end) {
+            throw error(i, "Invalid unicode escape");
+          }
+          try {
+            sb.append((char) Integer.parseInt(source.substring(i + 1, i + 5), 16));
+          } catch (NumberFormatException e) {
+            throw error(i, "Invalid unicode escape");
+          }
+          i += 4;
+          break;
+        default:
+          // \" \\ \/ and anything else stand for themselves
+          sb.append(c);
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builds the value in [start, end). Objects and arrays are built lazily.
+   */
+  ServerJsonValue parseValue(int start, int end) {
+    char c = charAt(start);
+    switch (c) {
+      case '{':
+        return new LazyJsonObject(this, start, end);
+      case '[':
+        return new LazyJsonArray(this, start, end);
+      case '"':
+        return new ServerJsonString(readString(start, end));
+      default:
+        break;
+    }
+    String text = source.substring(start, end);
+    if (text.equals("true")) {
+      return new ServerJsonBoolean(Boolean.TRUE);
+    } else if (text.equals("false")) {
+      return new ServerJsonBoolean(Boolean.FALSE);
+    } else if (text.equals("null")) {
+      return null;
+    }
+    try {
+      // Numbers are boxed the way the json.org parser boxes them
+      if (text.indexOf('.') != -1 || text.indexOf('e') != -1 || text.indexOf('E') != -1) {
+        return new ServerJsonNumber(Double.valueOf(text));
+      }
+      long value = Long.parseLong(text);
+      if (value == (int) value) {
+        return new ServerJsonNumber(Integer.valueOf((int) value));
+      }
+      return new ServerJsonNumber(Long.valueOf(value));
+    } catch (NumberFormatException e) {
+      throw error(start, "Invalid value " + text);
+    }
+  }
+
+  IllegalArgumentException error(int pos, String message) {
+    return new IllegalArgumentException(message + " at character " + pos);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+}
@@ -0,0 +1,111 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+import com.google.appinventor.shared.properties.json.JSONArray;
+import com.google.appinventor.shared.properties.json.JSONValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of {@link JSONArray} that builds its elements only when
+ * they are accessed.
+ *
+ * <p>The elements are located in the source the first time the array is
+ * accessed. Each element is built the first time it is accessed; nested
+ * objects and arrays are again lazy.
+ *
+ */
+final class LazyJsonArray extends ServerJsonValue implements JSONArray {
+
+  private final JsonScanner scanner;
+  private final int start;
+  private final int end;
+
+  // The start and end of each element
+  private List<int[]> spans;
+  // The elements that have been built; built[i] tells whether elements[i] is
+  // built, since null is a valid element
+  private JSONValue[] elements;
+  private boolean[] built;
+  private List<JSONValue> elementList;
+
+  LazyJsonArray(JsonScanner scanner, int start, int end) {
+    this.scanner = scanner;
+    this.start = start;
+    this.end = end;
+  }
+
+  @Override
+  public synchronized List<JSONValue> getElements() {
+    locateElements();
+    if (elementList == null) {
+      for (int i = 0; i < elements.length; i++) {
+        getElement(i);
+      }
+      elementList = new ArrayList<JSONValue>(Arrays.asList(elements));
+    }
+    return elementList;
+  }
+
+  @Override
+  public synchronized int size() {
+    locateElements();
+    return elements.length;
+  }
+
+  @Override
+  public synchronized JSONValue get(int index) {
+    locateElements();
+    return getElement(index);
+  }
+
+  @Override
+  public String toJson() {
+    return scanner.getSource().substring(start, end);
+  }
+
+  private JSONValue getElement(int index) {
+    if (!built[index]) {
+      int[] span = spans.get(index);
+      elements[index] = scanner.parseValue(span[0], span[1]);
+      built[index] = true;
+    }
+    return elements[index];
+  }
+
+  private void locateElements() {
+    if (spans != null) {
+      return;
+    }
+    List<int[]> located = new ArrayList<int[]>();
+    int pos = scanner.skipWhitespace(start + 1);
+    if (scanner.charAt(pos) == ']') {
+      pos++;
+    } else {
+      while (true) {
+        int valueEnd = scanner.skipValue(pos);
+        located.add(new int[] { pos, valueEnd });
+        pos = scanner.skipWhitespace(valueEnd);
+        char c = scanner.charAt(pos++);
+        if (c == ']') {
+          break;
+        } else if (c != ',') {
+          throw scanner.error(pos - 1, "Expected ',' or ']'");
+        }
+        pos = scanner.skipWhitespace(pos);
+      }
+    }
+    if (pos != end) {
+      throw scanner.error(pos, "Unexpected end of array");
+    }
+    spans = located;
+    elements = new JSONValue[located.size()];
+    built = new boolean[located.size()];
+  }
+}
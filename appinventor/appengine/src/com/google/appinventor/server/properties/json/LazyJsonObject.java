@@ -0,0 +1,114 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+import com.google.appinventor.shared.properties.json.JSONObject;
+import com.google.appinventor.shared.properties.json.JSONValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Implementation of {@link JSONObject} that builds its values only when they
+ * are accessed.
+ *
+ * <p>The members of the object are located in the source the first time the
+ * object is accessed. Each value is built the first time it is accessed;
+ * nested objects and arrays are again lazy.
+ *
+ */
+final class LazyJsonObject extends ServerJsonValue implements JSONObject {
+
+  private final JsonScanner scanner;
+  private final int start;
+  private final int end;
+
+  // The start and end of the value of each member, in source order
+  private Map<String, int[]> members;
+  // The values that have been built
+  private Map<String, JSONValue> values;
+  private boolean allValuesBuilt;
+
+  LazyJsonObject(JsonScanner scanner, int start, int end) {
+    this.scanner = scanner;
+    this.start = start;
+    this.end = end;
+  }
+
+  @Override
+  public synchronized Map<String, JSONValue> getProperties() {
+    locateMembers();
+    if (!allValuesBuilt) {
+      Map<String, JSONValue> properties = new LinkedHashMap<String, JSONValue>();
+      for (Map.Entry<String, int[]> member : members.entrySet()) {
+        properties.put(member.getKey(), getValue(member.getKey(), member.getValue()));
+      }
+      values = properties;
+      allValuesBuilt = true;
+    }
+    return values;
+  }
+
+  @Override
+  public synchronized JSONValue get(String key) {
+    locateMembers();
+    int[] span = members.get(key);
+    return (span == null) ? null : getValue(key, span);
+  }
+
+  @Override
+  public String toJson() {
+    return scanner.getSource().substring(start, end);
+  }
+
+  private JSONValue getValue(String key, int[] span) {
+    if (values.containsKey(key)) {
+      return values.get(key);
+    }
+    JSONValue value = scanner.parseValue(span[0], span[1]);
+    values.put(key, value);
+    return value;
+  }
+
+  private void locateMembers() {
+    if (members != null) {
+      return;
+    }
+    Map<String, int[]> spans = new LinkedHashMap<String, int[]>();
+    int pos = scanner.skipWhitespace(start + 1);
+    if (scanner.charAt(pos) == '}') {
+      pos++;
+    } else {
+      while (true) {
+        if (scanner.charAt(pos) != '"') {
+          throw scanner.error(pos, "Expected a key");
+        }
+        int keyEnd = scanner.skipString(pos);
+        String key = scanner.readString(pos, keyEnd);
+        pos = scanner.skipWhitespace(keyEnd);
+        if (scanner.charAt(pos) != ':') {
+          throw scanner.error(pos, "Expected ':'");
+        }
+        int valueStart = scanner.skipWhitespace(pos + 1);
+        int valueEnd = scanner.skipValue(valueStart);
+        spans.put(key, new int[] { valueStart, valueEnd });
+        pos = scanner.skipWhitespace(valueEnd);
+        char c = scanner.charAt(pos++);
+        if (c == '}') {
+          break;
+        } else if (c != ',') {
+          throw scanner.error(pos - 1, "Expected ',' or '}'");
+        }
+        pos = scanner.skipWhitespace(pos);
+      }
+    }
+    if (pos != end) {
+      throw scanner.error(pos, "Unexpected end of object");
+    }
+    members = spans;
+    values = new LinkedHashMap<String, JSONValue>();
+  }
+}
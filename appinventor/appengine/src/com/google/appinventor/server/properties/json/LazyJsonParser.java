@@ -0,0 +1,45 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+import com.google.appinventor.shared.properties.json.JSONParser;
+import com.google.appinventor.shared.properties.json.JSONValue;
+
+/**
+ * JSON parser that builds values only when they are accessed.
+ *
+ * <p>Unlike {@link ServerJsonParser}, which builds the whole document with
+ * the json.org library and then converts it, this parser only finds the
+ * extent of the top level value. Objects and arrays locate their members in
+ * the source when they are first accessed, and build a member when it is
+ * first accessed, so code that reads a few properties of a large form file
+ * doesn't pay for the rest of it.
+ *
+ * <p>The values are read only. Syntax errors in parts of the document that
+ * are never accessed are not reported, and errors in the parts that are
+ * accessed are reported with an IllegalArgumentException when they are
+ * accessed.
+ *
+ */
+public class LazyJsonParser implements JSONParser {
+
+  @Override
+  public JSONValue parse(String source) {
+    if (source.isEmpty()) {
+      return null;
+    }
+    JsonScanner scanner = new JsonScanner(source);
+    char c = source.charAt(0);
+    if (c != '{' && c != '[') {
+      throw new IllegalArgumentException();
+    }
+    int end = scanner.skipValue(0);
+    if (scanner.skipWhitespace(end) != source.length()) {
+      throw scanner.error(end, "Unexpected text after JSON");
+    }
+    return scanner.parseValue(0, end);
+  }
+}
@@ -0,0 +1,27 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of the download and like counters of a gallery app. Each app
+ * has a few of these root entities, so that counting does not contend on the
+ * entity group of its GalleryAppData. The counts are changes that have not
+ * been rolled up into the GalleryAppData yet.
+ *
+ */
+@Unindexed
+public class GalleryAppCounterData {
+  // galleryId:shard
+  @Id String id;
+  int downloads;
+  int likes;
+  int unreadDownloads;
+  int unreadLikes;
+}
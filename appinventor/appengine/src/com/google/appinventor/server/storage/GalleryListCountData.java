@@ -0,0 +1,24 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * The number of entries in a gallery listing, such as the active apps or the
+ * unresolved reports, counted at dateCounted. Listings report this count
+ * as their total instead of counting all their entries on every page.
+ *
+ */
+@Unindexed
+public class GalleryListCountData {
+  // The name of the listing
+  @Id String id;
+  int count;
+  long dateCounted;
+}
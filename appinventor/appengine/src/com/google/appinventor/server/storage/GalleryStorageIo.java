@@ -8,6 +8,7 @@ package com.google.appinventor.server.storage;
 
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.appinventor.shared.rpc.project.Email;
 import com.google.appinventor.shared.rpc.project.GalleryApp;
@@ -37,6 +38,13 @@ public interface GalleryStorageIo {
    */
   GalleryApp getGalleryApp(long galleryId);
 
+  /**
+   * Returns gallery apps, reading them all at once
+   * @param galleryIds ids of gallery apps you want
+   * @return the {@link GalleryApp}s by id, without the ids that don't exist
+   */
+  Map<Long, GalleryApp> getGalleryApps(List<Long> galleryIds);
+
   /**
    * creates a new gallery app
    * @param title title of new app
@@ -65,30 +73,33 @@ public interface GalleryStorageIo {
 
   /**
    * Returns a wrapped class which contains list of most recently
-   * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * updated galleryApps and approximate total number of results in database
+   * @param pageToken the token of the page you want, as returned with the
+   *     previous page, or null for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp}, with the token of the next page
    */
-  GalleryAppListResult getRecentGalleryApps(int start, int count);
+  GalleryAppListResult getRecentGalleryApps(String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * gallery apps and approximate total number of results in database
+   * @param pageToken the token of the page you want, as returned with the
+   *     previous page, or null for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp}, with the token of the next page
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of most liked
-   * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * gallery apps and approximate total number of results in database
+   * @param pageToken the token of the page you want, as returned with the
+   *     previous page, or null for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp}, with the token of the next page
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String pageToken, int count);
 
   /**
    *Returns a wrapped class which contains a list of featured gallery app
@@ -114,13 +125,14 @@ public interface GalleryStorageIo {
 
   /**
    * Returns a wrapped class which contains a list of galleryApps
-   * by a particular developer and total number of results in database
+   * by a particular developer and approximate total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param pageToken the token of the page you want, as returned with the
+   *     previous page, or null for the first page
    * @param count number of apps you want
-   * @return list of {@link GalleryApp}
+   * @return list of {@link GalleryApp}, with the token of the next page
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String pageToken, int count);
 
   /**
    * records that an app has been downloaded
@@ -172,6 +184,13 @@ public interface GalleryStorageIo {
    */
   boolean isLikedByUser(long galleryId,String userId);
 
+  /**
+   * Moves the downloads and likes counted since the last roll up into the
+   * gallery app, where the listings read them
+   * @param galleryId id of gallery app
+   */
+  void rollUpGalleryAppCounters(long galleryId);
+
   /**
    * salvage the gallery app by given galleryId
    * @param galleryId id of gallery app
@@ -252,20 +271,22 @@ public interface GalleryStorageIo {
 
   /**
    * Returns a wrapped class which contains a list of reports (flags) for unresolved app
-   * and total number of results in database
-   * @param start start index
+   * and approximate total number of results in database
+   * @param pageToken the token of the page to return, as returned with the
+   *     previous page, or null for the first page
    * @param count number to return
-   * @return list of {@link GalleryAppReport}
+   * @return list of {@link GalleryAppReport}, with the token of the next page
    */
-  GalleryReportListResult getAppReports(int start, int count);
+  GalleryReportListResult getAppReports(String pageToken, int count);
   /**
   * Returns a wrapped class which contains a list of reports (flags) for resolved and unresolved app
-  * and total number of results in database
-  * @param start start index
+  * and approximate total number of results in database
+  * @param pageToken the token of the page to retrieve, as returned with the
+  *     previous page, or null for the first page
   * @param count number to retrieve
-  * @return the list of reports
+  * @return the list of reports, with the token of the next page
   */
-  GalleryReportListResult getAllAppReports(int start, int count);
+  GalleryReportListResult getAllAppReports(String pageToken, int count);
   /**
    * adds a report (flag) to a gallery app comment
    * @param commentId id of comment that was reported
@@ -0,0 +1,179 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small per-instance cache in front of memcache.
+ *
+ * <p>Entries can be stored with a version, which is a counter kept in
+ * memcache under a key derived from the cache key. Every write to the
+ * underlying data calls {@link #invalidate}, which removes the local entry and
+ * increments the version, so the entries that other instances hold for the
+ * key stop matching it. A versioned entry is used without looking at memcache
+ * for ttlMillis after it was stored or last checked. After that its version
+ * is compared with the one in memcache, which is a much smaller read than the
+ * value itself. Entries stored without a version simply expire after
+ * ttlMillis.
+ *
+ * <p>The cache holds at most maxEntries entries and evicts the least recently
+ * used one when it is full.
+ *
+ * @param <V> the type of the cached values; values must not be modified
+ *     after they are stored
+ */
+final class NearCache<V> {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(NearCache.class.getName());
+
+  private static final String VERSION_KEY_PREFIX = "nearcache-version|";
+
+  // The statistics are logged after this many lookups
+  private static final long LOG_INTERVAL = 1000;
+
+  private static class Entry<V> {
+    final V value;
+    final Long version;
+    long checkedTime;
+
+    Entry(V value, Long version, long checkedTime) {
+      this.value = value;
+      this.version = version;
+      this.checkedTime = checkedTime;
+    }
+  }
+
+  private final String name;
+  private final MemcacheService memcache;
+  private final long ttlMillis;
+
+  // Guarded by itself
+  private final LinkedHashMap<String, Entry<V>> entries;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong revalidatedHits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+
+  /**
+   * Creates a NearCache.
+   *
+   * @param name the name of the cache, used in log messages
+   * @param memcache the memcache that holds the versions
+   * @param maxEntries the maximum number of entries
+   * @param ttlMillis how long an entry is used before it is revalidated or,
+   *     if it has no version, expires
+   */
+  NearCache(String name, MemcacheService memcache, final int maxEntries, long ttlMillis) {
+    this.name = name;
+    this.memcache = memcache;
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached value for the key, or null if there is none or it is
+   * out of date.
+   */
+  V get(String key) {
+    Entry<V> entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    long now = System.currentTimeMillis();
+    if (entry != null && now - entry.checkedTime >= ttlMillis) {
+      Long version = (entry.version == null) ? null : currentVersion(key);
+      if (version != null && version.equals(entry.version)) {
+        entry.checkedTime = now;
+        revalidatedHits.incrementAndGet();
+      } else {
+        synchronized (entries) {
+          if (entries.get(key) == entry) {
+            entries.remove(key);
+          }
+        }
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    maybeLogStatistics();
+    return (entry == null) ? null : entry.value;
+  }
+
+  /**
+   * Returns the current version of the key. Callers read the version before
+   * they read the value from memcache or the datastore, and store the value
+   * with that version, so a write that happens in between makes the entry out
+   * of date instead of going unnoticed.
+   *
+   * @return the version, or null if memcache is not available
+   */
+  Long currentVersion(String key) {
+    // Versions that were evicted from memcache start over at the current
+    // time, so they don't repeat the values they had before.
+    return memcache.increment(VERSION_KEY_PREFIX + key, 0L, System.currentTimeMillis());
+  }
+
+  /**
+   * Stores a value with the given version. Values with a null version expire
+   * after ttlMillis.
+   */
+  void put(String key, V value, Long version) {
+    synchronized (entries) {
+      entries.put(key, new Entry<V>(value, version, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * Removes the entry for the key on this instance and makes the entries for
+   * it on other instances out of date.
+   */
+  void invalidate(String key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+    memcache.increment(VERSION_KEY_PREFIX + key, 1L, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the hit, revalidated hit and miss counts, and the number of
+   * entries.
+   */
+  Map<String, Long> getStatistics() {
+    Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+    statistics.put("hits", hits.get());
+    statistics.put("revalidated-hits", revalidatedHits.get());
+    statistics.put("misses", misses.get());
+    synchronized (entries) {
+      statistics.put("entries", (long) entries.size());
+    }
+    return statistics;
+  }
+
+  private void maybeLogStatistics() {
+    long hitCount = hits.get();
+    long lookups = hitCount + misses.get();
+    if (lookups % LOG_INTERVAL == 0) {
+      LOG.log(Level.INFO, "Near cache " + name + ": hit rate " + (hitCount * 100 / lookups) +
+          "% of " + lookups + " lookups, " + getStatistics());
+    }
+  }
+}
@@ -8,10 +8,21 @@ package com.google.appinventor.server.storage;
 
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -31,6 +42,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -52,6 +64,29 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // Downloads and likes are counted in this many GalleryAppCounterData shards
+  // per app, and rolled up into the GalleryAppData at most once per
+  // COUNTER_ROLLUP_SECONDS. The counts that come in between are rolled up by
+  // a task on COUNTER_ROLLUP_QUEUE.
+  private static final int COUNTER_SHARDS = 10;
+  private static final int COUNTER_ROLLUP_SECONDS = 60;
+  private static final String COUNTER_ROLLUP_QUEUE = "gallerycounters";
+
+  // The totals of the gallery listings are kept in GalleryListCountData
+  // entities, which are recounted when they are older than
+  // LIST_COUNT_REFRESH_MILLIS or the listing changed, and cached in memcache
+  // for LIST_COUNT_CACHE_SECONDS.
+  private static final long LIST_COUNT_REFRESH_MILLIS = 3600*1000; // 1 hour
+  private static final int LIST_COUNT_CACHE_SECONDS = 60;
+  private static final String LIST_COUNT_CACHE_PREFIX = "gallerylistcount|";
+  private static final String ACTIVE_APPS_LIST = "apps";
+  private static final String DEVELOPER_APPS_LIST_PREFIX = "developer|";
+  private static final String UNRESOLVED_REPORTS_LIST = "reports-unresolved";
+  private static final String ALL_REPORTS_LIST = "reports-all";
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Random random = new Random();
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -85,6 +120,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppAttributionData.class);
     ObjectifyService.register(GalleryAppReportData.class);
     ObjectifyService.register(GalleryModerationActionData.class);
+    ObjectifyService.register(GalleryAppCounterData.class);
+    ObjectifyService.register(GalleryListCountData.class);
   }
 
   // we'll need to talk to the StorageIo to get developer names, so...
@@ -143,6 +180,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           Key<GalleryAppData> galleryKey = galleryKey(appData.id);
         }
       });
+      invalidateListCounts(ACTIVE_APPS_LIST, DEVELOPER_APPS_LIST_PREFIX + userId);
 
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
@@ -171,20 +209,24 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
+  public GalleryAppListResult getRecentGalleryApps(String pageToken, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
+    List<GalleryAppData> page = new ArrayList<GalleryAppData>();
+    String nextPageToken = fetchPage(
+        datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true), pageToken, count, page);
+    for (GalleryAppData appData : page) {
       GalleryApp gApp = new GalleryApp();
       makeGalleryApp(appData, gApp);
       apps.add(gApp);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    int totalCount = getListCount(ACTIVE_APPS_LIST,
+        datastore.query(GalleryAppData.class).filter("active", true));
+    return makeAppListResult(apps, totalCount, nextPageToken);
   }
   /**
    * Returns a wrapped class which contains a list of most downloaded
@@ -194,20 +236,24 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
+  public GalleryAppListResult getMostDownloadedApps(String pageToken, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
+    List<GalleryAppData> page = new ArrayList<GalleryAppData>();
+    String nextPageToken = fetchPage(
+        datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true), pageToken, count, page);
+    for (GalleryAppData appData : page) {
       GalleryApp gApp = new GalleryApp();
       makeGalleryApp(appData, gApp);
       apps.add(gApp);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    int totalCount = getListCount(ACTIVE_APPS_LIST,
+        datastore.query(GalleryAppData.class).filter("active", true));
+    return makeAppListResult(apps, totalCount, nextPageToken);
   }
 
   /**
@@ -218,29 +264,29 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, final int count) {
+  public GalleryAppListResult getMostLikedApps(String pageToken, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
+    List<GalleryAppData> page = new ArrayList<GalleryAppData>();
+    String nextPageToken = fetchPage(datastore.query(GalleryAppData.class)
            .filter("active", true)
            .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
+           .order("-numDownloads"), pageToken, count, page);
+    for (GalleryAppData appData : page) {
       GalleryApp gApp = new GalleryApp();
       makeGalleryApp(appData, gApp);
       apps.add(gApp);
     }
 
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    // Counting all the apps is expensive, so the total comes from the cached
+    // count of the listing.
+    int totalCount = getListCount(ACTIVE_APPS_LIST,
+        datastore.query(GalleryAppData.class).filter("active", true));
+    return makeAppListResult(apps, totalCount, nextPageToken);
 
   }
 
@@ -314,20 +360,24 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
+  public GalleryAppListResult getDeveloperApps(String userId, String pageToken, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
+    List<GalleryAppData> page = new ArrayList<GalleryAppData>();
+    String nextPageToken = fetchPage(datastore.query(GalleryAppData.class)
+        .filter("userId",userId).filter("active", true), pageToken, count, page);
+    for (GalleryAppData appData : page) {
       GalleryApp gApp = new GalleryApp();
       makeGalleryApp(appData, gApp);
       apps.add(gApp);
     }
-    int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    int totalCount = getListCount(DEVELOPER_APPS_LIST_PREFIX + userId,
+        datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true));
+    return makeAppListResult(apps, totalCount, nextPageToken);
   }
 
  /**
@@ -338,17 +388,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public void incrementDownloads(final long galleryId) {
 
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
-        }
-      });
+      addToCounters(galleryId, 1, 0);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
@@ -413,6 +453,26 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return (gApp);
   }
 
+  /**
+   * Returns gallery apps, reading them all at once
+   * @param galleryIds ids of gallery apps you want
+   * @return the {@link GalleryApp}s by id, without the ids that don't exist
+   */
+  @Override
+  public Map<Long, GalleryApp> getGalleryApps(List<Long> galleryIds) {
+    List<Key<GalleryAppData>> keys = new ArrayList<Key<GalleryAppData>>();
+    for (long galleryId : galleryIds) {
+      keys.add(galleryKey(galleryId));
+    }
+    Map<Long, GalleryApp> apps = new HashMap<Long, GalleryApp>();
+    for (GalleryAppData appData : ObjectifyService.begin().get(keys).values()) {
+      GalleryApp gApp = new GalleryApp();
+      makeGalleryApp(appData, gApp);
+      apps.put(appData.id, gApp);
+    }
+    return apps;
+  }
+
   /**
    * deletes an app
    * @param galleryId the id of gallery app to be deleted
@@ -446,6 +506,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     }
     */
     //for now, we only set app to inactive status.
+    final Result<String> developerId = new Result<String>();
     try {
         runJobWithRetries(new JobRetryHelper() {
           @Override
@@ -455,9 +516,13 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             if(appData != null){
               appData.active = false;
               datastore.put(appData);
+              developerId.t = appData.userId;
             }
           }
         });
+        if (developerId.t != null) {
+          invalidateListCounts(ACTIVE_APPS_LIST, DEVELOPER_APPS_LIST_PREFIX + developerId.t);
+        }
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
@@ -538,34 +603,30 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          liked.t = (galleryAppData != null);
           if (galleryAppData != null) {
             // Forge the like data entry
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
             GalleryAppLikeData likeData = new GalleryAppLikeData();
             likeData.galleryKey = galleryKey(galleryId);
             likeData.userId = userId;
             datastore.put(likeData);
-
-            // Retrieve the current number of likes
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
           }
         }
       });
+      if (liked.t) {
+        // Increase app's like/unread like count
+        addToCounters(galleryId, 0, 1);
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
-    return numLikes.t;
+    return getNumLikes(galleryId);
   }
 
   /**
@@ -577,39 +638,32 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                datastore.delete(likeData);
-                break;
-              }
-            }
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
+          unliked.t = false;
+          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
+            if(likeData.userId.equals(userId)){
+              datastore.delete(likeData);
+              unliked.t = true;
+              break;
             }
           }
         }
       });
+      if (unliked.t) {
+        // Decrease app's like/unread like count. The roll up keeps them from
+        // going below zero.
+        addToCounters(galleryId, 0, -1);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
-    return numLikes.t;
+    return getNumLikes(galleryId);
   }
 
   /**
@@ -635,7 +689,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.getNumLike", e);
     }
-    return num.t;
+    // Add the likes that have not been rolled up yet
+    return Math.max(0, num.t + getPendingCounts(galleryId).likes);
   }
 
   /**
@@ -673,12 +728,27 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return bool.t;
   }
 
+  /**
+   * Moves the downloads and likes counted since the last roll up into the
+   * gallery app
+   */
+  @Override
+  public void rollUpGalleryAppCounters(long galleryId) {
+    try {
+      rollUpCounters(galleryId);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.rollUpGalleryAppCounters", e);
+    }
+  }
+
   /**
    * salvage the gallery app by given galleryId
    */
   @Override
   public void salvageGalleryApp(final long galleryId) {
     try {
+      rollUpCounters(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -703,6 +773,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public void salvageAllGalleryApps() {
     try {
+      for (Key<GalleryAppData> galleryKey :
+               ObjectifyService.begin().query(GalleryAppData.class).listKeys()) {
+        rollUpCounters(galleryKey.getId());
+      }
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -845,6 +919,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           datastore.put(reportData);
         }
       });
+      invalidateListCounts(UNRESOLVED_REPORTS_LIST, ALL_REPORTS_LIST);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.addAppReport", e);
     }
@@ -926,14 +1001,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return list of {@link GalleryAppReport}
    */
   @Override
-  public GalleryReportListResult getAppReports(final int start, final int count) {
+  public GalleryReportListResult getAppReports(final String pageToken, final int count) {
     final List<GalleryAppReport> reports = new ArrayList<GalleryAppReport>();
+    final Result<String> nextPageToken = new Result<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           datastore = ObjectifyService.begin();
-          for (GalleryAppReportData reportData : datastore.query(GalleryAppReportData.class).filter("resolved", false).order("-dateCreated").offset(start).limit(count)) {
+          List<GalleryAppReportData> page = new ArrayList<GalleryAppReportData>();
+          nextPageToken.t = fetchPage(datastore.query(GalleryAppReportData.class).filter("resolved", false).order("-dateCreated"),
+              pageToken, count, page);
+          for (GalleryAppReportData reportData : page) {
             User reporter = storageIo.getUser(reportData.reporterId);
             User offender = storageIo.getUser(reportData.offenderId);
             GalleryApp app = getGalleryApp(reportData.galleryKey.getId());
@@ -947,8 +1026,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
         throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.getAppReports (all)", e);
     }
     Objectify datastore = ObjectifyService.begin();
-    int totalCount = datastore.query(GalleryAppReportData.class).filter("resolved", false).count();
-    return new GalleryReportListResult(reports, totalCount);
+    int totalCount = getListCount(UNRESOLVED_REPORTS_LIST,
+        datastore.query(GalleryAppReportData.class).filter("resolved", false));
+    GalleryReportListResult result = new GalleryReportListResult(reports, totalCount);
+    result.setNextPageToken(nextPageToken.t);
+    return result;
   }
   /**
   * Returns a wrapped class which contains a list of reports (flags) for resolved and unresolved app
@@ -958,14 +1040,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   * @return the list of reports
   */
   @Override
-  public GalleryReportListResult getAllAppReports(final int start, final int count){
+  public GalleryReportListResult getAllAppReports(final String pageToken, final int count){
     final List<GalleryAppReport> reports = new ArrayList<GalleryAppReport>();
+    final Result<String> nextPageToken = new Result<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           datastore = ObjectifyService.begin();
-          for (GalleryAppReportData reportData : datastore.query(GalleryAppReportData.class).order("-dateCreated").offset(start).limit(count)) {
+          List<GalleryAppReportData> page = new ArrayList<GalleryAppReportData>();
+          nextPageToken.t = fetchPage(datastore.query(GalleryAppReportData.class).order("-dateCreated"),
+              pageToken, count, page);
+          for (GalleryAppReportData reportData : page) {
             User reporter = storageIo.getUser(reportData.reporterId);
             User offender = storageIo.getUser(reportData.offenderId);
             GalleryApp app = getGalleryApp(reportData.galleryKey.getId());
@@ -979,8 +1065,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.getExistingAppReports (all)", e);
     }
     Objectify datastore = ObjectifyService.begin();
-    int totalCount = datastore.query(GalleryAppReportData.class).count();
-    return new GalleryReportListResult(reports, totalCount);
+    int totalCount = getListCount(ALL_REPORTS_LIST,
+        datastore.query(GalleryAppReportData.class));
+    GalleryReportListResult result = new GalleryReportListResult(reports, totalCount);
+    result.setNextPageToken(nextPageToken.t);
+    return result;
   }
   /**
    * mark an report as resolved
@@ -1006,6 +1095,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           }
          }
       });
+      if (success.t) {
+        invalidateListCounts(UNRESOLVED_REPORTS_LIST);
+      }
      } catch (ObjectifyException e) {
          throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
      }
@@ -1018,6 +1110,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public boolean deactivateGalleryApp(final long galleryId) {
     final Result<Boolean> success = new Result<Boolean>();
+    final Result<String> developerId = new Result<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -1030,6 +1123,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
               appData.active = !appData.active;
               datastore.put(appData);
               success.t = true;
+              developerId.t = appData.userId;
               if(appData.active){
                 GalleryApp gApp = new GalleryApp();
                 makeGalleryApp(appData, gApp);
@@ -1040,6 +1134,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             }
          }
       });
+      if (success.t) {
+        invalidateListCounts(ACTIVE_APPS_LIST, DEVELOPER_APPS_LIST_PREFIX + developerId.t);
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
@@ -1242,13 +1339,254 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    // The likes that have not been rolled up yet are left out here, so that
+    // listing apps doesn't read their counter shards.
+    galleryApp.setLikes(appData.numLikes);
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
     return "galleryApp=" + galleryAppId;
   }
 
+  /*
+   * Reads one page of up to count entities of a query into page. The page
+   * starts where the page whose continuation token is pageToken ended, or at
+   * the beginning if pageToken is null. Returns the continuation token of the
+   * next page, which is the web-safe form of a datastore cursor, or null if
+   * there are no more entities.
+   */
+  private <T> String fetchPage(Query<T> query, String pageToken, int count, List<T> page) {
+    if (pageToken != null) {
+      try {
+        query.startCursor(Cursor.fromWebSafeString(pageToken));
+      } catch (IllegalArgumentException e) {
+        throw CrashReport.createAndLogError(LOG, null, "invalid gallery page token " + pageToken, e);
+      }
+    }
+    // Ask for one more entity than the page holds to find out if there is a
+    // next page.
+    QueryResultIterator<T> iterator = query.limit(count + 1).iterator();
+    while (page.size() < count && iterator.hasNext()) {
+      page.add(iterator.next());
+    }
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    return iterator.getCursor().toWebSafeString();
+  }
+
+  private GalleryAppListResult makeAppListResult(List<GalleryApp> apps, int totalCount,
+      String nextPageToken) {
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setNextPageToken(nextPageToken);
+    return result;
+  }
+
+  /*
+   * Returns the number of entities of a gallery listing, from memcache or the
+   * GalleryListCountData of the listing. The query is only counted if the
+   * count is missing or out of date.
+   */
+  private int getListCount(String listName, Query<?> query) {
+    String cacheKey = LIST_COUNT_CACHE_PREFIX + listName;
+    Integer cachedCount = (Integer) memcache.get(cacheKey);
+    if (cachedCount != null) {
+      return cachedCount;
+    }
+    Objectify datastore = ObjectifyService.begin();
+    GalleryListCountData countData = datastore.find(listCountKey(listName));
+    long now = System.currentTimeMillis();
+    if (countData == null || now - countData.dateCounted > LIST_COUNT_REFRESH_MILLIS) {
+      countData = new GalleryListCountData();
+      countData.id = listName;
+      countData.count = query.count();
+      countData.dateCounted = now;
+      datastore.put(countData);
+    }
+    memcache.put(cacheKey, countData.count, Expiration.byDeltaSeconds(LIST_COUNT_CACHE_SECONDS));
+    return countData.count;
+  }
+
+  /*
+   * Makes the given listings be counted again the next time their total is
+   * needed.
+   */
+  private void invalidateListCounts(String... listNames) {
+    List<String> cacheKeys = new ArrayList<String>();
+    List<Key<GalleryListCountData>> keys = new ArrayList<Key<GalleryListCountData>>();
+    for (String listName : listNames) {
+      cacheKeys.add(LIST_COUNT_CACHE_PREFIX + listName);
+      keys.add(listCountKey(listName));
+    }
+    ObjectifyService.begin().delete(keys);
+    memcache.deleteAll(cacheKeys);
+  }
+
+  private Key<GalleryListCountData> listCountKey(String listName) {
+    return new Key<GalleryListCountData>(GalleryListCountData.class, listName);
+  }
+
+  /*
+   * Adds downloads and likes, which also count as unread, to a random counter
+   * shard of an app, and rolls the shards up if that is due.
+   */
+  private void addToCounters(final long galleryId, final int downloads, final int likes)
+      throws ObjectifyException {
+    final Key<GalleryAppCounterData> key =
+        galleryCounterKey(galleryId, random.nextInt(COUNTER_SHARDS));
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        GalleryAppCounterData counterData = datastore.find(key);
+        if (counterData == null) {
+          counterData = new GalleryAppCounterData();
+          counterData.id = key.getName();
+        }
+        counterData.downloads += downloads;
+        counterData.unreadDownloads += downloads;
+        counterData.likes += likes;
+        counterData.unreadLikes += likes;
+        datastore.put(counterData);
+      }
+    });
+    // Only the first update after the interval has passed gets to add the key.
+    // It rolls up what has been counted so far, and schedules a roll up for
+    // when the key expires, so the listings, which only read the
+    // GalleryAppData, catch up even when no update comes after the interval.
+    if (memcache.put("gallerycounter-rollup|" + galleryId, Boolean.TRUE,
+            Expiration.byDeltaSeconds(COUNTER_ROLLUP_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      scheduleCounterRollUp(galleryId);
+      rollUpCounters(galleryId);
+    }
+  }
+
+  /*
+   * Adds a task that rolls up the counter shards of an app after the roll up
+   * interval.
+   */
+  private void scheduleCounterRollUp(long galleryId) {
+    try {
+      QueueFactory.getQueue(COUNTER_ROLLUP_QUEUE).add(
+          TaskOptions.Builder.withUrl("/gallerycounters")
+          .param("gallery", Long.toString(galleryId))
+          .countdownMillis(COUNTER_ROLLUP_SECONDS * 1000L));
+    } catch (RuntimeException e) {
+      // The counts are still rolled up by the next update after the interval.
+      LOG.log(Level.WARNING, "Unable to schedule a roll up of the counters of app "
+          + galleryId, e);
+    }
+  }
+
+  /*
+   * Returns the sum of the counts in the shards of an app, which have not
+   * been rolled up yet.
+   */
+  private GalleryAppCounterData getPendingCounts(long galleryId) {
+    Objectify datastore = ObjectifyService.begin();
+    GalleryAppCounterData sum = new GalleryAppCounterData();
+    for (GalleryAppCounterData counterData :
+             datastore.get(galleryCounterKeys(galleryId)).values()) {
+      sum.downloads += counterData.downloads;
+      sum.likes += counterData.likes;
+      sum.unreadDownloads += counterData.unreadDownloads;
+      sum.unreadLikes += counterData.unreadLikes;
+    }
+    return sum;
+  }
+
+  /*
+   * Moves the counts in the shards of an app into its GalleryAppData. The
+   * counts are taken out of each shard first and put back if the
+   * GalleryAppData cannot be updated, so they are never counted twice.
+   */
+  private void rollUpCounters(final long galleryId) throws ObjectifyException {
+    final GalleryAppCounterData sum = new GalleryAppCounterData();
+    for (GalleryAppCounterData pending :
+             ObjectifyService.begin().get(galleryCounterKeys(galleryId)).values()) {
+      if (pending.downloads == 0 && pending.likes == 0
+          && pending.unreadDownloads == 0 && pending.unreadLikes == 0) {
+        continue;
+      }
+      final Key<GalleryAppCounterData> key =
+          new Key<GalleryAppCounterData>(GalleryAppCounterData.class, pending.id);
+      final GalleryAppCounterData taken = new GalleryAppCounterData();
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppCounterData counterData = datastore.find(key);
+          taken.downloads = taken.likes = taken.unreadDownloads = taken.unreadLikes = 0;
+          if (counterData != null) {
+            taken.downloads = counterData.downloads;
+            taken.likes = counterData.likes;
+            taken.unreadDownloads = counterData.unreadDownloads;
+            taken.unreadLikes = counterData.unreadLikes;
+            counterData.downloads = 0;
+            counterData.likes = 0;
+            counterData.unreadDownloads = 0;
+            counterData.unreadLikes = 0;
+            datastore.put(counterData);
+          }
+        }
+      });
+      sum.downloads += taken.downloads;
+      sum.likes += taken.likes;
+      sum.unreadDownloads += taken.unreadDownloads;
+      sum.unreadLikes += taken.unreadLikes;
+    }
+    if (sum.downloads == 0 && sum.likes == 0
+        && sum.unreadDownloads == 0 && sum.unreadLikes == 0) {
+      return;
+    }
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          if (galleryAppData != null) {
+            galleryAppData.numDownloads += sum.downloads;
+            galleryAppData.numLikes = Math.max(0, galleryAppData.numLikes + sum.likes);
+            galleryAppData.unreadDownloads =
+                Math.max(0, galleryAppData.unreadDownloads + sum.unreadDownloads);
+            galleryAppData.unreadLikes = Math.max(0, galleryAppData.unreadLikes + sum.unreadLikes);
+            datastore.put(galleryAppData);
+          }
+        }
+      });
+    } catch (ObjectifyException e) {
+      // Put the counts back, so they are rolled up the next time
+      final Key<GalleryAppCounterData> key =
+          galleryCounterKey(galleryId, random.nextInt(COUNTER_SHARDS));
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppCounterData counterData = datastore.find(key);
+          if (counterData == null) {
+            counterData = new GalleryAppCounterData();
+            counterData.id = key.getName();
+          }
+          counterData.downloads += sum.downloads;
+          counterData.likes += sum.likes;
+          counterData.unreadDownloads += sum.unreadDownloads;
+          counterData.unreadLikes += sum.unreadLikes;
+          datastore.put(counterData);
+        }
+      });
+      throw e;
+    }
+  }
+
+  private Key<GalleryAppCounterData> galleryCounterKey(long galleryId, int shard) {
+    return new Key<GalleryAppCounterData>(GalleryAppCounterData.class, galleryId + ":" + shard);
+  }
+
+  private List<Key<GalleryAppCounterData>> galleryCounterKeys(long galleryId) {
+    List<Key<GalleryAppCounterData>> keys = new ArrayList<Key<GalleryAppCounterData>>();
+    for (int shard = 0; shard < COUNTER_SHARDS; shard++) {
+      keys.add(galleryCounterKey(galleryId, shard));
+    }
+    return keys;
+  }
+
   private Key<GalleryAppData> galleryKey(long galleryId) {
     return new Key<GalleryAppData>(GalleryAppData.class, galleryId);
   }
@@ -1397,6 +1735,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     final long currentTime = System.currentTimeMillis();
     try {
       final User user = storageIo.getUser(userId);
+      // This is checked after every download and like, so it only reads until
+      // an email is due. Rolling up is left to addToCounters until then.
+      GalleryAppData appData = ObjectifyService.begin().find(galleryKey(galleryId));
+      GalleryAppCounterData pending = getPendingCounts(galleryId);
+      if (appData == null
+          || currentTime - appData.lastEmailNotificationTimeStamp <= TWENTYFOURHOURS
+          || appData.unreadDownloads + appData.unreadLikes
+              + pending.unreadDownloads + pending.unreadLikes < user.getUserEmailFrequency()) {
+        return false;
+      }
+      // The email reports, and then clears, the rolled up counts
+      rollUpCounters(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -27,6 +27,9 @@ import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.StoredData.CorruptionRecord;
 import com.google.appinventor.server.storage.StoredData.FeedbackData;
 import com.google.appinventor.server.storage.StoredData.FileData;
+import com.google.appinventor.server.storage.StoredData.FileDeltaLogData;
+import com.google.appinventor.server.storage.StoredData.GcsContentData;
+import com.google.appinventor.server.storage.StoredData.GcsContentRefData;
 import com.google.appinventor.server.storage.StoredData.MotdData;
 import com.google.appinventor.server.storage.StoredData.NonceData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
@@ -39,6 +42,8 @@ import com.google.appinventor.server.storage.StoredData.WhiteListData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
@@ -49,8 +54,10 @@ import com.google.appinventor.shared.rpc.user.SplashConfig;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
@@ -59,7 +66,10 @@ import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Query;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 
 // GCS imports
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
@@ -78,9 +88,15 @@ import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -111,12 +127,51 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
+  // Per-instance caches in front of memcache, see NearCache. Users are
+  // revalidated every few seconds. Files are revalidated on every read, which
+  // still saves fetching the FileData from memcache. Whitelist entries are
+  // never written by App Inventor, so they just expire.
+  private final NearCache<User> userNearCache =
+      new NearCache<User>("users", memcache, 10000, 5000);
+  private final NearCache<FileData> fileNearCache =
+      new NearCache<FileData>("files", memcache, 2000, 0);
+  private final NearCache<Boolean> whiteListNearCache =
+      new NearCache<Boolean>("whitelist", memcache, 10000, 60000);
+  // The project list of each user. Its version serves as an ETag: it changes
+  // whenever a project summary of the user changes, and a cached list is
+  // only returned while it still matches.
+  private final NearCache<List<UserProject>> projectListNearCache =
+      new NearCache<List<UserProject>>("project lists", memcache, 1000, 0);
+
+  // Only FileData objects with at most this much content are kept in the
+  // near cache.
+  private static final int NEAR_CACHE_MAX_FILE_BYTES = 32 * 1024;
+
   private final GcsService gcsService;
 
   private static final String GCS_BUCKET_NAME;
 
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // The number of GCS files whose contents are prefetched while a project is
+  // exported, and the size of the read buffer used for each of them.
+  private static final int EXPORT_PREFETCH_FILES = 4;
+  private static final int EXPORT_BUFFER_SIZE = 256 * 1024;
+
+  // A delta log is folded into its FileData once it holds this many changes,
+  // or this many bytes of changes, see uploadFileDelta.
+  @VisibleForTesting
+  static final int DELTA_LOG_MAX_CHANGES = 20;
+  private static final int DELTA_LOG_MAX_BYTES = 64 * 1024;
+
+  // Prefix of the names of GCS objects that are named after the hash of
+  // their content, see storeContentInGCS.
+  private static final String CONTENT_GCS_PREFIX = "content/";
+
+  // Streamed uploads that are larger than this are written directly to GCS
+  // instead of being read into memory first.
+  private static final int STREAM_INLINE_LIMIT = 512 * 1024;
+
   private final boolean useGcs = Flag.createFlag("use.gcs", true).get();
 
   private final boolean conversionEnabled = false; // We are converting GCS <=> Blobstore
@@ -165,6 +220,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(ProjectData.class);
     ObjectifyService.register(UserProjectData.class);
     ObjectifyService.register(FileData.class);
+    ObjectifyService.register(FileDeltaLogData.class);
     ObjectifyService.register(UserFileData.class);
     ObjectifyService.register(MotdData.class);
     ObjectifyService.register(RendezvousData.class);
@@ -173,6 +229,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(NonceData.class);
     ObjectifyService.register(CorruptionRecord.class);
     ObjectifyService.register(SplashData.class);
+    ObjectifyService.register(GcsContentData.class);
+    ObjectifyService.register(GcsContentRefData.class);
 
     // Learn GCS Bucket from App Configuration or App Engine Default
     String gcsBucket = Flag.createFlag("gcs.bucket", "").get();
@@ -224,11 +282,22 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public User getUser(final String userId, final String email) {
     String cachekey = User.usercachekey + "|" + userId;
-    User tuser = (User) memcache.get(cachekey);
+    // The cached User objects are copied, because callers modify the ones they get.
+    User tuser = userNearCache.get(cachekey);
+    final Long nearCacheVersion;
+    if (tuser != null) {
+      tuser = tuser.copy();
+      nearCacheVersion = null;
+    } else {
+      nearCacheVersion = userNearCache.currentVersion(cachekey);
+      tuser = (User) memcache.get(cachekey);
+    }
     if (tuser != null && tuser.getUserTosAccepted() && ((email == null) || (tuser.getUserEmail().equals(email)))) {
       if (tuser.getUserName()==null) {
         setUserName(userId,tuser.getDefaultName());
         tuser.setUserName(tuser.getDefaultName());
+      } else if (nearCacheVersion != null) {
+        userNearCache.put(cachekey, tuser.copy(), nearCacheVersion);
       }
       return tuser;
     } else {                    // If not in memcache, or tos
@@ -267,6 +336,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
     memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+    if (nearCacheVersion != null) {
+      userNearCache.put(cachekey, user.copy(), nearCacheVersion);
+    }
     // The choice of one minute here is arbitrary. getUser() is called on every authenticated
     // RPC call to the system (out of OdeAuthFilter), so using memcache will save a significant
     // number of calls to the datastore. If someone is idle for more then a minute, it isn't
@@ -306,6 +378,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    userNearCache.invalidate(User.usercachekey + "|" + userId);
   }
 
   @Override
@@ -324,6 +397,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    userNearCache.invalidate(User.usercachekey + "|" + userId);
   }
 
   @Override
@@ -342,6 +416,7 @@ public class ObjectifyStorageIo implements  StorageIo {
               false, userData.type, userData.sessionid);
           String cachekey = User.usercachekey + "|" + userId;
           memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+          userNearCache.invalidate(cachekey);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -366,6 +441,7 @@ public class ObjectifyStorageIo implements  StorageIo {
               false, userData.type, userData.sessionid);
           String cachekey = User.usercachekey + "|" + userId;
           memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+          userNearCache.invalidate(cachekey);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -389,6 +465,7 @@ public class ObjectifyStorageIo implements  StorageIo {
               false, userData.type, userData.sessionid);
           String cachekey = User.usercachekey + "|" + userId;
           memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+          userNearCache.invalidate(cachekey);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -414,6 +491,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
     memcache.delete(cachekey);  // Flush cached copy because it changed
+    userNearCache.invalidate(cachekey);
   }
 
   @Override
@@ -522,16 +600,49 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public long createProject(final String userId, final Project project,
       final String projectSettings) {
+    validateGCS();
     final Result<Long> projectId = new Result<Long>();
+    final Result<Long> dateCreated = new Result<Long>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
+    final Map<String, byte[]> sourceFiles = new LinkedHashMap<String, byte[]>();
+    // GCS names of the files that are stored in GCS, and the ids of their
+    // references, by file name
+    final Map<String, String> gcsNames = new HashMap<String, String>();
+    final Map<String, String> gcsRefs = new HashMap<String, String>();
+    boolean committed = false;
 
     try {
+      // The GCS files are uploaded before the transaction, so that they are
+      // not uploaded again when the transaction is retried.
+      String fileName = null;
+      try {
+        for (TextFile file : project.getSourceFiles()) {
+          fileName = file.getFileName();
+          sourceFiles.put(fileName, file.getContent().getBytes(DEFAULT_ENCODING));
+        }
+        for (RawFile file : project.getRawSourceFiles()) {
+          sourceFiles.put(file.getFileName(), file.getContent());
+        }
+        for (Map.Entry<String, byte[]> file : sourceFiles.entrySet()) {
+          fileName = file.getKey();
+          if (useGCSforFile(fileName, file.getValue().length)) {
+            String gcsRef = UUID.randomUUID().toString();
+            gcsNames.put(fileName, storeContentInGCS(file.getValue(), gcsRef));
+            gcsRefs.put(fileName, gcsRef);
+          }
+        }
+      } catch (IOException e) { // GCS throws this
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserErrorInfo(userId) + ", fileName=" + fileName, e);
+      }
+
       // first job is on the project entity, creating the ProjectData object
       // and the associated files.
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
           long date = System.currentTimeMillis();
+          dateCreated.t = date;
           ProjectData pd = new ProjectData();
           pd.id = null;  // let Objectify auto-generate the project id
           pd.dateCreated = date;
@@ -553,23 +664,10 @@ public class ObjectifyStorageIo implements  StorageIo {
           // written in this job, reading the assigned id from pd should work.
 
           Key<ProjectData> projectKey = projectKey(projectId.t);
-          for (TextFile file : project.getSourceFiles()) {
-            try {
-              addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE,
-                  file.getFileName(), file.getContent().getBytes(DEFAULT_ENCODING)));
-            } catch (IOException e) { // GCS throws this
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
-            }
-          }
-          for (RawFile file : project.getRawSourceFiles()) {
-            try {
-              addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE, file.getFileName(),
-                  file.getContent()));
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
-            }
+          addedFiles.clear();
+          for (Map.Entry<String, byte[]> file : sourceFiles.entrySet()) {
+            addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE, file.getKey(),
+                file.getValue(), gcsNames.get(file.getKey()), gcsRefs.get(file.getKey())));
           }
           datastore.put(addedFiles);  // batch put
         }
@@ -579,6 +677,8 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
 
       }, true);
+      // From here on the files hold the GCS references
+      committed = true;
 
       // second job is on the user entity
       runJobWithRetries(new JobRetryHelper() {
@@ -589,25 +689,25 @@ public class ObjectifyStorageIo implements  StorageIo {
           upd.settings = projectSettings;
           upd.state = UserProjectData.StateEnum.OPEN;
           upd.userKey = userKey(userId);
+          upd.hasSummary = true;
+          upd.name = project.getProjectName();
+          upd.type = project.getProjectType();
+          upd.dateCreated = dateCreated.t;
+          upd.dateModified = dateCreated.t;
+          upd.galleryId = UserProject.NOTPUBLISHED;
+          upd.attributionId = UserProject.FROMSCRATCH;
           datastore.put(upd);
         }
       }, true);
+      projectListNearCache.invalidate(projectListCacheKey(userId));
     } catch (ObjectifyException e) {
-      for (FileData addedFile : addedFiles) {
-        if (addedFile.isGCS) {  // Do something
-          if (addedFile.gcsName != null) {
-            try {
-              gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, addedFile.gcsName));
-            } catch (IOException ee) {
-              LOG.log(Level.WARNING, "Unable to delete " + addedFile.gcsName +
-                " from GCS while aborting project creation.", ee);
-          }
-        }
-      }
-      // clear addedFiles in case we end up here more than once
-      addedFiles.clear();
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId.t), e);
+    } finally {
+      if (!committed) {
+        for (Map.Entry<String, String> gcsName : gcsNames.entrySet()) {
+          releaseGCSfile(gcsName.getValue(), gcsRefs.get(gcsName.getKey()));
+        }
       }
     }
     return projectId.t;
@@ -616,22 +716,20 @@ public class ObjectifyStorageIo implements  StorageIo {
   /*
    *  Creates and returns a new FileData object with the specified fields.
    *  Does not check for the existence of the object and does not update
-   *  the database.
+   *  the database. If gcsName is not null, the content has already been
+   *  stored in GCS under that name, and gcsRef is the reference to it that
+   *  the file takes over.
    */
   private FileData createRawFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
-    String fileName, byte[] content) throws ObjectifyException, IOException {
-    validateGCS();
+    String fileName, byte[] content, @Nullable String gcsName, @Nullable String gcsRef) {
     FileData file = new FileData();
     file.fileName = fileName;
     file.projectKey = projectKey;
     file.role = role;
-    if (useGCSforFile(fileName, content.length)) {
+    if (gcsName != null) {
       file.isGCS = true;
-      file.gcsName = makeGCSfileName(fileName, projectKey.getId());
-      GcsOutputChannel outputChannel =
-        gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, file.gcsName), GcsFileOptions.getDefaultInstance());
-      outputChannel.write(ByteBuffer.wrap(content));
-      outputChannel.close();
+      file.gcsName = gcsName;
+      file.gcsRef = gcsRef;
     } else {
       file.content = content;
     }
@@ -643,7 +741,10 @@ public class ObjectifyStorageIo implements  StorageIo {
     validateGCS();
     // blobs associated with the project
     final List<String> blobKeys = new ArrayList<String>();
-    final List<String> gcsPaths = new ArrayList<String>();
+    // files whose GCS content is released
+    final List<FileData> gcsFiles = new ArrayList<FileData>();
+    // cache keys of the deleted files
+    final List<String> cacheKeys = new ArrayList<String>();
     try {
       // first job deletes the UserProjectData in the user's entity group
       runJobWithRetries(new JobRetryHelper() {
@@ -655,36 +756,45 @@ public class ObjectifyStorageIo implements  StorageIo {
           // delete any FileData objects associated with this project
         }
       }, true);
+      projectListNearCache.invalidate(projectListCacheKey(userId));
       // second job deletes the project files and ProjectData in the project's
       // entity group
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          blobKeys.clear();
+          gcsFiles.clear();
+          cacheKeys.clear();
           Key<ProjectData> projectKey = projectKey(projectId);
           Query<FileData> fdq = datastore.query(FileData.class).ancestor(projectKey);
+          List<Key<FileDeltaLogData>> deltaLogKeys = new ArrayList<Key<FileDeltaLogData>>();
           for (FileData fd: fdq) {
+            cacheKeys.add(projectFileKey(projectKey, fd.fileName).getString());
+            if (fd.hasDeltaLog) {
+              deltaLogKeys.add(deltaLogKey(projectKey, fd.fileName));
+            }
             if (fd.isGCS) {
-              gcsPaths.add(fd.gcsName);
+              gcsFiles.add(fd);
             } else if (fd.isBlob) {
               blobKeys.add(fd.blobKey);
             }
           }
           datastore.delete(fdq);
+          datastore.delete(deltaLogKeys);
           // finally, delete the ProjectData object
           datastore.delete(projectKey);
         }
       }, true);
+      for (String cacheKey : cacheKeys) {
+        fileNearCache.invalidate(cacheKey);
+      }
       // have to delete the blobs outside of the user and project jobs
       for (String blobKeyString: blobKeys) {
         deleteBlobstoreFile(blobKeyString);
       }
-      // Now delete the gcs files
-      for (String gcsName: gcsPaths) {
-        try {
-          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
-        } catch (IOException e) {
-          LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS while deleting project", e);
-        }
+      // Now release the gcs files
+      for (FileData fd: gcsFiles) {
+        releaseGCSfile(fd.gcsName, fd.gcsRef);
       }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
@@ -706,6 +816,17 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       }, true);
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          UserProjectData upd = datastore.find(userProjectKey(userKey(userId), projectId));
+          if (upd != null && upd.hasSummary) {
+            upd.galleryId = galleryId;
+            datastore.put(upd);
+          }
+        }
+      }, true);
+      projectListNearCache.invalidate(projectListCacheKey(userId));
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
@@ -723,6 +844,17 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       }, true);
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          UserProjectData upd = datastore.find(userProjectKey(userKey(userId), projectId));
+          if (upd != null && upd.hasSummary) {
+            upd.attributionId = attributionId;
+            datastore.put(upd);
+          }
+        }
+      }, true);
+      projectListNearCache.invalidate(projectListCacheKey(userId));
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null,"error in setProjectAttributionId",  e);
     }
@@ -847,6 +979,119 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public List<UserProject> getUserProjects(final String userId) {
+    String cacheKey = projectListCacheKey(userId);
+    List<UserProject> cached = projectListNearCache.get(cacheKey);
+    if (cached != null) {
+      return cached;
+    }
+    Long version = projectListNearCache.currentVersion(cacheKey);
+
+    final List<UserProjectData> userProjects = new ArrayList<UserProjectData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          userProjects.clear();
+          Key<UserData> userKey = userKey(userId);
+          for (UserProjectData upd : datastore.query(UserProjectData.class).ancestor(userKey)) {
+            userProjects.add(upd);
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+
+    // Fill in the summaries of projects created before summaries were kept,
+    // with one batch get.
+    final List<UserProjectData> backfilled = new ArrayList<UserProjectData>();
+    final List<Key<ProjectData>> missing = new ArrayList<Key<ProjectData>>();
+    for (UserProjectData upd : userProjects) {
+      if (!upd.hasSummary) {
+        missing.add(projectKey(upd.projectId));
+      }
+    }
+    if (!missing.isEmpty()) {
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            backfilled.clear();
+            Map<Key<ProjectData>, ProjectData> projects = datastore.get(missing);
+            for (UserProjectData upd : userProjects) {
+              ProjectData pd = projects.get(projectKey(upd.projectId));
+              if (!upd.hasSummary && pd != null) {
+                copySummary(pd, upd);
+                backfilled.add(upd);
+              }
+            }
+            datastore.put(backfilled);
+          }
+        }, false);
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+      }
+    }
+
+    List<UserProject> projectInfos = new ArrayList<UserProject>(userProjects.size());
+    for (UserProjectData upd : userProjects) {
+      if (upd.hasSummary) {
+        projectInfos.add(new UserProject(upd.projectId, upd.name, upd.type, upd.dateCreated,
+            upd.dateModified, upd.galleryId, upd.attributionId));
+      } else {
+        LOG.log(Level.WARNING, "ProjectId " + upd.projectId +
+            " is missing at the lower level.");
+      }
+    }
+    projectInfos = Collections.unmodifiableList(projectInfos);
+    if (version != null) {
+      projectListNearCache.put(cacheKey, projectInfos, version);
+    }
+    return projectInfos;
+  }
+
+  private static void copySummary(ProjectData pd, UserProjectData upd) {
+    upd.hasSummary = true;
+    upd.name = pd.name;
+    upd.type = pd.type;
+    upd.dateCreated = pd.dateCreated;
+    upd.dateModified = pd.dateModified;
+    upd.galleryId = pd.galleryId;
+    upd.attributionId = pd.attributionId;
+  }
+
+  private static String projectListCacheKey(String userId) {
+    return "projectlist|" + userId;
+  }
+
+  /*
+   * Copies a new modification date of a project into the user's project
+   * summary. The date only changes at most once a minute (see
+   * updateProjectModDate), and callers only call this when the date they got
+   * is not older than the start of their update, so this is rare.
+   */
+  private void updateSummaryModDate(final String userId, final long projectId,
+      final long modDate) {
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          UserProjectData upd = datastore.find(userProjectKey(userKey(userId), projectId));
+          if (upd != null && upd.hasSummary && upd.dateModified < modDate) {
+            upd.dateModified = modDate;
+            datastore.put(upd);
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    projectListNearCache.invalidate(projectListCacheKey(userId));
+  }
+
   @Override
   public String getProjectName(final String userId, final long projectId) {
     final Result<String> projectName = new Result<String>();
@@ -1170,17 +1415,23 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectUserProjectErrorInfo(userId, projectId),
           new UnauthorizedAccessException(userId, projectId, null));
     }
+    final Result<Long> modTime = new Result<Long>();
+    long startTime = System.currentTimeMillis();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+          modTime.t = addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE,
+              changeModDate, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    if (modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
+    }
   }
 
   @Override
@@ -1204,7 +1455,11 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
-  private void addFilesToProject(Objectify datastore, long projectId, FileData.RoleEnum role,
+  /*
+   * Returns the new modification date of the project, or 0 if changeModDate
+   * is false.
+   */
+  private long addFilesToProject(Objectify datastore, long projectId, FileData.RoleEnum role,
       boolean changeModDate, String... fileNames) {
     List<FileData> addedFiles = new ArrayList<FileData>();
     Key<ProjectData> projectKey = projectKey(projectId);
@@ -1216,8 +1471,9 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     datastore.put(addedFiles); // batch put
     if (changeModDate) {
-      updateProjectModDate(datastore, projectId, false);
+      return updateProjectModDate(datastore, projectId, false);
     }
+    return 0;
   }
 
   private FileData createProjectFile(Objectify datastore, Key<ProjectData> projectKey,
@@ -1240,46 +1496,70 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void removeSourceFilesFromProject(final String userId, final long projectId,
       final boolean changeModDate, final String... fileNames) {
+    final Result<Long> modTime = new Result<Long>();
+    long startTime = System.currentTimeMillis();
+    final List<FileData> removedFiles = new ArrayList<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+          removedFiles.clear();
+          modTime.t = removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE,
+              changeModDate, removedFiles, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    invalidateProjectFiles(projectId, fileNames);
+    releaseRemovedFiles(removedFiles);
+    if (modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
+    }
   }
 
   @Override
   public void removeOutputFilesFromProject(final String userId, final long projectId,
       final String... fileNames) {
+    final List<FileData> removedFiles = new ArrayList<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
+          removedFiles.clear();
+          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false,
+              removedFiles, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    invalidateProjectFiles(projectId, fileNames);
+    releaseRemovedFiles(removedFiles);
   }
 
-  private void removeFilesFromProject(Objectify datastore, long projectId,
-      FileData.RoleEnum role, boolean changeModDate, String... fileNames) {
+  /*
+   * Returns the new modification date of the project, or 0 if changeModDate
+   * is false. The removed files are added to removedFiles, so that their
+   * GCS content can be released once the job has committed.
+   */
+  private long removeFilesFromProject(Objectify datastore, long projectId,
+      FileData.RoleEnum role, boolean changeModDate, List<FileData> removedFiles,
+      String... fileNames) {
     Key<ProjectData> projectKey = projectKey(projectId);
-    List<Key<FileData>> filesToRemove = new ArrayList<Key<FileData>>();
+    List<Key<?>> filesToRemove = new ArrayList<Key<?>>();
     for (String fileName : fileNames) {
       Key<FileData> key = projectFileKey(projectKey, fileName);
-      memcache.delete(key.getString()); // Remove it from memcache (if it is there)
       FileData fd = datastore.find(key);
       if (fd != null) {
         if (fd.role.equals(role)) {
           filesToRemove.add(projectFileKey(projectKey, fileName));
+          if (fd.hasDeltaLog) {
+            filesToRemove.add(deltaLogKey(projectKey, fileName));
+          }
+          removedFiles.add(fd);
         } else {
           throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(null, projectId, fileName),
@@ -1289,7 +1569,34 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     datastore.delete(filesToRemove);  // batch delete
     if (changeModDate) {
-      updateProjectModDate(datastore, projectId, false);
+      return updateProjectModDate(datastore, projectId, false);
+    }
+    return 0;
+  }
+
+  /*
+   * Removes the files from memcache and the near cache, once the job that
+   * changed them has committed.
+   */
+  private void invalidateProjectFiles(long projectId, String... fileNames) {
+    List<String> cacheKeys = new ArrayList<String>();
+    for (String fileName : fileNames) {
+      cacheKeys.add(projectFileKey(projectKey(projectId), fileName).getString());
+    }
+    memcache.deleteAll(cacheKeys);
+    for (String cacheKey : cacheKeys) {
+      fileNearCache.invalidate(cacheKey);
+    }
+  }
+
+  /*
+   * Releases the GCS content of files removed by removeFilesFromProject.
+   */
+  private void releaseRemovedFiles(List<FileData> removedFiles) {
+    for (FileData fd : removedFiles) {
+      if (fd.isGCS) {
+        releaseGCSfile(fd.gcsName, fd.gcsRef);
+      }
     }
   }
 
@@ -1371,6 +1678,204 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  /*
+   * Changes are added to the delta log of the file, so that only the small
+   * FileDeltaLogData is written, and the FileData is left alone. Readers apply
+   * the log to the content, see applyDeltaLog. The log is folded into the
+   * FileData once it is long enough, see compactDeltaLog.
+   *
+   * The first delta of a file that has no log, a delta that inserts a lot of
+   * text, and any delta that leaves a blocks file so short that it may have
+   * been truncated, are applied to the current content and saved in full,
+   * which checks for truncation. Except for the last, they start a new log.
+   */
+  @Override
+  public long uploadFileDelta(final long projectId, final String fileName, final String userId,
+      final boolean force, final FileDelta delta, final String encoding)
+      throws BlocksTruncatedException, FileDeltaMismatchException {
+    // The length is in chars, which are never more than the bytes that
+    // uploadFileUpdate checks for truncation.
+    boolean mayBeTruncated = delta.getResultLength() < 125 && fileName.endsWith(".bky");
+    if (!mayBeTruncated && delta.getTextLength() * 2 < DELTA_LOG_MAX_BYTES) {
+      long modTime = appendToDeltaLog(projectId, fileName, userId, force, delta, encoding);
+      if (modTime != 0) {
+        return modTime;
+      }
+    }
+    try {
+      // The base is usually served by the near cache or memcache
+      String base = downloadFile(userId, projectId, fileName, encoding);
+      String content = delta.apply(base);
+      if (content == null) {
+        throw new FileDeltaMismatchException();
+      }
+      validateGCS();
+      FileUpdate update =
+          prepareFileUpdate(projectId, fileName, userId, content.getBytes(encoding));
+      if (!mayBeTruncated) {
+        update.deltaLog = newDeltaLog(projectId, fileName, encoding, content);
+      }
+      return uploadFileUpdate(projectId, userId, force, update, false);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+          + collectProjectErrorInfo(null, projectId, fileName), e);
+    }
+  }
+
+  /*
+   * Adds a change to the delta log of a file, and folds the log into the
+   * FileData if it is long enough. Returns the new modification date of the
+   * project, or 0 if the file has no delta log.
+   */
+  private long appendToDeltaLog(final long projectId, final String fileName, final String userId,
+      boolean force, final FileDelta delta, final String encoding)
+      throws BlocksTruncatedException, FileDeltaMismatchException {
+    final Result<Long> modTime = new Result<Long>();
+    final Result<Boolean> mismatch = new Result<Boolean>();
+    final Result<FileDeltaLogData> deltaLog = new Result<FileDeltaLogData>();
+    long startTime = System.currentTimeMillis();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          modTime.t = 0L;
+          mismatch.t = false;
+          deltaLog.t = null;
+          FileData fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
+          if (fd == null || !fd.hasDeltaLog) {
+            return;
+          }
+          FileDeltaLogData dl = datastore.find(deltaLogKey(projectKey(projectId), fileName));
+          if (dl == null || !dl.encoding.equals(encoding)) {
+            return;
+          }
+          if (delta.getBaseLength() != dl.length || delta.getBaseHash() != dl.hash) {
+            mismatch.t = true;
+            return;
+          }
+          addDeltaLogChange(dl, delta);
+          datastore.put(dl);
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+          deltaLog.t = dl;
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+    if (mismatch.t) {
+      throw new FileDeltaMismatchException();
+    }
+    if (deltaLog.t == null) {
+      return 0;
+    }
+    if (modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
+    }
+    if (deltaLog.t.changeCount >= DELTA_LOG_MAX_CHANGES
+        || deltaLog.t.changes.length >= DELTA_LOG_MAX_BYTES) {
+      compactDeltaLog(projectId, fileName, userId, force, deltaLog.t);
+    }
+    return modTime.t;
+  }
+
+  /*
+   * Folds the changes of a delta log into the FileData, which is saved like
+   * any other upload, and starts an empty log for the next changes. Nothing
+   * is saved if the log has changed since deltaLog was read; whoever changed
+   * it folds it later.
+   */
+  private void compactDeltaLog(long projectId, String fileName, String userId, boolean force,
+      FileDeltaLogData deltaLog) throws BlocksTruncatedException {
+    byte[] content = downloadRawFile(userId, projectId, fileName);
+    FileUpdate update = prepareFileUpdate(projectId, fileName, userId, content);
+    update.deltaLog = newDeltaLog(projectId, fileName, deltaLog.encoding, deltaLog.length,
+        deltaLog.hash);
+    update.foldedDeltaLog = deltaLog;
+    uploadFileUpdate(projectId, userId, force, update, false);
+  }
+
+  private FileDeltaLogData newDeltaLog(long projectId, String fileName, String encoding,
+      String content) {
+    return newDeltaLog(projectId, fileName, encoding, content.length(), content.hashCode());
+  }
+
+  private FileDeltaLogData newDeltaLog(long projectId, String fileName, String encoding,
+      int length, int hash) {
+    FileDeltaLogData deltaLog = new FileDeltaLogData();
+    deltaLog.fileName = fileName;
+    deltaLog.projectKey = projectKey(projectId);
+    deltaLog.logId = UUID.randomUUID().toString();
+    deltaLog.encoding = encoding;
+    deltaLog.length = length;
+    deltaLog.hash = hash;
+    deltaLog.changeCount = 0;
+    deltaLog.changes = new byte[0];
+    return deltaLog;
+  }
+
+  /*
+   * Adds a change to a delta log that was checked to have been computed from
+   * the content the log leads to.
+   */
+  private static void addDeltaLogChange(FileDeltaLogData deltaLog, FileDelta delta) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      if (deltaLog.changes != null) {
+        out.write(deltaLog.changes);
+      }
+      out.writeInt(delta.getStart());
+      out.writeInt(delta.getEnd());
+      out.writeInt(delta.getTextLength());
+      out.writeChars(delta.getText());
+      out.flush();
+    } catch (IOException e) {
+      // Can't happen when writing to memory
+      throw new IllegalStateException(e);
+    }
+    deltaLog.changes = bytes.toByteArray();
+    deltaLog.changeCount++;
+    deltaLog.length = delta.getResultLength();
+    deltaLog.hash = delta.getResultHash();
+  }
+
+  /*
+   * Returns the content of a file with the changes in its delta log applied,
+   * given the content stored for its FileData.
+   */
+  private byte[] applyDeltaLog(long projectId, FileData fd, byte[] content) {
+    if (!fd.hasDeltaLog) {
+      return content;
+    }
+    FileDeltaLogData deltaLog =
+        ObjectifyService.begin().find(deltaLogKey(projectKey(projectId), fd.fileName));
+    if (deltaLog == null || deltaLog.changeCount == 0) {
+      return content;
+    }
+    try {
+      StringBuilder result = new StringBuilder(new String(content, deltaLog.encoding));
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(deltaLog.changes));
+      for (int i = 0; i < deltaLog.changeCount; i++) {
+        int start = in.readInt();
+        int end = in.readInt();
+        char[] text = new char[in.readInt()];
+        for (int j = 0; j < text.length; j++) {
+          text[j] = in.readChar();
+        }
+        result.replace(start, end, new String(text));
+      }
+      if (result.length() != deltaLog.length || result.toString().hashCode() != deltaLog.hash) {
+        LOG.log(Level.WARNING, "Delta log doesn't lead to the expected content, "
+            + collectProjectErrorInfo(null, projectId, fd.fileName));
+      }
+      return result.toString().getBytes(deltaLog.encoding);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(null, projectId, fd.fileName), e);
+    }
+  }
+
   private long updateProjectModDate(Objectify datastore, long projectId, boolean doingConversion) {
     long modDate = System.currentTimeMillis();
     ProjectData pd = datastore.find(projectKey(projectId));
@@ -1410,16 +1915,63 @@ public class ObjectifyStorageIo implements  StorageIo {
     return uploadRawFile(projectId, fileName, userId, force, content, false);
   }
 
+  @Override
+  public long uploadRawFileForce(final long projectId, final String fileName, final String userId,
+      InputStream content) throws IOException {
+    byte[] head = ByteStreams.toByteArray(ByteStreams.limit(content, STREAM_INLINE_LIMIT + 1));
+    if (head.length <= STREAM_INLINE_LIMIT || !useGCSforFile(fileName, head.length)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      bytes.write(head);
+      ByteStreams.copy(content, bytes);
+      return uploadRawFileForce(projectId, fileName, userId, bytes.toByteArray());
+    }
+
+    // Too large to hold in memory. The content is written to its own GCS
+    // object while it is read, so it is not shared with identical content.
+    validateGCS();
+    String gcsName = makeGCSfileName(fileName, projectId) + "." + UUID.randomUUID();
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET_NAME, gcsName), GcsFileOptions.getDefaultInstance());
+    boolean written = false;
+    try {
+      OutputStream out = Channels.newOutputStream(outputChannel);
+      out.write(head);
+      ByteStreams.copy(content, out);
+      // Closing the channel finalizes the object, so it is only closed once
+      // all of the content has been written.
+      out.close();
+      written = true;
+    } finally {
+      if (!written) {
+        deleteGCSobject(gcsName);
+      }
+    }
+    try {
+      // If the datastore job fails, abortFileUpdate deletes the object. Once
+      // the job has committed the file refers to it, so it is kept even if a
+      // later step fails.
+      return uploadFileUpdate(projectId, userId, true, new FileUpdate(fileName, null, gcsName, null),
+          false);
+    } catch (BlocksTruncatedException e) {
+      // Won't get here, exception isn't thrown when force is true
+      return 0;
+    }
+  }
+
   private long uploadRawFile(final long projectId, final String fileName, final String userId,
       final boolean force, final byte[] content, final boolean doingConversion) throws BlocksTruncatedException {
     validateGCS();
+    return uploadFileUpdate(projectId, userId, force,
+        prepareFileUpdate(projectId, fileName, userId, content), doingConversion);
+  }
+
+  private long uploadFileUpdate(final long projectId, final String userId, final boolean force,
+      final FileUpdate update, final boolean doingConversion) throws BlocksTruncatedException {
+    final String fileName = update.fileName;
     final Result<Long> modTime = new Result<Long>();
-    final boolean useGCS = useGCSforFile(fileName, content.length);
+    long startTime = System.currentTimeMillis();
     final Result<String> oldBlobstoreKey = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
+    boolean committed = false;
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1427,13 +1979,9 @@ public class ObjectifyStorageIo implements  StorageIo {
 
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
-          Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
-          fd = (FileData) memcache.get(key.getString());
-          if (fd == null) {
-            fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
-          } else {
-            LOG.log(Level.INFO, "Fetched " + key.getString() + " from memcache.");
-          }
+          // The FileData is read in the transaction, not from memcache, so
+          // that the GCS content it lets go of is the content it really had.
+          fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
 
           // <Screen>.yail files are missing when user converts AI1 project to AI2
           // instead of blowing up, just create a <Screen>.yail file
@@ -1443,68 +1991,32 @@ public class ObjectifyStorageIo implements  StorageIo {
 
           Preconditions.checkState(fd != null);
 
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+          if (update.content != null && (update.content.length < 125)
+              && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
             if (!force) {            // force is true if we *really* want to save it!
               checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
             }
           }
 
+          update.superseded = false;
+          if (update.foldedDeltaLog != null) {
+            FileDeltaLogData current = fd.hasDeltaLog
+                ? datastore.find(deltaLogKey(projectKey(projectId), fileName)) : null;
+            if (current == null || !current.logId.equals(update.foldedDeltaLog.logId)
+                || current.changeCount != update.foldedDeltaLog.changeCount) {
+              // Changes were added to the log after its content was read
+              update.superseded = true;
+              modTime.t = 0L;
+              return;
+            }
+          }
+
           if (fd.isBlob) {
             // mark the old blobstore blob for deletion
            oldBlobstoreKey.t = fd.blobKey;
           }
-          if (useGCS) {
-            fd.isGCS = true;
-            fd.gcsName = makeGCSfileName(fileName, projectId);
-            try {
-              GcsOutputChannel outputChannel =
-                gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
-            fd.isBlob = false;  // in case we are converting from a blob
-            fd.blobstorePath = null;
-          } else {
-            if (fd.isGCS) {     // Was a GCS file, must have gotten smaller
-              try {             // and is now stored in the data store
-                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-              }
-              fd.isGCS = false;
-              fd.gcsName = null;
-            }
-            // Note, Don't have to do anything if the file was in the
-            // Blobstore and shrank because the code above (3 lines
-            // into the function) already handles removing the old
-            // contents from the Blobstore.
-            fd.isBlob = false;
-            fd.blobstorePath = null;
-            fd.content = content;
-          }
-          if (considerBackup && !doingConversion) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
+          applyFileUpdate(datastore, fd, update, doingConversion);
           datastore.put(fd);
-          memcache.put(key.getString(), fd); // Store the updated data in memcache
           modTime.t = updateProjectModDate(datastore, projectId, doingConversion);
         }
 
@@ -1514,8 +2026,15 @@ public class ObjectifyStorageIo implements  StorageIo {
             oldBlobstoreKey.t = fd.blobKey;
           }
         }
-      }, false);        // Use transaction for blobstore, otherwise we don't need one
-                               // and without one the caching code comes into play.
+      }, true);
+      if (update.superseded) {
+        return 0;
+      }
+      committed = true;
+      String cacheKey = projectFileKey(projectKey(projectId), fileName).getString();
+      memcache.delete(cacheKey); // Flush cached copy because it changed
+      fileNearCache.invalidate(cacheKey);
+      finishFileUpdate(update, projectId, userId);
 
       // It would have been convenient to delete the old blobstore file within the run() method
       // above but that caused an exception where the app engine datastore claimed to be doing
@@ -1530,38 +2049,472 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      if (!committed) {
+        abortFileUpdate(update);
+      }
+    }
+    if (modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
     }
     return modTime.t;
   }
 
-  protected void deleteBlobstoreFile(String blobKeyString) {
-    // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
-    // have to get the BlobKey and delete via the BlobstoreService.
-    BlobKey blobKey = null;
-    try {
-      blobKey = new BlobKey(blobKeyString);
-      BlobstoreServiceFactory.getBlobstoreService().delete(blobKey);
-    } catch (RuntimeException e) {
-      // Log blob delete errors but don't make them fatal
-      CrashReport.createAndLogError(LOG, null, "Error deleting blob with blobKey " +
-        blobKey, e);
+  @Override
+  public long uploadFilesForce(final long projectId, final String userId,
+      final Map<String, String> contents, final String encoding) {
+    validateGCS();
+    final Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, String> entry : contents.entrySet()) {
+      try {
+        rawContents.put(entry.getKey(), entry.getValue().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(null, projectId, entry.getKey()), e);
+      }
     }
-  }
-
-  @VisibleForTesting
-  boolean useGCSforFile(String fileName, int length) {
-    if (!useGcs)                // Using legacy blob store solution
-      return false;
-    boolean shouldUse =  fileName.contains("assets/")
-      || fileName.endsWith(".apk");
-    if (shouldUse)
-      return true;              // Use GCS for package output and assets
-    boolean mayUse = (fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-      || (fileName.contains("src/") && fileName.endsWith(".bky")); // Blockly files
-    if (mayUse && length > 50000) // Only use GCS for larger blocks files
-      return true;
-    return false;
-  }
+    final Result<Long> modTime = new Result<Long>();
+    long startTime = System.currentTimeMillis();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    final Map<String, FileUpdate> updates = new HashMap<String, FileUpdate>();
+    boolean committed = false;
+
+    try {
+      for (Map.Entry<String, byte[]> entry : rawContents.entrySet()) {
+        updates.put(entry.getKey(),
+            prepareFileUpdate(projectId, entry.getKey(), userId, entry.getValue()));
+      }
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobstoreKeys.clear();
+          // Read in the transaction, see uploadFileUpdate
+          List<Key<FileData>> keys = new ArrayList<Key<FileData>>();
+          for (String fileName : rawContents.keySet()) {
+            keys.add(projectFileKey(projectKey(projectId), fileName));
+          }
+          Map<Key<FileData>, FileData> files = datastore.get(keys);
+          List<FileData> updatedFiles = new ArrayList<FileData>();
+          for (Map.Entry<String, byte[]> entry : rawContents.entrySet()) {
+            String fileName = entry.getKey();
+            FileData fd = files.get(projectFileKey(projectKey(projectId), fileName));
+            // <Screen>.yail files are missing when user converts AI1 project to AI2
+            // instead of blowing up, just create a <Screen>.yail file
+            if (fd == null && fileName.endsWith(".yail")) {
+              fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE,
+                  fileName);
+            }
+            Preconditions.checkState(fd != null);
+            if (fd.isBlob) {
+              // mark the old blobstore blob for deletion
+              oldBlobstoreKeys.add(fd.blobKey);
+            }
+            applyFileUpdate(datastore, fd, updates.get(fileName), false);
+            updatedFiles.add(fd);
+          }
+          datastore.put(updatedFiles);
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, true);
+      committed = true;
+      List<String> cacheKeys = new ArrayList<String>();
+      for (String fileName : rawContents.keySet()) {
+        cacheKeys.add(projectFileKey(projectKey(projectId), fileName).getString());
+      }
+      memcache.deleteAll(cacheKeys); // Flush cached copies because they changed
+      for (String cacheKey : cacheKeys) {
+        fileNearCache.invalidate(cacheKey);
+      }
+      for (FileUpdate update : updates.values()) {
+        finishFileUpdate(update, projectId, userId);
+      }
+
+      // See uploadRawFile for why old blobs are deleted outside of the job.
+      for (String oldBlobstoreKey : oldBlobstoreKeys) {
+        deleteBlobstoreFile(oldBlobstoreKey);
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, rawContents.keySet().toString()), e);
+    } finally {
+      if (!committed) {
+        for (FileUpdate update : updates.values()) {
+          abortFileUpdate(update);
+        }
+      }
+    }
+    if (modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
+    }
+    return modTime.t;
+  }
+
+  /*
+   * Looks up the FileData of several files of a project, first in memcache
+   * and then in the datastore, with one batch call to each. Files that don't
+   * exist are missing from the returned map.
+   */
+  private Map<String, FileData> getFileData(Objectify datastore, long projectId,
+      Collection<String> fileNames) {
+    Map<String, String> fileNamesByCacheKey = new HashMap<String, String>();
+    for (String fileName : fileNames) {
+      fileNamesByCacheKey.put(projectFileKey(projectKey(projectId), fileName).getString(),
+          fileName);
+    }
+    Map<String, FileData> files = new HashMap<String, FileData>();
+    for (Map.Entry<String, Object> entry :
+             memcache.getAll(fileNamesByCacheKey.keySet()).entrySet()) {
+      files.put(fileNamesByCacheKey.get(entry.getKey()), (FileData) entry.getValue());
+    }
+    List<Key<FileData>> missingKeys = new ArrayList<Key<FileData>>();
+    for (String fileName : fileNames) {
+      if (!files.containsKey(fileName)) {
+        missingKeys.add(projectFileKey(projectKey(projectId), fileName));
+      }
+    }
+    if (!missingKeys.isEmpty()) {
+      for (FileData fd : datastore.get(missingKeys).values()) {
+        files.put(fd.fileName, fd);
+      }
+    }
+    return files;
+  }
+
+  /*
+   * Looks up a FileData for reading, in the near cache, memcache and then the
+   * datastore. The returned object must not be modified.
+   */
+  private FileData getFileDataForRead(Objectify datastore, Key<FileData> fileKey) {
+    String cacheKey = fileKey.getString();
+    FileData fd = fileNearCache.get(cacheKey);
+    if (fd == null) {
+      Long version = fileNearCache.currentVersion(cacheKey);
+      fd = (FileData) memcache.get(cacheKey);
+      if (fd == null) {
+        fd = datastore.find(fileKey);
+      }
+      nearCachePutFileData(cacheKey, fd, version);
+    }
+    return fd;
+  }
+
+  private void nearCachePutFileData(String cacheKey, FileData fd, Long version) {
+    // Blobstore files are upgraded to GCS when they are read, see downloadRawFile.
+    if (fd != null && version != null && !fd.isBlob
+        && (fd.content == null || fd.content.length <= NEAR_CACHE_MAX_FILE_BYTES)) {
+      fileNearCache.put(cacheKey, fd, version);
+    }
+  }
+
+  /*
+   * The GCS side of an update of a project file. New content that goes to GCS
+   * is uploaded before the datastore job, and the old content is released and
+   * the backup is written after the job has committed, so that a retried job
+   * doesn't upload anything again.
+   */
+  private static class FileUpdate {
+    final String fileName;
+    // The new content, or null if it was streamed to GCS without being held
+    // in memory
+    final byte[] content;
+    // The GCS name of the new content, or null if it is stored in the FileData
+    final String gcsName;
+    // The reference to the new content, if gcsName is named after it
+    final String gcsRef;
+    // Set by applyFileUpdate, from the FileData that is being updated. Each
+    // retry of the job sets them again, so once the job has committed they
+    // are what the committed update replaced.
+    String oldGcsName;
+    String oldGcsRef;
+    boolean backupDue;
+    // The delta log that the file keeps after the update, or null if the
+    // update ends the log the file has, see uploadFileDelta
+    FileDeltaLogData deltaLog;
+    // If not null, the content is the result of this delta log, and the
+    // update is dropped if the log changed since it was read
+    FileDeltaLogData foldedDeltaLog;
+    // Set by the job when the update was dropped
+    boolean superseded;
+
+    FileUpdate(String fileName, byte[] content, @Nullable String gcsName,
+        @Nullable String gcsRef) {
+      this.fileName = fileName;
+      this.content = content;
+      this.gcsName = gcsName;
+      this.gcsRef = gcsRef;
+    }
+  }
+
+  /*
+   * Stores the new content of a file in GCS if it belongs there. Must be
+   * called outside of the datastore job.
+   */
+  private FileUpdate prepareFileUpdate(long projectId, String fileName, String userId,
+      byte[] content) {
+    String gcsName = null;
+    String gcsRef = null;
+    if (useGCSforFile(fileName, content.length)) {
+      gcsRef = UUID.randomUUID().toString();
+      try {
+        gcsName = storeContentInGCS(content, gcsRef);
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    return new FileUpdate(fileName, content, gcsName, gcsRef);
+  }
+
+  /*
+   * Points a FileData at the new content, starts or ends its delta log, and
+   * decides whether a backup is due. Called inside the datastore job; the
+   * FileData still has to be put into the datastore.
+   */
+  private void applyFileUpdate(Objectify datastore, FileData fd, FileUpdate update,
+      boolean doingConversion) {
+    String fileName = update.fileName;
+    boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+    update.oldGcsName = fd.isGCS ? fd.gcsName : null;
+    update.oldGcsRef = fd.isGCS ? fd.gcsRef : null;
+    if (update.gcsName != null && update.gcsName.equals(update.oldGcsName)
+        && Objects.equal(update.gcsRef, update.oldGcsRef)) {
+      // A previous try of the job committed after all, nothing is replaced
+      update.oldGcsName = null;
+      update.oldGcsRef = null;
+    }
+    if (update.gcsName != null) {
+      fd.isGCS = true;
+      fd.gcsName = update.gcsName;
+      fd.gcsRef = update.gcsRef;
+      // If the content was previously stored in the datastore, clear it out.
+      fd.content = null;
+    } else {
+      // If the content was previously stored in GCS, the GCS file is released
+      // by finishFileUpdate.
+      fd.isGCS = false;
+      fd.gcsName = null;
+      fd.gcsRef = null;
+      fd.content = update.content;
+    }
+    // Note, Don't have to do anything if the file was in the
+    // Blobstore because the caller already handles
+    // removing the old contents from the Blobstore.
+    fd.isBlob = false;
+    fd.blobstorePath = null;
+    // A conversion stores the same content elsewhere, so the changes in the
+    // log still apply to it.
+    if (update.deltaLog != null) {
+      datastore.put(update.deltaLog);
+      fd.hasDeltaLog = true;
+    } else if (fd.hasDeltaLog && !doingConversion) {
+      datastore.delete(deltaLogKey(fd.projectKey, fd.fileName));
+      fd.hasDeltaLog = false;
+    }
+    update.backupDue = considerBackup && !doingConversion && update.content != null
+        && (fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis();
+    if (update.backupDue) {
+      fd.lastBackup = System.currentTimeMillis();
+    }
+  }
+
+  /*
+   * Releases the old GCS content of a file and writes its backup, once the
+   * datastore job has committed.
+   */
+  private void finishFileUpdate(FileUpdate update, long projectId, String userId) {
+    if (update.oldGcsName != null) {
+      releaseGCSfile(update.oldGcsName, update.oldGcsRef);
+    }
+    if (update.backupDue) {
+      try {
+        String gcsName = makeGCSfileName(update.fileName + "." + formattedTime() + ".backup", projectId);
+        GcsOutputChannel outputChannel =
+            gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+        outputChannel.write(ByteBuffer.wrap(update.content));
+        outputChannel.close();
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, update.fileName + "(backup)"), e);
+      }
+    }
+  }
+
+  /*
+   * Releases the new GCS content of a file when the datastore job failed.
+   */
+  private void abortFileUpdate(FileUpdate update) {
+    if (update.gcsName != null) {
+      releaseGCSfile(update.gcsName, update.gcsRef);
+    }
+  }
+
+  /*
+   * Stores content in a GCS object that is named after the SHA-256 hash of
+   * the content and returns the name. If an object with the same content
+   * already exists, it is shared and only a reference to it, with the id
+   * gcsRef, is added. Every name returned here must eventually be passed to
+   * releaseGCSfile with the same gcsRef.
+   */
+  private String storeContentInGCS(byte[] content, final String gcsRef) throws IOException {
+    final String hash = Hashing.sha256().hashBytes(content).toString();
+    final Result<Long> generation = new Result<Long>();
+    final Result<Boolean> uploaded = new Result<Boolean>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GcsContentData cd = datastore.find(GcsContentData.class, hash);
+          if (cd == null) {
+            cd = new GcsContentData();
+            cd.id = hash;
+          }
+          Key<GcsContentRefData> refKey = gcsContentRefKey(hash, gcsRef);
+          // Only missing if a previous try of this job committed after all
+          if (datastore.find(refKey) == null) {
+            if (cd.refCount == 0) {
+              // The object of the previous generation may still be being deleted
+              cd.generation++;
+              cd.uploaded = false;
+            }
+            cd.refCount++;
+            GcsContentRefData ref = new GcsContentRefData();
+            ref.id = gcsRef;
+            ref.contentKey = gcsContentKey(hash);
+            datastore.put(cd, ref);
+          }
+          generation.t = cd.generation;
+          uploaded.t = cd.uploaded;
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw new IOException("Unable to reference GCS content " + hash, e);
+    }
+    final String gcsName = CONTENT_GCS_PREFIX + hash + "/" + generation.t;
+    if (!uploaded.t) {
+      // Whoever references the content first uploads it, and so does anyone
+      // who references it before that upload has finished, so the object is
+      // always there once this returns. The uploads write identical content.
+      try {
+        GcsOutputChannel outputChannel =
+          gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, gcsName), GcsFileOptions.getDefaultInstance());
+        outputChannel.write(ByteBuffer.wrap(content));
+        outputChannel.close();
+      } catch (IOException e) {
+        releaseGCSfile(gcsName, gcsRef);
+        throw e;
+      }
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            GcsContentData cd = datastore.find(GcsContentData.class, hash);
+            if (cd != null && cd.generation == generation.t && !cd.uploaded) {
+              cd.uploaded = true;
+              datastore.put(cd);
+            }
+          }
+        }, true);
+      } catch (ObjectifyException e) {
+        // Only means that the next writer of this content uploads it again
+        LOG.log(Level.WARNING, "Unable to mark " + gcsName + " as uploaded", e);
+      }
+    }
+    return gcsName;
+  }
+
+  /*
+   * Releases the reference gcsRef to a GCS file of a FileData, and deletes
+   * the file when it is no longer referenced. Releasing a reference that was
+   * already released has no effect. Files that are not named after their
+   * content were written before content addressing and belong to a single
+   * FileData, so they are deleted right away.
+   */
+  private void releaseGCSfile(final String gcsName, @Nullable final String gcsRef) {
+    final Result<Boolean> unreferenced = new Result<Boolean>();
+    unreferenced.t = true;
+    if (gcsName.startsWith(CONTENT_GCS_PREFIX)) {
+      String[] parts = gcsName.substring(CONTENT_GCS_PREFIX.length()).split("/");
+      final String hash = parts[0];
+      final long generation = Long.parseLong(parts[1]);
+      if (gcsRef == null) {
+        // Every content name is handed out with a reference
+        LOG.log(Level.WARNING, "No reference to release for " + gcsName);
+        return;
+      }
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            GcsContentData cd = datastore.find(GcsContentData.class, hash);
+            Key<GcsContentRefData> refKey = gcsContentRefKey(hash, gcsRef);
+            if (cd == null || cd.generation != generation) {
+              unreferenced.t = false;
+            } else if (datastore.find(refKey) != null) {
+              datastore.delete(refKey);
+              cd.refCount--;
+              unreferenced.t = (cd.refCount == 0);
+              // The entity is kept, so that the next generation gets a new name
+              datastore.put(cd);
+            } else {
+              // Already released. The object is deleted again if this was
+              // the last reference, in case deleting it failed before.
+              unreferenced.t = (cd.refCount == 0);
+            }
+          }
+        }, true);
+      } catch (ObjectifyException e) {
+        // The object stays around, which is safe
+        LOG.log(Level.WARNING, "Unable to release " + gcsName, e);
+        return;
+      }
+    }
+    if (unreferenced.t) {
+      deleteGCSobject(gcsName);
+    }
+  }
+
+  /*
+   * Deletes a GCS object that nothing refers to. Failures are only logged.
+   */
+  private void deleteGCSobject(String gcsName) {
+    try {
+      gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS.", e);
+    }
+  }
+
+  protected void deleteBlobstoreFile(String blobKeyString) {
+    // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
+    // have to get the BlobKey and delete via the BlobstoreService.
+    BlobKey blobKey = null;
+    try {
+      blobKey = new BlobKey(blobKeyString);
+      BlobstoreServiceFactory.getBlobstoreService().delete(blobKey);
+    } catch (RuntimeException e) {
+      // Log blob delete errors but don't make them fatal
+      CrashReport.createAndLogError(LOG, null, "Error deleting blob with blobKey " +
+        blobKey, e);
+    }
+  }
+
+  @VisibleForTesting
+  boolean useGCSforFile(String fileName, int length) {
+    if (!useGcs)                // Using legacy blob store solution
+      return false;
+    boolean shouldUse =  fileName.contains("assets/")
+      || fileName.endsWith(".apk");
+    if (shouldUse)
+      return true;              // Use GCS for package output and assets
+    boolean mayUse = (fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+      || (fileName.contains("src/") && fileName.endsWith(".bky")); // Blockly files
+    if (mayUse && length > 50000) // Only use GCS for larger blocks files
+      return true;
+    return false;
+  }
 
   // Make a GCS file name
   String makeGCSfileName(String fileName, long projectId) {
@@ -1577,19 +2530,24 @@ public class ObjectifyStorageIo implements  StorageIo {
           new UnauthorizedAccessException(userId, projectId, null));
     }
     final Result<Long> modTime = new Result<Long>();
+    long startTime = System.currentTimeMillis();
     final Result<String> oldBlobKeyString = new Result<String>();
     final Result<String> oldgcsName = new Result<String>();
+    final Result<String> oldgcsRef = new Result<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
-          memcache.delete(fileKey.getString());
           FileData fileData = datastore.find(fileKey);
+          oldBlobKeyString.t = null;
+          oldgcsName.t = null;
+          oldgcsRef.t = null;
           if (fileData != null) {
             oldBlobKeyString.t = fileData.blobKey;
             if (fileData.isGCS) {
               oldgcsName.t = fileData.gcsName;
+              oldgcsRef.t = fileData.gcsRef;
             }
           }
           datastore.delete(fileKey);
@@ -1600,15 +2558,15 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
+    invalidateProjectFiles(projectId, fileName);
     if (oldBlobKeyString.t != null) {
       deleteBlobstoreFile(oldBlobKeyString.t);
     }
     if (oldgcsName.t != null) {
-      try {
-        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldgcsName.t));
-      } catch (IOException e) {
-        LOG.log(Level.WARNING, "Unable to delete " + oldgcsName + " from GCS.", e);
-      }
+      releaseGCSfile(oldgcsName.t, oldgcsRef.t);
+    }
+    if (modTime.t != null && modTime.t >= startTime) {
+      updateSummaryModDate(userId, projectId, modTime.t);
     }
     return (modTime.t == null) ? 0 : modTime.t;
   }
@@ -1627,6 +2585,124 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public List<String> downloadFiles(final String userId, final long projectId,
+      final List<String> fileIds, final String encoding) {
+    validateGCS();
+    if (!getProjects(userId).contains(projectId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    final Result<Map<String, FileData>> files = new Result<Map<String, FileData>>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          // The near cache is only used for reading, because FileData objects
+          // from it must not be modified.
+          files.t = new HashMap<String, FileData>();
+          List<String> missingFileIds = new ArrayList<String>();
+          for (String fileId : fileIds) {
+            FileData fd = fileNearCache.get(
+                projectFileKey(projectKey(projectId), fileId).getString());
+            if (fd == null) {
+              missingFileIds.add(fileId);
+            } else {
+              files.t.put(fileId, fd);
+            }
+          }
+          if (!missingFileIds.isEmpty()) {
+            Map<String, Long> versions = new HashMap<String, Long>();
+            for (String fileId : missingFileIds) {
+              String cacheKey = projectFileKey(projectKey(projectId), fileId).getString();
+              versions.put(fileId, fileNearCache.currentVersion(cacheKey));
+            }
+            Map<String, FileData> found = getFileData(datastore, projectId, missingFileIds);
+            for (Map.Entry<String, FileData> entry : found.entrySet()) {
+              nearCachePutFileData(projectFileKey(projectKey(projectId), entry.getKey()).getString(),
+                  entry.getValue(), versions.get(entry.getKey()));
+            }
+            files.t.putAll(found);
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileIds.toString()), e);
+    }
+
+    List<byte[]> rawContents = new ArrayList<byte[]>(fileIds.size());
+    String fileName = null;
+    // Open the channels of all GCS files first, so that they are fetched
+    // concurrently, and then read them in order.
+    Map<String, GcsInputChannel> channels = new HashMap<String, GcsInputChannel>();
+    try {
+      for (String fileId : fileIds) {
+        fileName = fileId;
+        FileData fd = files.t.get(fileId);
+        if (fd != null && fd.isGCS && !(conversionEnabled && !useGcs)
+            && !channels.containsKey(fileId)) {
+          channels.put(fileId, openGcsReadChannel(fd.gcsName, false));
+        }
+      }
+      for (String fileId : fileIds) {
+        fileName = fileId;
+        FileData fd = files.t.get(fileId);
+        if (fd == null) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileId),
+              new FileNotFoundException("No data for " + fileId));
+        } else if (channels.containsKey(fileId)) {
+          // A null channel means the object is missing, see openGcsReadChannel.
+          GcsInputChannel readChannel = channels.remove(fileId);
+          if (readChannel == null) {
+            rawContents.add(new byte[0]);
+          } else {
+            try {
+              rawContents.add(applyDeltaLog(projectId, fd,
+                  ByteStreams.toByteArray(Channels.newInputStream(readChannel))));
+            } finally {
+              readChannel.close();
+            }
+          }
+        } else if (fd.isGCS || fd.isBlob) {
+          // Blobstore files, and GCS files that may have to be downgraded,
+          // still go through downloadRawFile.
+          rawContents.add(downloadRawFile(userId, projectId, fileId));
+        } else if (fd.content == null) {
+          rawContents.add(applyDeltaLog(projectId, fd, new byte[0]));
+        } else {
+          rawContents.add(applyDeltaLog(projectId, fd, fd.content));
+        }
+      }
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      for (GcsInputChannel readChannel : channels.values()) {
+        if (readChannel != null) {
+          try {
+            readChannel.close();
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to close GCS channel", e);
+          }
+        }
+      }
+    }
+
+    List<String> contents = new ArrayList<String>(rawContents.size());
+    for (int i = 0; i < rawContents.size(); i++) {
+      try {
+        contents.add(new String(rawContents.get(i), encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+            + collectProjectErrorInfo(userId, projectId, fileIds.get(i)), e);
+      }
+    }
+    return contents;
+  }
+
   @Override
   public void recordCorruption(String userId, long projectId, String fileId, String message) {
     Objectify datastore = ObjectifyService.begin();
@@ -1664,10 +2740,7 @@ public class ObjectifyStorageIo implements  StorageIo {
         @Override
         public void run(Objectify datastore) {
           Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
-          fd.t = (FileData) memcache.get(fileKey.getString());
-          if (fd.t == null) {
-            fd.t = datastore.find(fileKey);
-          }
+          fd.t = getFileDataForRead(datastore, fileKey);
         }
       }, false); // Transaction not needed
     } catch (ObjectifyException e) {
@@ -1780,6 +2853,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           result.t = fileData.content;
         }
       }
+      result.t = applyDeltaLog(projectId, fileData, result.t);
     } else {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName),
@@ -1820,9 +2894,23 @@ public class ObjectifyStorageIo implements  StorageIo {
                                                  final boolean includeAndroidKeystore,
                                                  @Nullable String zipName,
                                                  final boolean fatalError) throws IOException {
+    ProjectSourceExport export = openProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName, fatalError);
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    int fileCount = export.writeTo(zipFile);
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(export.getFileName(), zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(export.getProjectName());
+    return projectSourceZip;
+  }
+
+  @Override
+  public ProjectSourceExport openProjectSourceZip(final String userId, final long projectId,
+                                                  final boolean includeProjectHistory,
+                                                  final boolean includeAndroidKeystore,
+                                                  @Nullable String zipName,
+                                                  final boolean fatalError) throws IOException {
     validateGCS();
-    final Result<Integer> fileCount = new Result<Integer>();
-    fileCount.t = 0;
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
     // We collect up all the file data for the project in a transaction but
@@ -1832,10 +2920,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     final List<FileData> fileData = new ArrayList<FileData>();
     final Result<String> projectName = new Result<String>();
     projectName.t = null;
-    String fileName = null;
-
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final Result<byte[]> androidKeystore = new Result<byte[]>();
+    androidKeystore.t = null;
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1863,108 +2949,19 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       }, true);
-
-      // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (fd.isGCS) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
-        }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
-      if (projectHistory.t != null) {
-        byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
-        out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
     } catch (ObjectifyException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, null), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, null), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
 
-    if (fileCount.t == 0) {
+    if (fileData.isEmpty()) {
       // can't close out since will get a ZipException due to the lack of files
       throw new IllegalArgumentException("No files to download");
     }
@@ -1974,21 +2971,12 @@ public class ObjectifyStorageIo implements  StorageIo {
         runJobWithRetries(new JobRetryHelper() {
             @Override
             public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
-                  }
+              Key<UserData> userKey = userKey(userId);
+              for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                    (ufd.content.length > 0)) {
+                  androidKeystore.t = ufd.content;
                 }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId,
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
               }
             }
         }, true);
@@ -1997,15 +2985,170 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
-
     if (zipName == null) {
       zipName = projectName.t + ".aia";
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    return new ObjectifyProjectSourceExport(userId, projectId, zipName, projectName.t,
+        fileData, projectHistory.t, androidKeystore.t, fatalError);
+  }
+
+  /*
+   * Writes the files collected by openProjectSourceZip. The contents of the
+   * next few GCS files are requested before they are needed, so reading them
+   * overlaps with writing the zip. Each read uses a bounded buffer, so memory
+   * use does not depend on the size of the project.
+   */
+  private class ObjectifyProjectSourceExport implements ProjectSourceExport {
+    private final String userId;
+    private final long projectId;
+    private final String zipName;
+    private final String projectName;
+    private final List<FileData> fileData;
+    private final String projectHistory;
+    private final byte[] androidKeystore;
+    private final boolean fatalError;
+
+    ObjectifyProjectSourceExport(String userId, long projectId, String zipName,
+        String projectName, List<FileData> fileData, String projectHistory,
+        byte[] androidKeystore, boolean fatalError) {
+      this.userId = userId;
+      this.projectId = projectId;
+      this.zipName = zipName;
+      this.projectName = projectName;
+      this.fileData = fileData;
+      this.projectHistory = projectHistory;
+      this.androidKeystore = androidKeystore;
+      this.fatalError = fatalError;
+    }
+
+    @Override
+    public String getFileName() {
+      return zipName;
+    }
+
+    @Override
+    public String getProjectName() {
+      return projectName;
+    }
+
+    @Override
+    public int writeTo(OutputStream outputStream) throws IOException {
+      ZipOutputStream out = new ZipOutputStream(outputStream);
+      int fileCount = 0;
+      String fileName = null;
+      // The channels of the GCS files that are being prefetched, by index in fileData.
+      Map<Integer, GcsInputChannel> prefetched = new HashMap<Integer, GcsInputChannel>();
+      try {
+        for (int i = 0; i < fileData.size(); i++) {
+          FileData fd = fileData.get(i);
+          fileName = fd.fileName;
+          for (int j = i; j < Math.min(i + EXPORT_PREFETCH_FILES, fileData.size()); j++) {
+            if (fileData.get(j).isGCS && !prefetched.containsKey(j)) {
+              prefetched.put(j, openGcsReadChannel(fileData.get(j).gcsName, fatalError));
+            }
+          }
+          out.putNextEntry(new ZipEntry(fileName));
+          if (fd.isBlob) {
+            if (fd.blobKey == null) {
+              throw new BlobReadException("blobKey is null");
+            }
+            InputStream blobInputStream = new BlobstoreInputStream(new BlobKey(fd.blobKey));
+            try {
+              ByteStreams.copy(blobInputStream, out);
+            } finally {
+              blobInputStream.close();
+            }
+          } else if (fd.isGCS) {
+            // A null channel means the object is missing, which happens when file
+            // creation is interrupted. We write an empty file then.
+            GcsInputChannel readChannel = prefetched.remove(i);
+            if (fd.hasDeltaLog) {
+              byte[] content = new byte[0];
+              if (readChannel != null) {
+                try {
+                  content = ByteStreams.toByteArray(Channels.newInputStream(readChannel));
+                } finally {
+                  readChannel.close();
+                }
+              }
+              content = applyDeltaLog(projectId, fd, content);
+              out.write(content, 0, content.length);
+            } else if (readChannel != null) {
+              try {
+                ByteStreams.copy(Channels.newInputStream(readChannel), out);
+              } finally {
+                readChannel.close();
+              }
+            }
+          } else if (fd.hasDeltaLog) {
+            byte[] content =
+                applyDeltaLog(projectId, fd, (fd.content == null) ? new byte[0] : fd.content);
+            out.write(content, 0, content.length);
+          } else if (fd.content != null) {
+            out.write(fd.content, 0, fd.content.length);
+          }
+          out.closeEntry();
+          fileCount++;
+        }
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      } catch (RuntimeException e) {
+        CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+        throw new IOException("Reflecting exception for userid " + userId +
+            " projectId " + projectId + ", original exception " + e.getMessage());
+      } finally {
+        for (GcsInputChannel readChannel : prefetched.values()) {
+          readChannel.close();
+        }
+      }
+
+      if (projectHistory != null) {
+        byte[] data = projectHistory.getBytes(StorageUtil.DEFAULT_CHARSET);
+        out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
+        out.write(data, 0, data.length);
+        out.closeEntry();
+        fileCount++;
+      }
+      if (androidKeystore != null) {
+        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+        out.write(androidKeystore, 0, androidKeystore.length);
+        out.closeEntry();
+        fileCount++;
+      }
+      out.finish();
+      out.flush();
+      return fileCount;
+    }
+  }
+
+  /*
+   * Starts reading a GCS file in the background. Returns null if the object
+   * does not exist and fatalError is false.
+   */
+  @Nullable
+  private GcsInputChannel openGcsReadChannel(String gcsName, boolean fatalError)
+      throws IOException {
+    GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, gcsName);
+    // Objects are missing when people uploaded a zero length object before
+    // we stored zero length objects into GCS. Occasionally the metadata of an
+    // object that exists is not found on the first try, so we try a few times.
+    for (int count = 0; count < 5; count++) {
+      if (gcsService.getMetadata(gcsFileName) != null) {
+        if (count > 0) {
+          LOG.log(Level.WARNING, "recovered from NPF in openGcsReadChannel filename = " +
+              gcsName + " count = " + count);
+        }
+        return gcsService.openPrefetchingReadChannel(gcsFileName, 0, EXPORT_BUFFER_SIZE);
+      }
+      LOG.log(Level.WARNING, "openGcsReadChannel: NPF recorded for " + gcsName);
+    }
+    LOG.log(Level.WARNING, "FATAL NPF in openGcsReadChannel filename = " + gcsName);
+    if (fatalError) {
+      throw new IOException("FATAL Error reading file from GCS filename = " + gcsName);
+    }
+    return null;
   }
 
   @Override
@@ -2083,11 +3226,15 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public boolean checkWhiteList(String email) {
+    String emailLower = email.toLowerCase();
+    Boolean cached = whiteListNearCache.get(emailLower);
+    if (cached != null) {
+      return cached;
+    }
     Objectify datastore = ObjectifyService.begin();
-    WhiteListData data = datastore.query(WhiteListData.class).filter("emailLower", email.toLowerCase()).get();
-    if (data == null)
-      return false;
-    return true;
+    WhiteListData data = datastore.query(WhiteListData.class).filter("emailLower", emailLower).get();
+    whiteListNearCache.put(emailLower, data != null, null);
+    return data != null;
   }
 
   @Override
@@ -2228,10 +3375,22 @@ public class ObjectifyStorageIo implements  StorageIo {
     return new Key<UserFileData>(userKey, UserFileData.class, fileName);
   }
 
+  private Key<GcsContentData> gcsContentKey(String hash) {
+    return new Key<GcsContentData>(GcsContentData.class, hash);
+  }
+
+  private Key<GcsContentRefData> gcsContentRefKey(String hash, String gcsRef) {
+    return new Key<GcsContentRefData>(gcsContentKey(hash), GcsContentRefData.class, gcsRef);
+  }
+
   private Key<FileData> projectFileKey(Key<ProjectData> projectKey, String fileName) {
     return new Key<FileData>(projectKey, FileData.class, fileName);
   }
 
+  private Key<FileDeltaLogData> deltaLogKey(Key<ProjectData> projectKey, String fileName) {
+    return new Key<FileDeltaLogData>(projectKey, FileDeltaLogData.class, fileName);
+  }
+
   /**
    * Call job.run() if we get a {@link java.util.ConcurrentModificationException}
    * or {@link com.google.appinventor.server.storage.ObjectifyException}
@@ -0,0 +1,40 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A project source zip that is written to a stream while the project files
+ * are read, instead of being held in memory.
+ *
+ * <p>Everything that can make the export fail before any data is written
+ * (for example, a project without source files) is checked when the export
+ * is created, so callers can still report such errors normally.
+ *
+ */
+public interface ProjectSourceExport {
+
+  /**
+   * Returns the name of the zip file.
+   */
+  String getFileName();
+
+  /**
+   * Returns the name of the project.
+   */
+  String getProjectName();
+
+  /**
+   * Writes the zip to the given stream. The stream is not closed.
+   *
+   * @param out the stream that receives the zip
+   * @return the number of files in the zip
+   * @throws IOException if files cannot be read or written
+   */
+  int writeTo(OutputStream out) throws IOException;
+}
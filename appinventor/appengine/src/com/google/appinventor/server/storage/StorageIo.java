@@ -9,6 +9,8 @@ package com.google.appinventor.server.storage;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.UserProject;
@@ -16,8 +18,10 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -221,6 +225,15 @@ public interface StorageIo {
 
   UserProject getUserProject(String userId, long projectId);
 
+  /**
+   * Returns the projects of a user, as they are shown in the project list.
+   * The returned list must not be modified.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @return list of UserProject objects
+   */
+  List<UserProject> getUserProjects(String userId);
+
   /**
    * Returns a project name.
    *
@@ -437,6 +450,27 @@ public interface StorageIo {
    */
   long uploadFileForce(long projectId, String fileId, String userId, String content, String encoding);
 
+  /**
+   * Uploads a change to a file. The change must have been computed from the
+   * current content of the file. It may be kept apart from the content and
+   * only be merged into it later, but reading the file always returns the
+   * content with the change applied. A change that leaves a blocks workspace
+   * nearly empty is checked like a trivial workspace uploaded with
+   * {@link #uploadRawFile}.
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param userId the user who owns the file
+   * @param force write file even if it is a trivial workspace
+   * @param delta  the change from the content that was saved before
+   * @param encoding encoding of content
+   * @return modification date for project
+   * @throws FileDeltaMismatchException if the change was not computed from
+   *         the current content of the file
+   */
+  long uploadFileDelta(long projectId, String fileId, String userId, boolean force,
+      FileDelta delta, String encoding)
+      throws BlocksTruncatedException, FileDeltaMismatchException;
+
   /**
    * Uploads a file.
    * @param projectId  project ID
@@ -459,6 +493,36 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Uploads a file from a stream. -- forces the save even with trivial workspace
+   *
+   * <p>Small files are stored like {@link #uploadRawFileForce(long, String, String, byte[])}
+   * stores them. Large files that belong in GCS are written there while the stream is read,
+   * so they are never held in memory as a whole. The stream is not closed.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param userId the user who owns the file
+   * @param content  file content
+   * @return modification date for project
+   * @throws IOException if the content cannot be read or written
+   */
+  long uploadRawFileForce(long projectId, String fileId, String userId, InputStream content)
+      throws IOException;
+
+  /**
+   * Uploads several files of one project at once, forcing the save even of
+   * trivial workspaces. The files are read and written with batch datastore
+   * and memcache operations.
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param contents  file content by file ID
+   * @param encoding encoding of contents
+   * @return modification date for project
+   */
+  long uploadFilesForce(long projectId, String userId, Map<String, String> contents,
+      String encoding);
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -500,6 +564,20 @@ public interface StorageIo {
    */
   byte[] downloadRawFile(String userId, long projectId, String fileId);
 
+  /**
+   * Downloads the data of several text files of one project at once. The
+   * files are looked up with batch datastore and memcache operations, and
+   * files stored in GCS are read concurrently.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  text file contents, in the order of fileIds
+   */
+  List<String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   // MOTD management
 
   /**
@@ -526,6 +604,26 @@ public interface StorageIo {
                                           @Nullable String zipName,
                                           boolean fatalError) throws IOException;
 
+  /**
+   *  Prepares a streaming export of the project files as a zip archive. The
+   *  file contents are only read when the zip is written, so the project never
+   *  has to fit in memory.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param zipName  the name of the zip file, if a specific one is desired
+   * @param fatalError set true to cause missing GCS file to throw exception
+   *
+   * @return  the export, ready to be written
+   * @throws IllegalArgumentException if the project has no source files
+   */
+  ProjectSourceExport openProjectSourceZip(String userId, long projectId,
+                                           boolean includeProjectHistory,
+                                           boolean includeAndroidKeystore,
+                                           @Nullable String zipName,
+                                           boolean fatalError) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -120,6 +120,18 @@ public class StoredData {
     // User specific project settings
     // TODO(user): is this ever used?
     String settings;
+
+    // A copy of the ProjectData fields that are shown in the project list,
+    // so that the list can be read with a single ancestor query. Entities
+    // written before these fields existed have hasSummary false and are
+    // filled in when the list is first read.
+    boolean hasSummary;
+    String name;
+    String type;
+    long dateCreated;
+    long dateModified;
+    long galleryId;
+    long attributionId;
   }
 
   // Non-project-specific files (tied to user)
@@ -184,11 +196,82 @@ public class StoredData {
     // The GCS filename, sans bucket name
     String gcsName;
 
+    // If gcsName is named after the content, the id of the GcsContentRefData
+    // that keeps the object alive for this file
+    String gcsRef;
+
     // File settings
     String settings;
 
     // DateTime of last backup only used if GCS is enabled
     long lastBackup;
+
+    // Whether changes saved as deltas are kept in a FileDeltaLogData, and
+    // have to be applied to the content when it is read
+    boolean hasDeltaLog;
+  }
+
+  // The changes to a project file that were saved as deltas since they were
+  // last folded into its FileData. Only used while the FileData has
+  // hasDeltaLog set.
+  @Unindexed
+  static final class FileDeltaLogData {
+    // The file name
+    @Id String fileName;
+
+    // Key of the project (parent) to which the file belongs
+    @Parent Key<ProjectData> projectKey;
+
+    // Random id, chosen when the log is started or folded into the FileData.
+    // Together with changeCount it tells whether the log changed.
+    String logId;
+
+    // The encoding of the content
+    String encoding;
+
+    // The length and hash code of the content with all changes applied. The
+    // next delta must have been computed from that content.
+    int length;
+    int hash;
+
+    // The number of changes, and the changes themselves. Each is the start
+    // and end of the replaced range and the length of the inserted text, as
+    // ints, followed by the text as chars.
+    int changeCount;
+    byte[] changes;
+  }
+
+  // Reference count of a GCS object whose name is derived from the hash of
+  // its content. FileData objects with identical content, for example the
+  // assets of a copied project, share one such object.
+  @Unindexed
+  static final class GcsContentData {
+    // SHA-256 of the content, in hex
+    @Id String id;
+
+    // Number of GcsContentRefData children, each held by a FileData whose
+    // gcsName points at the current generation
+    int refCount;
+
+    // Incremented each time the content is uploaded again after refCount
+    // dropped to zero, so a new upload never reuses the name of an object
+    // that is being deleted.
+    long generation;
+
+    // Whether the object of the current generation has been written completely
+    boolean uploaded;
+  }
+
+  // One reference to a GcsContentData, held by the FileData whose gcsRef is
+  // the id. Releasing a reference deletes it, so releasing it again has no
+  // effect on the reference count.
+  @Unindexed
+  static final class GcsContentRefData {
+    // Random id, chosen when the reference is taken
+    @Id String id;
+
+    // Key of the content (parent) that is referenced
+    @Parent Key<GcsContentData> contentKey;
   }
 
   // MOTD data.
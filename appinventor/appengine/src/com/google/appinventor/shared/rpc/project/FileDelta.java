@@ -0,0 +1,162 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import com.google.gwt.user.client.rpc.IsSerializable;
+
+/**
+ * A change to the content of a file, which is sent instead of the whole
+ * content when the file is saved.
+ *
+ * <p>The change replaces one range of the content that was saved before (the
+ * base) with new text. Editors usually change a small part of a file between
+ * two saves, so the range is found by skipping the common prefix and suffix
+ * of the base and the new content.
+ *
+ * <p>The lengths and hashes of the base and the result are included, so that
+ * a change is only applied to the base it was computed from.
+ *
+ */
+public final class FileDelta implements IsSerializable {
+  private int baseLength;
+  private int baseHash;
+
+  // The range [start, end) of the base is replaced with text
+  private int start;
+  private int end;
+  private String text;
+
+  private int resultHash;
+
+  /**
+   * Default constructor (for serialization only).
+   */
+  @SuppressWarnings("unused")
+  private FileDelta() {
+  }
+
+  private FileDelta(int baseLength, int baseHash, int start, int end, String text,
+      int resultHash) {
+    this.baseLength = baseLength;
+    this.baseHash = baseHash;
+    this.start = start;
+    this.end = end;
+    this.text = text;
+    this.resultHash = resultHash;
+  }
+
+  /**
+   * Computes the change from base to content.
+   *
+   * @param base  the content that was saved before
+   * @param content  the new content
+   * @return the change
+   */
+  public static FileDelta compute(String base, String content) {
+    int start = 0;
+    int length = Math.min(base.length(), content.length());
+    while (start < length && base.charAt(start) == content.charAt(start)) {
+      start++;
+    }
+    int baseEnd = base.length();
+    int contentEnd = content.length();
+    while (baseEnd > start && contentEnd > start
+        && base.charAt(baseEnd - 1) == content.charAt(contentEnd - 1)) {
+      baseEnd--;
+      contentEnd--;
+    }
+    // Don't split surrogate pairs, so that the text is a valid string
+    if (start > 0 && isHighSurrogate(base.charAt(start - 1))) {
+      start--;
+    }
+    if (baseEnd < base.length() && isLowSurrogate(base.charAt(baseEnd))) {
+      baseEnd++;
+      contentEnd++;
+    }
+    return new FileDelta(base.length(), base.hashCode(), start, baseEnd,
+        content.substring(start, contentEnd), content.hashCode());
+  }
+
+  /**
+   * Applies the change to the given base.
+   *
+   * @param base  the current content
+   * @return the new content, or null if the change was not computed from
+   *         the given base
+   */
+  public String apply(String base) {
+    if (base.length() != baseLength || base.hashCode() != baseHash) {
+      return null;
+    }
+    String result = base.substring(0, start) + text + base.substring(end);
+    return (result.hashCode() == resultHash) ? result : null;
+  }
+
+  /**
+   * Returns the length of the content the change was computed from.
+   */
+  public int getBaseLength() {
+    return baseLength;
+  }
+
+  /**
+   * Returns the hash code of the content the change was computed from.
+   */
+  public int getBaseHash() {
+    return baseHash;
+  }
+
+  /**
+   * Returns the start of the range of the base that the change replaces.
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * Returns the end (exclusive) of the range of the base that the change
+   * replaces.
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns the text that the change inserts.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the length of the text that the change inserts.
+   */
+  public int getTextLength() {
+    return text.length();
+  }
+
+  /**
+   * Returns the length of the content with the change applied.
+   */
+  public int getResultLength() {
+    return baseLength - (end - start) + text.length();
+  }
+
+  /**
+   * Returns the hash code of the content with the change applied.
+   */
+  public int getResultHash() {
+    return resultHash;
+  }
+
+  private static boolean isHighSurrogate(char c) {
+    return c >= '\uD800' && c <= '\uDBFF';
+  }
+
+  private static boolean isLowSurrogate(char c) {
+    return c >= '\uDC00' && c <= '\uDFFF';
+  }
+}
@@ -0,0 +1,21 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+
+/**
+ * Thrown when a {@link FileDelta} was not computed from the current content
+ * of the file, for example because the file was saved from another window.
+ * The client then saves the whole content instead.
+ *
+ */
+public class FileDeltaMismatchException extends Exception implements Serializable {
+
+  public FileDeltaMismatchException() {
+    super();
+  }
+}
@@ -20,6 +20,7 @@ public class GalleryAppListResult implements IsSerializable{
   List<GalleryApp> apps;    //sliced results
   int totalCount;           //total number of all suitable results
   String keyword;           //search keyword, only for searching
+  String nextPageToken;     //token of the next page, null if there is none
   /**
    * default constructor
    */
@@ -72,6 +73,14 @@ public class GalleryAppListResult implements IsSerializable{
     this.keyword = keyword;
   }
 
+  /**
+   * setNextPageToken based on given token
+   * @param nextPageToken the token of the next page, or null
+   */
+  public void setNextPageToken(String nextPageToken){
+    this.nextPageToken = nextPageToken;
+  }
+
   /**
    * @return apps list of GalleryApp
    */
@@ -92,4 +101,12 @@ public class GalleryAppListResult implements IsSerializable{
   public String getKeyword(){
     return keyword;
   }
+
+  /**
+   * @return nextPageToken the token to pass to get the next page of results,
+   *         or null if there are no more results
+   */
+  public String getNextPageToken(){
+    return nextPageToken;
+  }
 }
@@ -19,6 +19,7 @@ import com.google.gwt.user.client.rpc.IsSerializable;
 public class GalleryReportListResult implements IsSerializable{
   List<GalleryAppReport> reports;    //sliced results
   int totalCount;           //total number of all suitable results
+  String nextPageToken;     //token of the next page, null if there is none
   /**
    * default constructor
    */
@@ -51,6 +52,14 @@ public class GalleryReportListResult implements IsSerializable{
     this.totalCount = totalCount;
   }
 
+  /**
+   * setNextPageToken based on given token
+   * @param nextPageToken the token of the next page, or null
+   */
+  public void setNextPageToken(String nextPageToken){
+    this.nextPageToken = nextPageToken;
+  }
+
   /**
    * @return reports list of GalleryAppReport
    */
@@ -64,4 +73,12 @@ public class GalleryReportListResult implements IsSerializable{
   public int getTotalCount(){
     return totalCount;
   }
+
+  /**
+   * @return nextPageToken the token to pass to get the next page of reports,
+   *         or null if there are no more reports
+   */
+  public String getNextPageToken(){
+    return nextPageToken;
+  }
 }
@@ -78,29 +78,32 @@ public interface GalleryService extends RemoteService {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, as returned with the
+   *        previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
-  GalleryAppListResult getRecentApps(int start, int count);
+  GalleryAppListResult getRecentApps(String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, as returned with the
+   *        previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param pageToken token of the page to return, as returned with the
+   *        previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of featured gallery app
@@ -128,11 +131,12 @@ public interface GalleryService extends RemoteService {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param pageToken token of the page to return, as returned with the
+   *        previous page, or null for the first page
    * @param count number of apps to return
-   * @return list of GalleryApps
+   * @return list of GalleryApps, with the token of the next page
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String pageToken, int count);
 
   /**
    * Returns a wrapped class which contains a list of galleryApps and
@@ -219,19 +223,21 @@ public interface GalleryService extends RemoteService {
 
   /**
   * gets recent reports
-  * @param start start index
+  * @param pageToken token of the page to retrieve, as returned with the
+  *        previous page, or null for the first page
   * @param count number to retrieve
-  * @return the list of reports
+  * @return the list of reports, with the token of the next page
   */
-  GalleryReportListResult getRecentReports(int start, int count);
+  GalleryReportListResult getRecentReports(String pageToken, int count);
 
   /**
   * gets existing reports
-  * @param start start index
+  * @param pageToken token of the page to retrieve, as returned with the
+  *        previous page, or null for the first page
   * @param count number to retrieve
-  * @return the list of reports
+  * @return the list of reports, with the token of the next page
   */
-  GalleryReportListResult getAllAppReports(int start, int count);
+  GalleryReportListResult getAllAppReports(String pageToken, int count);
 
   /**
   * check if an app is reported by a user
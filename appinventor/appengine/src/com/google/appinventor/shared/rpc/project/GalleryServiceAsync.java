@@ -65,9 +65,9 @@ public interface GalleryServiceAsync {
    */
   void getNumApps(AsyncCallback<Integer> callback);
   /**
-   * @see @link{@link GalleryService#getRecentApps(int, int)
+   * @see @link{@link GalleryService#getRecentApps(String, int)
    */
-  void getRecentApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getRecentApps(String pageToken, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#getFeaturedApp(int, int)
@@ -85,19 +85,19 @@ public interface GalleryServiceAsync {
   void markAppAsFeatured(long galleryId, AsyncCallback<Boolean> callback);
 
    /**
-   * @see @link{@link GalleryService#getMostDownloadedApps(int, int)
+   * @see @link{@link GalleryService#getMostDownloadedApps(String, int)
    */
-  void getMostDownloadedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getMostDownloadedApps(String pageToken, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-  * @see @link{@link GalleryService#getMostLikedApps(int, int)
+  * @see @link{@link GalleryService#getMostLikedApps(String, int)
   */
- void getMostLikedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+ void getMostLikedApps(String pageToken, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getDeveloperApps(String, int, int)
+   * @see @link{@link GalleryService#getDeveloperApps(String, String, int)
    */
-  void getDeveloperApps(String userId, int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getDeveloperApps(String userId, String pageToken, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#findApps(String, int, int)
@@ -154,13 +154,13 @@ public interface GalleryServiceAsync {
   void addAppReport(GalleryApp app, String reportText, AsyncCallback<java.lang.Long> date);
 
   /**
-   * @see @link{@link GalleryService#getRecentReports(int, int)
+   * @see @link{@link GalleryService#getRecentReports(String, int)
    */
-  void getRecentReports(int start, int count, AsyncCallback<GalleryReportListResult> callback);
+  void getRecentReports(String pageToken, int count, AsyncCallback<GalleryReportListResult> callback);
   /**
-   * @see @link{@link GalleryService#getAllAppReports(int, int)
+   * @see @link{@link GalleryService#getAllAppReports(String, int)
    */
-  void getAllAppReports(int start, int count, AsyncCallback<GalleryReportListResult> callback);
+  void getAllAppReports(String pageToken, int count, AsyncCallback<GalleryReportListResult> callback);
 
   /**
    * @see @link{@link GalleryService#isReportedByUser(long)
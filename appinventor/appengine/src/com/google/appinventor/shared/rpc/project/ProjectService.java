@@ -241,6 +241,24 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves a change to the content of the file associated with a node in the
+   * project tree. Like {@link #save2}, this can throw a
+   * BlocksTruncatedException if an attempt is made to save a trivial blocks
+   * file.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the content that was saved before
+   * @return modification date for project
+   * @throws FileDeltaMismatchException if the change was not computed from
+   *         the current content of the file
+   */
+  long saveDelta(String sessionId, long projectId, String fileId, boolean force, FileDelta delta)
+      throws InvalidSessionException, BlocksTruncatedException, FileDeltaMismatchException;
+
   /**
    * Saves the contents of multiple files.
    *
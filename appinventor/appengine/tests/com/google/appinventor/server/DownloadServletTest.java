@@ -6,7 +6,7 @@
 
 package com.google.appinventor.server;
 
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.server.storage.ProjectSourceExport;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.riq.MockHttpServletRequest;
 import com.riq.MockHttpServletResponse;
@@ -18,9 +18,11 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.fail;
 import static org.easymock.EasyMock.expect;
 
@@ -43,8 +45,8 @@ public class DownloadServletTest {
   private static final String DUMMY_ZIP_FILENAME_WITH_TITLE = "MyProjectTitle123.aia";
   private static final String DOWNLOAD_URL = "http://localhost/baseUrl/download/";
 
-  private ProjectSourceZip dummyZip;
-  private ProjectSourceZip dummyZipWithTitle;
+  private ProjectSourceExport dummyZip;
+  private ProjectSourceExport dummyZipWithTitle;
   private RawFile dummyApk;
   private RawFile dummyFile;
 
@@ -60,12 +62,58 @@ public class DownloadServletTest {
     exporterMock = PowerMock.createNiceMock(FileExporterImpl.class);
     PowerMock.expectNew(FileExporterImpl.class).andReturn(exporterMock).anyTimes();
 
-    dummyZip = new ProjectSourceZip(DUMMY_ZIP_FILENAME, new byte[] {}, 2);
-    dummyZipWithTitle = new ProjectSourceZip(DUMMY_ZIP_FILENAME_WITH_TITLE, new byte[] {}, 2);
+    dummyZip = new DummyProjectSourceExport(DUMMY_ZIP_FILENAME);
+    dummyZipWithTitle = new DummyProjectSourceExport(DUMMY_ZIP_FILENAME_WITH_TITLE);
     dummyApk = new RawFile(DUMMY_APK_FILENAME, new byte[] {});
     dummyFile = new RawFile(DUMMY_FILENAME, new byte[] {});
   }
 
+  private static class DummyProjectSourceExport implements ProjectSourceExport {
+    private final String fileName;
+
+    DummyProjectSourceExport(String fileName) {
+      this.fileName = fileName;
+    }
+
+    @Override
+    public String getFileName() {
+      return fileName;
+    }
+
+    @Override
+    public String getProjectName() {
+      return DUMMY_FILENAME;
+    }
+
+    @Override
+    public int writeTo(OutputStream out) {
+      return 2;
+    }
+  }
+
+  // Fails after writing part of the zip, optionally after the response is committed.
+  private static class FailingProjectSourceExport extends DummyProjectSourceExport {
+    private final MockHttpServletResponse response;
+    private final boolean commit;
+
+    FailingProjectSourceExport(MockHttpServletResponse response, boolean commit) {
+      super(DUMMY_ZIP_FILENAME);
+      this.response = response;
+      this.commit = commit;
+    }
+
+    @Override
+    public int writeTo(OutputStream out) {
+      try {
+        out.write(new byte[] { 'P', 'K' });
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      response.setCommitted(commit);
+      throw new IllegalStateException("file is gone");
+    }
+  }
+
   private void checkResponseHeader(MockHttpServletResponse response, String header) {
     List cd = (List) response.getHeader("content-disposition");
     assertEquals(header, cd.get(0));
@@ -76,7 +124,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithoutTitle() throws Exception {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false))
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false))
         .andReturn(dummyZip);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -91,7 +139,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithTitle() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234/My Project Title 123");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false,
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false,
         "MyProjectTitle123.aia", false))
         .andReturn(dummyZipWithTitle);
     PowerMock.replayAll();
@@ -108,7 +156,7 @@ public class DownloadServletTest {
     IllegalArgumentException expectedException = new IllegalArgumentException();
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/12345");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, 12345L, true, false, null, false))
+    expect(exporterMock.openProjectSourceZip(USER_ID, 12345L, true, false, null, false))
         .andThrow(expectedException);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -121,6 +169,47 @@ public class DownloadServletTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testDownloadProjectSourceZipFailsBeforeCommit() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
+        "project-source/1234");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false))
+        .andReturn(new FailingProjectSourceExport(response, false));
+    PowerMock.replayAll();
+    DownloadServlet download = new DownloadServlet();
+    try {
+      download.doGet(request, response);
+      fail();
+    } catch (IllegalStateException ex) {
+      assertEquals("file is gone", ex.getMessage());
+    }
+    // Nothing was sent, so the error replaces the download.
+    assertNull(response.getHeader("content-disposition"));
+    assertEquals(0, response.getContentAsByteArray().length);
+    PowerMock.verifyAll();
+  }
+
+  @Test
+  public void testDownloadProjectSourceZipFailsAfterCommit() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
+        "project-source/1234");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false))
+        .andReturn(new FailingProjectSourceExport(response, true));
+    PowerMock.replayAll();
+    DownloadServlet download = new DownloadServlet();
+    try {
+      download.doGet(request, response);
+      fail();
+    } catch (IllegalStateException ex) {
+      // The exception reaches the container, which aborts the connection.
+      assertEquals("file is gone", ex.getMessage());
+    }
+    checkResponseHeader(response, "attachment; filename=\"filename123.aia\"");
+    PowerMock.verifyAll();
+  }
+
   @Test
   public void testDownloadProjectOutputFileWithoutTarget() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
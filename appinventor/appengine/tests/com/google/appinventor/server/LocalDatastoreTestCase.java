@@ -10,6 +10,7 @@ import com.google.appinventor.common.testutils.TestUtils;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.apphosting.utils.config.GenerationDirectory;
 
 import junit.framework.TestCase;
@@ -22,8 +23,12 @@ import junit.framework.TestCase;
 public abstract class LocalDatastoreTestCase extends TestCase {
   private static final String APPENGINE_GENERATED_DIR = TestUtils.APP_INVENTOR_ROOT_DIR +
       "/appengine/build/tests/appengine-generated";
+  // Tasks are queued on the queues of the app, but not run.
   private final LocalServiceTestHelper helper =
-      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+          new LocalTaskQueueTestConfig()
+              .setQueueXmlPath(TestUtils.APP_INVENTOR_ROOT_DIR + "/appengine/war/WEB-INF/queue.xml")
+              .setDisableAutoTaskExecution(true));
 
   @Override
   protected void setUp() throws Exception {
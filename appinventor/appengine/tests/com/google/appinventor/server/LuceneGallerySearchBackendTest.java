@@ -0,0 +1,82 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.store.RAMDirectory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link LuceneGallerySearchBackend}.
+ *
+ */
+public class LuceneGallerySearchBackendTest extends TestCase {
+  private LuceneGallerySearchBackend backend;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    backend = new LuceneGallerySearchBackend(new RAMDirectory());
+  }
+
+  public void testFindMatchesAllWords() {
+    backend.indexApps(Arrays.asList(
+        makeApp(1, "Ball Game", "Roll the ball"),
+        makeApp(2, "Paint Pot", "Paint with your finger"),
+        makeApp(3, "Ball Paint", "Paint a ball")));
+
+    assertEquals(Arrays.asList(1L, 3L), sorted(backend.find("ball", 0, 10)));
+    assertEquals(Arrays.asList(3L), sorted(backend.find("ball paint", 0, 10)));
+    assertEquals(0, backend.find("piano", 0, 10).totalCount);
+    // Query syntax is taken literally instead of failing to parse
+    assertEquals(Arrays.asList(1L, 3L), sorted(backend.find("ball AND (", 0, 10)));
+  }
+
+  public void testFindPage() {
+    for (long id = 1; id <= 5; id++) {
+      backend.indexApps(Collections.singletonList(makeApp(id, "Quiz " + id, "A quiz")));
+    }
+    GallerySearchBackend.Hits firstPage = backend.find("quiz", 0, 2);
+    GallerySearchBackend.Hits lastPage = backend.find("quiz", 4, 2);
+    assertEquals(2, firstPage.galleryIds.size());
+    assertEquals(5, firstPage.totalCount);
+    assertEquals(1, lastPage.galleryIds.size());
+    assertEquals(5, lastPage.totalCount);
+    assertEquals(0, backend.find("quiz", 0, 0).galleryIds.size());
+  }
+
+  public void testReindexAndUnIndex() {
+    backend.indexApps(Collections.singletonList(makeApp(1, "Drum Kit", "Play the drums")));
+    backend.indexApps(Collections.singletonList(makeApp(1, "Piano", "Play the piano")));
+    assertEquals(0, backend.find("drums", 0, 10).totalCount);
+    assertEquals(Arrays.asList(1L), backend.find("piano", 0, 10).galleryIds);
+
+    backend.unIndexApp(1);
+    assertEquals(0, backend.find("piano", 0, 10).totalCount);
+  }
+
+  private static GalleryApp makeApp(long galleryId, String title, String description) {
+    GalleryApp app = new GalleryApp();
+    app.setGalleryAppId(galleryId);
+    app.setTitle(title);
+    app.setDescription(description);
+    app.setDeveloperName("developer");
+    return app;
+  }
+
+  private static List<Long> sorted(GallerySearchBackend.Hits hits) {
+    List<Long> ids = new ArrayList<Long>(hits.galleryIds);
+    Collections.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,164 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link BuildServerPool}.
+ *
+ */
+public class BuildServerPoolTest extends TestCase {
+
+  // A /buildserver/vars page of a build server with 4 build slots, with the
+  // active builds and the builds queued in the app and companion lanes left
+  // to fill in
+  private static final String VARS_PAGE = "<html><body><tt>"
+      + "<b>state</b> UP<br>"
+      + "<b>start-time</b> Oct 18, 2026 2:09:57 PM UTC<br>"
+      + "<b>uptime-in-ms</b> 5413066<br>"
+      + "<b>vm-name</b> OpenJDK 64-Bit Server VM<br>"
+      + "<b>vm-vender</b> Oracle Corporation<br>"
+      + "<b>vm-version</b> 25.392-b08<br>"
+      + "<b>buildserver-version</b> nb153<br>"
+      + "<b>buildserver-git-fingerprint</b> 1ece65c<br>"
+      + "<b>os-arch</b> amd64<br>"
+      + "<b>os-name</b> Linux<br>"
+      + "<b>os-version</b> 6.1.0<br>"
+      + "<b>num-processors</b> 8<br>"
+      + "<b>load-average-past-1-min</b> 3.51<br>"
+      + "<b>total-memory</b> 2147483648<br>"
+      + "<b>free-memory</b> 1073741824<br>"
+      + "<b>max-memory</b> 4294967296<br>"
+      + "<b>used-heap</b> 1073741824<br>"
+      + "<b>used-non-heap</b> 83886080<br>"
+      + "<b>count-async-build-requests</b> 112<br>"
+      + "<b>rejected-async-build-requests</b> 0<br>"
+      + "<b>successful-async-build-requests</b> 97<br>"
+      + "<b>failed-async-build-requests</b> 9<br>"
+      + "<b>maximum-simultaneous-build-tasks-allowed</b> 4<br>"
+      + "<b>completed-build-tasks</b> 106<br>"
+      + "<b>maximum-simultaneous-build-tasks-occurred</b> 4<br>"
+      + "<b>active-build-tasks</b> %d<br>"
+      + "<b>build-queue-average-build-ms</b> 60000<br>"
+      + "<b>build-queue-companion-max-queued</b> 5<br>"
+      + "<b>build-queue-companion-queued</b> %d<br>"
+      + "<b>build-queue-companion-rejected</b> 0<br>"
+      + "<b>build-queue-companion-estimated-wait-ms</b> 60000<br>"
+      + "<b>build-queue-companion-wait-0-1s</b> 4<br>"
+      + "<b>build-queue-companion-wait-1-5s</b> 0<br>"
+      + "<b>build-queue-companion-wait-5-15s</b> 0<br>"
+      + "<b>build-queue-companion-wait-15-30s</b> 0<br>"
+      + "<b>build-queue-companion-wait-30-60s</b> 0<br>"
+      + "<b>build-queue-companion-wait-60-120s</b> 0<br>"
+      + "<b>build-queue-companion-wait-120-300s</b> 0<br>"
+      + "<b>build-queue-companion-wait-over-300s</b> 0<br>"
+      + "<b>build-queue-app-max-queued</b> 20<br>"
+      + "<b>build-queue-app-queued</b> %d<br>"
+      + "<b>build-queue-app-rejected</b> 0<br>"
+      + "<b>build-queue-app-estimated-wait-ms</b> 120000<br>"
+      + "<b>build-queue-app-wait-0-1s</b> 85<br>"
+      + "<b>build-queue-app-wait-1-5s</b> 12<br>"
+      + "<b>build-queue-app-wait-5-15s</b> 3<br>"
+      + "<b>build-queue-app-wait-15-30s</b> 0<br>"
+      + "<b>build-queue-app-wait-30-60s</b> 0<br>"
+      + "<b>build-queue-app-wait-60-120s</b> 0<br>"
+      + "<b>build-queue-app-wait-120-300s</b> 0<br>"
+      + "<b>build-queue-app-wait-over-300s</b> 0<br>"
+      + "<b>stage-memory-budget-mb</b> unlimited<br>"
+      + "<b>stage-kawa-max-concurrent</b> 2<br>"
+      + "<b>stage-kawa-active</b> 2<br>"
+      + "<b>stage-kawa-queue-depth</b> 1<br>"
+      + "</tt></body></html>";
+
+  /*
+   * A pool that serves the pages of its build servers from a map. Servers
+   * without pages can't be reached.
+   */
+  private static class FakeBuildServerPool extends BuildServerPool {
+    final Map<String, String> pages = new HashMap<String, String>();
+
+    FakeBuildServerPool(String hosts) {
+      super(hosts);
+    }
+
+    void addServer(String host, int active, int max, long freeMemory) {
+      pages.put("http://" + host + "/buildserver/health", "ok");
+      pages.put("http://" + host + "/buildserver/vars", "<html><body><tt>"
+          + "<b>max-memory</b> 1000<br><b>total-memory</b> 1000<br>"
+          + "<b>free-memory</b> " + freeMemory + "<br>"
+          + "<b>maximum-simultaneous-build-tasks-allowed</b> " + max + "<br>"
+          + "<b>active-build-tasks</b> " + active + "<br></tt></body></html>");
+    }
+
+    void addServerPage(String host, int active, int companionQueued, int appQueued) {
+      pages.put("http://" + host + "/buildserver/health", "ok");
+      pages.put("http://" + host + "/buildserver/vars",
+          String.format(VARS_PAGE, active, companionQueued, appQueued));
+    }
+
+    @Override
+    String fetch(String url) throws IOException {
+      if (!pages.containsKey(url)) {
+        throw new IOException("Connection refused");
+      }
+      return pages.get(url);
+    }
+  }
+
+  public void testParseVars() {
+    Map<String, String> vars = BuildServerPool.parseVars(
+        "<html><body><tt><b>state</b> UP<br><b>active-build-tasks</b> 3<br></tt></body></html>");
+    assertEquals("UP", vars.get("state"));
+    assertEquals("3", vars.get("active-build-tasks"));
+    assertNull(BuildServerPool.parseVars(null));
+  }
+
+  public void testQueuedTasksFromVarsPage() {
+    Map<String, String> vars = BuildServerPool.parseVars(String.format(VARS_PAGE, 4, 1, 2));
+    assertEquals("4", vars.get("active-build-tasks"));
+    assertEquals(3, BuildServerPool.getQueuedTasks(vars));
+  }
+
+  public void testQueuedBuildsCountTowardsTheLoad() {
+    FakeBuildServerPool pool = new FakeBuildServerPool("a:1,b:1");
+    // a runs fewer builds, but has more waiting.
+    pool.addServerPage("a:1", 2, 1, 2);
+    pool.addServerPage("b:1", 4, 0, 0);
+    assertEquals(Arrays.asList("b:1", "a:1"), pool.selectHosts());
+  }
+
+  public void testLeastLoadedFirst() {
+    FakeBuildServerPool pool = new FakeBuildServerPool("a:1, b:1,c:1,d:1");
+    pool.addServer("a:1", 3, 4, 500);
+    pool.addServer("b:1", 1, 4, 100);
+    pool.addServer("c:1", 1, 4, 800);
+    assertEquals(Arrays.asList("c:1", "b:1", "a:1"), pool.selectHosts());
+
+    // Builds that were sent since the last poll count towards the load.
+    pool.reportAccepted("c:1");
+    pool.reportAccepted("c:1");
+    pool.reportAccepted("c:1");
+    assertEquals(Arrays.asList("b:1", "a:1", "c:1"), pool.selectHosts());
+  }
+
+  public void testBusyServersAreSkipped() {
+    FakeBuildServerPool pool = new FakeBuildServerPool("a:1,b:1");
+    pool.addServer("a:1", 0, 4, 500);
+    pool.addServer("b:1", 1, 4, 500);
+    pool.reportBusy("a:1", 5000);
+    assertEquals(Arrays.asList("b:1"), pool.selectHosts());
+    pool.reportFailed("b:1");
+    assertTrue(pool.selectHosts().isEmpty());
+    long delay = pool.getRetryDelayMillis();
+    assertTrue(delay > 1000 && delay <= 5000);
+  }
+}
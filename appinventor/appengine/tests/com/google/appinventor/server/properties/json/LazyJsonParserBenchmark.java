@@ -0,0 +1,94 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+import com.google.appinventor.common.testutils.FormGenerator;
+import com.google.appinventor.shared.properties.json.JSONObject;
+import com.google.appinventor.shared.properties.json.JSONParser;
+import com.google.appinventor.shared.properties.json.JSONValue;
+import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares {@link ServerJsonParser} and {@link LazyJsonParser} on form
+ * files. This is not run with the tests.
+ *
+ * <p>Usage: LazyJsonParserBenchmark [file.scm ...]
+ *
+ * <p>Without arguments, a generated form with 2000 arrangements, each
+ * holding a label, is used. For each file the time to read the form name and
+ * version, which is all that some callers need, and the time to walk all
+ * components is reported.
+ *
+ */
+public class LazyJsonParserBenchmark {
+  private static final int ITERATIONS = 200;
+
+  public static void main(String[] args) throws IOException {
+    List<String> sources = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    if (args.length == 0) {
+      sources.add(FormGenerator.generateForm(2000));
+      names.add("generated form with 2000 arrangements");
+    }
+    for (String arg : args) {
+      sources.add(Files.toString(new File(arg), Charsets.UTF_8));
+      names.add(arg);
+    }
+    for (int i = 0; i < sources.size(); i++) {
+      String source = sources.get(i);
+      System.out.println(names.get(i) + " (" + source.length() + " characters)");
+      for (JSONParser parser : new JSONParser[] { new ServerJsonParser(), new LazyJsonParser() }) {
+        String parserName = parser.getClass().getSimpleName();
+        // Warm up
+        run(parser, source, false);
+        run(parser, source, true);
+        System.out.println("  " + parserName + ": name and version "
+            + run(parser, source, false) + " us, all components "
+            + run(parser, source, true) + " us");
+      }
+    }
+  }
+
+  /*
+   * Returns the average time in microseconds to parse the source and read
+   * either the form name and version or all component types.
+   */
+  private static long run(JSONParser parser, String source, boolean walk) {
+    long start = System.nanoTime();
+    int count = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      JSONObject form = YoungAndroidSourceAnalyzer.parseSourceFile(source, parser)
+          .get("Properties").asObject();
+      count += form.get("$Name").asString().getString().length();
+      count += form.get("$Version").asString().getString().length();
+      if (walk) {
+        count += countComponents(form);
+      }
+    }
+    if (count == 0) {
+      throw new AssertionError();
+    }
+    return (System.nanoTime() - start) / ITERATIONS / 1000;
+  }
+
+  private static int countComponents(JSONObject component) {
+    int count = component.get("$Type").asString().getString().length();
+    JSONValue components = component.get("$Components");
+    if (components != null) {
+      for (JSONValue child : components.asArray().getElements()) {
+        count += countComponents(child.asObject());
+      }
+    }
+    return count;
+  }
+}
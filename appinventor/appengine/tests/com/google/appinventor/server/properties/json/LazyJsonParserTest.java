@@ -0,0 +1,85 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.properties.json;
+
+import com.google.appinventor.shared.properties.json.JSONArray;
+import com.google.appinventor.shared.properties.json.JSONObject;
+import com.google.appinventor.shared.properties.json.JSONParser;
+import com.google.appinventor.shared.properties.json.JSONValue;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link LazyJsonParser}.
+ *
+ */
+public class LazyJsonParserTest extends TestCase {
+  private static final JSONParser LAZY_PARSER = new LazyJsonParser();
+  private static final JSONParser SERVER_PARSER = new ServerJsonParser();
+
+  private static final String FORM =
+      "{\"YaVersion\":\"100\",\"Source\":\"Form\",\"Properties\":{\"$Name\":\"Screen1\"," +
+      "\"$Type\":\"Form\",\"$Version\":\"14\",\"Uuid\":\"0\",\"Title\":\"Say \\\"hi\\\"\\n\"," +
+      "\"$Components\":[{\"$Name\":\"Button1\",\"$Type\":\"Button\",\"$Version\":\"6\"," +
+      "\"Text\":\"caf\\u00e9\",\"Uuid\":\"-123\"}, {\"$Name\":\"Canvas1\",\"$Type\":\"Canvas\"," +
+      "\"$Components\":[]}]}, \"Size\": 12.5, \"Count\": 3000000000, \"Visible\": true," +
+      " \"None\": null, \"Empty\": {}}";
+
+  public void testSameAsServerJsonParser() {
+    assertSameValue(SERVER_PARSER.parse(FORM), LAZY_PARSER.parse(FORM));
+  }
+
+  public void testAccessedSubtreesOnly() {
+    // The error in the second component is never reached.
+    String json = "{\"a\":{\"b\":[1,2,3]},\"c\":[{\"d\": tru}]}";
+    JSONObject object = LAZY_PARSER.parse(json).asObject();
+    assertEquals(2, object.get("a").asObject().get("b").asArray().get(1).asNumber().getInt());
+    assertEquals("[{\"d\": tru}]", object.get("c").toJson());
+    try {
+      object.get("c").asArray().get(0).asObject().get("d");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  public void testSyntaxErrors() {
+    try {
+      LAZY_PARSER.parse("{\"a\":1");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      LAZY_PARSER.parse("{\"a\" 1}").asObject().get("a");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  private static void assertSameValue(JSONValue expected, JSONValue actual) {
+    if (expected == null) {
+      assertNull(actual);
+    } else if (expected instanceof JSONObject) {
+      Map<String, JSONValue> expectedProperties = expected.asObject().getProperties();
+      Map<String, JSONValue> actualProperties = actual.asObject().getProperties();
+      assertEquals(expectedProperties.keySet(), actualProperties.keySet());
+      for (String key : expectedProperties.keySet()) {
+        assertSameValue(expectedProperties.get(key), actual.asObject().get(key));
+      }
+    } else if (expected instanceof JSONArray) {
+      assertEquals(expected.asArray().size(), actual.asArray().size());
+      for (int i = 0; i < expected.asArray().size(); i++) {
+        assertSameValue(expected.asArray().get(i), actual.asArray().get(i));
+      }
+    } else {
+      assertEquals(expected.toJson(), actual.toJson());
+    }
+  }
+}
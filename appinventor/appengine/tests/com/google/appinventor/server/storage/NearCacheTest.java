@@ -0,0 +1,64 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.server.LocalDatastoreTestCase;
+
+/**
+ * Tests for {@link NearCache}.
+ *
+ */
+public class NearCacheTest extends LocalDatastoreTestCase {
+  private MemcacheService memcache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    memcache = MemcacheServiceFactory.getMemcacheService();
+  }
+
+  public void testInvalidateOnOtherInstance() {
+    // Two caches stand for the near caches of two instances.
+    NearCache<String> cache1 = new NearCache<String>("test", memcache, 10, 0);
+    NearCache<String> cache2 = new NearCache<String>("test", memcache, 10, 0);
+    cache1.put("key", "value", cache1.currentVersion("key"));
+    assertEquals("value", cache1.get("key"));
+
+    cache2.invalidate("key");
+    assertNull(cache1.get("key"));
+    assertEquals(1L, (long) cache1.getStatistics().get("hits"));
+    assertEquals(1L, (long) cache1.getStatistics().get("misses"));
+  }
+
+  public void testVersionReadBeforeWriteIsOutOfDate() {
+    NearCache<String> cache = new NearCache<String>("test", memcache, 10, 0);
+    Long version = cache.currentVersion("key");
+    cache.invalidate("key");
+    cache.put("key", "old value", version);
+    assertNull(cache.get("key"));
+  }
+
+  public void testUnversionedEntriesExpire() throws Exception {
+    NearCache<String> cache = new NearCache<String>("test", memcache, 10, 50);
+    cache.put("key", "value", null);
+    assertEquals("value", cache.get("key"));
+    Thread.sleep(100);
+    assertNull(cache.get("key"));
+  }
+
+  public void testMaxEntries() {
+    NearCache<String> cache = new NearCache<String>("test", memcache, 2, 60000);
+    cache.put("key1", "value1", null);
+    cache.put("key2", "value2", null);
+    cache.get("key1");
+    cache.put("key3", "value3", null);
+    assertEquals("value1", cache.get("key1"));
+    assertNull(cache.get("key2"));
+    assertEquals("value3", cache.get("key3"));
+  }
+}
@@ -0,0 +1,78 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import com.googlecode.objectify.ObjectifyService;
+
+/**
+ * Tests for {@link ObjectifyGalleryStorageIo}.
+ *
+ */
+public class ObjectifyGalleryStorageIoTest extends LocalDatastoreTestCase {
+  private static final String USER_ID = "1500";
+  private static final String OTHER_USER_ID = "1501";
+  private static final String ADMIN_EMAIL = "admin@example.com";
+  private static final String HOST = "localhost";
+
+  private ObjectifyGalleryStorageIo galleryStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    galleryStorage = new ObjectifyGalleryStorageIo();
+    StorageIoInstanceHolder.INSTANCE.getUser(USER_ID);
+  }
+
+  public void testDownloadAndLikeDoNotWriteApp() {
+    GalleryApp app = galleryStorage.createGalleryApp("Title", "Project", "Description",
+        "More info", "Credit", 1, USER_ID);
+    long galleryId = app.getGalleryAppId();
+
+    // The first download rolls the counters up, and the next ones within the
+    // roll up interval don't.
+    galleryStorage.incrementDownloads(galleryId);
+    assertFalse(galleryStorage.checkIfSendAppStats(USER_ID, galleryId, ADMIN_EMAIL, HOST));
+    GalleryAppData appData = findGalleryAppData(galleryId);
+    assertEquals(1, appData.numDownloads);
+    assertEquals(1, appData.unreadDownloads);
+
+    // The client checks the app stats after every download and like.
+    galleryStorage.incrementDownloads(galleryId);
+    assertFalse(galleryStorage.checkIfSendAppStats(USER_ID, galleryId, ADMIN_EMAIL, HOST));
+    assertEquals(1, galleryStorage.increaseLikes(galleryId, OTHER_USER_ID));
+    assertFalse(galleryStorage.checkIfSendAppStats(USER_ID, galleryId, ADMIN_EMAIL, HOST));
+    assertEquals(0, galleryStorage.decreaseLikes(galleryId, OTHER_USER_ID));
+    assertFalse(galleryStorage.checkIfSendAppStats(USER_ID, galleryId, ADMIN_EMAIL, HOST));
+
+    appData = findGalleryAppData(galleryId);
+    assertEquals(1, appData.numDownloads);
+    assertEquals(1, appData.unreadDownloads);
+    assertEquals(0, appData.numLikes);
+    assertEquals(0, appData.unreadLikes);
+
+    // The first download also scheduled a roll up of the counts that came
+    // in after it.
+    QueueStateInfo queue =
+        LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo().get("gallerycounters");
+    assertEquals(1, queue.getCountTasks());
+    assertEquals("/gallerycounters", queue.getTaskInfo().get(0).getUrl());
+    galleryStorage.rollUpGalleryAppCounters(galleryId);
+    appData = findGalleryAppData(galleryId);
+    assertEquals(2, appData.numDownloads);
+    assertEquals(2, appData.unreadDownloads);
+    assertEquals(0, appData.numLikes);
+    assertEquals(0, appData.unreadLikes);
+  }
+
+  private GalleryAppData findGalleryAppData(long galleryId) {
+    return ObjectifyService.begin().find(GalleryAppData.class, galleryId);
+  }
+}
@@ -8,8 +8,14 @@ package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.server.storage.StoredData.FileData;
+import com.google.appinventor.server.storage.StoredData.FileDeltaLogData;
+import com.google.appinventor.server.storage.StoredData.GcsContentData;
+import com.google.appinventor.server.storage.StoredData.GcsContentRefData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
@@ -17,14 +23,27 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.hash.Hashing;
 
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests for {@link ObjectifyStorageIo}.
@@ -322,6 +341,25 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testUploadDownloadFiles() {
+    final String USER_ID = "1250";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    long modDate = storage.uploadFilesForce(projectId, USER_ID, contents,
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(modDate, storage.getProjectDateModified(USER_ID, projectId));
+
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1),
+        storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME2, FILE_NAME1),
+            StorageUtil.DEFAULT_CHARSET));
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME2,
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
@@ -431,6 +469,258 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     // TODO(sharon): should test large blob files (e.g., >2MB (chunk size), >4MB (row size));
   }
 
+  public void testSharedGcsContent() throws BlocksTruncatedException {
+    final String USER_ID = "1350";
+    storage.getUser(USER_ID);
+    long projectId1 = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    long projectId2 = createProject(
+        USER_ID, PROJECT_NAME + "Copy", YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId1, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    storage.addSourceFilesToProject(USER_ID, projectId2, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId2, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    assertTrue(storage.isGcsFile(projectId1, ASSET_FILE_NAME1));
+    assertTrue(storage.isGcsFile(projectId2, ASSET_FILE_NAME1));
+
+    // Saving the same content again and deleting one copy must not affect the other.
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    storage.deleteFile(USER_ID, projectId1, ASSET_FILE_NAME1);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, ASSET_FILE_NAME1)));
+
+    // Content that was stored again after all references were released is still readable.
+    storage.deleteProject(USER_ID, projectId2);
+    storage.addSourceFilesToProject(USER_ID, projectId1, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId1, ASSET_FILE_NAME1)));
+  }
+
+  public void testConcurrentGcsUpdatesOfCopiedProject() throws Exception {
+    final String USER_ID = "1355";
+    storage.getUser(USER_ID);
+    final long projectId1 = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId1, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    // A copy of the project shares the content of the asset.
+    Project copy = new Project(PROJECT_NAME + "Copy");
+    copy.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
+    copy.addRawFile(new RawFile(ASSET_FILE_NAME1, ASSET_FILE_CONTENT1));
+    long projectId2 = storage.createProject(USER_ID, copy, SETTINGS);
+    assertEquals(2, getGcsRefCount(ASSET_FILE_CONTENT1));
+
+    // Two saves of the asset of the original project race each other.
+    final byte[][] contents = {
+        { (byte) 1, (byte) 2, (byte) 3 },
+        { (byte) 4, (byte) 5, (byte) 6 }
+    };
+    final CountDownLatch ready = new CountDownLatch(contents.length);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (final byte[] content : contents) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          setUpThread();
+          ready.countDown();
+          try {
+            start.await();
+            storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, content);
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    ready.await();
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertNull(failure.get());
+
+    // Only the content that won and the content of the copy are referenced.
+    byte[] saved = storage.downloadRawFile(USER_ID, projectId1, ASSET_FILE_NAME1);
+    byte[] lost = Arrays.equals(contents[0], saved) ? contents[1] : contents[0];
+    assertTrue(Arrays.equals(contents[0], saved) || Arrays.equals(contents[1], saved));
+    assertEquals(1, getGcsRefCount(saved));
+    assertEquals(0, getGcsRefCount(lost));
+    assertEquals(1, getGcsRefCount(ASSET_FILE_CONTENT1));
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, ASSET_FILE_NAME1)));
+
+    // Deleting a file that is already deleted releases nothing.
+    storage.deleteFile(USER_ID, projectId1, ASSET_FILE_NAME1);
+    storage.deleteFile(USER_ID, projectId1, ASSET_FILE_NAME1);
+    assertEquals(0, getGcsRefCount(saved));
+    assertEquals(1, getGcsRefCount(ASSET_FILE_CONTENT1));
+    storage.deleteProject(USER_ID, projectId2);
+    assertEquals(0, getGcsRefCount(ASSET_FILE_CONTENT1));
+  }
+
+  /*
+   * Returns the reference count of GCS content, after checking that it
+   * matches the number of references.
+   */
+  private int getGcsRefCount(byte[] content) {
+    Objectify datastore = ObjectifyService.begin();
+    String hash = Hashing.sha256().hashBytes(content).toString();
+    GcsContentData cd = datastore.find(GcsContentData.class, hash);
+    int refs = datastore.query(GcsContentRefData.class)
+        .ancestor(new Key<GcsContentData>(GcsContentData.class, hash)).count();
+    int refCount = (cd == null) ? 0 : cd.refCount;
+    assertEquals(refs, refCount);
+    return refCount;
+  }
+
+  public void testStreamedUpload() throws IOException {
+    final String USER_ID = "1360";
+    storage.getUser(USER_ID);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addOutputFilesToProject(USER_ID, projectId, APK_FILE_NAME1);
+    storage.uploadRawFileForce(projectId, APK_FILE_NAME1, USER_ID,
+        new ByteArrayInputStream(APK_FILE_CONTENT));
+    assertTrue(Arrays.equals(APK_FILE_CONTENT,
+        storage.downloadRawFile(USER_ID, projectId, APK_FILE_NAME1)));
+
+    // Large content is written to GCS while it is read.
+    byte[] largeContent = new byte[1024 * 1024 + 17];
+    new Random(0).nextBytes(largeContent);
+    storage.uploadRawFileForce(projectId, APK_FILE_NAME1, USER_ID,
+        new ByteArrayInputStream(largeContent));
+    assertTrue(storage.isGcsFile(projectId, APK_FILE_NAME1));
+    assertTrue(Arrays.equals(largeContent,
+        storage.downloadRawFile(USER_ID, projectId, APK_FILE_NAME1)));
+
+    // An upload whose content can't be read completely leaves the file as it was.
+    byte[] partialContent = new byte[1024 * 1024 + 17];
+    InputStream failingContent = new SequenceInputStream(
+        new ByteArrayInputStream(partialContent),
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("connection reset");
+          }
+        });
+    try {
+      storage.uploadRawFileForce(projectId, APK_FILE_NAME1, USER_ID, failingContent);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertTrue(Arrays.equals(largeContent,
+        storage.downloadRawFile(USER_ID, projectId, APK_FILE_NAME1)));
+
+    storage.removeOutputFilesFromProject(USER_ID, projectId, APK_FILE_NAME1);
+    assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(APK_FILE_NAME1));
+  }
+
+  public void testUploadFileDelta() throws Exception {
+    final String USER_ID = "1370";
+    final String BKY_FILE_NAME = "src/Screen1.bky";
+    storage.getUser(USER_ID);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, BKY_FILE_NAME);
+    StringBuilder blocks = new StringBuilder("<xml>");
+    for (int i = 0; i < 20; i++) {
+      blocks.append("<block type=\"text\" x=\"").append(i).append("\" y=\"0\"></block>");
+    }
+    String base = blocks.append("</xml>").toString();
+    storage.uploadFileForce(projectId, BKY_FILE_NAME, USER_ID, base, "UTF-8");
+
+    String content = base.replace("x=\"7\"", "x=\"70\"");
+    storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+        FileDelta.compute(base, content), "UTF-8");
+    assertEquals(content, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME, "UTF-8"));
+
+    // A delta from content the server doesn't have is rejected.
+    try {
+      storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+          FileDelta.compute(base, base + " "), "UTF-8");
+      fail();
+    } catch (FileDeltaMismatchException e) {
+      // Expected
+    }
+
+    // A delta that empties the workspace is caught like a whole trivial workspace.
+    try {
+      storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+          FileDelta.compute(content, "<xml></xml>"), "UTF-8");
+      fail();
+    } catch (BlocksTruncatedException e) {
+      // Expected
+    }
+    assertEquals(content, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME, "UTF-8"));
+  }
+
+  public void testFileDeltaLog() throws Exception {
+    final String USER_ID = "1380";
+    final String BKY_FILE_NAME = "src/Screen1.bky";
+    storage.getUser(USER_ID);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, BKY_FILE_NAME);
+    StringBuilder blocks = new StringBuilder("<xml>");
+    for (int i = 0; i < 20; i++) {
+      blocks.append("<block type=\"text\" x=\"").append(i).append("\" y=\"0\"></block>");
+    }
+    String content = blocks.append("</xml>").toString();
+    storage.uploadFileForce(projectId, BKY_FILE_NAME, USER_ID, content, "UTF-8");
+
+    // The first delta saves the file and starts its log, and the next ones
+    // are only added to the log.
+    for (int i = 1; i <= ObjectifyStorageIo.DELTA_LOG_MAX_CHANGES; i++) {
+      String newContent = content.replace("y=\"" + (i - 1) + "\"", "y=\"" + i + "\"");
+      storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+          FileDelta.compute(content, newContent), "UTF-8");
+      content = newContent;
+      assertEquals(i - 1, findDeltaLog(projectId, BKY_FILE_NAME).changeCount);
+      assertEquals(content, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME, "UTF-8"));
+    }
+    assertEquals(Arrays.asList(content), storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(BKY_FILE_NAME), "UTF-8"));
+
+    // Once the log is long enough, it is folded into the file.
+    String newContent = content + " ";
+    storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+        FileDelta.compute(content, newContent), "UTF-8");
+    content = newContent;
+    assertEquals(0, findDeltaLog(projectId, BKY_FILE_NAME).changeCount);
+    assertTrue(findFileData(projectId, BKY_FILE_NAME).hasDeltaLog);
+    assertEquals(content, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME, "UTF-8"));
+
+    // A full save ends the log.
+    storage.uploadFileDelta(projectId, BKY_FILE_NAME, USER_ID, false,
+        FileDelta.compute(content, content + "  "), "UTF-8");
+    storage.uploadFileForce(projectId, BKY_FILE_NAME, USER_ID, content, "UTF-8");
+    assertFalse(findFileData(projectId, BKY_FILE_NAME).hasDeltaLog);
+    assertNull(findDeltaLog(projectId, BKY_FILE_NAME));
+    assertEquals(content, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME, "UTF-8"));
+  }
+
+  private FileData findFileData(long projectId, String fileName) {
+    return ObjectifyService.begin().find(new Key<FileData>(
+        new Key<ProjectData>(ProjectData.class, projectId), FileData.class, fileName));
+  }
+
+  private FileDeltaLogData findDeltaLog(long projectId, String fileName) {
+    return ObjectifyService.begin().find(new Key<FileDeltaLogData>(
+        new Key<ProjectData>(ProjectData.class, projectId), FileDeltaLogData.class, fileName));
+  }
+
   public void testOldBlockFilesInDatastoreStillWork() throws BlocksTruncatedException {
     // Create new storage object that forces storage in the datastore
     ObjectifyStorageIo oldStyleStorage = new ObjectifyStorageIo() {
@@ -468,6 +758,32 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(FAKE_PROJECT_TYPE, result.type);
   }
 
+  public void testGetUserProjects() {
+    final String USER_ID = "1450";
+    storage.getUser(USER_ID);
+    long projectId1 = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    List<UserProject> projects = storage.getUserProjects(USER_ID);
+    assertEquals(1, projects.size());
+    assertEquals(PROJECT_NAME, projects.get(0).getProjectName());
+    assertEquals(FAKE_PROJECT_TYPE, projects.get(0).getProjectType());
+
+    long projectId2 = createProject(USER_ID, PROJECT_NAME + "2", FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.setProjectGalleryId(USER_ID, projectId2, 42);
+    projects = storage.getUserProjects(USER_ID);
+    assertEquals(2, projects.size());
+    for (UserProject project : projects) {
+      assertEquals(storage.getUserProject(USER_ID, project.getProjectId()), project);
+      assertEquals(project.getProjectId() == projectId2 ? 42 : UserProject.NOTPUBLISHED,
+          project.getGalleryId());
+    }
+
+    storage.deleteProject(USER_ID, projectId1);
+    projects = storage.getUserProjects(USER_ID);
+    assertEquals(1, projects.size());
+    assertEquals(projectId2, projects.get(0).getProjectId());
+  }
+
   public void testGetProject_withNonexistentProject() {
     final String USER_ID = "1500";
     storage.getUser(USER_ID);
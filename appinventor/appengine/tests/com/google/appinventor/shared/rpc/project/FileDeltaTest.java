@@ -0,0 +1,52 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FileDelta}.
+ *
+ */
+public class FileDeltaTest extends TestCase {
+  private static final String BASE =
+      "<xml><block type=\"text\" x=\"10\" y=\"20\"><field name=\"TEXT\">a</field></block></xml>";
+
+  public void testApply() {
+    String content = BASE.replace("x=\"10\"", "x=\"125\"");
+    FileDelta delta = FileDelta.compute(BASE, content);
+    assertTrue(delta.getTextLength() <= 3);
+    assertEquals(content, delta.apply(BASE));
+  }
+
+  public void testInsertAndDelete() {
+    assertEquals(BASE + "<more/>", FileDelta.compute(BASE, BASE + "<more/>").apply(BASE));
+    assertEquals("", FileDelta.compute(BASE, "").apply(BASE));
+    assertEquals(BASE, FileDelta.compute("", BASE).apply(""));
+    assertEquals(BASE, FileDelta.compute(BASE, BASE).apply(BASE));
+  }
+
+  public void testRepeatedText() {
+    // The common prefix and suffix overlap
+    assertEquals("aaaa", FileDelta.compute("aaa", "aaaa").apply("aaa"));
+    assertEquals("aa", FileDelta.compute("aaa", "aa").apply("aaa"));
+  }
+
+  public void testWrongBase() {
+    FileDelta delta = FileDelta.compute(BASE, BASE.replace(">a<", ">b<"));
+    assertNull(delta.apply(BASE.replace(">a<", ">c<")));
+    assertNull(delta.apply(BASE + " "));
+  }
+
+  public void testSurrogatePairsAreNotSplit() {
+    // Both characters have the same high surrogate
+    String base = "x\uD83D\uDE00y";
+    String content = "x\uD83D\uDE01y";
+    FileDelta delta = FileDelta.compute(base, content);
+    assertEquals(2, delta.getTextLength());
+    assertEquals(content, delta.apply(base));
+  }
+}
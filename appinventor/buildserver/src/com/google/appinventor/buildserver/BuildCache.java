@@ -0,0 +1,428 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content-addressed cache of intermediate build artifacts.
+ *
+ * <p>Entries are keyed on a hash of everything that goes into a build stage, so a stage whose
+ * inputs did not change since an earlier build can copy its outputs from the cache instead of
+ * running again. Keys always include the build server version, which covers the compilers and
+ * runtime files that are bundled with the server.</p>
+ *
+ * <p>Each entry is a directory below the cache directory. The total size of the entries is bounded;
+ * when it is exceeded, the least recently used entries are deleted.</p>
+ */
+final class BuildCache {
+  /**
+   * The kinds of artifacts that are cached.
+   */
+  enum Kind {
+    // The class files of one form, keyed on its YAIL.
+    FORM_CLASSES("classes"),
+    // The dexed application classes, keyed on the class files and libraries.
+    DEX("dex"),
+    // The resource package written by aapt, keyed on the manifest, resources and assets.
+    RESOURCES("aapt");
+
+    private final String varName;
+
+    Kind(String varName) {
+      this.varName = varName;
+    }
+
+    String getVarName() {
+      return varName;
+    }
+  }
+
+  /**
+   * Computes the key of a cache entry from the inputs of a build stage.
+   */
+  static final class KeyBuilder {
+    private final Kind kind;
+    private final Hasher hasher = Hashing.sha1().newHasher();
+
+    private KeyBuilder(Kind kind) {
+      this.kind = kind;
+      putString(FORMAT_VERSION);
+      putString(GitBuildId.getVersion());
+      putString(GitBuildId.getFingerprint());
+    }
+
+    KeyBuilder putString(String value) {
+      hasher.putInt(value.length());
+      hasher.putString(value, Charsets.UTF_8);
+      return this;
+    }
+
+    KeyBuilder putStrings(Collection<String> values) {
+      hasher.putInt(values.size());
+      for (String value : values) {
+        putString(value);
+      }
+      return this;
+    }
+
+    KeyBuilder putFile(File file) throws IOException {
+      hasher.putBytes(Files.hash(file, Hashing.sha1()).asBytes());
+      return this;
+    }
+
+    /**
+     * Adds the relative paths and contents of all files below the given directory. A directory
+     * that doesn't exist is treated like an empty one.
+     */
+    KeyBuilder putTree(File dir) throws IOException {
+      List<File> files = Lists.newArrayList();
+      listFiles(dir, files);
+      String prefix = dir.getAbsolutePath() + File.separator;
+      for (File file : files) {
+        putString(file.getAbsolutePath().substring(prefix.length()));
+        putFile(file);
+      }
+      return this;
+    }
+
+    String build() {
+      return kind.getVarName() + "-" + hasher.hash().toString();
+    }
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  // Changing this invalidates all existing cache entries.
+  private static final String FORMAT_VERSION = "1";
+
+  // The name under which storeFile() keeps its single file.
+  private static final String FILE_ENTRY = "file";
+
+  // The prefix of directories where entries are written before they are renamed into place.
+  private static final String TMP_PREFIX = ".tmp-";
+
+  // The cache used by the compiler. Null means that nothing is cached.
+  private static volatile BuildCache instance = null;
+
+  private final File cacheDir;
+  private final long maxBytes;
+
+  // The size of each entry, in access order. Guarded by itself.
+  private final LinkedHashMap<String, Long> entries =
+      new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long totalBytes;
+
+  private final Map<Kind, AtomicInteger> hits = new EnumMap<Kind, AtomicInteger>(Kind.class);
+  private final Map<Kind, AtomicInteger> misses = new EnumMap<Kind, AtomicInteger>(Kind.class);
+  private final AtomicInteger evictions = new AtomicInteger(0);
+
+  /**
+   * Creates a BuildCache. Entries left in the cache directory by an earlier run are kept.
+   *
+   * @param cacheDir the directory that holds the entries
+   * @param maxBytes the maximum total size of the entries
+   */
+  BuildCache(File cacheDir, long maxBytes) {
+    this.cacheDir = cacheDir;
+    this.maxBytes = maxBytes;
+    for (Kind kind : Kind.values()) {
+      hits.put(kind, new AtomicInteger(0));
+      misses.put(kind, new AtomicInteger(0));
+    }
+    cacheDir.mkdirs();
+    loadEntries();
+  }
+
+  static BuildCache getInstance() {
+    return instance;
+  }
+
+  static void setInstance(BuildCache cache) {
+    instance = cache;
+  }
+
+  static KeyBuilder newKey(Kind kind) {
+    return new KeyBuilder(kind);
+  }
+
+  /*
+   * Indexes the entries of an earlier run, oldest first, and removes incomplete ones.
+   */
+  private void loadEntries() {
+    File[] dirs = cacheDir.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    Arrays.sort(dirs, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long diff = a.lastModified() - b.lastModified();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+    synchronized (entries) {
+      for (File dir : dirs) {
+        if (dir.getName().startsWith(TMP_PREFIX)) {
+          deleteRecursively(dir);
+        } else if (dir.isDirectory()) {
+          long size = sizeOf(dir);
+          entries.put(dir.getName(), size);
+          totalBytes += size;
+        }
+      }
+      evictIfNecessary();
+    }
+  }
+
+  /**
+   * Copies the files of an entry into the given directory, keeping their relative paths.
+   *
+   * @return {@code true} if the entry was found and copied, {@code false} otherwise
+   */
+  boolean restore(String key, File baseDir) {
+    File entryDir = lookup(key);
+    if (entryDir != null) {
+      try {
+        List<File> files = Lists.newArrayList();
+        listFiles(entryDir, files);
+        if (files.isEmpty()) {
+          throw new IOException(entryDir + " is empty");
+        }
+        String prefix = entryDir.getAbsolutePath() + File.separator;
+        for (File file : files) {
+          File target = new File(baseDir, file.getAbsolutePath().substring(prefix.length()));
+          Files.createParentDirs(target);
+          Files.copy(file, target);
+        }
+        hits.get(kindOf(key)).incrementAndGet();
+        return true;
+      } catch (IOException e) {
+        // The entry was probably evicted while we were copying it.
+        LOG.log(Level.WARNING, "Unable to restore build cache entry " + key, e);
+      }
+    }
+    misses.get(kindOf(key)).incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Copies the file stored by {@link #storeFile} to the given target.
+   *
+   * @return {@code true} if the entry was found and copied, {@code false} otherwise
+   */
+  boolean restoreFile(String key, File target) {
+    File entryDir = lookup(key);
+    if (entryDir != null) {
+      try {
+        Files.copy(new File(entryDir, FILE_ENTRY), target);
+        hits.get(kindOf(key)).incrementAndGet();
+        return true;
+      } catch (IOException e) {
+        // The entry was probably evicted while we were copying it.
+        LOG.log(Level.WARNING, "Unable to restore build cache entry " + key, e);
+      }
+    }
+    misses.get(kindOf(key)).incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Stores the given files, which must all be below baseDir, as a new entry. Failures are logged
+   * and otherwise ignored; they only mean that a later build can't use the entry.
+   */
+  void store(String key, File baseDir, Collection<File> files) {
+    String prefix = baseDir.getAbsolutePath() + File.separator;
+    File tmpDir = new File(cacheDir, TMP_PREFIX + UUID.randomUUID());
+    try {
+      if (files.isEmpty()) {
+        throw new IOException("No files to store");
+      }
+      for (File file : files) {
+        String path = file.getAbsolutePath();
+        if (!path.startsWith(prefix)) {
+          throw new IOException(path + " is not below " + baseDir);
+        }
+        File target = new File(tmpDir, path.substring(prefix.length()));
+        Files.createParentDirs(target);
+        Files.copy(file, target);
+      }
+      commit(key, tmpDir);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store build cache entry " + key, e);
+      deleteRecursively(tmpDir);
+    }
+  }
+
+  /**
+   * Stores a single file as a new entry. It can be restored under a different name.
+   */
+  void storeFile(String key, File file) {
+    File tmpDir = new File(cacheDir, TMP_PREFIX + UUID.randomUUID());
+    try {
+      File target = new File(tmpDir, FILE_ENTRY);
+      Files.createParentDirs(target);
+      Files.copy(file, target);
+      commit(key, tmpDir);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store build cache entry " + key, e);
+      deleteRecursively(tmpDir);
+    }
+  }
+
+  private File lookup(String key) {
+    synchronized (entries) {
+      if (entries.get(key) == null) {
+        return null;
+      }
+    }
+    return new File(cacheDir, key);
+  }
+
+  /*
+   * Moves a completely written entry into place, so that a partial entry is never visible.
+   */
+  private void commit(String key, File tmpDir) throws IOException {
+    long size = sizeOf(tmpDir);
+    synchronized (entries) {
+      if (entries.containsKey(key)) {
+        // Another build stored the same content in the meantime.
+        deleteRecursively(tmpDir);
+        return;
+      }
+      File entryDir = new File(cacheDir, key);
+      deleteRecursively(entryDir);
+      if (!tmpDir.renameTo(entryDir)) {
+        throw new IOException("Unable to rename " + tmpDir + " to " + entryDir);
+      }
+      entries.put(key, size);
+      totalBytes += size;
+      evictIfNecessary();
+    }
+  }
+
+  /*
+   * Deletes least recently used entries until the cache fits in maxBytes. The newest entry is
+   * always kept. Must be called while holding the lock on entries.
+   */
+  private void evictIfNecessary() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      totalBytes -= eldest.getValue();
+      evictions.incrementAndGet();
+      deleteRecursively(new File(cacheDir, eldest.getKey()));
+    }
+  }
+
+  private static Kind kindOf(String key) {
+    String varName = key.substring(0, key.indexOf('-'));
+    for (Kind kind : Kind.values()) {
+      if (kind.getVarName().equals(varName)) {
+        return kind;
+      }
+    }
+    throw new IllegalArgumentException("Invalid build cache key " + key);
+  }
+
+  /*
+   * Adds all files below dir to the given list, sorted by path.
+   */
+  private static void listFiles(File dir, List<File> result) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      if (child.isDirectory()) {
+        listFiles(child, result);
+      } else {
+        result.add(child);
+      }
+    }
+  }
+
+  private static long sizeOf(File dir) {
+    List<File> files = Lists.newArrayList();
+    listFiles(dir, files);
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    return size;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  int getHitCount(Kind kind) {
+    return hits.get(kind).get();
+  }
+
+  int getMissCount(Kind kind) {
+    return misses.get(kind).get();
+  }
+
+  int getEvictionCount() {
+    return evictions.get();
+  }
+
+  int getEntryCount() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  long getSizeBytes() {
+    synchronized (entries) {
+      return totalBytes;
+    }
+  }
+
+  /**
+   * Adds the cache statistics to the given map of server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    variables.put("build-cache-entries", getEntryCount() + "");
+    variables.put("build-cache-size-bytes", getSizeBytes() + "");
+    variables.put("build-cache-max-bytes", maxBytes + "");
+    variables.put("build-cache-evictions", getEvictionCount() + "");
+    for (Kind kind : Kind.values()) {
+      String prefix = "build-cache-" + kind.getVarName() + "-";
+      variables.put(prefix + "hits", getHitCount(kind) + "");
+      variables.put(prefix + "misses", getMissCount(kind) + "");
+    }
+  }
+}
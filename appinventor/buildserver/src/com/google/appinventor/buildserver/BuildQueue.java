@@ -0,0 +1,364 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} that runs a limited number of builds at the same time and queues the rest.
+ *
+ * <p>Builds are admitted into one of two {@link Lane}s, each with its own bounded queue. When a
+ * build finishes, the next build is taken from the companion lane if it has one waiting, and from
+ * the app lane otherwise. A build is only rejected when the queue of its lane is full.</p>
+ *
+ * <p>The queue keeps a running average of build times, which is used to estimate how long a new
+ * build would have to wait.</p>
+ */
+final class BuildQueue implements Executor {
+  /**
+   * The lanes in which builds wait. Companion builds are small and interactive, so they go first.
+   */
+  enum Lane {
+    COMPANION("companion"),
+    APP("app");
+
+    private final String varName;
+
+    Lane(String varName) {
+      this.varName = varName;
+    }
+
+    /**
+     * Returns the name used for this lane on the /buildserver/vars page and in requests.
+     */
+    String getVarName() {
+      return varName;
+    }
+
+    /**
+     * Returns the lane with the given name, or APP if there is none.
+     */
+    static Lane fromName(String name) {
+      for (Lane lane : values()) {
+        if (lane.varName.equals(name)) {
+          return lane;
+        }
+      }
+      return APP;
+    }
+  }
+
+  /*
+   * A build waiting in a lane.
+   */
+  private static class QueuedTask {
+    // Null until the input of the build has been received. Guarded by lock.
+    private Runnable runnable;
+    private final Lane lane;
+    private final long enqueueTime;
+
+    QueuedTask(Lane lane) {
+      this.lane = lane;
+      this.enqueueTime = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * A build that was given a slot, or a place in its lane, before its input has been received.
+   * Exactly one of {@link #start} and {@link #cancel} must be called.
+   */
+  final class Admission {
+    private final QueuedTask task;
+    // Whether the build holds a slot rather than a place in its lane.
+    private final boolean hasSlot;
+
+    private Admission(QueuedTask task, boolean hasSlot) {
+      this.task = task;
+      this.hasSlot = hasSlot;
+    }
+
+    /**
+     * Runs the build now if it holds a slot or one has become free, and when it is its turn
+     * otherwise.
+     */
+    void start(Runnable runnable) {
+      synchronized (lock) {
+        task.runnable = runnable;
+        if (!hasSlot) {
+          if (!hasFreeSlot()) {
+            // A finishing task takes it from the lane.
+            return;
+          }
+          queues.get(task.lane).remove(task);
+          activeTaskCount++;
+        }
+      }
+      startThread(task);
+    }
+
+    /**
+     * Gives up the slot or the place in the lane, for a build whose input could not be received.
+     */
+    void cancel() {
+      QueuedTask next;
+      synchronized (lock) {
+        if (!hasSlot) {
+          queues.get(task.lane).remove(task);
+          return;
+        }
+        next = pollReadyTask();
+        if (next == null) {
+          activeTaskCount--;
+          return;
+        }
+      }
+      startThread(next);
+    }
+  }
+
+  // The upper bounds, in seconds, of the buckets of the queue time histograms. The last bucket
+  // holds everything above the last bound.
+  private static final int[] HISTOGRAM_BOUNDS_SECONDS = { 1, 5, 15, 30, 60, 120, 300 };
+
+  // The build time assumed before any build has finished.
+  private static final long INITIAL_AVERAGE_BUILD_MILLIS = 60000;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildQueue.class.getName());
+
+  // The maximum number of active tasks. 0 means unlimited.
+  private final int maxActiveTasks;
+  // The maximum number of tasks waiting in each lane.
+  private final Map<Lane, Integer> maxQueuedTasks;
+
+  // Guarded by lock.
+  private final Map<Lane, LinkedList<QueuedTask>> queues =
+      new EnumMap<Lane, LinkedList<QueuedTask>>(Lane.class);
+  private int activeTaskCount;
+  private long averageBuildMillis = INITIAL_AVERAGE_BUILD_MILLIS;
+  private final Object lock = new Object();
+
+  private final AtomicInteger completedTaskCount = new AtomicInteger(0);
+  private final Map<Lane, AtomicInteger> rejectedTaskCounts =
+      new EnumMap<Lane, AtomicInteger>(Lane.class);
+  private final Map<Lane, AtomicLongArray> queueTimeHistograms =
+      new EnumMap<Lane, AtomicLongArray>(Lane.class);
+
+  /**
+   * Creates a BuildQueue.
+   *
+   * @param maxActiveTasks the maximum number of active tasks; 0 means unlimited
+   * @param maxQueuedTasks the maximum number of tasks waiting in each lane; lanes that are not in
+   *     the map have no queue, so their tasks are rejected when all slots are busy
+   */
+  BuildQueue(int maxActiveTasks, Map<Lane, Integer> maxQueuedTasks) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = new EnumMap<Lane, Integer>(Lane.class);
+    for (Lane lane : Lane.values()) {
+      Integer max = maxQueuedTasks.get(lane);
+      this.maxQueuedTasks.put(lane, max == null ? 0 : Math.max(0, max));
+      queues.put(lane, new LinkedList<QueuedTask>());
+      rejectedTaskCounts.put(lane, new AtomicInteger(0));
+      queueTimeHistograms.put(lane, new AtomicLongArray(HISTOGRAM_BOUNDS_SECONDS.length + 1));
+    }
+  }
+
+  /**
+   * Runs the task in the app lane.
+   *
+   * @throws RejectedExecutionException if the app lane is full
+   */
+  @Override
+  public void execute(Runnable runnable) {
+    execute(runnable, Lane.APP);
+  }
+
+  /**
+   * Runs the task now if a slot is free, and queues it in the given lane otherwise.
+   *
+   * @throws RejectedExecutionException if the queue of the lane is full
+   */
+  void execute(Runnable runnable, Lane lane) {
+    admit(lane).start(runnable);
+  }
+
+  /**
+   * Gives a build a slot if one is free, and a place in the given lane otherwise, before its
+   * input is received. That way a build that would be rejected is rejected before its input is
+   * read. The queue time of the build includes the time to receive its input.
+   *
+   * @throws RejectedExecutionException if the queue of the lane is full
+   */
+  Admission admit(Lane lane) {
+    QueuedTask task = new QueuedTask(lane);
+    synchronized (lock) {
+      if (hasFreeSlot()) {
+        activeTaskCount++;
+        return new Admission(task, true);
+      } else if (queues.get(lane).size() < maxQueuedTasks.get(lane)) {
+        queues.get(lane).addLast(task);
+        LOG.info("Queued " + lane.getVarName() + " build, " + queues.get(lane).size() +
+            " waiting in that lane");
+        return new Admission(task, false);
+      } else {
+        rejectedTaskCounts.get(lane).incrementAndGet();
+        throw new RejectedExecutionException();
+      }
+    }
+  }
+
+  // Must be called with lock held.
+  private boolean hasFreeSlot() {
+    return maxActiveTasks == 0 || activeTaskCount < maxActiveTasks;
+  }
+
+  /*
+   * Removes and returns the first task whose input has been received, from the companion lane if
+   * it has one and from the app lane otherwise. Must be called with lock held.
+   */
+  private QueuedTask pollReadyTask() {
+    for (Lane lane : Lane.values()) {
+      Iterator<QueuedTask> iterator = queues.get(lane).iterator();
+      while (iterator.hasNext()) {
+        QueuedTask task = iterator.next();
+        if (task.runnable != null) {
+          iterator.remove();
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  private void startThread(final QueuedTask firstTask) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        QueuedTask task = firstTask;
+        while (task != null) {
+          recordQueueTime(task);
+          long start = System.currentTimeMillis();
+          try {
+            task.runnable.run();
+          } catch (Throwable e) {
+            // The thread goes on with the next queued task, which would otherwise never run.
+            LOG.log(Level.SEVERE, "Build task failed", e);
+          }
+          task = finishTask(System.currentTimeMillis() - start);
+        }
+      }
+    });
+    thread.start();
+  }
+
+  /*
+   * Records a finished task and returns the next task to run in the same thread, or null if no
+   * task is waiting.
+   */
+  private QueuedTask finishTask(long buildMillis) {
+    completedTaskCount.incrementAndGet();
+    synchronized (lock) {
+      // Exponentially weighted, so the estimate follows changes in load.
+      averageBuildMillis = (averageBuildMillis * 7 + buildMillis) / 8;
+      // Builds whose input is still being received stay in their lane. They are started when
+      // their input is complete, if a slot is free then.
+      QueuedTask next = pollReadyTask();
+      if (next == null) {
+        activeTaskCount--;
+      }
+      return next;
+    }
+  }
+
+  private void recordQueueTime(QueuedTask task) {
+    long queueSeconds = (System.currentTimeMillis() - task.enqueueTime) / 1000;
+    int bucket = 0;
+    while (bucket < HISTOGRAM_BOUNDS_SECONDS.length
+        && queueSeconds >= HISTOGRAM_BOUNDS_SECONDS[bucket]) {
+      bucket++;
+    }
+    queueTimeHistograms.get(task.lane).incrementAndGet(bucket);
+  }
+
+  /**
+   * Estimates how long a task added to the given lane now would wait before it starts.
+   */
+  long estimateWaitMillis(Lane lane) {
+    synchronized (lock) {
+      if (hasFreeSlot()) {
+        return 0;
+      }
+      int ahead = 0;
+      for (Lane other : Lane.values()) {
+        ahead += queues.get(other).size();
+        if (other == lane) {
+          break;
+        }
+      }
+      // The task starts after the builds ahead of it have run in maxActiveTasks parallel slots,
+      // and one of the currently active builds has finished.
+      return (ahead / maxActiveTasks + 1) * averageBuildMillis;
+    }
+  }
+
+  int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  int getActiveTaskCount() {
+    synchronized (lock) {
+      return activeTaskCount;
+    }
+  }
+
+  int getCompletedTaskCount() {
+    return completedTaskCount.get();
+  }
+
+  int getQueuedTaskCount(Lane lane) {
+    synchronized (lock) {
+      return queues.get(lane).size();
+    }
+  }
+
+  int getRejectedTaskCount(Lane lane) {
+    return rejectedTaskCounts.get(lane).get();
+  }
+
+  /**
+   * Adds the queue statistics, including a histogram of queue times per lane, to the given map of
+   * server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    synchronized (lock) {
+      variables.put("build-queue-average-build-ms", averageBuildMillis + "");
+    }
+    for (Lane lane : Lane.values()) {
+      String prefix = "build-queue-" + lane.getVarName() + "-";
+      variables.put(prefix + "max-queued", maxQueuedTasks.get(lane) + "");
+      variables.put(prefix + "queued", getQueuedTaskCount(lane) + "");
+      variables.put(prefix + "rejected", getRejectedTaskCount(lane) + "");
+      variables.put(prefix + "estimated-wait-ms", estimateWaitMillis(lane) + "");
+      AtomicLongArray histogram = queueTimeHistograms.get(lane);
+      int lowerBound = 0;
+      for (int i = 0; i < HISTOGRAM_BOUNDS_SECONDS.length; i++) {
+        variables.put(prefix + "wait-" + lowerBound + "-" + HISTOGRAM_BOUNDS_SECONDS[i] + "s",
+            histogram.get(i) + "");
+        lowerBound = HISTOGRAM_BOUNDS_SECONDS[i];
+      }
+      variables.put(prefix + "wait-over-" + lowerBound + "s",
+          histogram.get(HISTOGRAM_BOUNDS_SECONDS.length) + "");
+    }
+  }
+}
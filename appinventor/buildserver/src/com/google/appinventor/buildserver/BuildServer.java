@@ -26,7 +26,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PushbackInputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
@@ -37,10 +39,12 @@ import java.net.InetAddress;
 import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -79,6 +83,14 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of app builds that wait for a free slot when maxSimultaneousBuilds builds are running. Additional builds are rejected.")
+    int maxQueuedBuilds = 20;
+
+    @Option(name = "--maxQueuedCompanionBuilds",
+      usage = "Maximum number of companion builds that wait for a free slot. They are started before queued app builds.")
+    int maxQueuedCompanionBuilds = 5;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +107,65 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--workspaceDir",
+      usage = "The directory in which projects are unpacked and built. Use a tmpfs (for example /dev/shm) to keep builds in memory. Defaults to java.io.tmpdir.")
+    String workspaceDir = null;
+
+    @Option(name = "--dexWarmUpThreads",
+      usage = "Number of dx processes used to pre-dex all libraries into the dexCacheDir when the server starts. They run besides the maxSimultaneousDx processes of builds, but count against stageMemoryBudgetMb. 0 means libraries are pre-dexed by the first build that needs them.")
+    int dexWarmUpThreads = 2;
+
+    @Option(name = "--maxSimultaneousYailGen",
+      usage = "Maximum number of YAIL generation processes that can run in parallel. 0 means unlimited.")
+    int maxSimultaneousYailGen = 0;
+
+    @Option(name = "--maxSimultaneousKawa",
+      usage = "Maximum number of Kawa compiles that can run in parallel. 0 means unlimited.")
+    int maxSimultaneousKawa = 1;
+
+    @Option(name = "--maxSimultaneousDx",
+      usage = "Maximum number of DX processes that can run in parallel. 0 means unlimited.")
+    int maxSimultaneousDx = 1;
+
+    @Option(name = "--maxSimultaneousAapt",
+      usage = "Maximum number of aapt processes that can run in parallel. 0 means unlimited.")
+    int maxSimultaneousAapt = 0;
+
+    @Option(name = "--maxSimultaneousSigning",
+      usage = "Maximum number of jarsigner/zipalign processes that can run in parallel. 0 means unlimited.")
+    int maxSimultaneousSigning = 0;
+
+    @Option(name = "--stageMemoryBudgetMb",
+      usage = "Total ram, in MB, that may be used by the child processes of all build stages. 0 means unlimited.")
+    int stageMemoryBudgetMb = 0;
+
+    @Option(name = "--kawaWorkers",
+      usage = "Number of idle warm Kawa compiler processes to keep. 0 means a new Kawa process is started for every build.")
+    int kawaWorkers = 0;
+
+    @Option(name = "--kawaWorkerMaxJobs",
+      usage = "Number of builds after which a warm Kawa compiler process is restarted.")
+    int kawaWorkerMaxJobs = 50;
+
+    @Option(name = "--kawaWorkerMaxHeapPercent",
+      usage = "A warm Kawa compiler process is restarted when it uses more than this percentage of its heap after a build.")
+    int kawaWorkerMaxHeapPercent = 75;
+
+    @Option(name = "--yailWorkers",
+      usage = "Number of idle warm YAIL generator processes to keep. 0 means a new process is started for every form.")
+    int yailWorkers = 0;
+
+    @Option(name = "--yailWorkerMaxJobs",
+      usage = "Number of forms after which a warm YAIL generator process is restarted.")
+    int yailWorkerMaxJobs = 200;
+
+    @Option(name = "--buildCacheDir",
+      usage = "The directory to cache compiled forms, dexed classes and resource packages. If not specified, nothing is cached.")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+      usage = "Maximum size of the build cache, in MB. The least recently used entries are removed first.")
+    int buildCacheMaxMb = 1024;
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -126,11 +197,11 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
-  // The build executor used to limit the number of simultaneous builds.
+  // The build executor used to limit the number of simultaneous builds and queue the others.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildQueue buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -231,6 +302,28 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    buildExecutor.addVariables(variables);
+
+    // Build stages
+    BuildStageScheduler.getInstance().addVariables(variables);
+
+    // Kawa compiler workers
+    KawaCompilerPool kawaPool = KawaCompilerPool.getInstance();
+    if (kawaPool != null) {
+      kawaPool.addVariables(variables);
+    }
+
+    // YAIL generator workers
+    YailGeneratorPool yailPool = YailGeneratorPool.getInstance();
+    if (yailPool != null) {
+      yailPool.addVariables(variables);
+    }
+
+    // Build cache
+    BuildCache buildCache = BuildCache.getInstance();
+    if (buildCache != null) {
+      buildCache.addVariables(variables);
+    }
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -378,8 +471,14 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
-   * @param inputZipFile  The zip file representing the App Inventor source code.
-   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
+   * @param lane  "companion" for builds of the companion app, which are queued ahead of other
+   *     builds. Anything else, or no value, means a normal app build.
+   * @param inputZipStream  The zip file representing the App Inventor source code. It is only
+   *     read once the build has been admitted to the queue, and is unpacked into a build
+   *     workspace while it is being received.
+   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503). An OK response
+   *     has an X-Estimated-Wait-Seconds header if the build was queued. A SERVICE_UNAVAILABLE
+   *     response has a Retry-After header.
    */
   @POST
   @Path("build-all-from-zip-async")
@@ -388,17 +487,18 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
-    final File inputZipFile) throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in
-    // cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
+    @QueryParam("lane") final String lane,
+    final InputStream inputZipStream) throws IOException {
+    long estimatedWaitMillis = 0;
     String requesting_host = (new URL(callbackUrlStr)).getHost();
 
     //for the request for update part, the file should be empty
-    if (inputZip.length() == 0L) {
+    PushbackInputStream zipStream = new PushbackInputStream(inputZipStream);
+    int firstByte = zipStream.read();
+    if (firstByte == -1) {
       cleanUp();
     } else {
+      zipStream.unread(firstByte);
       if (getShutdownState() == ShutdownState.DOWN) {
         LOG.info("request received while shutdown completely");
         return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Temporary build error, try again.").build();
@@ -442,6 +542,50 @@ public class BuildServer {
         }
       }
 
+      // Admit the build before its input is read, so that a build that is turned away doesn't
+      // cost the time to receive and unpack it.
+      BuildQueue.Lane buildLane = BuildQueue.Lane.fromName(lane);
+      estimatedWaitMillis = buildExecutor.estimateWaitMillis(buildLane);
+      BuildQueue.Admission admission;
+      try {
+        admission = buildExecutor.admit(buildLane);
+      } catch (RejectedExecutionException e) {
+        // This request was rejected because all threads in the build
+        // executor are busy and the queue of its lane is full.
+        rejectedAsyncBuildRequests.incrementAndGet();
+        cleanUp();
+        // Here, we use SERVICE_UNAVAILABLE (response code 503), which
+        // means (according to rfc2616, section 10) "The server is
+        // currently unable to handle the request due to a temporary
+        // overloading or maintenance of the server. The implication
+        // is that this is a temporary condition which will be
+        // alleviated after some delay."
+        // The Retry-After header tells the client when a slot is likely to be free.
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+          .header("Retry-After", toSeconds(Math.max(estimatedWaitMillis, 1000)))
+          .type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("The build server is currently at maximum capacity.").build();
+      }
+
+      final BuildWorkspace workspace;
+      try {
+        workspace = BuildWorkspace.create();
+      } catch (IllegalStateException e) {
+        admission.cancel();
+        throw e;
+      }
+      boolean extracted = false;
+      try {
+        workspace.extract(zipStream);
+        extracted = true;
+      } finally {
+        if (!extracted) {
+          admission.cancel();
+          workspace.delete();
+          cleanUp();
+        }
+      }
+
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
@@ -449,7 +593,7 @@ public class BuildServer {
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              buildAndCreateZip(userName, workspace);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -461,6 +605,9 @@ public class BuildServer {
               connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
               connection.setConnectTimeout(60000);
               connection.setReadTimeout(60000);
+              // Stream the zip from its file instead of letting the connection
+              // buffer all of it to find out its length.
+              connection.setFixedLengthStreamingMode(outputZip.length());
               BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
               try {
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(
@@ -480,7 +627,8 @@ public class BuildServer {
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
-              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
+              LOG.severe("Exception: " + e.getMessage() + " while building in " +
+                workspace.getProjectRoot());
             } finally {
               cleanUp();
               checkMemory();
@@ -488,31 +636,33 @@ public class BuildServer {
             }
           }
         };
-      try {
-        buildExecutor.execute(buildTask);
-      } catch (RejectedExecutionException e) {
-        // This request was rejected because all threads in the build
-        // executor are busy.
-        rejectedAsyncBuildRequests.incrementAndGet();
-        cleanUp();
-        // Here, we use SERVICE_UNAVAILABLE (response code 503), which
-        // means (according to rfc2616, section 10) "The server is
-        // currently unable to handle the request due to a temporary
-        // overloading or maintenance of the server. The implication
-        // is that this is a temporary condition which will be
-        // alleviated after some delay."
-        return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
-      }
+      admission.start(buildTask);
+    }
+    Response.ResponseBuilder response = Response.ok();
+    if (estimatedWaitMillis > 0) {
+      response.header("X-Estimated-Wait-Seconds", toSeconds(estimatedWaitMillis));
     }
-    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+    return response.type(MediaType.TEXT_PLAIN_TYPE)
       .entity("" + projectBuilder.getProgress()).build();
   }
 
+  private static String toSeconds(long millis) {
+    return ((millis + 999) / 1000) + "";
+  }
+
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    createZip(build(userName, inputZipFile));
+  }
+
+  private void buildAndCreateZip(String userName, BuildWorkspace workspace)
+    throws IOException, JSONException {
+    createZip(build(userName, workspace));
+  }
+
+  private void createZip(Result buildResult) throws IOException, JSONException {
     boolean buildSucceeded = buildResult.succeeded();
-    outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
+    outputZip = BuildWorkspace.createTempFile("build", ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
@@ -549,14 +699,27 @@ public class BuildServer {
   }
 
   private Result build(String userName, File zipFile) throws IOException {
-    outputDir = Files.createTempDir();
+    createOutputDir();
+    return processBuildResult(projectBuilder.build(userName, new ZipFile(zipFile), outputDir,
+      false, commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir));
+  }
+
+  private Result build(String userName, BuildWorkspace workspace) {
+    createOutputDir();
+    return processBuildResult(projectBuilder.build(userName, workspace, outputDir, false,
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir));
+  }
+
+  private void createOutputDir() {
+    outputDir = BuildWorkspace.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
     // actually be deleted. That's only if the build server is killed (via ctrl+c) while a build
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
-    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+  }
+
+  private Result processBuildResult(Result buildResult) {
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -612,7 +775,60 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    Map<BuildQueue.Lane, Integer> maxQueuedBuilds =
+      new EnumMap<BuildQueue.Lane, Integer>(BuildQueue.Lane.class);
+    maxQueuedBuilds.put(BuildQueue.Lane.APP, commandLineOptions.maxQueuedBuilds);
+    maxQueuedBuilds.put(BuildQueue.Lane.COMPANION, commandLineOptions.maxQueuedCompanionBuilds);
+    buildExecutor = new BuildQueue(commandLineOptions.maxSimultaneousBuilds, maxQueuedBuilds);
+    Map<BuildStageScheduler.Stage, Integer> stageLimits =
+      new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class);
+    stageLimits.put(BuildStageScheduler.Stage.YAIL_GENERATION,
+      commandLineOptions.maxSimultaneousYailGen);
+    stageLimits.put(BuildStageScheduler.Stage.KAWA, commandLineOptions.maxSimultaneousKawa);
+    stageLimits.put(BuildStageScheduler.Stage.DX, commandLineOptions.maxSimultaneousDx);
+    stageLimits.put(BuildStageScheduler.Stage.DEX_WARM_UP, commandLineOptions.dexWarmUpThreads);
+    stageLimits.put(BuildStageScheduler.Stage.AAPT, commandLineOptions.maxSimultaneousAapt);
+    stageLimits.put(BuildStageScheduler.Stage.SIGNING, commandLineOptions.maxSimultaneousSigning);
+    BuildStageScheduler.setInstance(
+      new BuildStageScheduler(stageLimits, commandLineOptions.stageMemoryBudgetMb));
+    if (commandLineOptions.workspaceDir != null) {
+      BuildWorkspace.setRootDir(new File(commandLineOptions.workspaceDir));
+    }
+    if (commandLineOptions.dexCacheDir != null && commandLineOptions.dexWarmUpThreads > 0) {
+      // This returns right away; builds that need a library that is not dexed yet wait for it.
+      try {
+        Compiler.warmUpDexCache(commandLineOptions.dexCacheDir,
+          commandLineOptions.childProcessRamMb, commandLineOptions.dexWarmUpThreads);
+      } catch (JSONException e) {
+        LOG.log(Level.WARNING, "Unable to warm up the dex cache", e);
+      }
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      BuildCache.setInstance(new BuildCache(new File(commandLineOptions.buildCacheDir),
+        commandLineOptions.buildCacheMaxMb * 1024L * 1024L));
+    }
+    if (commandLineOptions.yailWorkers > 0) {
+      final YailGeneratorPool yailPool = new YailGeneratorPool(commandLineOptions.yailWorkers,
+        commandLineOptions.yailWorkerMaxJobs);
+      YailGeneratorPool.setInstance(yailPool);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          yailPool.shutdown();
+        }
+      });
+    }
+    if (commandLineOptions.kawaWorkers > 0) {
+      final KawaCompilerPool kawaPool = new KawaCompilerPool(commandLineOptions.kawaWorkers,
+        commandLineOptions.kawaWorkerMaxJobs, commandLineOptions.kawaWorkerMaxHeapPercent);
+      KawaCompilerPool.setInstance(kawaPool);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          kawaPool.shutdown();
+        }
+      });
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -0,0 +1,282 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits how many builds can be in each of the expensive build stages at the same time.
+ *
+ * <p>Every {@link Stage} has its own concurrency limit, so a build that is running DX does not
+ * keep another build from running Kawa. In addition, all stages draw from a shared memory budget
+ * (in MB), so that the child processes launched by the stages can't exhaust the machine.</p>
+ *
+ * <p>Callers must release every ticket they acquire, typically in a finally block:</p>
+ * <pre>
+ *   BuildStageScheduler.Ticket ticket = scheduler.acquire(Stage.KAWA, childProcessRamMb);
+ *   try {
+ *     ...
+ *   } finally {
+ *     ticket.release();
+ *   }
+ * </pre>
+ */
+final class BuildStageScheduler {
+  /**
+   * The build stages that are scheduled.
+   */
+  enum Stage {
+    YAIL_GENERATION("yail-gen"),
+    KAWA("kawa"),
+    DX("dx"),
+    // Pre-dexing libraries when the server starts. It has its own limit, so that it doesn't take
+    // DX slots from builds.
+    DEX_WARM_UP("dex-warm-up"),
+    AAPT("aapt"),
+    SIGNING("signing");
+
+    private final String varName;
+
+    Stage(String varName) {
+      this.varName = varName;
+    }
+
+    /**
+     * Returns the name used for this stage on the /buildserver/vars page.
+     */
+    String getVarName() {
+      return varName;
+    }
+  }
+
+  /**
+   * A granted slot in a stage. Releasing a ticket more than once has no effect.
+   */
+  final class Ticket {
+    private final StageState state;
+    private final int memoryMb;
+    private boolean released;
+
+    private Ticket(StageState state, int memoryMb) {
+      this.state = state;
+      this.memoryMb = memoryMb;
+    }
+
+    void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      if (memoryMb > 0) {
+        memoryBudget.release(memoryMb);
+      }
+      state.active.decrementAndGet();
+      state.completed.incrementAndGet();
+      if (state.slots != null) {
+        state.slots.release();
+      }
+    }
+  }
+
+  /*
+   * Per-stage limits and statistics.
+   */
+  private static final class StageState {
+    // The maximum number of builds in this stage. 0 means unlimited.
+    private final int maxConcurrent;
+    // Null if maxConcurrent is 0.
+    private final Semaphore slots;
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicInteger completed = new AtomicInteger(0);
+    private final AtomicLong admitted = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+    StageState(int maxConcurrent) {
+      this.maxConcurrent = maxConcurrent;
+      this.slots = (maxConcurrent > 0) ? new Semaphore(maxConcurrent, true) : null;
+    }
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildStageScheduler.class.getName());
+
+  // The scheduler used by the compiler. It is replaced by BuildServer.main() once the command
+  // line options have been processed.
+  private static volatile BuildStageScheduler instance = createDefault();
+
+  private final Map<Stage, StageState> stages = new EnumMap<Stage, StageState>(Stage.class);
+
+  // The total memory, in MB, that may be held by all stages together. 0 means unlimited.
+  private final int memoryBudgetMb;
+  // Null if memoryBudgetMb is 0.
+  private final Semaphore memoryBudget;
+
+  /**
+   * Creates a BuildStageScheduler.
+   *
+   * @param maxConcurrent the maximum number of builds in each stage; stages that are not in the
+   *     map, or that map to 0, are unlimited
+   * @param memoryBudgetMb the total memory, in MB, shared by all stages; 0 means unlimited
+   */
+  BuildStageScheduler(Map<Stage, Integer> maxConcurrent, int memoryBudgetMb) {
+    for (Stage stage : Stage.values()) {
+      Integer max = maxConcurrent.get(stage);
+      stages.put(stage, new StageState(max == null ? 0 : Math.max(0, max)));
+    }
+    this.memoryBudgetMb = Math.max(0, memoryBudgetMb);
+    this.memoryBudget = (this.memoryBudgetMb > 0)
+        ? new Semaphore(this.memoryBudgetMb, true)
+        : null;
+  }
+
+  /*
+   * Kawa and DX processes can use a lot of memory. By default we only launch one Kawa and one DX
+   * process at a time.
+   */
+  private static BuildStageScheduler createDefault() {
+    Map<Stage, Integer> limits = new EnumMap<Stage, Integer>(Stage.class);
+    limits.put(Stage.KAWA, 1);
+    limits.put(Stage.DX, 1);
+    return new BuildStageScheduler(limits, 0);
+  }
+
+  static BuildStageScheduler getInstance() {
+    return instance;
+  }
+
+  static void setInstance(BuildStageScheduler scheduler) {
+    instance = scheduler;
+  }
+
+  /**
+   * Waits until the given stage has a free slot and the requested memory is available.
+   *
+   * @param stage the build stage
+   * @param memoryMb the memory, in MB, that the stage will use; requests larger than the whole
+   *     budget are reduced to the budget
+   * @return a ticket that must be released when the stage is finished
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Ticket acquire(Stage stage, int memoryMb) throws InterruptedException {
+    StageState state = stages.get(stage);
+    int memory = (memoryBudget == null) ? 0 : Math.min(Math.max(0, memoryMb), memoryBudgetMb);
+    long start = System.currentTimeMillis();
+    state.waiting.incrementAndGet();
+    try {
+      if (state.slots != null) {
+        state.slots.acquire();
+      }
+      if (memory > 0) {
+        try {
+          memoryBudget.acquire(memory);
+        } catch (InterruptedException e) {
+          if (state.slots != null) {
+            state.slots.release();
+          }
+          throw e;
+        }
+      }
+    } finally {
+      state.waiting.decrementAndGet();
+    }
+    long waitMillis = System.currentTimeMillis() - start;
+    state.active.incrementAndGet();
+    state.admitted.incrementAndGet();
+    state.totalWaitMillis.addAndGet(waitMillis);
+    updateMax(state.maxWaitMillis, waitMillis);
+    if (waitMillis > 0) {
+      LOG.info("Waited " + waitMillis + " ms for the " + stage.getVarName() + " stage");
+    }
+    return new Ticket(state, memory);
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current;
+    while (value > (current = max.get())) {
+      if (max.compareAndSet(current, value)) {
+        break;
+      }
+    }
+  }
+
+  int getMaxConcurrent(Stage stage) {
+    return stages.get(stage).maxConcurrent;
+  }
+
+  /**
+   * Returns how many tickets for the given stage, each holding the given memory, can be held at
+   * the same time, or 0 if neither the stage limit nor the memory budget bounds that.
+   */
+  int getMaxConcurrent(Stage stage, int memoryMb) {
+    int max = stages.get(stage).maxConcurrent;
+    if (memoryBudgetMb > 0) {
+      // A ticket never holds more than the whole budget.
+      int byMemory = memoryBudgetMb / Math.max(1, Math.min(memoryMb, memoryBudgetMb));
+      max = (max == 0) ? byMemory : Math.min(max, byMemory);
+    }
+    return max;
+  }
+
+  int getQueueDepth(Stage stage) {
+    return stages.get(stage).waiting.get();
+  }
+
+  int getActiveCount(Stage stage) {
+    return stages.get(stage).active.get();
+  }
+
+  int getCompletedCount(Stage stage) {
+    return stages.get(stage).completed.get();
+  }
+
+  long getAverageWaitMillis(Stage stage) {
+    StageState state = stages.get(stage);
+    long admitted = state.admitted.get();
+    return (admitted == 0) ? 0 : state.totalWaitMillis.get() / admitted;
+  }
+
+  long getMaxWaitMillis(Stage stage) {
+    return stages.get(stage).maxWaitMillis.get();
+  }
+
+  int getMemoryBudgetMb() {
+    return memoryBudgetMb;
+  }
+
+  int getAvailableMemoryMb() {
+    return (memoryBudget == null) ? 0 : memoryBudget.availablePermits();
+  }
+
+  /**
+   * Adds the scheduler statistics to the given map of server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    variables.put("stage-memory-budget-mb",
+        memoryBudgetMb == 0 ? "unlimited" : memoryBudgetMb + "");
+    if (memoryBudgetMb != 0) {
+      variables.put("stage-memory-available-mb", getAvailableMemoryMb() + "");
+    }
+    for (Stage stage : Stage.values()) {
+      String prefix = "stage-" + stage.getVarName() + "-";
+      int max = getMaxConcurrent(stage);
+      variables.put(prefix + "max-concurrent", max == 0 ? "unlimited" : max + "");
+      variables.put(prefix + "active", getActiveCount(stage) + "");
+      variables.put(prefix + "queue-depth", getQueueDepth(stage) + "");
+      variables.put(prefix + "completed", getCompletedCount(stage) + "");
+      variables.put(prefix + "average-wait-ms", getAverageWaitMillis(stage) + "");
+      variables.put(prefix + "max-wait-ms", getMaxWaitMillis(stage) + "");
+    }
+  }
+}
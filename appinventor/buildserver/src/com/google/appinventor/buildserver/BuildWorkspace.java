@@ -0,0 +1,204 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The directory in which one project is built.
+ *
+ * <p>All workspaces, the runtime resources extracted from the build server jar and the build
+ * outputs live below one root directory. By default that is {@code java.io.tmpdir}; pointing it
+ * at a tmpfs (for example /dev/shm) keeps the many small files of a build in memory. Because the
+ * runtime resources are on the same file system as the workspaces, files that a build needs from
+ * them are hard linked rather than copied.</p>
+ */
+final class BuildWorkspace {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildWorkspace.class.getName());
+
+  // The directory that contains all workspaces. Set by BuildServer.main().
+  private static volatile File rootDir = new File(System.getProperty("java.io.tmpdir"));
+
+  // The shared directory for runtime resources, created when it is first needed.
+  private static File resourceDir = null;
+
+  private final File projectRoot;
+  private final List<String> sourceFiles = Lists.newArrayList();
+
+  private BuildWorkspace(File projectRoot) {
+    this.projectRoot = projectRoot;
+  }
+
+  static File getRootDir() {
+    return rootDir;
+  }
+
+  static void setRootDir(File dir) {
+    dir.mkdirs();
+    rootDir = dir;
+  }
+
+  /**
+   * Creates a new, empty workspace.
+   *
+   * @throws IllegalStateException if the directory could not be created
+   */
+  static BuildWorkspace create() {
+    return new BuildWorkspace(createTempDir());
+  }
+
+  /**
+   * Creates a new directory beneath the root directory, and returns it. The name of the directory
+   * will contain the current time (in millis), and a random number.
+   *
+   * <p>This method assumes that the root volume is writable, has free inodes and free blocks, and
+   * that it will not be called thousands of times per second.
+   *
+   * @return the newly-created directory
+   * @throws IllegalStateException if the directory could not be created
+   */
+  static File createTempDir() {
+    File baseDir = rootDir;
+    String baseNamePrefix = System.currentTimeMillis() + "_" + Math.random() + "-";
+
+    final int TEMP_DIR_ATTEMPTS = 10000;
+    for (int counter = 0; counter < TEMP_DIR_ATTEMPTS; counter++) {
+      File tempDir = new File(baseDir, baseNamePrefix + counter);
+      if (tempDir.exists()) {
+        continue;
+      }
+      if (tempDir.mkdir()) {
+        return tempDir;
+      }
+    }
+    throw new IllegalStateException("Failed to create directory within "
+        + TEMP_DIR_ATTEMPTS + " attempts (tried "
+        + baseNamePrefix + "0 to " + baseNamePrefix + (TEMP_DIR_ATTEMPTS - 1) + ')');
+  }
+
+  /**
+   * Creates a new empty file beneath the root directory.
+   */
+  static File createTempFile(String prefix, String suffix) throws IOException {
+    return File.createTempFile(prefix, suffix, rootDir);
+  }
+
+  /**
+   * Returns the directory that runtime resources are extracted to. It is shared by all builds of
+   * this server process, and deleted when the process exits.
+   */
+  static synchronized File getResourceDir() {
+    if (resourceDir == null) {
+      resourceDir = createTempDir();
+      resourceDir.deleteOnExit();
+    }
+    return resourceDir;
+  }
+
+  /**
+   * Makes target refer to the same content as source, which must not change afterwards. A hard
+   * link is used when possible; otherwise, for example when source is on another file system, the
+   * file is copied.
+   */
+  static void linkOrCopy(File source, File target) throws IOException {
+    Files.createParentDirs(target);
+    try {
+      java.nio.file.Files.createLink(target.toPath(), source.toPath());
+    } catch (IOException e) {
+      Files.copy(source, target);
+    } catch (UnsupportedOperationException e) {
+      Files.copy(source, target);
+    }
+  }
+
+  File getProjectRoot() {
+    return projectRoot;
+  }
+
+  /**
+   * Returns the paths of the files extracted into this workspace, in the order of the zip.
+   */
+  List<String> getSourceFiles() {
+    return Collections.unmodifiableList(sourceFiles);
+  }
+
+  /**
+   * Extracts a project zip into this workspace while it is being read, without writing the zip
+   * itself anywhere.
+   */
+  void extract(InputStream inputZip) throws IOException {
+    ZipInputStream zipInputStream = new ZipInputStream(inputZip);
+    ZipEntry zipEntry;
+    while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+      if (!zipEntry.isDirectory()) {
+        extractEntry(zipEntry, zipInputStream);
+      }
+    }
+  }
+
+  /**
+   * Extracts a project zip file into this workspace.
+   */
+  void extract(ZipFile inputZip) throws IOException {
+    Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
+    while (inputZipEnumeration.hasMoreElements()) {
+      ZipEntry zipEntry = inputZipEnumeration.nextElement();
+      if (zipEntry.isDirectory()) {
+        continue;
+      }
+      InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
+      try {
+        extractEntry(zipEntry, extractedInputStream);
+      } finally {
+        extractedInputStream.close();
+      }
+    }
+  }
+
+  private void extractEntry(ZipEntry zipEntry, InputStream in) throws IOException {
+    File extractedFile = new File(projectRoot, zipEntry.getName());
+    if (!extractedFile.getCanonicalPath().startsWith(
+        projectRoot.getCanonicalPath() + File.separator)) {
+      throw new IOException("Zip entry " + zipEntry.getName() + " is outside of the project");
+    }
+    LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
+    Files.createParentDirs(extractedFile);
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(extractedFile));
+    try {
+      ByteStreams.copy(in, out);
+    } finally {
+      out.close();
+    }
+    sourceFiles.add(extractedFile.getPath());
+  }
+
+  /**
+   * Deletes this workspace and everything in it.
+   */
+  void delete() throws IOException {
+    // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
+    // canonical path here so that the whole directory is deleted.
+    FileUtils.deleteDirectory(new File(projectRoot.getCanonicalPath()));
+  }
+}
@@ -31,16 +31,23 @@ import java.io.OutputStreamWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,8 +64,9 @@ import javax.imageio.ImageIO;
 public final class Compiler {
   public static int currentProgress = 10;
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // Memory, in MB, charged against the BuildStageScheduler memory budget by the aapt, jarsigner
+  // and zipalign processes. Kawa and DX are charged childProcessRamMb.
+  private static final int TOOL_PROCESS_RAM_MB = 256;
 
   private static final String SWLIST_ACTIVITY_CLASS =
       "com.google.appinventor.components.runtime.SWListActivity";
@@ -119,6 +127,10 @@ public final class Compiler {
   private static final String COMPONENT_BUILD_INFO =
       RUNTIME_FILES_DIR + "simple_components_build_info.json";
 
+  // The MD5 of every jar in RUNTIME_FILES_DIR, computed when the build server is built.
+  private static final String LIBRARY_HASHES =
+      RUNTIME_FILES_DIR + "library-hashes.properties";
+
 
   /*
    * Resource paths to yail runtime, runtime library files and sdk tools.
@@ -145,6 +157,13 @@ public final class Compiler {
   @VisibleForTesting
   static final String YAIL_RUNTIME =
       RUNTIME_FILES_DIR + "runtime.scm";
+  // The YAIL runtime, compiled when the build server is built.
+  private static final String YAIL_RUNTIME_JAR =
+      RUNTIME_FILES_DIR + "yail-runtime.jar";
+  // The Kawa arguments that load the compiled YAIL runtime, so that its macros can be used by the
+  // forms being compiled.
+  private static final String[] LOAD_YAIL_RUNTIME_ARGS =
+      { "-e", "(require <com.google.youngandroid.runtime>)" };
   private static final String MAC_ZIPALIGN_TOOL =
       "/tools/mac/zipalign";
   private static final String WINDOWS_ZIPALIGN_TOOL =
@@ -179,6 +198,9 @@ public final class Compiler {
   private static final ConcurrentMap<String, File> resources =
       new ConcurrentHashMap<String, File>();
 
+  // Maps the names of runtime jars to their MD5, from LIBRARY_HASHES.
+  private static Properties libraryHashes = null;
+
   // TODO(user,lizlooney): i18n here and in lines below that call String.format(...)
   private static final String ERROR_IN_STAGE =
       "Error: Your build failed due to an error in the %s stage, " +
@@ -1032,15 +1054,55 @@ public final class Compiler {
         return false;
       }
 
-      // Construct the class path including component libraries (jars)
+      // Forms don't depend on each other, so a form whose YAIL was compiled by an earlier build
+      // can be copied from the build cache and left out of the Kawa compile.
+      String packagePrefix = Signatures.getPackageName(project.getMainClass()) + ".";
+      BuildCache buildCache = BuildCache.getInstance();
+      List<String> cacheKeys = Lists.newArrayListWithCapacity(sourceFileNames.size());
+      List<String> sourceFileNamesToCompile = Lists.newArrayList();
+      for (String sourceFileName : sourceFileNames) {
+        if (buildCache == null) {
+          sourceFileNamesToCompile.add(sourceFileName);
+          continue;
+        }
+        File sourceFile = new File(sourceFileName);
+        String key = BuildCache.newKey(BuildCache.Kind.FORM_CLASSES)
+            .putString(packagePrefix)
+            .putStrings(Sets.newTreeSet(librariesNeeded))
+            .putString(sourceFile.getName())
+            .putFile(sourceFile)
+            .build();
+        cacheKeys.add(key);
+        if (!buildCache.restore(key, classesDir)) {
+          sourceFileNamesToCompile.add(sourceFileName);
+        }
+      }
+      if (sourceFileNamesToCompile.isEmpty()) {
+        out.println("Kawa compile skipped: all forms were found in the build cache");
+        return checkClassFiles(classFileNames);
+      }
+
+      // Warm Kawa workers are shared by all projects, so they get every component library on
+      // their class path. Extra libraries don't change the compiled classes.
+      KawaCompilerPool kawaPool = KawaCompilerPool.getInstance();
+      Set<String> classpathLibraries = librariesNeeded;
+      if (kawaPool != null) {
+        classpathLibraries = Sets.newTreeSet();
+        for (Set<String> libraries : componentLibraries.values()) {
+          classpathLibraries.addAll(libraries);
+        }
+      }
+
+      // Construct the class path including the compiled YAIL runtime and component libraries (jars)
       String classpath =
         getResource(KAWA_RUNTIME) + File.pathSeparator +
+        getResource(YAIL_RUNTIME_JAR) + File.pathSeparator +
         getResource(ACRA_RUNTIME) + File.pathSeparator +
         getResource(SIMPLE_ANDROID_RUNTIME_JAR) + File.pathSeparator;
 
       // Add component library names to classpath
-      System.out.println("Libraries Classpath, n " + librariesNeeded.size());
-      for (String library : librariesNeeded) {
+      System.out.println("Libraries Classpath, n " + classpathLibraries.size());
+      for (String library : classpathLibraries) {
         classpath += getResource(RUNTIME_FILES_DIR + library) + File.pathSeparator;
       }
 
@@ -1049,26 +1111,18 @@ public final class Compiler {
 
       System.out.println("Libraries Classpath = " + classpath);
 
-      String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
       int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
+      List<String> kawaArgs = Lists.newArrayList();
+      Collections.addAll(kawaArgs,
           "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
+          "-P", packagePrefix,
           "-C");
       // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
       // source file names. The resulting .class files contain references to the source file names,
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      kawaArgs.addAll(sourceFileNamesToCompile);
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
@@ -1076,9 +1130,31 @@ public final class Compiler {
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      BuildStageScheduler.Ticket ticket =
+          acquireStage(BuildStageScheduler.Stage.KAWA, childProcessRamMb);
+      if (ticket == null) {
+        userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
+        return false;
+      }
+      try {
+        if (kawaPool != null) {
+          kawaSuccess = kawaPool.compile(classpath, Arrays.asList(LOAD_YAIL_RUNTIME_ARGS), mx,
+              kawaArgs, new PrintStream(kawaOutputStream));
+        } else {
+          List<String> kawaCommandArgs = Lists.newArrayList();
+          Collections.addAll(kawaCommandArgs,
+              System.getProperty("java.home") + "/bin/java",
+              "-mx" + mx + "M",
+              "-cp", classpath,
+              "kawa.repl");
+          Collections.addAll(kawaCommandArgs, LOAD_YAIL_RUNTIME_ARGS);
+          kawaCommandArgs.addAll(kawaArgs);
+          String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        }
+      } finally {
+        ticket.release();
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1090,16 +1166,16 @@ public final class Compiler {
       out.println(kawaCompileTimeMessage);
       LOG.info(kawaCompileTimeMessage);
 
-      // Check that all of the class files were created.
-      // If they weren't, return with an error.
-      for (String classFileName : classFileNames) {
-        File classFile = new File(classFileName);
-        if (!classFile.exists()) {
-          LOG.log(Level.INFO, "Can't find class file: " + classFileName);
-          String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
-              classFileName.lastIndexOf('.'));
-          userErrors.print(String.format(COMPILATION_ERROR, screenName));
-          return false;
+      if (!checkClassFiles(classFileNames)) {
+        return false;
+      }
+
+      if (buildCache != null && kawaSuccess) {
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          if (sourceFileNamesToCompile.contains(sourceFileNames.get(i))) {
+            buildCache.store(cacheKeys.get(i), classesDir,
+                getFormClassFiles(new File(classFileNames.get(i))));
+          }
         }
       }
     } catch (IOException e) {
@@ -1111,6 +1187,42 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Checks that all of the class files were created. If they weren't, reports an error and returns
+   * false.
+   */
+  private boolean checkClassFiles(List<String> classFileNames) {
+    for (String classFileName : classFileNames) {
+      File classFile = new File(classFileName);
+      if (!classFile.exists()) {
+        LOG.log(Level.INFO, "Can't find class file: " + classFileName);
+        String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
+            classFileName.lastIndexOf('.'));
+        userErrors.print(String.format(COMPILATION_ERROR, screenName));
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Returns the class file of a form together with the classes of its inner frames.
+   */
+  private static List<File> getFormClassFiles(File classFile) {
+    String formName = classFile.getName().substring(0, classFile.getName().lastIndexOf('.'));
+    List<File> classFiles = Lists.newArrayList();
+    File[] files = classFile.getParentFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().equals(classFile.getName())
+            || file.getName().startsWith(formName + "$")) {
+          classFiles.add(file);
+        }
+      }
+    }
+    return classFiles;
+  }
+
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
     String javaHome = System.getProperty("java.home");
@@ -1142,7 +1254,19 @@ public final class Compiler {
         apkAbsolutePath,
         "AndroidKey"
     };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
+    BuildStageScheduler.Ticket ticket =
+        acquireStage(BuildStageScheduler.Stage.SIGNING, TOOL_PROCESS_RAM_MB);
+    if (ticket == null) {
+      userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
+      return false;
+    }
+    boolean jarsignerSuccess;
+    try {
+      jarsignerSuccess = Execution.execute(null, jarsignerCommandLine, System.out, System.err);
+    } finally {
+      ticket.release();
+    }
+    if (!jarsignerSuccess) {
       LOG.warning("YAIL compiler - jarsigner execution failed.");
       err.println("YAIL compiler - jarsigner execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
@@ -1181,9 +1305,21 @@ public final class Compiler {
         zipAlignedPath
     };
     long startZipAlign = System.currentTimeMillis();
+    BuildStageScheduler.Ticket ticket =
+        acquireStage(BuildStageScheduler.Stage.SIGNING, TOOL_PROCESS_RAM_MB);
+    if (ticket == null) {
+      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
+      return false;
+    }
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
+    boolean zipAlignSuccess;
+    try {
+      zipAlignSuccess = Execution.execute(null, zipAlignCommandLine, System.out, System.err);
+    } finally {
+      ticket.release();
+    }
+    if (!zipAlignSuccess) {
       LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
       err.println("YAIL compiler - ZIPALIGN execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
@@ -1241,6 +1377,7 @@ public final class Compiler {
     inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
     inputList.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
     inputList.add(new File(getResource(KAWA_RUNTIME)));
+    inputList.add(new File(getResource(YAIL_RUNTIME_JAR)));
     inputList.add(new File(getResource(ACRA_RUNTIME)));
 
     // Add libraries to command line arguments
@@ -1249,6 +1386,26 @@ public final class Compiler {
       inputList.add(new File(getResource(RUNTIME_FILES_DIR + library)));
     }
 
+    // The dexed classes only depend on the class files and the libraries, which are the same for
+    // many builds of the same project.
+    BuildCache buildCache = BuildCache.getInstance();
+    String cacheKey = null;
+    if (buildCache != null) {
+      try {
+        cacheKey = BuildCache.newKey(BuildCache.Kind.DEX)
+            .putTree(classesDir)
+            .putStrings(Sets.newTreeSet(librariesNeeded))
+            .build();
+        if (buildCache.restoreFile(cacheKey, new File(dexedClasses))) {
+          out.println("DX skipped: the dexed classes were found in the build cache");
+          return true;
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to compute the build cache key for DX", e);
+        cacheKey = null;
+      }
+    }
+
     DexExecTask dexTask = new DexExecTask();
     dexTask.setExecutable(getResource(DX_JAR));
     dexTask.setOutput(dexedClasses);
@@ -1264,10 +1421,18 @@ public final class Compiler {
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
+    BuildStageScheduler.Ticket ticket =
+        acquireStage(BuildStageScheduler.Stage.DX, childProcessRamMb);
+    if (ticket == null) {
+      userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+      return false;
+    }
+    try {
       setProgress(50);
       dxSuccess = dexTask.execute(inputList);
       setProgress(75);
+    } finally {
+      ticket.release();
     }
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
@@ -1280,6 +1445,10 @@ public final class Compiler {
     out.println(dxTimeMessage);
     LOG.info(dxTimeMessage);
 
+    if (cacheKey != null) {
+      buildCache.storeFile(cacheKey, new File(dexedClasses));
+    }
+
     return true;
   }
 
@@ -1312,10 +1481,45 @@ public final class Compiler {
         "-F", tmpPackageName,
         libsDir.getAbsolutePath()
     };
+
+    // The resource package only depends on the files passed to aapt.
+    BuildCache buildCache = BuildCache.getInstance();
+    String cacheKey = null;
+    if (buildCache != null) {
+      try {
+        cacheKey = BuildCache.newKey(BuildCache.Kind.RESOURCES)
+            .putString(aaptTool)
+            .putFile(manifestFile)
+            .putTree(resDir)
+            .putTree(project.getAssetsDirectory())
+            .putTree(libsDir)
+            .build();
+        if (buildCache.restoreFile(cacheKey, new File(tmpPackageName))) {
+          out.println("AAPT skipped: the resource package was found in the build cache");
+          return true;
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to compute the build cache key for AAPT", e);
+        cacheKey = null;
+      }
+    }
+
     long startAapt = System.currentTimeMillis();
+    BuildStageScheduler.Ticket ticket =
+        acquireStage(BuildStageScheduler.Stage.AAPT, TOOL_PROCESS_RAM_MB);
+    if (ticket == null) {
+      userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
+      return false;
+    }
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
+    boolean aaptSuccess;
+    try {
+      aaptSuccess = Execution.execute(null, aaptPackageCommandLine, System.out, System.err);
+    } finally {
+      ticket.release();
+    }
+    if (!aaptSuccess) {
       LOG.warning("YAIL compiler - AAPT execution failed.");
       err.println("YAIL compiler - AAPT execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
@@ -1326,6 +1530,10 @@ public final class Compiler {
     out.println(aaptTimeMessage);
     LOG.info(aaptTimeMessage);
 
+    if (cacheKey != null) {
+      buildCache.storeFile(cacheKey, new File(tmpPackageName));
+    }
+
     return true;
   }
 
@@ -1344,10 +1552,10 @@ public final class Compiler {
       for (String library : nativeLibrariesNeeded) {
         if (library.endsWith(ARMEABI_V7A_SUFFIX)) { // Remove suffix and copy.
           library = library.substring(0, library.length() - ARMEABI_V7A_SUFFIX.length());
-          Files.copy(new File(getResource(RUNTIME_FILES_DIR + ARMEABI_V7A_DIRECTORY +
-              "/" + library)), new File(armeabiV7aDir, library));
+          BuildWorkspace.linkOrCopy(new File(getResource(RUNTIME_FILES_DIR +
+              ARMEABI_V7A_DIRECTORY + "/" + library)), new File(armeabiV7aDir, library));
         } else {
-          Files.copy(new File(getResource(RUNTIME_FILES_DIR + ARMEABI_DIR_NAME +
+          BuildWorkspace.linkOrCopy(new File(getResource(RUNTIME_FILES_DIR + ARMEABI_DIR_NAME +
               "/" + library)), new File(armeabiDir, library));
         }
       }
@@ -1367,7 +1575,7 @@ public final class Compiler {
       File componentAssetDirectory = createDirectory(project.getAssetsDirectory(),
           ASSET_DIRECTORY);
       for (String filename : assetsNeeded) {
-        Files.copy(new File(getResource(RUNTIME_FILES_DIR + filename)),
+        BuildWorkspace.linkOrCopy(new File(getResource(RUNTIME_FILES_DIR + filename)),
             new File(componentAssetDirectory, filename));
       }
     } catch (IOException e) {
@@ -1378,6 +1586,19 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Waits for a slot in the given build stage. Returns null if the wait was interrupted.
+   */
+  static BuildStageScheduler.Ticket acquireStage(BuildStageScheduler.Stage stage, int memoryMb) {
+    try {
+      return BuildStageScheduler.getInstance().acquire(stage, memoryMb);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warning("Interrupted while waiting for the " + stage.getVarName() + " stage.");
+      return null;
+    }
+  }
+
   /**
    * Writes out the given resource as a temp file and returns the absolute path.
    * Caches the location of the files, so we can reuse them.
@@ -1402,13 +1623,22 @@ public final class Compiler {
         while (prefix.length() < 3) {
           prefix = prefix + "_";
         }
-        file = File.createTempFile(prefix, suffix);
+        // Resources are extracted once into a directory shared by all builds, next to the build
+        // workspaces, so builds can link to them instead of copying them.
+        file = File.createTempFile(prefix, suffix, BuildWorkspace.getResourceDir());
         file.setExecutable(true);
         file.deleteOnExit();
-        file.getParentFile().mkdirs();
         Files.copy(Resources.newInputStreamSupplier(Compiler.class.getResource(resourcePath)),
             file);
+        // Builds link to this file, so it must never be changed.
+        file.setReadOnly();
         resources.put(resourcePath, file);
+        // Tell the dex task the hash of the jar, so it doesn't need to read the jar to find its
+        // pre-dexed version.
+        String md5 = getLibraryHashes().getProperty(basename);
+        if (md5 != null) {
+          DexExecTask.registerHash(file, md5);
+        }
       }
       return file.getAbsolutePath();
     } catch (IOException e) {
@@ -1455,10 +1685,87 @@ public final class Compiler {
   }
 
   
+  private static synchronized Properties getLibraryHashes() throws IOException {
+    if (libraryHashes == null) {
+      libraryHashes = new Properties();
+      URL url = Compiler.class.getResource(LIBRARY_HASHES);
+      if (url != null) {
+        InputStream in = url.openStream();
+        try {
+          libraryHashes.load(in);
+        } finally {
+          in.close();
+        }
+      } else {
+        LOG.warning("No library hash manifest; jars will be hashed when they are first dexed");
+      }
+    }
+    return libraryHashes;
+  }
+
+  /**
+   * Pre-dexes the Android runtime, Kawa, ACRA and all component libraries into the dex cache, so
+   * that the first builds after a restart don't have to. Libraries are dexed in parallel; a build
+   * that needs a library that is still being dexed waits for that library only. The dx processes
+   * run in the DEX_WARM_UP stage rather than the DX stage, so they don't hold the DX slots of
+   * builds that arrive during the warm-up, but they count against the memory budget of the
+   * stages.
+   *
+   * @param dexCacheDir the dex cache directory
+   * @param childProcessRam maximum RAM for each dx process, in MBs
+   * @param threads the number of dx processes to run at the same time
+   */
+  static void warmUpDexCache(String dexCacheDir, final int childProcessRam, int threads)
+      throws IOException, JSONException {
+    ConcurrentMap<String, Set<String>> libraries = new ConcurrentHashMap<String, Set<String>>();
+    loadJsonInfo(libraries, LIBRARIES_TARGET);
+    Set<String> resourcePaths = Sets.newLinkedHashSet();
+    Collections.addAll(resourcePaths, SIMPLE_ANDROID_RUNTIME_JAR, KAWA_RUNTIME, YAIL_RUNTIME_JAR,
+        ACRA_RUNTIME);
+    for (Set<String> componentLibraries : libraries.values()) {
+      for (String library : componentLibraries) {
+        resourcePaths.add(RUNTIME_FILES_DIR + library);
+      }
+    }
+
+    createDirectory(new File(dexCacheDir));
+    final DexExecTask dexTask = new DexExecTask();
+    dexTask.setExecutable(getResource(DX_JAR));
+    dexTask.setChildProcessRamMb(childProcessRam);
+    dexTask.setDexedLibs(dexCacheDir);
+
+    final long start = System.currentTimeMillis();
+    final AtomicInteger remaining = new AtomicInteger(resourcePaths.size());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (final String resourcePath : resourcePaths) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          BuildStageScheduler.Ticket ticket =
+              acquireStage(BuildStageScheduler.Stage.DEX_WARM_UP, childProcessRam);
+          if (ticket != null) {
+            try {
+              if (dexTask.preDexLibrary(new File(getResource(resourcePath))) == null) {
+                LOG.warning("Unable to pre-dex " + resourcePath);
+              }
+            } finally {
+              ticket.release();
+            }
+          }
+          if (remaining.decrementAndGet() == 0) {
+            LOG.info("Dex cache warm-up finished in " +
+                ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+          }
+        }
+      });
+    }
+    executor.shutdown();
+  }
+
   /*
    *  Loads permissions and information on component libraries and assets.
    */
-  private void loadJsonInfo(ConcurrentMap<String, Set<String>> infoMap, String targetInfo)
+  private static void loadJsonInfo(ConcurrentMap<String, Set<String>> infoMap, String targetInfo)
       throws IOException, JSONException {
     synchronized (infoMap) {
       if (infoMap.isEmpty()) {
@@ -18,18 +18,15 @@ package com.google.appinventor.buildserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
@@ -44,9 +41,25 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
+    // MD5 of each input file, by absolute path. Filled in from the hash manifest that is built
+    // with the build server, or by hashing the file the first time it is used.
+    private static final ConcurrentMap<String, String> alreadyChecked =
+        new ConcurrentHashMap<String, String>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // One lock per pre-dexed library, so that a library is only dexed once, while unrelated
+    // libraries can be dexed at the same time.
+    private static final ConcurrentMap<String, Object> dexedLibLocks =
+        new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Records the MD5 of an input file, so that it doesn't need to be read to find its pre-dexed
+     * version.
+     * @param inputFile the input file.
+     * @param md5 the lowercase hex MD5 of the file's content.
+     */
+    public static void registerHash(File inputFile, String md5) {
+        alreadyChecked.put(inputFile.getAbsolutePath(), md5);
+    }
 
 
     /**
@@ -100,42 +113,65 @@ public class DexExecTask  {
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
-
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
-
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                File dexedLib = preDexLibrary(input);
+                if (dexedLib == null) {
+                    allSuccessful = false;
+                } else {
                     // replace the input with the pre-dex libs.
                     inputs.set(i, dexedLib);
                 }
             }
-            return allSuccessful;
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Pre-dexes a library into the dexed libs directory, unless that was done before.
+     * @param input the library jar.
+     * @return the pre-dexed library, or null if dx failed.
+     */
+    public File preDexLibrary(File input) {
+        // check if this libs needs to be pre-dexed
+        String fileName = getDexFileName(input);
+        File dexedLib = new File(mDexedLibs, fileName);
+
+        Object lock = dexedLibLocks.get(fileName);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = dexedLibLocks.putIfAbsent(fileName, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            if (dexedLib.isFile()) {
+                System.out.println(
+                    String.format("Using Pre-Dexed %1$s <- %2$s",
+                      fileName, input.getAbsolutePath()));
+                return dexedLib;
+            }
+
+            System.out.println(
+                String.format("Pre-Dexing %1$s -> %2$s",
+                  input.getAbsolutePath(), fileName));
+
+            // dx writes to a temporary file first, so that a build server that dies while dexing
+            // never leaves a partial library in the cache. The name must still end in .jar,
+            // otherwise dx writes a plain dex file.
+            File tmpDexedLib = new File(mDexedLibs, "tmp-" + fileName);
+            tmpDexedLib.delete();
+            boolean dexSuccess = runDx(input, tmpDexedLib.getAbsolutePath(), false /*showInput*/);
+            if (!dexSuccess || !tmpDexedLib.renameTo(dexedLib)) {
+                tmpDexedLib.delete();
+                return null;
+            }
+            return dexedLib;
         }
     }
 
@@ -156,11 +192,9 @@ public class DexExecTask  {
     private String getHashFor(File inputFile) {
         String retval = alreadyChecked.get(inputFile.getAbsolutePath());
         if (retval != null) return retval;
-        // add a hash of the original file path
+        // The file isn't in the hash manifest, so hash its content
         try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
+            retval = Files.hash(inputFile, Hashing.md5()).toString();
             alreadyChecked.put(inputFile.getAbsolutePath(), retval);
             return retval;
         } catch (IOException e) {
@@ -6,7 +6,6 @@
 
 package com.google.appinventor.buildserver;
 
-import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
@@ -37,6 +36,17 @@ public class FormPropertiesAnalyzer {
    * @return the properties as a JSONObject
    */
   public static JSONObject parseSourceFile(String source) {
+    try {
+      return new JSONObject(getJsonSection(source));
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Unable to parse file - invalid $JSON section syntax");
+    }
+  }
+
+  /*
+   * Returns the $JSON section of a complete source file.
+   */
+  private static String getJsonSection(String source) {
     // First, locate the beginning of the $JSON section.
     // Older files have a $Properties before the $JSON section and we need to make sure we skip
     // that.
@@ -56,40 +66,74 @@ public class FormPropertiesAnalyzer {
           "Unable to parse file - cannot locate end of $JSON section");
     }
 
-    String jsonPropertiesString = source.substring(beginningOfJsonSection,
-        endOfJsonSection);
-    try {
-      return new JSONObject(jsonPropertiesString);
-    } catch (JSONException e) {
-      throw new IllegalArgumentException("Unable to parse file - invalid $JSON section syntax");
-    }
+    return source.substring(beginningOfJsonSection, endOfJsonSection);
   }
 
   /**
    * Returns the Set of component types used in the given form file source.
+   *
+   * <p>The $JSON section is read with a {@link JsonPullParser}, so no JSON
+   * objects are built for the properties of the components.
    */
   public static Set<String> getComponentTypesFromFormFile(String source) {
     Set<String> componentTypes = new HashSet<String>();
-    JSONObject propertiesObject = parseSourceFile(source);
+    JsonPullParser parser = new JsonPullParser(getJsonSection(source));
     try {
-      collectComponentTypes(propertiesObject.getJSONObject("Properties"), componentTypes);
-    } catch (JSONException e) {
+      if (parser.next() != JsonPullParser.Token.START_OBJECT) {
+        throw new IllegalArgumentException("Expected an object");
+      }
+      boolean foundProperties = false;
+      while (parser.next() == JsonPullParser.Token.KEY) {
+        if (parser.getString().equals("Properties")) {
+          if (parser.next() != JsonPullParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("Properties is not an object");
+          }
+          collectComponentTypes(parser, componentTypes);
+          foundProperties = true;
+        } else {
+          parser.next();
+          parser.skipChildren();
+        }
+      }
+      parser.next();
+      if (!foundProperties) {
+        throw new IllegalArgumentException("No Properties");
+      }
+    } catch (IllegalArgumentException e) {
       throw new IllegalArgumentException("Unable to parse file - invalid $JSON section syntax");
     }
     return componentTypes;
   }
 
-  private static void collectComponentTypes(JSONObject componentProperties,
-      Set<String> componentTypes) throws JSONException {
-    String componentType = componentProperties.getString("$Type");
-    componentTypes.add(componentType);
-
-    // Recursive call to collect nested components.
-    if (componentProperties.has("$Components")) {
-      JSONArray components = componentProperties.getJSONArray("$Components");
-      for (int i = 0; i < components.length(); i++) {
-        collectComponentTypes(components.getJSONObject(i), componentTypes);
+  /*
+   * Collects the types of the component whose START_OBJECT was just read and
+   * of its nested components, leaving the parser at its END_OBJECT.
+   */
+  private static void collectComponentTypes(JsonPullParser parser, Set<String> componentTypes) {
+    String componentType = null;
+    while (parser.next() == JsonPullParser.Token.KEY) {
+      String key = parser.getString();
+      JsonPullParser.Token value = parser.next();
+      if (key.equals("$Type") && value == JsonPullParser.Token.STRING) {
+        componentType = parser.getString();
+      } else if (key.equals("$Components") && value == JsonPullParser.Token.START_ARRAY) {
+        // Recursive call to collect nested components.
+        JsonPullParser.Token token;
+        while ((token = parser.next()) == JsonPullParser.Token.START_OBJECT) {
+          collectComponentTypes(parser, componentTypes);
+        }
+        if (token != JsonPullParser.Token.END_ARRAY) {
+          throw new IllegalArgumentException("$Components contains a non-object");
+        }
+      } else if (key.equals("$Components")) {
+        throw new IllegalArgumentException("$Components is not an array");
+      } else {
+        parser.skipChildren();
       }
     }
+    if (componentType == null) {
+      throw new IllegalArgumentException("Component without $Type");
+    }
+    componentTypes.add(componentType);
   }
 }
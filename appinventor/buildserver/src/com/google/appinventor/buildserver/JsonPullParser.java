@@ -0,0 +1,262 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+/**
+ * Reads a JSON text as a sequence of tokens, without building objects for it.
+ *
+ * <p>Strings are only decoded when {@link #getString} is called, and the
+ * contents of an object or array that the caller is not interested in can be
+ * passed over with {@link #skipChildren}, so reading a few values from a large
+ * document costs little more than scanning it. Syntax errors are reported as
+ * IllegalArgumentExceptions when they are reached.</p>
+ */
+final class JsonPullParser {
+  /**
+   * The tokens returned by {@link #next}.
+   */
+  enum Token {
+    START_OBJECT,
+    END_OBJECT,
+    START_ARRAY,
+    END_ARRAY,
+    // The name of an object member; the next token is its value
+    KEY,
+    STRING,
+    // A number, true, false or null
+    LITERAL,
+    END_DOCUMENT
+  }
+
+  private final String source;
+  private int pos;
+
+  // The open objects and arrays, as '{' and '['
+  private final StringBuilder containers = new StringBuilder();
+  // Whether the innermost container has a member already
+  private boolean hasMember;
+  // Whether the last token was a KEY
+  private boolean afterKey;
+  // Whether the top level value was read
+  private boolean done;
+
+  private Token token;
+  private int tokenStart;
+  private int tokenEnd;
+
+  JsonPullParser(String source) {
+    this.source = source;
+  }
+
+  /**
+   * Returns the next token.
+   */
+  Token next() {
+    skipWhitespace();
+    if (containers.length() == 0) {
+      if (done) {
+        if (pos < source.length()) {
+          throw error("Unexpected text after JSON");
+        }
+        return token = Token.END_DOCUMENT;
+      }
+      return readValue();
+    }
+    if (afterKey) {
+      afterKey = false;
+      return readValue();
+    }
+
+    char container = containers.charAt(containers.length() - 1);
+    char c = charAt(pos);
+    if (c == '}' || c == ']') {
+      if ((c == '}') != (container == '{')) {
+        throw error("Mismatched " + c);
+      }
+      pos++;
+      containers.setLength(containers.length() - 1);
+      valueEnded();
+      return token = (c == '}') ? Token.END_OBJECT : Token.END_ARRAY;
+    }
+    if (hasMember) {
+      if (c != ',') {
+        throw error("Expected , or " + (container == '{' ? '}' : ']'));
+      }
+      pos++;
+      skipWhitespace();
+    }
+    if (container == '[') {
+      return readValue();
+    }
+
+    if (charAt(pos) != '"') {
+      throw error("Expected a key");
+    }
+    readString();
+    skipWhitespace();
+    if (charAt(pos) != ':') {
+      throw error("Expected :");
+    }
+    pos++;
+    afterKey = true;
+    return token = Token.KEY;
+  }
+
+  /**
+   * Returns the decoded text of the current KEY or STRING token, or the text
+   * of the current LITERAL token.
+   */
+  String getString() {
+    if (token == Token.LITERAL) {
+      return source.substring(tokenStart, tokenEnd);
+    }
+    if (token != Token.KEY && token != Token.STRING) {
+      throw new IllegalStateException("No string at " + token);
+    }
+    int i = tokenStart;
+    while (i < tokenEnd && source.charAt(i) != '\\') {
+      i++;
+    }
+    if (i == tokenEnd) {
+      return source.substring(tokenStart, tokenEnd);
+    }
+    StringBuilder sb = new StringBuilder(tokenEnd - tokenStart);
+    sb.append(source, tokenStart, i);
+    for (; i < tokenEnd; i++) {
+      char c = source.charAt(i);
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      c = source.charAt(++i);
+      switch (c) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (i + 4 >= tokenEnd) {
+            throw new IllegalArgumentException("Invalid unicode escape at character " + i);
+          }
+          try {
+            sb.append((char) Integer.parseInt(source.substring(i + 1, i + 5), 16));
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid unicode escape at character " + i);
+          }
+          i += 4;
+          break;
+        default:
+          // \" \\ \/ and anything else stand for themselves
+          sb.append(c);
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * If the current token is START_OBJECT or START_ARRAY, passes over the
+   * contents of the object or array, so that the current token becomes its
+   * END_OBJECT or END_ARRAY. Does nothing for other tokens.
+   */
+  void skipChildren() {
+    if (token != Token.START_OBJECT && token != Token.START_ARRAY) {
+      return;
+    }
+    int depth = containers.length();
+    Token t;
+    do {
+      t = next();
+    } while (containers.length() >= depth && t != Token.END_DOCUMENT);
+  }
+
+  private Token readValue() {
+    skipWhitespace();
+    char c = charAt(pos);
+    switch (c) {
+      case '{':
+      case '[':
+        pos++;
+        containers.append(c);
+        hasMember = false;
+        return token = (c == '{') ? Token.START_OBJECT : Token.START_ARRAY;
+      case '"':
+        readString();
+        valueEnded();
+        return token = Token.STRING;
+      default:
+        break;
+    }
+    tokenStart = pos;
+    while (pos < source.length() && ",:{}[]\" \t\r\n".indexOf(source.charAt(pos)) == -1) {
+      pos++;
+    }
+    if (pos == tokenStart) {
+      throw error("Expected a value");
+    }
+    tokenEnd = pos;
+    valueEnded();
+    return token = Token.LITERAL;
+  }
+
+  /*
+   * Finds the string that starts at pos, leaving pos after it.
+   */
+  private void readString() {
+    int start = pos;
+    for (int i = pos + 1; i < source.length(); i++) {
+      char c = source.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '"') {
+        tokenStart = start + 1;
+        tokenEnd = i;
+        pos = i + 1;
+        return;
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private void valueEnded() {
+    if (containers.length() == 0) {
+      done = true;
+    } else {
+      hasMember = true;
+    }
+  }
+
+  private void skipWhitespace() {
+    while (pos < source.length()) {
+      char c = source.charAt(pos);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        break;
+      }
+      pos++;
+    }
+  }
+
+  private char charAt(int i) {
+    if (i >= source.length()) {
+      throw error("Unexpected end of JSON");
+    }
+    return source.charAt(i);
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at character " + pos);
+  }
+}
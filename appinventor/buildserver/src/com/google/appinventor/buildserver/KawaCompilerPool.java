@@ -0,0 +1,180 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of long-lived {@link KawaCompilerWorker} processes.
+ *
+ * <p>Starting a new JVM for every build means paying JVM startup, loading kawa.jar and the YAIL
+ * runtime, and running without any JIT warm-up. A worker pays that once and then compiles many
+ * projects. Each worker runs in its own JVM, which keeps Kawa's static compiler state isolated from
+ * the build server and from other workers.</p>
+ *
+ * <p>Workers are recycled after a configurable number of jobs, after a failed job, and when the
+ * heap in use after a job grows past a configurable fraction of the worker's maximum heap.</p>
+ */
+final class KawaCompilerPool {
+  /*
+   * The result of running Kawa in a worker.
+   */
+  private static class WorkerResult {
+    private final int status;
+    private final long usedHeap;
+    private final long maxHeap;
+
+    WorkerResult(int status, long usedHeap, long maxHeap) {
+      this.status = status;
+      this.usedHeap = usedHeap;
+      this.maxHeap = maxHeap;
+    }
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  // The pool used by the compiler. Null means that every build forks its own Kawa process.
+  private static volatile KawaCompilerPool instance = null;
+
+  // A worker is recycled when the heap in use after a job exceeds this percentage of its maximum.
+  private final int maxHeapPercent;
+
+  private final WorkerProcessPool workers;
+
+  private final AtomicInteger completedJobs = new AtomicInteger(0);
+  private final AtomicInteger failedJobs = new AtomicInteger(0);
+
+  /**
+   * Creates a KawaCompilerPool.
+   *
+   * @param maxIdleWorkers the maximum number of idle workers to keep
+   * @param maxJobsPerWorker the number of jobs after which a worker is recycled
+   * @param maxHeapPercent the percentage of its maximum heap a worker may keep in use after a job
+   *     before it is recycled
+   */
+  KawaCompilerPool(int maxIdleWorkers, int maxJobsPerWorker, int maxHeapPercent) {
+    this.maxHeapPercent = maxHeapPercent;
+    this.workers = new WorkerProcessPool("Kawa compiler", "kawa", maxIdleWorkers,
+        maxJobsPerWorker);
+  }
+
+  static KawaCompilerPool getInstance() {
+    return instance;
+  }
+
+  static void setInstance(KawaCompilerPool pool) {
+    instance = pool;
+  }
+
+  /**
+   * Compiles with a warm worker, starting a new one if necessary.
+   *
+   * @param classpath the class path for Kawa
+   * @param runtimeArgs the Kawa arguments that load the YAIL runtime, which the worker runs once
+   * @param mx the maximum heap of the worker, in MB
+   * @param kawaArgs the arguments that would be passed to {@code kawa.repl}
+   * @param output the stream that receives Kawa's output
+   * @return {@code true} if Kawa succeeded, {@code false} otherwise
+   */
+  boolean compile(String classpath, List<String> runtimeArgs, int mx, List<String> kawaArgs,
+      PrintStream output) {
+    String key = mx + File.pathSeparator + runtimeArgs + File.pathSeparator + classpath;
+    WorkerProcessPool.Worker worker = workers.borrowWorker(key);
+    try {
+      if (worker == null) {
+        worker = startWorker(key, classpath, runtimeArgs, mx, output);
+        if (worker == null) {
+          failedJobs.incrementAndGet();
+          return false;
+        }
+      }
+
+      DataOutputStream out = worker.getOutput();
+      out.writeInt(kawaArgs.size());
+      for (String arg : kawaArgs) {
+        out.writeUTF(arg);
+      }
+      out.flush();
+      WorkerResult result = readResult(worker, output);
+
+      if (result.status == KawaCompilerWorker.STATUS_OK) {
+        completedJobs.incrementAndGet();
+      } else {
+        failedJobs.incrementAndGet();
+      }
+      // After a failed job Kawa may be in an unknown state, so we don't reuse the worker.
+      workers.returnWorker(worker, result.status == KawaCompilerWorker.STATUS_OK
+          && result.usedHeap * 100 < result.maxHeap * maxHeapPercent);
+      return result.status == KawaCompilerWorker.STATUS_OK;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Kawa compiler worker failed", e);
+      output.println("Kawa compiler worker failed: " + e.getMessage());
+      failedJobs.incrementAndGet();
+      if (worker != null) {
+        workers.recycle(worker);
+      }
+      return false;
+    }
+  }
+
+  private WorkerProcessPool.Worker startWorker(String key, String classpath,
+      List<String> runtimeArgs, int mx, PrintStream output) throws IOException {
+    List<String> command =
+        WorkerProcessPool.javaCommand(mx, classpath, KawaCompilerWorker.class);
+    command.addAll(runtimeArgs);
+    WorkerProcessPool.Worker worker = workers.startWorker(key, command);
+
+    long start = System.currentTimeMillis();
+    WorkerResult result = readResult(worker, output);
+    if (result.status != KawaCompilerWorker.STATUS_OK) {
+      LOG.severe("Kawa compiler worker could not load the YAIL runtime");
+      workers.recycle(worker);
+      return null;
+    }
+    LOG.info("Kawa compiler worker started in " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+    return worker;
+  }
+
+  private static WorkerResult readResult(WorkerProcessPool.Worker worker, PrintStream output)
+      throws IOException {
+    DataInputStream in = worker.getInput();
+    int status = in.readInt();
+    long usedHeap = in.readLong();
+    long maxHeap = in.readLong();
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    output.print(new String(bytes, Charsets.UTF_8));
+    return new WorkerResult(status, usedHeap, maxHeap);
+  }
+
+  /**
+   * Stops all idle workers.
+   */
+  void shutdown() {
+    workers.shutdown();
+  }
+
+  /**
+   * Adds the pool statistics to the given map of server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    workers.addVariables(variables);
+    variables.put("kawa-worker-completed-jobs", completedJobs.get() + "");
+    variables.put("kawa-worker-failed-jobs", failedJobs.get() + "");
+  }
+}
@@ -0,0 +1,165 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Main class of a long-lived Kawa compiler process.
+ *
+ * <p>The worker is started by {@link KawaCompilerPool} with the Kawa runtime and the component
+ * libraries on its class path. It loads the YAIL runtime once, and then reads compile jobs from
+ * stdin. Each job is the list of arguments that would otherwise be passed to {@code kawa.repl}.
+ * For each job the worker writes back the exit status, the heap in use after the job and
+ * everything that Kawa printed.</p>
+ *
+ * <p>This class must not depend on anything but the JDK, because it runs with the compile class
+ * path rather than the build server class path. Kawa is accessed via reflection.</p>
+ */
+public final class KawaCompilerWorker {
+  // Status written back when a job (or loading the runtime) succeeds.
+  static final int STATUS_OK = 0;
+
+  // Status written back when a job fails with an exception rather than a call to System.exit.
+  static final int STATUS_EXCEPTION = -100;
+
+  private KawaCompilerWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  the Kawa arguments that load the YAIL runtime
+   */
+  public static void main(String[] args) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+
+    // Everything Kawa prints is collected into jobOutput and sent back with the job result.
+    // System.out and System.err must be replaced before any Kawa class is loaded, because Kawa
+    // keeps references to them in static fields.
+    ByteArrayOutputStream jobOutput = new ByteArrayOutputStream();
+    PrintStream redirectPrintStream = new PrintStream(jobOutput, true, "UTF-8");
+    System.setOut(redirectPrintStream);
+    System.setErr(redirectPrintStream);
+
+    // Kawa calls System.exit when it finds errors in the source. We trap that so the worker can
+    // report the failure instead of dying.
+    WorkerProcessSupport.TrapExitSecurityManager securityManager =
+        new WorkerProcessSupport.TrapExitSecurityManager();
+    System.setSecurityManager(securityManager);
+
+    Method processArgs;
+    try {
+      processArgs = Class.forName("kawa.repl")
+          .getMethod("processArgs", String[].class, int.class, int.class);
+    } catch (Exception e) {
+      e.printStackTrace();
+      writeResult(out, STATUS_EXCEPTION, jobOutput);
+      return;
+    }
+
+    // Load the YAIL runtime. Its macros and definitions stay in the interaction environment for
+    // all following jobs.
+    int status = runKawa(processArgs, args, securityManager);
+    writeResult(out, status, jobOutput);
+    if (status != STATUS_OK) {
+      return;
+    }
+
+    while (true) {
+      String[] jobArgs;
+      try {
+        int argCount = in.readInt();
+        jobArgs = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+          jobArgs[i] = in.readUTF();
+        }
+      } catch (EOFException e) {
+        // The pool closed our stdin. Time to go.
+        return;
+      }
+      clearModules();
+      status = runKawa(processArgs, jobArgs, securityManager);
+      writeResult(out, status, jobOutput);
+    }
+  }
+
+  private static int runKawa(Method processArgs, String[] kawaArgs,
+      WorkerProcessSupport.TrapExitSecurityManager securityManager) {
+    securityManager.setTrapping(true);
+    try {
+      processArgs.invoke(null, kawaArgs, 0, kawaArgs.length);
+      return STATUS_OK;
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof WorkerProcessSupport.ExitTrappedException) {
+        return ((WorkerProcessSupport.ExitTrappedException) cause).getStatus();
+      }
+      cause.printStackTrace();
+      return STATUS_EXCEPTION;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return STATUS_EXCEPTION;
+    } finally {
+      securityManager.setTrapping(false);
+      flushKawaPorts();
+    }
+  }
+
+  /*
+   * Forgets about modules compiled by previous jobs, so a form is never mistaken for a form with
+   * the same class name from another project.
+   */
+  private static void clearModules() {
+    try {
+      Class<?> moduleManager = Class.forName("gnu.expr.ModuleManager");
+      Object instance = moduleManager.getMethod("getInstance").invoke(null);
+      moduleManager.getMethod("clear").invoke(instance);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static void flushKawaPorts() {
+    try {
+      Class<?> outPort = Class.forName("gnu.mapping.OutPort");
+      Method flush = outPort.getMethod("flush");
+      flush.invoke(outPort.getMethod("outDefault").invoke(null));
+      flush.invoke(outPort.getMethod("errDefault").invoke(null));
+    } catch (Exception e) {
+      // Nothing was printed through Kawa.
+    }
+  }
+
+  private static void writeResult(DataOutputStream out, int status,
+      ByteArrayOutputStream jobOutput) throws IOException {
+    System.out.flush();
+    Runtime runtime = Runtime.getRuntime();
+    runtime.gc();
+    byte[] output = jobOutput.toByteArray();
+    jobOutput.reset();
+    out.writeInt(status);
+    out.writeLong(runtime.totalMemory() - runtime.freeMemory());
+    out.writeLong(runtime.maxMemory());
+    out.writeInt(output.length);
+    out.write(output);
+    out.flush();
+  }
+}
@@ -11,31 +11,31 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
-import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import org.apache.commons.io.FileUtils;
 
 /**
  * Provides support for building Young Android projects.
@@ -72,6 +72,12 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  // Maximum ram that can be used by the YailGenerator child process, in MB.
+  private static final int YAIL_GENERATOR_RAM_MB = 1024;
+
+  // Maximum number of forms of one project for which YAIL is generated at the same time.
+  private static final int MAX_PARALLEL_YAIL_FORMS = 4;
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -80,52 +86,35 @@ public final class ProjectBuilder {
     return outputKeystore;
   }
 
-  /**
-   * Creates a new directory beneath the system's temporary directory (as
-   * defined by the {@code java.io.tmpdir} system property), and returns its
-   * name. The name of the directory will contain the current time (in millis),
-   * and a random number.
-   *
-   * <p>This method assumes that the temporary volume is writable, has free
-   * inodes and free blocks, and that it will not be called thousands of times
-   * per second.
-   *
-   * @return the newly-created directory
-   * @throws IllegalStateException if the directory could not be created
-   */
-  private static File createNewTempDir() {
-    File baseDir = new File(System.getProperty("java.io.tmpdir"));
-    String baseNamePrefix = System.currentTimeMillis() + "_" + Math.random() + "-";
-
-    final int TEMP_DIR_ATTEMPTS = 10000;
-    for (int counter = 0; counter < TEMP_DIR_ATTEMPTS; counter++) {
-      File tempDir = new File(baseDir, baseNamePrefix + counter);
-      if (tempDir.exists()) {
-        continue;
-      }
-      if (tempDir.mkdir()) {
-        return tempDir;
+  Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
+               int childProcessRam, String dexCachePath) {
+    // Extract project files into a new workspace
+    BuildWorkspace workspace = BuildWorkspace.create();
+    try {
+      workspace.extract(inputZip);
+    } catch (IOException e) {
+      LOG.severe("unexpected problem extracting project file from zip");
+      try {
+        workspace.delete();
+      } catch (IOException deleteException) {
+        deleteException.printStackTrace();
       }
+      return Result.createFailingResult("", "Problems processing zip file.");
     }
-    throw new IllegalStateException("Failed to create directory within "
-        + TEMP_DIR_ATTEMPTS + " attempts (tried "
-        + baseNamePrefix + "0 to " + baseNamePrefix + (TEMP_DIR_ATTEMPTS - 1) + ')');
+    return build(userName, workspace, outputDir, isForCompanion, childProcessRam, dexCachePath);
   }
 
-  Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
+  /**
+   * Builds a project that has already been extracted into a workspace. The workspace is deleted
+   * when the build is finished.
+   */
+  Result build(String userName, BuildWorkspace workspace, File outputDir, boolean isForCompanion,
                int childProcessRam, String dexCachePath) {
     try {
-      // Download project files into a temporary directory
-      File projectRoot = createNewTempDir();
+      File projectRoot = workspace.getProjectRoot();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
       try {
-        List<String> sourceFiles;
-        try {
-          sourceFiles = extractProjectFiles(inputZip, projectRoot);
-        } catch (IOException e) {
-          LOG.severe("unexpected problem extracting project file from zip");
-          return Result.createFailingResult("", "Problems processing zip file.");
-        }
+        List<String> sourceFiles = workspace.getSourceFiles();
 
         try {
           genYailFilesIfNecessary(sourceFiles);
@@ -189,12 +178,7 @@ public final class ProjectBuilder {
         }
         return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
       } finally {
-        // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
-        // canonical path here so that Files.deleteRecursively will work.
-        
-        // Note (ralph):  deleteRecursively has been removed from the guava-11.0.1 lib
-        // Replacing with deleteDirectory, which is supposed to delete the entire directory.
-        FileUtils.deleteDirectory(new File(projectRoot.getCanonicalPath()));
+        workspace.delete();
       }
     } catch (Exception e) {
       e.printStackTrace();
@@ -213,6 +197,7 @@ public final class ProjectBuilder {
             return input.endsWith(FORM_PROPERTIES_EXTENSION) || input.endsWith(YAIL_EXTENSION);
           }
         });
+    List<String> rootPathsNeedingYail = Lists.newArrayList();
     for (String sourceFile : formAndYailSourceFiles) {
       if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
         String rootPath = sourceFile.substring(0, sourceFile.length()
@@ -221,10 +206,54 @@ public final class ProjectBuilder {
         // Note: Famous last words: The following contains() makes this method O(n**2) but n should
         // be pretty small.
         if (!sourceFiles.contains(yailFilePath)) {
-          generateYail(rootPath);
+          rootPathsNeedingYail.add(rootPath);
         }
       }
     }
+    // The forms are independent of each other, so we generate them in parallel, but never more
+    // of them than the YAIL generation stage and the memory budget let run at the same time. When
+    // the server sets neither limit, the forms are generated one at a time.
+    int maxParallelForms = BuildStageScheduler.getInstance().getMaxConcurrent(
+        BuildStageScheduler.Stage.YAIL_GENERATION, YAIL_GENERATOR_RAM_MB);
+    int parallelForms = Math.min(rootPathsNeedingYail.size(),
+        Math.min(Math.max(maxParallelForms, 1), MAX_PARALLEL_YAIL_FORMS));
+    if (parallelForms <= 1) {
+      for (String rootPath : rootPathsNeedingYail) {
+        generateYail(rootPath);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelForms);
+    try {
+      List<Future<File>> futures = Lists.newArrayList();
+      for (final String rootPath : rootPathsNeedingYail) {
+        futures.add(executor.submit(new Callable<File>() {
+          @Override
+          public File call() throws Exception {
+            return generateYail(rootPath);
+          }
+        }));
+      }
+      // Report the first form that failed, in the same order as generating them one at a time.
+      for (Future<File> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while generating YAIL");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof YailGenerationException) {
+            throw (YailGenerationException) cause;
+          }
+          Throwables.propagateIfInstanceOf(cause, IOException.class);
+          throw Throwables.propagate(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
   private static Set<String> getAllComponentTypes() throws IOException {
@@ -237,28 +266,6 @@ public final class ProjectBuilder {
     return compSet;
   }
 
-  private ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
-      throws IOException {
-    ArrayList<String> projectFileNames = Lists.newArrayList();
-    Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
-    while (inputZipEnumeration.hasMoreElements()) {
-      ZipEntry zipEntry = inputZipEnumeration.nextElement();
-      final InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
-      File extractedFile = new File(projectRoot, zipEntry.getName());
-      LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
-      Files.createParentDirs(extractedFile); // Do I need this?
-      Files.copy(
-          new InputSupplier<InputStream>() {
-            public InputStream getInput() throws IOException {
-              return extractedInputStream;
-            }
-          },
-          extractedFile);
-      projectFileNames.add(extractedFile.getPath());
-    }
-    return projectFileNames;
-  }
-
   private static Set<String> getComponentTypes(List<String> files)
       throws IOException {
     Set<String> componentTypes = Sets.newHashSet();
@@ -418,18 +425,40 @@ public final class ProjectBuilder {
     String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
     String yailPath = rootName + YAIL_EXTENSION;
 
-    String[] commandLine = {
-      System.getProperty("java.home") + "/bin/java",
-      "-mx1024M",
-      "-jar",
-      Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
+    String generatorJar = Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar");
+    List<String> generatorArgs = Lists.newArrayList(
       new File(formPropertiesPath).getAbsolutePath(),
       new File(codeblocksSourcePath).getAbsolutePath(),
-      yailPath
-    };
+      yailPath);
     StringBuffer out = new StringBuffer();
     StringBuffer err = new StringBuffer();
-    int exitValue = Execution.execute(null, commandLine, out, err);
+    BuildStageScheduler.Ticket ticket =
+        Compiler.acquireStage(BuildStageScheduler.Stage.YAIL_GENERATION, YAIL_GENERATOR_RAM_MB);
+    if (ticket == null) {
+      throw new IOException("Interrupted while waiting to generate YAIL");
+    }
+    int exitValue;
+    try {
+      YailGeneratorPool generatorPool = YailGeneratorPool.getInstance();
+      if (generatorPool != null) {
+        YailGeneratorPool.Result result =
+            generatorPool.generate(generatorJar, YAIL_GENERATOR_RAM_MB, generatorArgs);
+        exitValue = result.getExitValue();
+        out.append(result.getOut());
+        err.append(result.getErr());
+      } else {
+        List<String> commandLine = Lists.newArrayList(
+          System.getProperty("java.home") + "/bin/java",
+          "-mx" + YAIL_GENERATOR_RAM_MB + "M",
+          "-jar",
+          generatorJar);
+        commandLine.addAll(generatorArgs);
+        exitValue = Execution.execute(null, commandLine.toArray(new String[commandLine.size()]),
+            out, err);
+      }
+    } finally {
+      ticket.release();
+    }
     if (exitValue == 0) {
       String generatedYailString = out.toString();
       File generatedYailFile = new File(yailPath);
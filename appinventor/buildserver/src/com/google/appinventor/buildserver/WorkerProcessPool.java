@@ -0,0 +1,221 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The idle worker processes of {@link KawaCompilerPool} or {@link YailGeneratorPool}.
+ *
+ * <p>This class starts, keeps and stops the processes. The job protocol spoken with a worker
+ * over its stdin and stdout is left to the pool that uses it.</p>
+ *
+ * <p>Idle workers are keyed by how they were started, and are only handed out for the same key.
+ * When more than the maximum number of workers are idle, the one that has been idle the longest
+ * is stopped. A worker is stopped rather than kept after a configurable number of jobs, and after
+ * any job its pool doesn't consider it reusable after.</p>
+ */
+final class WorkerProcessPool {
+  /**
+   * A running worker process.
+   */
+  static final class Worker {
+    private final String key;
+    private final Process process;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int jobCount;
+
+    private Worker(String key, Process process) {
+      this.key = key;
+      this.process = process;
+      this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    }
+
+    /**
+     * Returns the stream the worker writes its results to.
+     */
+    DataInputStream getInput() {
+      return in;
+    }
+
+    /**
+     * Returns the stream the worker reads its jobs from.
+     */
+    DataOutputStream getOutput() {
+      return out;
+    }
+
+    private void destroy() {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // ignored
+      }
+      process.destroy();
+    }
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(WorkerProcessPool.class.getName());
+
+  // What the workers do, for log messages
+  private final String description;
+  // The prefix of the server variables of this pool
+  private final String varPrefix;
+  // The maximum number of idle workers that are kept.
+  private final int maxIdleWorkers;
+  // The number of jobs after which a worker is recycled.
+  private final int maxJobsPerWorker;
+
+  // Most recently idle first
+  private final LinkedList<Worker> idleWorkers = new LinkedList<Worker>();
+
+  private final AtomicInteger startedWorkers = new AtomicInteger(0);
+  private final AtomicInteger recycledWorkers = new AtomicInteger(0);
+
+  /**
+   * Creates a WorkerProcessPool.
+   *
+   * @param description what the workers do, for example "Kawa compiler"
+   * @param varPrefix the prefix of the server variables of this pool, for example "kawa"
+   * @param maxIdleWorkers the maximum number of idle workers to keep
+   * @param maxJobsPerWorker the number of jobs after which a worker is recycled
+   */
+  WorkerProcessPool(String description, String varPrefix, int maxIdleWorkers,
+      int maxJobsPerWorker) {
+    this.description = description;
+    this.varPrefix = varPrefix;
+    this.maxIdleWorkers = maxIdleWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
+  }
+
+  /**
+   * Returns the command that starts a JVM running the given worker class. The worker class
+   * itself comes from the build server jar.
+   *
+   * @param mx the maximum heap of the JVM, in MB
+   * @param classpath what the worker needs on its class path besides the build server jar, or
+   *     null if nothing
+   * @param workerClass the main class of the worker
+   */
+  static List<String> javaCommand(int mx, String classpath, Class<?> workerClass) {
+    String workerClasspath = new File(workerClass.getProtectionDomain()
+        .getCodeSource().getLocation().getPath()).getAbsolutePath();
+    return Lists.newArrayList(
+        System.getProperty("java.home") + "/bin/java",
+        "-mx" + mx + "M",
+        "-cp", (classpath == null) ? workerClasspath
+            : classpath + File.pathSeparator + workerClasspath,
+        workerClass.getName());
+  }
+
+  /**
+   * Removes an idle worker that was started with the given key from the pool and returns it.
+   *
+   * @return the worker, or null if there is none
+   */
+  Worker borrowWorker(String key) {
+    synchronized (idleWorkers) {
+      for (Iterator<Worker> iterator = idleWorkers.iterator(); iterator.hasNext(); ) {
+        Worker worker = iterator.next();
+        if (worker.key.equals(key)) {
+          iterator.remove();
+          return worker;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Starts a worker process. Its stderr goes to the stderr of the build server.
+   *
+   * @param key what identifies the way the worker is started; the worker is only handed out for
+   *     the same key
+   * @param command the command that starts the worker
+   */
+  Worker startWorker(String key, List<String> command) throws IOException {
+    LOG.info("Starting " + description + " worker");
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    Worker worker = new Worker(key, processBuilder.start());
+    startedWorkers.incrementAndGet();
+    return worker;
+  }
+
+  /**
+   * Hands a worker back after a job. It is kept for another job if it is reusable and hasn't
+   * done its maximum number of jobs yet, and recycled otherwise.
+   *
+   * @param reusable whether the worker is in a state to do another job
+   */
+  void returnWorker(Worker worker, boolean reusable) {
+    worker.jobCount++;
+    if (!reusable || worker.jobCount >= maxJobsPerWorker || maxIdleWorkers <= 0) {
+      recycle(worker);
+      return;
+    }
+    Worker evicted = null;
+    synchronized (idleWorkers) {
+      // Make room by stopping the worker that has been idle the longest, so that workers that
+      // were started in a way that is no longer used don't hold the pool.
+      if (idleWorkers.size() >= maxIdleWorkers) {
+        evicted = idleWorkers.removeLast();
+      }
+      idleWorkers.addFirst(worker);
+    }
+    if (evicted != null) {
+      recycle(evicted);
+    }
+  }
+
+  /**
+   * Stops a worker that failed, or that is not reusable for another reason.
+   */
+  void recycle(Worker worker) {
+    recycledWorkers.incrementAndGet();
+    worker.destroy();
+  }
+
+  /**
+   * Stops all idle workers.
+   */
+  void shutdown() {
+    synchronized (idleWorkers) {
+      for (Worker worker : idleWorkers) {
+        worker.destroy();
+      }
+      idleWorkers.clear();
+    }
+  }
+
+  /**
+   * Adds the worker statistics to the given map of server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    int idle;
+    synchronized (idleWorkers) {
+      idle = idleWorkers.size();
+    }
+    variables.put(varPrefix + "-workers-idle", idle + "");
+    variables.put(varPrefix + "-workers-started", startedWorkers.get() + "");
+    variables.put(varPrefix + "-workers-recycled", recycledWorkers.get() + "");
+  }
+}
@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.security.Permission;
+
+/**
+ * Helpers shared by the long-lived worker processes ({@link KawaCompilerWorker} and
+ * {@link YailGeneratorWorker}).
+ *
+ * <p>Like the workers themselves, this class must not depend on anything but the JDK.</p>
+ */
+final class WorkerProcessSupport {
+  /**
+   * Thrown instead of exiting the JVM when a tool calls System.exit while exits are trapped.
+   */
+  static class ExitTrappedException extends SecurityException {
+    private final int status;
+
+    ExitTrappedException(int status) {
+      this.status = status;
+    }
+
+    int getStatus() {
+      return status;
+    }
+  }
+
+  /**
+   * Turns System.exit into an {@link ExitTrappedException} while trapping is on, so that a
+   * worker can report a tool's exit status instead of dying. All other permission checks are
+   * allowed.
+   */
+  static class TrapExitSecurityManager extends SecurityManager {
+    private volatile boolean trapping;
+
+    void setTrapping(boolean trapping) {
+      this.trapping = trapping;
+    }
+
+    @Override
+    public void checkPermission(Permission permission) {
+    }
+
+    @Override
+    public void checkPermission(Permission permission, Object context) {
+    }
+
+    @Override
+    public void checkExit(int status) {
+      if (trapping) {
+        throw new ExitTrappedException(status);
+      }
+    }
+  }
+
+  private WorkerProcessSupport() {
+  }
+}
@@ -0,0 +1,136 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of long-lived {@link YailGeneratorWorker} processes.
+ *
+ * <p>Legacy projects that have no .yail files need YailGenerator.jar for every form. Running it in
+ * a warm worker saves one JVM startup per form.</p>
+ */
+final class YailGeneratorPool {
+  /**
+   * The outcome of running the YAIL generator. The exit value follows the contract of
+   * YailGenerator.jar: 0 means success, 1 means the form could not be translated and anything else
+   * is unexpected.
+   */
+  static class Result {
+    private final int exitValue;
+    private final String out;
+    private final String err;
+
+    Result(int exitValue, String out, String err) {
+      this.exitValue = exitValue;
+      this.out = out;
+      this.err = err;
+    }
+
+    int getExitValue() {
+      return exitValue;
+    }
+
+    String getOut() {
+      return out;
+    }
+
+    String getErr() {
+      return err;
+    }
+  }
+
+  // The pool used by ProjectBuilder. Null means that every form forks its own generator process.
+  private static volatile YailGeneratorPool instance = null;
+
+  private final WorkerProcessPool workers;
+
+  private final AtomicInteger completedJobs = new AtomicInteger(0);
+
+  /**
+   * Creates a YailGeneratorPool.
+   *
+   * @param maxIdleWorkers the maximum number of idle workers to keep
+   * @param maxJobsPerWorker the number of jobs after which a worker is recycled
+   */
+  YailGeneratorPool(int maxIdleWorkers, int maxJobsPerWorker) {
+    this.workers = new WorkerProcessPool("YAIL generator", "yail", maxIdleWorkers,
+        maxJobsPerWorker);
+  }
+
+  static YailGeneratorPool getInstance() {
+    return instance;
+  }
+
+  static void setInstance(YailGeneratorPool pool) {
+    instance = pool;
+  }
+
+  /**
+   * Runs the YAIL generator in a warm worker, starting a new one if necessary. Only workers that
+   * were started with the same generator jar and heap size are reused. A worker whose job did not
+   * exit with 0 is stopped rather than reused.
+   *
+   * @param generatorJar the path of YailGenerator.jar
+   * @param mx the maximum heap of a new worker, in MB
+   * @param generatorArgs the arguments that would be passed to YailGenerator.jar
+   * @throws IOException if the worker could not be started or failed
+   */
+  Result generate(String generatorJar, int mx, List<String> generatorArgs) throws IOException {
+    String key = mx + " " + generatorJar;
+    WorkerProcessPool.Worker worker = workers.borrowWorker(key);
+    if (worker == null) {
+      List<String> command = WorkerProcessPool.javaCommand(mx, null, YailGeneratorWorker.class);
+      command.add(generatorJar);
+      worker = workers.startWorker(key, command);
+    }
+    try {
+      DataOutputStream out = worker.getOutput();
+      out.writeInt(generatorArgs.size());
+      for (String arg : generatorArgs) {
+        out.writeUTF(arg);
+      }
+      out.flush();
+      DataInputStream in = worker.getInput();
+      int exitValue = in.readInt();
+      String generatorOut = readString(in);
+      String generatorErr = readString(in);
+      completedJobs.incrementAndGet();
+      // The generator may have left the worker's JVM in a bad state if it didn't succeed.
+      workers.returnWorker(worker, exitValue == 0);
+      return new Result(exitValue, generatorOut, generatorErr);
+    } catch (IOException e) {
+      workers.recycle(worker);
+      throw e;
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    // The worker prints with the default charset, like a forked generator does.
+    return new String(bytes);
+  }
+
+  /**
+   * Stops all idle workers.
+   */
+  void shutdown() {
+    workers.shutdown();
+  }
+
+  /**
+   * Adds the pool statistics to the given map of server variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    workers.addVariables(variables);
+    variables.put("yail-worker-completed-jobs", completedJobs.get() + "");
+  }
+}
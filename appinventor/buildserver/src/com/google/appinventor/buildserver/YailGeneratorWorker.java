@@ -0,0 +1,133 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * Main class of a long-lived YAIL generator process.
+ *
+ * <p>The worker is started by {@link YailGeneratorPool} and reads jobs from stdin. Each job is
+ * the list of arguments that would otherwise be passed to {@code java -jar YailGenerator.jar}.
+ * The generator's main class is loaded by a new class loader for every job, so that no state is
+ * carried over from one form to the next, while the JVM itself stays warm. For each job the worker
+ * writes back the exit status and what the generator printed on stdout and stderr.</p>
+ *
+ * <p>This class must not depend on anything but the JDK.</p>
+ */
+public final class YailGeneratorWorker {
+  // Status written back when a job fails with an exception rather than a call to System.exit.
+  static final int STATUS_EXCEPTION = -100;
+
+  private YailGeneratorWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  the path of YailGenerator.jar
+   */
+  public static void main(String[] args) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+
+    ByteArrayOutputStream jobOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream jobErr = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(jobOut, true));
+    System.setErr(new PrintStream(jobErr, true));
+
+    // The generator exits with 1 when it can't generate code for a form. We trap that so the
+    // worker can report the exit status instead of dying.
+    WorkerProcessSupport.TrapExitSecurityManager securityManager =
+        new WorkerProcessSupport.TrapExitSecurityManager();
+    System.setSecurityManager(securityManager);
+
+    File generatorJar = new File(args[0]);
+    JarFile jarFile = new JarFile(generatorJar);
+    String mainClassName;
+    try {
+      mainClassName = jarFile.getManifest().getMainAttributes()
+          .getValue(Attributes.Name.MAIN_CLASS);
+    } finally {
+      jarFile.close();
+    }
+    URL[] generatorUrls = new URL[] { generatorJar.toURI().toURL() };
+
+    while (true) {
+      String[] jobArgs;
+      try {
+        int argCount = in.readInt();
+        jobArgs = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+          jobArgs[i] = in.readUTF();
+        }
+      } catch (EOFException e) {
+        // The pool closed our stdin. Time to go.
+        return;
+      }
+
+      int status;
+      URLClassLoader classLoader =
+          new URLClassLoader(generatorUrls, ClassLoader.getSystemClassLoader().getParent());
+      Thread.currentThread().setContextClassLoader(classLoader);
+      securityManager.setTrapping(true);
+      try {
+        Method main = classLoader.loadClass(mainClassName).getMethod("main", String[].class);
+        main.invoke(null, (Object) jobArgs);
+        status = 0;
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof WorkerProcessSupport.ExitTrappedException) {
+          status = ((WorkerProcessSupport.ExitTrappedException) cause).getStatus();
+        } else {
+          cause.printStackTrace();
+          status = STATUS_EXCEPTION;
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = STATUS_EXCEPTION;
+      } finally {
+        securityManager.setTrapping(false);
+        Thread.currentThread().setContextClassLoader(null);
+        classLoader.close();
+      }
+
+      System.out.flush();
+      System.err.flush();
+      writeBytes(out, status, jobOut, jobErr);
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, int status,
+      ByteArrayOutputStream jobOut, ByteArrayOutputStream jobErr) throws IOException {
+    out.writeInt(status);
+    out.writeInt(jobOut.size());
+    jobOut.writeTo(out);
+    out.writeInt(jobErr.size());
+    jobErr.writeTo(out);
+    out.flush();
+    jobOut.reset();
+    jobErr.reset();
+  }
+}
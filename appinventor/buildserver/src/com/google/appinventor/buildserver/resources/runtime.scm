@@ -308,7 +308,8 @@
 
        (define (add-to-form-environment name :: gnu.mapping.Symbol object)
          (android-log-form (format #f "Adding ~A to env ~A with value ~A" name form-environment object))
-         (gnu.mapping.Environment:put form-environment name object))
+         (gnu.mapping.Environment:put form-environment name object)
+         (com.google.appinventor.components.runtime.EventDispatcher:invalidateHandlerCache))
 
        (define (lookup-in-form-environment name :: gnu.mapping.Symbol #!optional (default-value #f))
          (if (and (not (eq? form-environment #!null))
@@ -400,6 +401,18 @@
                               registeredComponentName :: java.lang.String
                               eventName :: java.lang.String
                               args :: java.lang.Object[]) :: boolean
+         (let ((handler (lookupEventHandler componentObject registeredComponentName eventName)))
+           (if (eq? handler #!null)
+               #f
+               (dispatchToHandler handler args))))
+
+       ;; For the HandlesEventDispatching interface
+       ;; The EventDispatcher caches the handler returned here for the
+       ;; component object and event name, so this is only called again
+       ;; after the event registrations or the form environment change.
+       (define (lookupEventHandler componentObject :: com.google.appinventor.components.runtime.Component
+                                   registeredComponentName :: java.lang.String
+                                   eventName :: java.lang.String) :: java.lang.Object
            ;; Check that the component object that generated the event
            ;; matches the component object associated with the
            ;; component name that registered the event.  This is
@@ -408,31 +421,35 @@
            (let ((registeredObject (string->symbol registeredComponentName)))
                  (if (is-bound-in-form-environment registeredObject)
                      (if (eq? (lookup-in-form-environment registeredObject) componentObject)
-                        (let ((handler (lookup-handler registeredComponentName eventName)))
-                                ;; Note: This try-catch was originally part of the
-                                ;; generated handler from define-event.  It was moved
-                                ;; here because Kawa seems be unable to eval a
-                                ;; try-catch without compiling it and we can't support
-                                ;; compilation in anything (e.g. define-event) that
-                                ;; might get sent to the REPL!
-                                (try-catch
-                                 (begin
-                                   (apply handler (gnu.lists.LList:makeList args 0))
-                                   #t)
-                                 (exception java.lang.Throwable
-                                  (begin
-                                    (android-log-form (exception:getMessage))
-;;; Comment out the line below to inhibit a stack trace on a RunTimeError
-                                    (exception:printStackTrace)
-                                    (process-exception exception)
-                                    #f))))
-                        #f)
+                         (let ((handler (lookup-handler registeredComponentName eventName)))
+                           (if (eq? handler #f) #!null handler))
+                         #!null)
                      ;; else unregister event for registeredComponentName
                      (begin
                        (com.google.appinventor.components.runtime.EventDispatcher:unregisterEventForDelegation
                          (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
                          registeredComponentName eventName)
-                       #f))))
+                       #!null))))
+
+       ;; For the HandlesEventDispatching interface
+       (define (dispatchToHandler handler args :: java.lang.Object[]) :: boolean
+         ;; Note: This try-catch was originally part of the
+         ;; generated handler from define-event.  It was moved
+         ;; here because Kawa seems be unable to eval a
+         ;; try-catch without compiling it and we can't support
+         ;; compilation in anything (e.g. define-event) that
+         ;; might get sent to the REPL!
+         (try-catch
+          (begin
+            ((as gnu.mapping.Procedure handler):applyN args)
+            #t)
+          (exception java.lang.Throwable
+           (begin
+             (android-log-form (exception:getMessage))
+;;; Comment out the line below to inhibit a stack trace on a RunTimeError
+             (exception:printStackTrace)
+             (process-exception exception)
+             #f))))
 
        (define (lookup-handler componentName eventName)
          (lookup-in-form-environment
@@ -690,7 +707,8 @@
   (if (not (eq? *this-form* #!null))
       (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
-      (gnu.mapping.Environment:put *test-environment* name object)))
+      (gnu.mapping.Environment:put *test-environment* name object))
+  (com.google.appinventor.components.runtime.EventDispatcher:invalidateHandlerCache))
 
 (define (lookup-in-current-form-environment name :: gnu.mapping.Symbol #!optional (default-value #f))
                     ;  (android-log (format #f "Looking up ~A in env ~A" name
@@ -707,7 +725,8 @@
   (if (not (eq? *this-form* #!null))
       (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
-      (gnu.mapping.Environment:remove *test-environment* name)))
+      (gnu.mapping.Environment:remove *test-environment* name))
+  (com.google.appinventor.components.runtime.EventDispatcher:invalidateHandlerCache))
 
 (define (rename-in-current-form-environment old-name :: gnu.mapping.Symbol new-name :: gnu.mapping.Symbol)
   (when (not (eqv? old-name new-name))
@@ -737,6 +756,7 @@
         default-value)))
 
 (define (reset-current-form-environment)
+  (com.google.appinventor.components.runtime.EventDispatcher:invalidateHandlerCache)
   (if (not (eq? *this-form* #!null))
       (let ((form-name (*:.form-name-symbol *this-form*)))
         ;; Create a new environment
@@ -1814,7 +1834,7 @@ list, use the make-yail-list constructor with no arguments.
 
 ;; Implements the Blocks length operation
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  ((as YailList yail-list):size))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -1859,7 +1879,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    ((as YailList yail-list):getObject (- index 1)))))
 
 
 ;; Implements the Blocks set list item operation
@@ -1878,7 +1898,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  ((as YailList yail-list):setObject (- index 1) value))
 
 
 
@@ -1909,8 +1929,7 @@ list, use the make-yail-list constructor with no arguments.
                    len
                    (get-display-representation yail-list))
            "List index too large"))
-      (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+      ((as YailList yail-list):removeObject (- index2 1)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -1939,11 +1958,7 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list)
                    len+1)
            "List index too large"))
-      (let ((contents (yail-list-contents yail-list)))
-        (if (= index2 1)
-            (set-yail-list-contents! yail-list (cons item contents))
-            (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+      ((as YailList yail-list):insertObject (- index2 1) item))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -1953,14 +1968,7 @@ list, use the make-yail-list constructor with no arguments.
   ;; between the augmented list and the source of the added elements.
   ;; But like Python, we do a shallow copy, so that substructure is
   ;; shared.
-  (define (list-copy l)
-    (if (null? l)
-    '()
-    (cons (car l) (list-copy (cdr l)))))
-  ;; We have to operate on the yail-list itself, not the contents, because
-  ;; the contents might be empty
-  (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+  ((as YailList yail-list-A):appendList (as YailList yail-list-B)))
 
 
 ;; Extend list A by appending the items to it
@@ -0,0 +1,119 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildCache class.
+ *
+ */
+public class BuildCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(tmpDir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private File writeFile(File dir, String path, String content) throws Exception {
+    File file = new File(dir, path);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+  public void testKeysDependOnContent() throws Exception {
+    File a = writeFile(tmpDir, "a/Screen1.yail", "(foo)");
+    File b = writeFile(tmpDir, "b/Screen1.yail", "(foo)");
+    File c = writeFile(tmpDir, "c/Screen1.yail", "(bar)");
+    String keyA = BuildCache.newKey(BuildCache.Kind.FORM_CLASSES).putFile(a).build();
+    String keyB = BuildCache.newKey(BuildCache.Kind.FORM_CLASSES).putFile(b).build();
+    String keyC = BuildCache.newKey(BuildCache.Kind.FORM_CLASSES).putFile(c).build();
+    assertEquals(keyA, keyB);
+    assertFalse(keyA.equals(keyC));
+    assertTrue(keyA.startsWith("classes-"));
+    assertFalse(keyA.equals(BuildCache.newKey(BuildCache.Kind.DEX).putFile(a).build()));
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 1024 * 1024);
+    File classesDir = new File(tmpDir, "classes");
+    File classFile = writeFile(classesDir, "x/y/Screen1.class", "class");
+    File frameFile = writeFile(classesDir, "x/y/Screen1$frame.class", "frame");
+
+    assertFalse(cache.restore("classes-1", new File(tmpDir, "out")));
+    cache.store("classes-1", classesDir, ImmutableList.of(classFile, frameFile));
+    File outDir = new File(tmpDir, "out");
+    assertTrue(cache.restore("classes-1", outDir));
+    assertEquals("class", Files.toString(new File(outDir, "x/y/Screen1.class"), Charsets.UTF_8));
+    assertEquals("frame",
+        Files.toString(new File(outDir, "x/y/Screen1$frame.class"), Charsets.UTF_8));
+
+    File dex = writeFile(tmpDir, "classes.dex", "dex");
+    cache.storeFile("dex-1", dex);
+    File restoredDex = new File(tmpDir, "other.dex");
+    assertTrue(cache.restoreFile("dex-1", restoredDex));
+    assertEquals("dex", Files.toString(restoredDex, Charsets.UTF_8));
+
+    assertEquals(1, cache.getHitCount(BuildCache.Kind.FORM_CLASSES));
+    assertEquals(1, cache.getMissCount(BuildCache.Kind.FORM_CLASSES));
+    assertEquals(1, cache.getHitCount(BuildCache.Kind.DEX));
+    assertEquals(2, cache.getEntryCount());
+    assertEquals(13, cache.getSizeBytes());
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 10);
+    cache.storeFile("dex-1", writeFile(tmpDir, "1", "1234"));
+    cache.storeFile("dex-2", writeFile(tmpDir, "2", "1234"));
+    // Using the first entry makes the second one the least recently used.
+    assertTrue(cache.restoreFile("dex-1", new File(tmpDir, "restored")));
+    cache.storeFile("dex-3", writeFile(tmpDir, "3", "1234"));
+
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(8, cache.getSizeBytes());
+    assertFalse(cache.restoreFile("dex-2", new File(tmpDir, "restored")));
+    assertTrue(cache.restoreFile("dex-3", new File(tmpDir, "restored")));
+
+    // Entries survive a restart.
+    BuildCache reloaded = new BuildCache(new File(tmpDir, "cache"), 10);
+    assertEquals(2, reloaded.getEntryCount());
+    assertTrue(reloaded.restoreFile("dex-1", new File(tmpDir, "restored")));
+  }
+
+  public void testAddVariables() throws Exception {
+    BuildCache cache = new BuildCache(new File(tmpDir, "cache"), 10);
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    cache.addVariables(variables);
+    assertEquals("0", variables.get("build-cache-entries"));
+    assertEquals("10", variables.get("build-cache-max-bytes"));
+    assertEquals("0", variables.get("build-cache-aapt-hits"));
+    assertEquals("0", variables.get("build-cache-classes-misses"));
+  }
+}
@@ -0,0 +1,249 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildQueue class.
+ *
+ * @author lizlooney@google.com (Liz Looney)
+ */
+public class BuildQueueTest extends TestCase {
+  public void testAdditionalTaskIsRejected() throws Exception {
+    // Create the BuildQueue with capacity 10 and no queue.
+    int maxCapacity = 10;
+    BuildQueue executor =
+        new BuildQueue(maxCapacity, Collections.<BuildQueue.Lane, Integer>emptyMap());
+
+    // Execute the maximum number of tasks, which will all wait until I notify them via the signal.
+    final Object signal = new Object();
+    for (int i = 0; i < maxCapacity; i++) {
+      executor.execute(new TaskThatWaitsForSignal(signal));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, executor.getRejectedTaskCount(BuildQueue.Lane.APP));
+
+    // Notify the signal so the active tasks can complete.
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+  public void testQueuedTasksRunCompanionLaneFirst() throws Exception {
+    Map<BuildQueue.Lane, Integer> maxQueued =
+        new EnumMap<BuildQueue.Lane, Integer>(BuildQueue.Lane.class);
+    maxQueued.put(BuildQueue.Lane.APP, 2);
+    maxQueued.put(BuildQueue.Lane.COMPANION, 1);
+    BuildQueue executor = new BuildQueue(1, maxQueued);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    });
+    assertTrue(executor.estimateWaitMillis(BuildQueue.Lane.APP) > 0);
+
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(3);
+    executor.execute(new RecordingTask(order, "app1", done));
+    executor.execute(new RecordingTask(order, "app2", done));
+    executor.execute(new RecordingTask(order, "companion", done), BuildQueue.Lane.COMPANION);
+    assertEquals(2, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+    assertEquals(1, executor.getQueuedTaskCount(BuildQueue.Lane.COMPANION));
+
+    // Both lanes are full now.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    try {
+      executor.execute(new TaskThatDoesNothing(), BuildQueue.Lane.COMPANION);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("companion", order.get(0));
+    assertEquals("app1", order.get(1));
+    assertEquals("app2", order.get(2));
+
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    executor.addVariables(variables);
+    assertEquals("2", variables.get("build-queue-app-max-queued"));
+    assertEquals("1", variables.get("build-queue-companion-rejected"));
+    assertEquals("1", variables.get("build-queue-companion-wait-0-1s"));
+  }
+
+  public void testLaneFromName() throws Exception {
+    assertEquals(BuildQueue.Lane.COMPANION, BuildQueue.Lane.fromName("companion"));
+    assertEquals(BuildQueue.Lane.APP, BuildQueue.Lane.fromName("app"));
+    assertEquals(BuildQueue.Lane.APP, BuildQueue.Lane.fromName(null));
+  }
+
+  public void testQueuedTaskRunsAfterFailedTask() throws Exception {
+    Map<BuildQueue.Lane, Integer> maxQueued =
+        new EnumMap<BuildQueue.Lane, Integer>(BuildQueue.Lane.class);
+    maxQueued.put(BuildQueue.Lane.APP, 1);
+    BuildQueue executor = new BuildQueue(1, maxQueued);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+        throw new RuntimeException("build failed");
+      }
+    });
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new RecordingTask(order, "build", done));
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("build", order.get(0));
+    for (int i = 0; i < 50 && executor.getActiveTaskCount() > 0; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(0, executor.getActiveTaskCount());
+    assertEquals(2, executor.getCompletedTaskCount());
+  }
+
+  public void testAdmittedBuildKeepsItsPlaceUntilStarted() throws Exception {
+    Map<BuildQueue.Lane, Integer> maxQueued =
+        new EnumMap<BuildQueue.Lane, Integer>(BuildQueue.Lane.class);
+    maxQueued.put(BuildQueue.Lane.APP, 1);
+    BuildQueue executor = new BuildQueue(1, maxQueued);
+
+    // The first build gets the slot and the second one the place in the lane, while their input
+    // is still being received. A third build is rejected.
+    BuildQueue.Admission first = executor.admit(BuildQueue.Lane.APP);
+    BuildQueue.Admission second = executor.admit(BuildQueue.Lane.APP);
+    assertEquals(1, executor.getActiveTaskCount());
+    assertEquals(1, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+    try {
+      executor.admit(BuildQueue.Lane.APP);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // The first build finishes before the input of the second one has been received. The second
+    // one keeps its place and is started once it is complete.
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch firstDone = new CountDownLatch(1);
+    first.start(new RecordingTask(order, "first", firstDone));
+    assertTrue(firstDone.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 50 && executor.getActiveTaskCount() > 0; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(0, executor.getActiveTaskCount());
+    assertEquals(1, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+    CountDownLatch secondDone = new CountDownLatch(1);
+    second.start(new RecordingTask(order, "second", secondDone));
+    assertTrue(secondDone.await(5, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+    assertEquals("second", order.get(1));
+  }
+
+  public void testCanceledAdmissionStartsWaitingBuild() throws Exception {
+    Map<BuildQueue.Lane, Integer> maxQueued =
+        new EnumMap<BuildQueue.Lane, Integer>(BuildQueue.Lane.class);
+    maxQueued.put(BuildQueue.Lane.APP, 2);
+    BuildQueue executor = new BuildQueue(1, maxQueued);
+
+    BuildQueue.Admission first = executor.admit(BuildQueue.Lane.APP);
+    BuildQueue.Admission second = executor.admit(BuildQueue.Lane.APP);
+    List<String> order = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new RecordingTask(order, "third", done));
+
+    // The input of the second build could not be received, so it gives up its place.
+    second.cancel();
+    assertEquals(1, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+    // Neither could the one of the first build, so its slot goes to the third build.
+    first.cancel();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueuedTaskCount(BuildQueue.Lane.APP));
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final Object signal;
+    private TaskThatWaitsForSignal(Object signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      synchronized (signal) {
+        try {
+          // Wait for the signal.
+          signal.wait();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+
+  private static class RecordingTask implements Runnable {
+    private final List<String> order;
+    private final String name;
+    private final CountDownLatch done;
+
+    private RecordingTask(List<String> order, String name, CountDownLatch done) {
+      this.order = order;
+      this.name = name;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+      done.countDown();
+    }
+  }
+}
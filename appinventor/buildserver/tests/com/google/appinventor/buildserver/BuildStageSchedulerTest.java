@@ -0,0 +1,107 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildStageScheduler class.
+ *
+ */
+public class BuildStageSchedulerTest extends TestCase {
+  public void testStageLimitIsEnforced() throws Exception {
+    Map<BuildStageScheduler.Stage, Integer> limits =
+        new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class);
+    limits.put(BuildStageScheduler.Stage.KAWA, 1);
+    final BuildStageScheduler scheduler = new BuildStageScheduler(limits, 0);
+
+    BuildStageScheduler.Ticket first = scheduler.acquire(BuildStageScheduler.Stage.KAWA, 0);
+    assertEquals(1, scheduler.getActiveCount(BuildStageScheduler.Stage.KAWA));
+
+    // A second Kawa compile must wait for the first one.
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          scheduler.acquire(BuildStageScheduler.Stage.KAWA, 0).release();
+          acquired.countDown();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    });
+    waiter.start();
+    assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(1, scheduler.getQueueDepth(BuildStageScheduler.Stage.KAWA));
+
+    // Other stages are not blocked by Kawa.
+    BuildStageScheduler.Ticket dx = scheduler.acquire(BuildStageScheduler.Stage.DX, 0);
+    dx.release();
+
+    first.release();
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(0, scheduler.getQueueDepth(BuildStageScheduler.Stage.KAWA));
+    assertEquals(2, scheduler.getCompletedCount(BuildStageScheduler.Stage.KAWA));
+    assertTrue(scheduler.getMaxWaitMillis(BuildStageScheduler.Stage.KAWA) >= 200);
+  }
+
+  public void testMemoryBudgetIsShared() throws Exception {
+    Map<BuildStageScheduler.Stage, Integer> noLimits =
+        new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class);
+    BuildStageScheduler scheduler = new BuildStageScheduler(noLimits, 3000);
+
+    BuildStageScheduler.Ticket kawa = scheduler.acquire(BuildStageScheduler.Stage.KAWA, 2048);
+    assertEquals(952, scheduler.getAvailableMemoryMb());
+
+    // Requests larger than the budget are reduced to the budget, so they can't wait forever.
+    kawa.release();
+    BuildStageScheduler.Ticket big = scheduler.acquire(BuildStageScheduler.Stage.DX, 8192);
+    assertEquals(0, scheduler.getAvailableMemoryMb());
+    big.release();
+    // Releasing twice has no effect.
+    big.release();
+    assertEquals(3000, scheduler.getAvailableMemoryMb());
+  }
+
+  public void testMaxConcurrentForMemory() throws Exception {
+    Map<BuildStageScheduler.Stage, Integer> limits =
+        new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class);
+    limits.put(BuildStageScheduler.Stage.YAIL_GENERATION, 2);
+    BuildStageScheduler unlimited = new BuildStageScheduler(
+        new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class), 0);
+    assertEquals(0, unlimited.getMaxConcurrent(BuildStageScheduler.Stage.YAIL_GENERATION, 1024));
+
+    BuildStageScheduler stageLimited = new BuildStageScheduler(limits, 0);
+    assertEquals(2, stageLimited.getMaxConcurrent(BuildStageScheduler.Stage.YAIL_GENERATION, 1024));
+
+    BuildStageScheduler budgeted = new BuildStageScheduler(limits, 3000);
+    assertEquals(2, budgeted.getMaxConcurrent(BuildStageScheduler.Stage.YAIL_GENERATION, 1024));
+    assertEquals(1, budgeted.getMaxConcurrent(BuildStageScheduler.Stage.YAIL_GENERATION, 2048));
+    // Requests larger than the budget are reduced to the budget.
+    assertEquals(1, budgeted.getMaxConcurrent(BuildStageScheduler.Stage.KAWA, 8192));
+    assertEquals(5, budgeted.getMaxConcurrent(BuildStageScheduler.Stage.KAWA, 512));
+  }
+
+  public void testAddVariables() throws Exception {
+    Map<BuildStageScheduler.Stage, Integer> limits =
+        new EnumMap<BuildStageScheduler.Stage, Integer>(BuildStageScheduler.Stage.class);
+    limits.put(BuildStageScheduler.Stage.DX, 2);
+    BuildStageScheduler scheduler = new BuildStageScheduler(limits, 0);
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    scheduler.addVariables(variables);
+    assertEquals("unlimited", variables.get("stage-memory-budget-mb"));
+    assertEquals("2", variables.get("stage-dx-max-concurrent"));
+    assertEquals("unlimited", variables.get("stage-kawa-max-concurrent"));
+    assertEquals("0", variables.get("stage-aapt-queue-depth"));
+  }
+}
@@ -0,0 +1,84 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.testutils.FormGenerator;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares FormPropertiesAnalyzer.getComponentTypesFromFormFile with
+ * collecting the component types from the parsed JSON objects, as it used
+ * to. This is not run with the tests.
+ *
+ * <p>Usage: FormPropertiesAnalyzerBenchmark [file.scm ...]</p>
+ *
+ * <p>Without arguments, a generated form with 2000 arrangements, each holding a
+ * label, is used.</p>
+ */
+public class FormPropertiesAnalyzerBenchmark {
+  private static final int ITERATIONS = 200;
+
+  public static void main(String[] args) throws IOException, JSONException {
+    if (args.length == 0) {
+      run("generated form with 2000 arrangements", FormGenerator.generateForm(2000));
+    }
+    for (String arg : args) {
+      run(arg, Files.toString(new File(arg), Charsets.UTF_8));
+    }
+  }
+
+  private static void run(String name, String source) throws JSONException {
+    Set<String> expected = collectWithJsonObjects(source);
+    if (!expected.equals(FormPropertiesAnalyzer.getComponentTypesFromFormFile(source))) {
+      throw new AssertionError("Different component types for " + name);
+    }
+    System.out.println(name + " (" + source.length() + " characters)");
+    for (int round = 0; round < 2; round++) {
+      // The first round warms up
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        collectWithJsonObjects(source);
+      }
+      long objectsMicros = (System.nanoTime() - start) / ITERATIONS / 1000;
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        FormPropertiesAnalyzer.getComponentTypesFromFormFile(source);
+      }
+      long pullMicros = (System.nanoTime() - start) / ITERATIONS / 1000;
+      if (round > 0) {
+        System.out.println("  JSONObject: " + objectsMicros + " us, JsonPullParser: "
+            + pullMicros + " us");
+      }
+    }
+  }
+
+  private static Set<String> collectWithJsonObjects(String source) throws JSONException {
+    Set<String> componentTypes = new HashSet<String>();
+    collect(FormPropertiesAnalyzer.parseSourceFile(source).getJSONObject("Properties"),
+        componentTypes);
+    return componentTypes;
+  }
+
+  private static void collect(JSONObject component, Set<String> componentTypes)
+      throws JSONException {
+    componentTypes.add(component.getString("$Type"));
+    if (component.has("$Components")) {
+      JSONArray components = component.getJSONArray("$Components");
+      for (int i = 0; i < components.length(); i++) {
+        collect(components.getJSONObject(i), componentTypes);
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests FormPropertiesAnalyzer class.
+ *
+ */
+public class FormPropertiesAnalyzerTest extends TestCase {
+  private static final String FORM =
+      "#|\n$JSON\n{\"YaVersion\":\"134\",\"Source\":\"Form\",\"Properties\":{" +
+      "\"$Name\":\"Screen1\",\"$Type\":\"Form\",\"$Version\":\"17\",\"Uuid\":\"0\"," +
+      "\"Title\":\"Say \\\"hi\\\" {[\",\"$Components\":[" +
+      "{\"$Name\":\"Arrangement1\",\"$Type\":\"HorizontalArrangement\",\"$Components\":[" +
+      "{\"$Name\":\"Label1\",\"Text\":\"caf\\u00e9\",\"$Type\":\"Label\",\"Visible\":false}]}," +
+      "{\"$Name\":\"Canvas1\",\"$Type\":\"Canvas\",\"$Components\":[]}," +
+      "{\"$Name\":\"Button1\",\"$Type\":\"Button\",\"Image\":{\"a\":[1,2,{}]}}]}}\n|#";
+
+  public void testGetComponentTypes() {
+    assertEquals(
+        ImmutableSet.of("Form", "HorizontalArrangement", "Label", "Canvas", "Button"),
+        FormPropertiesAnalyzer.getComponentTypesFromFormFile(FORM));
+  }
+
+  public void testInvalidForms() {
+    String[] forms = {
+      "#|\n$JSON\n{\"YaVersion\":\"134\"}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Name\":\"Screen1\"}}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Type\":\"Form\",\"$Components\":{}}}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Type\":\"Form\",\"$Components\":[1]}}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Type\":\"Form\",}}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Type\":\"Form\"}\n|#",
+      "#|\n$JSON\n{\"Properties\":{\"$Type\":\"Form\"}} x\n|#",
+      "{\"Properties\":{\"$Type\":\"Form\"}}",
+    };
+    for (String form : forms) {
+      try {
+        FormPropertiesAnalyzer.getComponentTypesFromFormFile(form);
+        fail(form);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  public void testPullParserTokens() {
+    JsonPullParser parser = new JsonPullParser(" {\"a\" : [1, \"b\\n\", {}], \"c\":null} ");
+    assertEquals(JsonPullParser.Token.START_OBJECT, parser.next());
+    assertEquals(JsonPullParser.Token.KEY, parser.next());
+    assertEquals("a", parser.getString());
+    assertEquals(JsonPullParser.Token.START_ARRAY, parser.next());
+    assertEquals(JsonPullParser.Token.LITERAL, parser.next());
+    assertEquals("1", parser.getString());
+    assertEquals(JsonPullParser.Token.STRING, parser.next());
+    assertEquals("b\n", parser.getString());
+    assertEquals(JsonPullParser.Token.START_OBJECT, parser.next());
+    assertEquals(JsonPullParser.Token.END_OBJECT, parser.next());
+    assertEquals(JsonPullParser.Token.END_ARRAY, parser.next());
+    assertEquals(JsonPullParser.Token.KEY, parser.next());
+    assertEquals("c", parser.getString());
+    assertEquals(JsonPullParser.Token.LITERAL, parser.next());
+    assertEquals("null", parser.getString());
+    assertEquals(JsonPullParser.Token.END_OBJECT, parser.next());
+    assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.next());
+  }
+}
@@ -0,0 +1,152 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests YailGeneratorPool and YailGeneratorWorker classes.
+ *
+ */
+public class YailGeneratorPoolTest extends TestCase {
+  private static final int MX = 64;
+
+  /**
+   * Stands in for YailGenerator.jar: prints its arguments, or exits or throws as they ask.
+   */
+  public static class FakeGenerator {
+    private static int runs;
+
+    public static void main(String[] args) {
+      runs++;
+      if (args[0].equals("exit")) {
+        System.err.println("cannot generate " + args[1]);
+        System.exit(Integer.parseInt(args[1]));
+      }
+      if (args[0].equals("throw")) {
+        throw new IllegalStateException("generator failed");
+      }
+      System.out.print(args[0] + " " + args[1] + " run " + runs);
+    }
+  }
+
+  private File tmpDir;
+  private YailGeneratorPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    pool = new YailGeneratorPool(2, 100);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdown();
+    for (File file : tmpDir.listFiles()) {
+      file.delete();
+    }
+    tmpDir.delete();
+  }
+
+  public void testWorkerIsReused() throws Exception {
+    String generatorJar = makeGeneratorJar("YailGenerator.jar");
+    YailGeneratorPool.Result result =
+        pool.generate(generatorJar, MX, ImmutableList.of("Screen1", "Screen1.yail"));
+    assertEquals(0, result.getExitValue());
+    assertEquals("Screen1 Screen1.yail run 1", result.getOut());
+    assertEquals("", result.getErr());
+
+    // The generator is loaded anew for every form, so no state is carried over.
+    result = pool.generate(generatorJar, MX, ImmutableList.of("Screen2", "Screen2.yail"));
+    assertEquals(0, result.getExitValue());
+    assertEquals("Screen2 Screen2.yail run 1", result.getOut());
+    assertEquals("1", getVariable("yail-workers-started"));
+    assertEquals("1", getVariable("yail-workers-idle"));
+    assertEquals("2", getVariable("yail-worker-completed-jobs"));
+  }
+
+  public void testWorkerIsStoppedAfterFailedJob() throws Exception {
+    String generatorJar = makeGeneratorJar("YailGenerator.jar");
+    YailGeneratorPool.Result result =
+        pool.generate(generatorJar, MX, ImmutableList.of("exit", "1"));
+    assertEquals(1, result.getExitValue());
+    assertEquals("cannot generate 1\n", result.getErr());
+    assertEquals("0", getVariable("yail-workers-idle"));
+
+    result = pool.generate(generatorJar, MX, ImmutableList.of("throw", ""));
+    assertEquals(YailGeneratorWorker.STATUS_EXCEPTION, result.getExitValue());
+    assertTrue(result.getErr().contains("generator failed"));
+    assertEquals("0", getVariable("yail-workers-idle"));
+
+    result = pool.generate(generatorJar, MX, ImmutableList.of("Screen1", "Screen1.yail"));
+    assertEquals(0, result.getExitValue());
+    assertEquals("3", getVariable("yail-workers-started"));
+    assertEquals("2", getVariable("yail-workers-recycled"));
+  }
+
+  public void testWorkersAreKeyedByJarAndHeap() throws Exception {
+    String generatorJar = makeGeneratorJar("YailGenerator.jar");
+    String otherGeneratorJar = makeGeneratorJar("OtherYailGenerator.jar");
+    pool.generate(generatorJar, MX, ImmutableList.of("Screen1", "a"));
+    pool.generate(otherGeneratorJar, MX, ImmutableList.of("Screen1", "b"));
+    assertEquals("2", getVariable("yail-workers-started"));
+    assertEquals("2", getVariable("yail-workers-idle"));
+
+    pool.generate(generatorJar, MX, ImmutableList.of("Screen1", "c"));
+    pool.generate(otherGeneratorJar, MX, ImmutableList.of("Screen1", "d"));
+    assertEquals("2", getVariable("yail-workers-started"));
+
+    // A different heap size needs a new worker, which takes the place of the one that has been
+    // idle the longest.
+    pool.generate(generatorJar, MX * 2, ImmutableList.of("Screen1", "e"));
+    assertEquals("3", getVariable("yail-workers-started"));
+    assertEquals("2", getVariable("yail-workers-idle"));
+    assertEquals("1", getVariable("yail-workers-recycled"));
+    pool.generate(otherGeneratorJar, MX, ImmutableList.of("Screen1", "f"));
+    assertEquals("3", getVariable("yail-workers-started"));
+    pool.generate(generatorJar, MX, ImmutableList.of("Screen1", "g"));
+    assertEquals("4", getVariable("yail-workers-started"));
+  }
+
+  private String getVariable(String name) {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    pool.addVariables(variables);
+    return variables.get(name);
+  }
+
+  // Makes a jar with FakeGenerator as its main class.
+  private String makeGeneratorJar(String name) throws Exception {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, FakeGenerator.class.getName());
+    String classFile = FakeGenerator.class.getName().replace('.', '/') + ".class";
+    File jar = new File(tmpDir, name);
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+    InputStream in = FakeGenerator.class.getClassLoader().getResourceAsStream(classFile);
+    try {
+      out.putNextEntry(new JarEntry(classFile));
+      ByteStreams.copy(in, out);
+      out.closeEntry();
+    } finally {
+      in.close();
+      out.close();
+    }
+    return jar.getAbsolutePath();
+  }
+}
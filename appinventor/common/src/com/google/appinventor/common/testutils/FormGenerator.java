@@ -0,0 +1,43 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.common.testutils;
+
+/**
+ * Generates form (.scm) files for benchmarks.
+ *
+ */
+public final class FormGenerator {
+  private FormGenerator() {
+  }
+
+  /**
+   * Returns the source of a form with the given number of arrangements, each
+   * holding a label, so the form has twice that many components besides the
+   * screen.
+   *
+   * @param arrangementCount the number of arrangements
+   * @return the contents of the .scm file
+   */
+  public static String generateForm(int arrangementCount) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("#|\n$JSON\n{\"YaVersion\":\"134\",\"Source\":\"Form\",\"Properties\":{")
+        .append("\"$Name\":\"Screen1\",\"$Type\":\"Form\",\"$Version\":\"17\",")
+        .append("\"AppName\":\"Benchmark\",\"Title\":\"Screen1\",\"Uuid\":\"0\",")
+        .append("\"$Components\":[");
+    for (int i = 0; i < arrangementCount; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"$Name\":\"Arrangement").append(i)
+          .append("\",\"$Type\":\"HorizontalArrangement\",\"$Version\":\"2\",\"Uuid\":\"")
+          .append(1000 + i).append("\",\"$Components\":[{\"$Name\":\"Label").append(i)
+          .append("\",\"$Type\":\"Label\",\"$Version\":\"3\",\"Text\":\"Label ")
+          .append(i).append(" \\u00e9\",\"FontSize\":\"14.5\",\"Uuid\":\"")
+          .append(-1000 - i).append("\"}]}");
+    }
+    sb.append("]}}\n|#");
+    return sb.toString();
+  }
+}
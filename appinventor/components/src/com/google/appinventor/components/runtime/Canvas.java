@@ -33,6 +33,7 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -44,9 +45,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>A two-dimensional touch-sensitive rectangular panel on which drawing can
@@ -120,6 +125,23 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // The sprites by location, for finding collisions
+  private final SpriteGrid spriteGrid;
+
+  // Moves the sprites that are enabled and have a speed
+  private final SpriteScheduler spriteScheduler;
+
+  // Whether the sprite scheduler is moving sprites, and if so, the sprites
+  // that changed since their collisions were last checked and the sprites
+  // that changed in the frame
+  private boolean inSpriteFrame;
+  private final Set<Sprite> spritesChangedInFrame = new LinkedHashSet<Sprite>();
+  private final Set<Sprite> spritesToRepaint = new LinkedHashSet<Sprite>();
+
+  // Where each sprite was drawn when the view was last drawn.  When a sprite
+  // changes, only that area and the area it will be drawn on are repainted.
+  private final Map<Sprite, Rect> spriteDrawnBounds = new IdentityHashMap<Sprite, Rect>();
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -380,6 +402,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     public void onDraw(android.graphics.Canvas canvas0) {
       completeCache = null;
 
+      // When only sprites have changed, canvas0 is clipped to the areas they
+      // were and will be drawn on, and drawing outside of it costs little.
+
       // This will draw the background image and color, if present.
       super.onDraw(canvas0);
 
@@ -390,7 +415,16 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       // sprites is sorted by Z level, so sprites with low Z values will be
       // drawn first, potentially being hidden by Sprites with higher Z values.
       for (Sprite sprite : sprites) {
-        sprite.onDraw(canvas0);
+        Rect bounds = spriteDrawnBounds.get(sprite);
+        if (bounds == null) {
+          bounds = new Rect();
+          spriteDrawnBounds.put(sprite, bounds);
+        }
+        sprite.getDrawnBounds(bounds);
+        if (!bounds.isEmpty() && !canvas0.quickReject(bounds.left, bounds.top,
+            bounds.right, bounds.bottom, android.graphics.Canvas.EdgeType.AA)) {
+          sprite.onDraw(canvas0);
+        }
       }
       drawn = true;
     }
@@ -673,6 +707,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     FontSize(Component.FONT_DEFAULT_SIZE);
 
     sprites = new LinkedList<Sprite>();
+    spriteGrid = new SpriteGrid();
+    spriteScheduler = new SpriteScheduler(this, new Handler());
     motionEventParser = new MotionEventParser();
     mGestureDetector = new GestureDetector(context, new FlingGestureListener());
   }
@@ -710,15 +746,18 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     // ordered by creation time.  While we don't wish to guarantee
     // this behavior going forward, it does provide consistency
     // with how things worked before Z layering was added.
+    spriteGrid.update(sprite);
     for (int i = 0; i < sprites.size(); i++) {
       if (sprites.get(i).Z() > sprite.Z()) {
         sprites.add(i, sprite);
+        spriteGrid.setOrder(sprites);
         return;
       }
     }
 
     // Add to end if it has the highest Z value.
     sprites.add(sprite);
+    spriteGrid.setOrder(sprites);
   }
 
   /**
@@ -727,7 +766,15 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite to remove
    */
   void removeSprite(Sprite sprite) {
+    Rect bounds = spriteDrawnBounds.remove(sprite);
+    if (bounds != null && !bounds.isEmpty()) {
+      view.invalidate(bounds);
+    }
     sprites.remove(sprite);
+    spriteGrid.remove(sprite);
+    spriteScheduler.remove(sprite);
+    spritesChangedInFrame.remove(sprite);
+    spritesToRepaint.remove(sprite);
   }
 
   /**
@@ -737,9 +784,31 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    sprites.remove(sprite);
+    spriteGrid.remove(sprite);
     addSprite(sprite);
-    view.invalidate();
+    repaintSprite(sprite);
+  }
+
+  /**
+   * Schedules or unschedules the movement of a sprite after its Enabled,
+   * Interval or Speed property has changed.
+   *
+   * @param sprite the sprite
+   * @param restart whether the time until the sprite's next move should
+   *        start over
+   */
+  void scheduleSprite(Sprite sprite, boolean restart) {
+    spriteScheduler.update(sprite, restart);
+  }
+
+  /**
+   * Stops moving a sprite, without removing it from this Canvas.
+   *
+   * @param sprite the sprite
+   */
+  void unscheduleSprite(Sprite sprite) {
+    spriteScheduler.remove(sprite);
   }
 
   @Override
@@ -781,10 +850,93 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite whose location, size, or appearance has changed
    */
   void registerChange(Sprite sprite) {
-    view.invalidate();
+    spriteGrid.update(sprite);
+    if (inSpriteFrame) {
+      // Collisions are found after the sprites that are due in this round
+      // have moved, and they are repainted at the end of the frame.
+      spritesChangedInFrame.add(sprite);
+      spritesToRepaint.add(sprite);
+      return;
+    }
+    repaintSprite(sprite);
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Indicates that a sprite that has not been initialized yet has changed,
+   * repainting it.  No collisions are checked for, but the sprite will be
+   * found by checks for other sprites.
+   *
+   * @param sprite the sprite whose location, size, or appearance has changed
+   */
+  void registerBoundsChange(Sprite sprite) {
+    spriteGrid.update(sprite);
+    repaintSprite(sprite);
+  }
+
+  /*
+   * Invalidates the area where the sprite was last drawn and the area where
+   * it will be drawn now.
+   */
+  private void repaintSprite(Sprite sprite) {
+    Rect dirty = new Rect();
+    sprite.getDrawnBounds(dirty);
+    Rect bounds = spriteDrawnBounds.get(sprite);
+    if (bounds != null) {
+      dirty.union(bounds);
+    }
+    if (!dirty.isEmpty()) {
+      view.invalidate(dirty);
+    }
+  }
+
+
+  // Methods called by the sprite scheduler
+
+  /**
+   * Starts a frame of sprite movement.  Until {@link #endSpriteFrame()} is
+   * called, changes registered by sprites are collected instead of being
+   * handled one at a time.
+   */
+  void beginSpriteFrame() {
+    inSpriteFrame = true;
+  }
+
+  /**
+   * Checks the sprites that changed since the last call for collisions, in
+   * the order in which they first changed.
+   */
+  void checkSpriteFrameCollisions() {
+    if (spritesChangedInFrame.isEmpty()) {
+      return;
+    }
+    List<Sprite> changed = new ArrayList<Sprite>(spritesChangedInFrame);
+    spritesChangedInFrame.clear();
+    for (Sprite sprite : changed) {
+      findSpriteCollisions(sprite);
+    }
+  }
+
+  /**
+   * Ends a frame of sprite movement, checking any remaining changes and
+   * repainting the sprites that changed.
+   */
+  void endSpriteFrame() {
+    checkSpriteFrameCollisions();
+    inSpriteFrame = false;
+    // Sprites changed while the last collisions were handled are checked
+    // now, as changes are outside a frame.
+    List<Sprite> changed = new ArrayList<Sprite>(spritesChangedInFrame);
+    spritesChangedInFrame.clear();
+    for (Sprite sprite : spritesToRepaint) {
+      repaintSprite(sprite);
+    }
+    spritesToRepaint.clear();
+    for (Sprite sprite : changed) {
+      findSpriteCollisions(sprite);
+    }
+  }
+
 
   // Methods for detecting collisions
 
@@ -801,10 +953,16 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * and
    * {@link com.google.appinventor.components.runtime.Sprite#Enabled()}.
    *
+   * <p>Only the sprites near the moved sprite, and those it was colliding
+   * with, are checked; the others cannot be colliding with it before or
+   * after the move.  They are checked in the order of {@link #sprites}, so
+   * events are raised in the same order as when every sprite was checked.</p>
+   *
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
+    for (Sprite sprite : spriteGrid.findCandidates(movedSprite,
+        movedSprite.getRegisteredCollisions())) {
       if (sprite != movedSprite) {
         // Check whether we already raised an event for their collision.
         if (movedSprite.CollidingWith(sprite)) {
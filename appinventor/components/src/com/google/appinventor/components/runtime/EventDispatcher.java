@@ -8,14 +8,27 @@ package com.google.appinventor.components.runtime;
 
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Dispatches events to component event handlers.
  *
+ * <p>The handler for an event of a component is looked up by asking the
+ * dispatch delegate about each event closure registered for the event name,
+ * and is then cached for the component instance and event name. Later events
+ * of the component go straight to the handler, without allocating. The cache
+ * is cleared when events are registered or unregistered and, through
+ * {@link #invalidateHandlerCache}, when the bindings in a form environment
+ * change, for example when the REPL redefines a handler or a component.
+ *
  * @author markf@google.com (Mark Friedman)
  * @author lizlooney@google.com (Liz Looney)
  */
@@ -56,6 +69,23 @@ public class EventDispatcher {
     }
   }
 
+  /*
+   * The handler that the events with one name of one component are
+   * dispatched to, and how they performed. A null handler means that the
+   * component has no handler for the event.
+   */
+  private static final class CachedHandler {
+    private final String eventName;
+    private String componentId;
+    private Object handler;
+    private long dispatchCount;
+    private long dispatchNanos;
+
+    private CachedHandler(String eventName) {
+      this.eventName = eventName;
+    }
+  }
+
   /*
    * Each EventRegistry is associated with one dispatchDelegate.
    * It contains all the event closures for a single form.
@@ -70,6 +100,12 @@ public class EventDispatcher {
     private final HashMap<String, Set<EventClosure>> eventClosuresMap =
         new HashMap<String, Set<EventClosure>>();
 
+    // The handlers found so far, by component and event name. Valid while
+    // handlerCacheVersion equals the global one.
+    private final IdentityHashMap<Component, HashMap<String, CachedHandler>> handlerCache =
+        new IdentityHashMap<Component, HashMap<String, CachedHandler>>();
+    private int handlerCacheVersion;
+
     EventRegistry(HandlesEventDispatching dispatchDelegate) {
       this.dispatchDelegate = dispatchDelegate;
     }
@@ -80,6 +116,15 @@ public class EventDispatcher {
   private static final Map<HandlesEventDispatching, EventRegistry>
       mapDispatchDelegateToEventRegistry = new HashMap<HandlesEventDispatching, EventRegistry>();
 
+  // Incremented to make all cached handlers out of date
+  private static int handlerCacheVersion;
+
+  // Profiling statistics
+  private static long dispatchCount;
+  private static long handlerLookupCount;
+  private static long dispatchNanos;
+  private static long maxDispatchNanos;
+
   private EventDispatcher() {
   }
 
@@ -116,6 +161,7 @@ public class EventDispatcher {
     }
 
     eventClosures.add(new EventClosure(componentId, eventName));
+    invalidateHandlerCache();
     if (DEBUG) {
       Log.i("EventDispatcher", "Registered event closure for " +
           componentId + "." + eventName);
@@ -151,6 +197,7 @@ public class EventDispatcher {
       }
       eventClosures.remove(eventClosure);
     }
+    invalidateHandlerCache();
   }
 
   /**
@@ -162,6 +209,16 @@ public class EventDispatcher {
     for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
       er.eventClosuresMap.clear();
     }
+    invalidateHandlerCache();
+  }
+
+  /**
+   * Makes the handlers cached for all components out of date. Called when
+   * the bindings of a form environment change.
+   */
+  // Don't delete this method. It's called from runtime.scm.
+  public static void invalidateHandlerCache() {
+    handlerCacheVersion++;
   }
 
   /**
@@ -175,6 +232,7 @@ public class EventDispatcher {
     EventRegistry er = removeEventRegistry(dispatchDelegate);
     if (er != null) {
       er.eventClosuresMap.clear();
+      er.handlerCache.clear();
     }
   }
 
@@ -195,40 +253,128 @@ public class EventDispatcher {
       EventRegistry er = getEventRegistry(dispatchDelegate);
       Set<EventClosure> eventClosures = er.eventClosuresMap.get(eventName);
       if (eventClosures != null && eventClosures.size() > 0) {
-        dispatched = delegateDispatchEvent(dispatchDelegate, eventClosures, component, args);
+        long startTime = System.nanoTime();
+        CachedHandler cachedHandler = findHandler(er, component, eventName, eventClosures);
+        if (cachedHandler.handler != null) {
+          dispatched = dispatchDelegate.dispatchToHandler(cachedHandler.handler, args);
+          if (DEBUG) {
+            Log.i("EventDispatcher", "Dispatched event " +
+                cachedHandler.componentId + "." + eventName + ": " + dispatched);
+          }
+        }
+        long nanos = System.nanoTime() - startTime;
+        cachedHandler.dispatchCount++;
+        cachedHandler.dispatchNanos += nanos;
+        dispatchCount++;
+        dispatchNanos += nanos;
+        if (nanos > maxDispatchNanos) {
+          maxDispatchNanos = nanos;
+        }
       }
     }
     return dispatched;
   }
 
-  /**
-   * Delegates the dispatch of an event to the dispatch delegate.
+  /*
+   * Returns the cached handler for the event of the component, looking it up
+   * if it is not cached.
    *
    * @param eventClosures set of event closures matching the event name
-   * @param component the component that generated the event
-   * @param args  arguments to event handler
    */
-  private static boolean delegateDispatchEvent(HandlesEventDispatching dispatchDelegate,
-                                               Set<EventClosure> eventClosures,
-                                               Component component, Object... args) {
-    // The event closures set will contain all event closures matching the event name.
-    // We depend on the delegate's dispatchEvent method to check the registered event closure and
-    // only dispatch the event if the registered component matches the component that generated the
-    // event.  This should only be true for one (or zero) of the closures.
-    boolean dispatched = false;
-    for (EventClosure eventClosure : eventClosures) {
-      if (dispatchDelegate.dispatchEvent(component,
-                                         eventClosure.componentId,
-                                         eventClosure.eventName,
-                                         args)) {
-        if (DEBUG) {
-          Log.i("EventDispatcher", "Successfully dispatched event " +
-              eventClosure.componentId + "." + eventClosure.eventName);
+  private static CachedHandler findHandler(EventRegistry er, Component component,
+                                           String eventName, Set<EventClosure> eventClosures) {
+    if (er.handlerCacheVersion != handlerCacheVersion) {
+      er.handlerCache.clear();
+      er.handlerCacheVersion = handlerCacheVersion;
+    }
+    HashMap<String, CachedHandler> handlers = er.handlerCache.get(component);
+    CachedHandler cachedHandler = (handlers == null) ? null : handlers.get(eventName);
+    if (cachedHandler != null) {
+      return cachedHandler;
+    }
+
+    // The event closures set contains all event closures matching the event name. We depend on
+    // the delegate's lookupEventHandler method to only return a handler if the registered
+    // component matches the component that generated the event. This should only be true for
+    // one (or zero) of the closures. The delegate may unregister closures while we look, so we
+    // iterate over a copy.
+    handlerLookupCount++;
+    cachedHandler = new CachedHandler(eventName);
+    for (EventClosure eventClosure :
+             eventClosures.toArray(new EventClosure[eventClosures.size()])) {
+      Object handler = er.dispatchDelegate.lookupEventHandler(component,
+                                                              eventClosure.componentId,
+                                                              eventClosure.eventName);
+      if (handler != null) {
+        cachedHandler.componentId = eventClosure.componentId;
+        cachedHandler.handler = handler;
+        break;
+      }
+    }
+    if (er.handlerCacheVersion == handlerCacheVersion) {
+      if (handlers == null) {
+        handlers = new HashMap<String, CachedHandler>();
+        er.handlerCache.put(component, handlers);
+      }
+      handlers.put(eventName, cachedHandler);
+    }
+    return cachedHandler;
+  }
+
+  /**
+   * Returns the dispatch statistics for profiling: the number of dispatched
+   * events and handler lookups, the total and maximum time spent dispatching,
+   * including the handlers, and the count and average time of the events of
+   * each component whose handler is cached, busiest first.
+   */
+  public static String getDispatchStatistics() {
+    List<CachedHandler> cachedHandlers = new ArrayList<CachedHandler>();
+    for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
+      if (er.handlerCacheVersion == handlerCacheVersion) {
+        for (HashMap<String, CachedHandler> handlers : er.handlerCache.values()) {
+          cachedHandlers.addAll(handlers.values());
+        }
+      }
+    }
+    Collections.sort(cachedHandlers, new Comparator<CachedHandler>() {
+      @Override
+      public int compare(CachedHandler handler1, CachedHandler handler2) {
+        long difference = handler2.dispatchCount - handler1.dispatchCount;
+        return (difference > 0) ? 1 : ((difference < 0) ? -1 : 0);
+      }
+    });
+    StringBuilder sb = new StringBuilder();
+    sb.append("events: ").append(dispatchCount)
+        .append(", handler lookups: ").append(handlerLookupCount)
+        .append(", total ms: ").append(dispatchNanos / 1000000)
+        .append(", max us: ").append(maxDispatchNanos / 1000);
+    for (CachedHandler cachedHandler : cachedHandlers) {
+      if (cachedHandler.handler != null && cachedHandler.dispatchCount > 0) {
+        sb.append('\n').append(cachedHandler.componentId).append('.')
+            .append(cachedHandler.eventName).append(": ").append(cachedHandler.dispatchCount)
+            .append(" events, average us: ")
+            .append(cachedHandler.dispatchNanos / cachedHandler.dispatchCount / 1000);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Resets the dispatch statistics.
+   */
+  public static void resetDispatchStatistics() {
+    dispatchCount = 0;
+    handlerLookupCount = 0;
+    dispatchNanos = 0;
+    maxDispatchNanos = 0;
+    for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
+      for (HashMap<String, CachedHandler> handlers : er.handlerCache.values()) {
+        for (CachedHandler cachedHandler : handlers.values()) {
+          cachedHandler.dispatchCount = 0;
+          cachedHandler.dispatchNanos = 0;
         }
-        dispatched = true;  // break here or keep iterating through loop?
       }
     }
-    return dispatched;
   }
 
   // Don't delete this method. It's called from runtime.scm.
@@ -614,6 +614,25 @@ public class Form extends FragmentActivity
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * A trivial implementation to artificially make this class concrete.  The
+   * actual implementation appears in {@code runtime.scm}.
+   */
+  @Override
+  public Object lookupEventHandler(Component component, String componentName,
+      String eventName) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * A trivial implementation to artificially make this class concrete.  The
+   * actual implementation appears in {@code runtime.scm}.
+   */
+  @Override
+  public boolean dispatchToHandler(Object handler, Object[] args) {
+    throw new UnsupportedOperationException();
+  }
+
 
   /**
    * Initialize event handler.
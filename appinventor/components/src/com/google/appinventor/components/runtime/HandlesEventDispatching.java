@@ -17,4 +17,19 @@ public interface HandlesEventDispatching {
 
   public boolean dispatchEvent(Component component, String componentName, String eventName,
       Object[] args);
+
+  /**
+   * Returns the handler for the event with the given name of the component
+   * registered under componentName, or null if componentName does not name
+   * the given component or there is no handler. The handler is passed to
+   * {@link #dispatchToHandler}.
+   */
+  public Object lookupEventHandler(Component component, String componentName, String eventName);
+
+  /**
+   * Calls a handler returned by {@link #lookupEventHandler}.
+   *
+   * @return true if the handler completed normally
+   */
+  public boolean dispatchToHandler(Object handler, Object[] args);
 }
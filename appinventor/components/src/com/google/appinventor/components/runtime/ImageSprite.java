@@ -19,6 +19,7 @@ import com.google.appinventor.components.runtime.util.MediaUtil;
 
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.util.Log;
 
@@ -59,15 +60,15 @@ public class ImageSprite extends Sprite {
   private String picturePath = "";  // Picture property
   private boolean rotates;
 
-  private Matrix mat;
-
   private Bitmap unrotatedBitmap;
-  private Bitmap rotatedBitmap;
-  private Bitmap scaledBitmap;
 
-  private BitmapDrawable rotatedDrawable;
-  private double cachedRotationHeading;
-  private boolean rotationCached;
+  // The picture scaled to the size of the sprite and rotated to its heading,
+  // and the picture, size and heading it was made for
+  private Bitmap transformedBitmap;
+  private Bitmap transformedSource;
+  private int transformedWidth;
+  private int transformedHeight;
+  private double transformedHeading;
 
   /**
    * Constructor for ImageSprite.
@@ -77,9 +78,7 @@ public class ImageSprite extends Sprite {
   public ImageSprite(ComponentContainer container) {
     super(container);
     form = container.$form();
-    mat = new Matrix();
     rotates = true;
-    rotationCached = false;
   }
 
   public void onDraw(android.graphics.Canvas canvas) {
@@ -88,37 +87,70 @@ public class ImageSprite extends Sprite {
       int yinit = (int) Math.round(yTop);
       int w = Width();
       int h = Height();
-      // If the sprite doesn't rotate,  use the original drawable
-      // otherwise use the bitmapDrawable
-      if (!rotates) {
-        drawable.setBounds(xinit, yinit, xinit + w, yinit + h);
-        drawable.draw(canvas);
-      } else {
-        // compute the new rotated image if the heading has changed
-       if (!rotationCached || (cachedRotationHeading != Heading())) {
-         // Set up the matrix for the rotation transformation
-         // Rotate around the center of the sprite image (w/2, h/2)
-         // TODO(halabelson): Add a way for the user to specify the center of rotation.
-         // Generate a new matrix based on the current rotation and x and y coordinates.
-         Matrix temporaryMatrix = new Matrix();
-         temporaryMatrix.postRotate((float) -Heading(), w / 2, h / 2);
-         temporaryMatrix.postTranslate(xinit, yinit);
-         // Set the current position to the updated rotation
-         mat.set(temporaryMatrix);
-         // We must scale the unrotated Bitmap to be the user specified size before
-         // rotating.
-         if (w != unrotatedBitmap.getWidth() || h != unrotatedBitmap.getHeight()) {
-          scaledBitmap = Bitmap.createScaledBitmap(unrotatedBitmap, w, h, true);
-        }
-        else {
-          scaledBitmap = unrotatedBitmap;
-        }
-        cachedRotationHeading = Heading();
+      if (w <= 0 || h <= 0) {
+        return;
+      }
+      // The transformed bitmap is centered on the sprite, so that the sprite
+      // rotates around its center.
+      // TODO(halabelson): Add a way for the user to specify the center of rotation.
+      Bitmap bitmap = getTransformedBitmap(w, h, rotates ? Heading() : 0);
+      canvas.drawBitmap(bitmap, xinit + (w - bitmap.getWidth()) / 2f,
+          yinit + (h - bitmap.getHeight()) / 2f, null);
+    }
+  }
+
+  /*
+   * Returns the picture scaled to w by h and rotated by heading, making it
+   * only if the picture, size or heading changed since the last call.
+   */
+  private Bitmap getTransformedBitmap(int w, int h, double heading) {
+    if (transformedBitmap == null || transformedSource != unrotatedBitmap
+        || transformedWidth != w || transformedHeight != h
+        || transformedHeading != heading) {
+      // We must scale the unrotated Bitmap to be the user specified size before
+      // rotating.
+      Bitmap bitmap = unrotatedBitmap;
+      if (w != bitmap.getWidth() || h != bitmap.getHeight()) {
+        bitmap = Bitmap.createScaledBitmap(bitmap, w, h, true);
       }
-        // Draw the scaledBitmap using the specified matrix.
-        canvas.drawBitmap(scaledBitmap, mat, null);
+      if (heading % 360 != 0) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate((float) -heading, w / 2f, h / 2f);
+        bitmap = Bitmap.createBitmap(bitmap, 0, 0, w, h, matrix, true);
       }
+      transformedBitmap = bitmap;
+      transformedSource = unrotatedBitmap;
+      transformedWidth = w;
+      transformedHeight = h;
+      transformedHeading = heading;
+    }
+    return transformedBitmap;
+  }
+
+  @Override
+  protected void getDrawnBounds(Rect bounds) {
+    int w = Width();
+    int h = Height();
+    if (unrotatedBitmap == null || !visible || w <= 0 || h <= 0) {
+      bounds.setEmpty();
+      return;
+    }
+    double halfWidth = w / 2.0;
+    double halfHeight = h / 2.0;
+    if (rotates && Heading() % 360 != 0) {
+      // The bounding box of the rotated picture
+      double radians = Math.toRadians(Heading());
+      double cos = Math.abs(Math.cos(radians));
+      double sin = Math.abs(Math.sin(radians));
+      halfWidth = (w * cos + h * sin) / 2;
+      halfHeight = (w * sin + h * cos) / 2;
     }
+    double xCenter = Math.round(xLeft) + w / 2.0;
+    double yCenter = Math.round(yTop) + h / 2.0;
+    bounds.set((int) Math.floor(xCenter - halfWidth) - 1,
+        (int) Math.floor(yCenter - halfHeight) - 1,
+        (int) Math.ceil(xCenter + halfWidth) + 1,
+        (int) Math.ceil(yCenter + halfHeight) + 1);
   }
 
   /**
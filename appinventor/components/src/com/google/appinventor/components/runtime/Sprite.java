@@ -16,8 +16,8 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.errors.AssertionFailure;
 import com.google.appinventor.components.runtime.errors.IllegalArgumentError;
 import com.google.appinventor.components.runtime.util.BoundingBox;
-import com.google.appinventor.components.runtime.util.TimerInternal;
 
+import android.graphics.Rect;
 import android.os.Handler;
 import android.util.Log;
 
@@ -38,15 +38,26 @@ import java.util.Set;
 public abstract class Sprite extends VisibleComponent
     implements AlarmHandler, OnDestroyListener, Deleteable {
   private static final String LOG_TAG = "Sprite";
-  private static final boolean DEFAULT_ENABLED = true;  // Enable timer for movement
+  private static final boolean DEFAULT_ENABLED = true;  // Enable movement
   private static final int DEFAULT_HEADING = 0;      // degrees
   private static final int DEFAULT_INTERVAL = 100;  // ms
   private static final float DEFAULT_SPEED = 0.0f;   // pixels per interval
   private static final boolean DEFAULT_VISIBLE = true;
   private static final double DEFAULT_Z = 1.0;
 
+  /**
+   * The shapes returned by {@link #getCollisionShape()}.  A sprite whose shape
+   * is {@code COLLISION_SHAPE_RECTANGLE} or {@code COLLISION_SHAPE_CIRCLE}
+   * fills its bounding box or the circle inscribed in it, and collisions with
+   * it are computed from its geometry.  Collisions with a sprite whose shape
+   * is {@code COLLISION_SHAPE_PIXELS} are found by testing every pixel where
+   * it could overlap the other sprite with {@link #containsPoint}.
+   */
+  protected static final int COLLISION_SHAPE_RECTANGLE = 0;
+  protected static final int COLLISION_SHAPE_CIRCLE = 1;
+  protected static final int COLLISION_SHAPE_PIXELS = 2;
+
   protected final Canvas canvas;              // enclosing Canvas
-  private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
 
   // Keeps track of which other sprites are currently colliding with this one.
@@ -61,6 +72,7 @@ public abstract class Sprite extends VisibleComponent
 
   // Properties: These are protected, instead of private, both so they
   // can be used by subclasses and tests.
+  protected boolean enabled;   // whether the sprite moves at its speed
   protected int interval;      // number of milliseconds until next move
   protected boolean visible = true;
   // TODO(user): Convert to have co-ordinates be center, not upper left.
@@ -110,9 +122,6 @@ public abstract class Sprite extends VisibleComponent
     // Maintain a list of collisions.
     registeredCollisions = new HashSet<Sprite>();
 
-    // Set in motion.
-    timerInternal = new TimerInternal(this, DEFAULT_ENABLED, DEFAULT_INTERVAL, handler);
-
     // Set default property values.
     Heading(0);  // Default initial heading
     Enabled(DEFAULT_ENABLED);
@@ -147,27 +156,30 @@ public abstract class Sprite extends VisibleComponent
   /**
    * Enabled property getter method.
    *
-   * @return  {@code true} indicates a running timer, {@code false} a stopped
-   *          timer
+   * @return  {@code true} indicates a moving sprite, {@code false} a stopped
+   *          sprite
    */
   @SimpleProperty(
       description = "Controls whether the sprite moves when its speed is non-zero.",
       category = PropertyCategory.BEHAVIOR)
   public boolean Enabled() {
-    return timerInternal.Enabled();
+    return enabled;
   }
 
   /**
-   * Enabled property setter method: starts or stops the timer.
+   * Enabled property setter method: starts or stops the movement of the
+   * sprite.  The sprites of a canvas are moved by its
+   * {@link SpriteScheduler}.
    *
-   * @param enabled  {@code true} starts the timer, {@code false} stops it
+   * @param enabled  {@code true} starts the sprite, {@code false} stops it
    */
   @DesignerProperty(
       editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
       defaultValue = DEFAULT_ENABLED ? "True" : "False")
   @SimpleProperty
       public void Enabled(boolean enabled) {
-    timerInternal.Enabled(enabled);
+    this.enabled = enabled;
+    canvas.scheduleSprite(this, true);
   }
 
   /**
@@ -209,7 +221,7 @@ public abstract class Sprite extends VisibleComponent
   /**
    * Interval property getter method.
    *
-   * @return  timer interval in ms
+   * @return  interval between moves in ms
    */
   @SimpleProperty(
       description = "The interval in milliseconds at which the sprite's " +
@@ -217,20 +229,21 @@ public abstract class Sprite extends VisibleComponent
       "then the sprite will move 10 pixels every 50 milliseconds.",
       category = PropertyCategory.BEHAVIOR)
   public int Interval() {
-    return timerInternal.Interval();
+    return interval;
   }
 
   /**
-   * Interval property setter method: sets the interval between timer events.
+   * Interval property setter method: sets the interval between moves.
    *
-   * @param interval  timer interval in ms
+   * @param interval  interval between moves in ms
    */
   @DesignerProperty(
       editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
       defaultValue = DEFAULT_INTERVAL + "")
   @SimpleProperty
   public void Interval(int interval) {
-    timerInternal.Interval(interval);
+    this.interval = interval;
+    canvas.scheduleSprite(this, true);
   }
 
   /**
@@ -246,6 +259,7 @@ public abstract class Sprite extends VisibleComponent
       defaultValue = DEFAULT_SPEED + "")
   public void Speed(float speed) {
     this.speed = speed;
+    canvas.scheduleSprite(this, false);
   }
 
   /**
@@ -584,6 +598,14 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites that a collision has been registered with.  The
+   * returned set must not be modified.
+   */
+  Set<Sprite> getRegisteredCollisions() {
+    return registeredCollisions;
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -660,7 +682,7 @@ public abstract class Sprite extends VisibleComponent
     // before all components had been constructed.
     if (!initialized) {
       // During REPL, components are not initalized, but we still want to repaint the canvas.
-      canvas.getView().invalidate();
+      canvas.registerBoundsChange(this);
       return;
     }
     int edge = hitEdge();
@@ -837,11 +859,84 @@ public abstract class Sprite extends VisibleComponent
    * merely see whether the rectangular regions around each intersect, since
    * some types of sprite, such as BallSprite, are not rectangular.
    *
+   * <p>Rectangles and circles are tested against each other geometrically,
+   * at the exact, possibly fractional, positions of the sprites.  A rectangle
+   * covers the points where X &lt;= x &lt; X + Width and
+   * Y &lt;= y &lt; Y + Height, as in {@link #containsPoint}, so rectangles
+   * that only abut are not in collision.  A circle includes its boundary, so
+   * circles that touch are in collision, as is a circle that touches the left
+   * or top edge of a rectangle, but not one that only touches its right or
+   * bottom edge.</p>
+   *
+   * <p>For rectangles at integer positions, this is the answer that testing
+   * every pixel with {@link #containsPoint} gives.  For circles, and for
+   * sprites at fractional positions, the pixel test can differ from it by up
+   * to a pixel; the geometric answer is the intended one.  Sprites whose
+   * shape is {@link #COLLISION_SHAPE_PIXELS} are still tested pixel by
+   * pixel.</p>
+   *
    * @param sprite1 one sprite
    * @param sprite2 another sprite
    * @return {@code true} if they are in collision, {@code false} otherwise
    */
   public static boolean colliding(Sprite sprite1, Sprite sprite2) {
+    int shape1 = sprite1.getCollisionShape();
+    int shape2 = sprite2.getCollisionShape();
+    if (shape1 == COLLISION_SHAPE_PIXELS || shape2 == COLLISION_SHAPE_PIXELS) {
+      return collidingPixels(sprite1, sprite2);
+    }
+    if (shape1 == COLLISION_SHAPE_CIRCLE && shape2 == COLLISION_SHAPE_CIRCLE) {
+      // The circles collide if their centers are no farther apart than the
+      // sum of their radii.
+      double radius1 = sprite1.Width() / 2.0;
+      double radius2 = sprite2.Width() / 2.0;
+      double dx = (sprite1.xLeft + radius1) - (sprite2.xLeft + radius2);
+      double dy = (sprite1.yTop + radius1) - (sprite2.yTop + radius2);
+      return dx * dx + dy * dy <= (radius1 + radius2) * (radius1 + radius2);
+    }
+    if (shape1 == COLLISION_SHAPE_CIRCLE) {
+      return circleIntersectsRectangle(sprite1, sprite2);
+    }
+    if (shape2 == COLLISION_SHAPE_CIRCLE) {
+      return circleIntersectsRectangle(sprite2, sprite1);
+    }
+    // The rectangles are half-open, like in containsPoint(), so rectangles
+    // that only abut are not in collision.
+    return Math.max(sprite1.xLeft, sprite2.xLeft)
+        < Math.min(sprite1.xLeft + sprite1.Width(), sprite2.xLeft + sprite2.Width())
+        && Math.max(sprite1.yTop, sprite2.yTop)
+        < Math.min(sprite1.yTop + sprite1.Height(), sprite2.yTop + sprite2.Height());
+  }
+
+  /*
+   * Determines whether a circular sprite is in collision with a rectangular
+   * sprite, by finding the point of the rectangle nearest the center of the
+   * circle.  The right and bottom edges of the rectangle are not part of it,
+   * so a circle that only touches one of them is not in collision.
+   */
+  private static boolean circleIntersectsRectangle(Sprite circle, Sprite rectangle) {
+    if (rectangle.Width() <= 0 || rectangle.Height() <= 0) {
+      return false;
+    }
+    double radius = circle.Width() / 2.0;
+    double xCenter = circle.xLeft + radius;
+    double yCenter = circle.yTop + radius;
+    double right = rectangle.xLeft + rectangle.Width();
+    double bottom = rectangle.yTop + rectangle.Height();
+    double dx = xCenter - Math.max(rectangle.xLeft, Math.min(xCenter, right));
+    double dy = yCenter - Math.max(rectangle.yTop, Math.min(yCenter, bottom));
+    double distanceSquared = dx * dx + dy * dy;
+    if (xCenter >= right || yCenter >= bottom) {
+      return distanceSquared < radius * radius;
+    }
+    return distanceSquared <= radius * radius;
+  }
+
+  /*
+   * Determines whether two sprites are in collision by testing every point
+   * where their bounding boxes intersect.
+   */
+  private static boolean collidingPixels(Sprite sprite1, Sprite sprite2) {
     // If the bounding boxes don't intersect, there can be no collision.
     BoundingBox rect1 = sprite1.getBoundingBox(1);
     BoundingBox rect2 = sprite2.getBoundingBox(1);
@@ -863,6 +958,36 @@ public abstract class Sprite extends VisibleComponent
     return false;
   }
 
+  /**
+   * Sets bounds to the area of the canvas that {@link #onDraw} draws on,
+   * which the canvas repaints when this sprite changes.  The default is the
+   * bounding box, widened by a pixel for rounding.  Subclasses that draw
+   * outside their bounding box must override this.
+   *
+   * @param bounds the rectangle to set, emptied if nothing is drawn
+   */
+  protected void getDrawnBounds(Rect bounds) {
+    if (!visible) {
+      bounds.setEmpty();
+      return;
+    }
+    bounds.set((int) Math.floor(xLeft) - 1, (int) Math.floor(yTop) - 1,
+        (int) Math.ceil(xLeft + Width()) + 1, (int) Math.ceil(yTop + Height()) + 1);
+  }
+
+  /**
+   * Returns the shape used to find collisions with this sprite, one of
+   * {@link #COLLISION_SHAPE_RECTANGLE}, {@link #COLLISION_SHAPE_CIRCLE} and
+   * {@link #COLLISION_SHAPE_PIXELS}.  Subclasses that override
+   * {@link #containsPoint} should override this too, returning
+   * {@code COLLISION_SHAPE_PIXELS} if neither of the other shapes fits.
+   *
+   * @return the collision shape of this sprite
+   */
+  protected int getCollisionShape() {
+    return COLLISION_SHAPE_RECTANGLE;
+  }
+
   /**
    * Determines whether this sprite intersects with the given rectangle.
    *
@@ -929,14 +1054,13 @@ public abstract class Sprite extends VisibleComponent
 
   @Override
   public void onDestroy() {
-    timerInternal.Enabled(false);
+    canvas.unscheduleSprite(this);
   }
 
   // Deleteable implementation
 
   @Override
   public void onDelete() {
-    timerInternal.Enabled(false);
     canvas.removeSprite(this);
   }
 
@@ -0,0 +1,201 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over the sprites of a {@link Canvas}, used to find the
+ * sprites that may be colliding with a given sprite without looking at every
+ * sprite on the canvas.
+ *
+ * <p>Each sprite is filed under every cell that its bounding box, widened by
+ * one pixel, overlaps, so any two sprites that {@link Sprite#colliding} could
+ * report as colliding share at least one cell. Cells are hashed, so sprites
+ * outside the bounds of the canvas need no special treatment. A sprite is
+ * only refiled when the range of cells it overlaps changes.</p>
+ *
+ */
+final class SpriteGrid {
+  // The width and height of a cell in pixels.  Most sprites are smaller than
+  // this, so a sprite is usually filed under one to four cells.
+  static final int CELL_SIZE = 64;
+
+  private static class Entry {
+    final Sprite sprite;
+    // The range of cells the sprite is filed under, inclusive
+    int left;
+    int top;
+    int right;
+    int bottom;
+    // The position of the sprite in the Z ordered sprite list of the canvas
+    int order;
+    // The last lookup that reached this entry
+    int visit;
+
+    Entry(Sprite sprite) {
+      this.sprite = sprite;
+    }
+  }
+
+  private static final Comparator<Entry> BY_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry entry1, Entry entry2) {
+      return entry1.order < entry2.order ? -1 : (entry1.order == entry2.order ? 0 : 1);
+    }
+  };
+
+  private final Map<Sprite, Entry> entries = new IdentityHashMap<Sprite, Entry>();
+  private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+  private int visit;
+
+  /**
+   * Files the sprite under the cells it now overlaps, adding it to the grid if
+   * it is not there yet.
+   *
+   * @param sprite the sprite that was added or has moved or changed size
+   */
+  void update(Sprite sprite) {
+    Entry entry = entries.get(sprite);
+    boolean added = (entry == null);
+    if (added) {
+      entry = new Entry(sprite);
+      entry.order = entries.size();
+      entries.put(sprite, entry);
+    }
+    double x = sprite.X();
+    double y = sprite.Y();
+    int left = cellOf(x - 1);
+    int top = cellOf(y - 1);
+    int right = cellOf(x + sprite.Width());
+    int bottom = cellOf(y + sprite.Height());
+    if (!added && left == entry.left && top == entry.top
+        && right == entry.right && bottom == entry.bottom) {
+      return;
+    }
+    if (!added) {
+      unfile(entry);
+    }
+    entry.left = left;
+    entry.top = top;
+    entry.right = right;
+    entry.bottom = bottom;
+    for (int cx = left; cx <= right; cx++) {
+      for (int cy = top; cy <= bottom; cy++) {
+        Long key = key(cx, cy);
+        List<Entry> cell = cells.get(key);
+        if (cell == null) {
+          cell = new ArrayList<Entry>(4);
+          cells.put(key, cell);
+        }
+        cell.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Removes the sprite from the grid.
+   *
+   * @param sprite the sprite that was removed from the canvas
+   */
+  void remove(Sprite sprite) {
+    Entry entry = entries.remove(sprite);
+    if (entry != null) {
+      unfile(entry);
+    }
+  }
+
+  /**
+   * Records the order of the sprites on the canvas, which is the order that
+   * {@link #findCandidates} returns them in.
+   *
+   * @param sprites the sprites of the canvas, sorted by Z
+   */
+  void setOrder(List<Sprite> sprites) {
+    int order = 0;
+    for (Sprite sprite : sprites) {
+      Entry entry = entries.get(sprite);
+      if (entry != null) {
+        entry.order = order++;
+      }
+    }
+  }
+
+  /**
+   * Returns the sprites, other than the given sprite, that share a cell with
+   * it or are in the given collection, in the order set by
+   * {@link #setOrder}.
+   *
+   * @param sprite a sprite in the grid
+   * @param others sprites to return even if they share no cell with the
+   *        sprite, such as those it was colliding with
+   * @return the sprites that may be colliding with the sprite
+   */
+  List<Sprite> findCandidates(Sprite sprite, Iterable<Sprite> others) {
+    List<Entry> found = new ArrayList<Entry>();
+    Entry entry = entries.get(sprite);
+    int stamp = ++visit;
+    if (entry != null) {
+      entry.visit = stamp;
+      for (int cx = entry.left; cx <= entry.right; cx++) {
+        for (int cy = entry.top; cy <= entry.bottom; cy++) {
+          List<Entry> cell = cells.get(key(cx, cy));
+          if (cell != null) {
+            for (Entry other : cell) {
+              if (other.visit != stamp) {
+                other.visit = stamp;
+                found.add(other);
+              }
+            }
+          }
+        }
+      }
+    }
+    for (Sprite sprite2 : others) {
+      Entry other = entries.get(sprite2);
+      if (other != null && other.visit != stamp) {
+        other.visit = stamp;
+        found.add(other);
+      }
+    }
+    Collections.sort(found, BY_ORDER);
+
+    List<Sprite> candidates = new ArrayList<Sprite>(found.size());
+    for (Entry other : found) {
+      candidates.add(other.sprite);
+    }
+    return candidates;
+  }
+
+  private void unfile(Entry entry) {
+    for (int cx = entry.left; cx <= entry.right; cx++) {
+      for (int cy = entry.top; cy <= entry.bottom; cy++) {
+        Long key = key(cx, cy);
+        List<Entry> cell = cells.get(key);
+        if (cell != null) {
+          cell.remove(entry);
+          if (cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  private static int cellOf(double coordinate) {
+    return (int) Math.floor(coordinate / CELL_SIZE);
+  }
+
+  private static Long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+}
@@ -0,0 +1,178 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the sprites of a {@link Canvas} from one frame loop, instead of
+ * giving every sprite a timer of its own.
+ *
+ * <p>While any sprite of the canvas is enabled and has a non-zero speed, a
+ * frame callback is posted: to the Choreographer on Jelly Bean and later, so
+ * that it runs once per display frame, and to the UI thread every
+ * FRAME_MILLIS on earlier versions. Each scheduled sprite accumulates the
+ * time that passes between frames and is moved once for every
+ * {@link Sprite#Interval()} milliseconds of it, so sprites move as often as
+ * with their own timers. A sprite with an interval of 0 or less moves once
+ * per frame.</p>
+ *
+ * <p>Moves are made in rounds: in each round, every sprite that is due moves
+ * one step, and then the canvas checks the sprites that moved for collisions.
+ * The areas of the sprites that changed are repainted at the end of the
+ * frame.</p>
+ *
+ */
+final class SpriteScheduler implements Runnable {
+  // The delay between frames where there is no Choreographer
+  static final int FRAME_MILLIS = 16;
+
+  // The most steps a sprite takes in one frame.  If the UI thread falls
+  // further behind than that, the time that was missed is dropped.
+  private static final int MAX_STEPS_PER_FRAME = 8;
+
+  private static class Entry {
+    final Sprite sprite;
+    // The time since the sprite last moved, or was scheduled
+    long elapsedMillis;
+
+    Entry(Sprite sprite) {
+      this.sprite = sprite;
+    }
+  }
+
+  private final Canvas canvas;
+  private final Handler handler;
+  // null before Jelly Bean
+  private final Object frameCallback;
+
+  private final List<Entry> entries = new ArrayList<Entry>();
+  private boolean posted;
+  private long lastFrameTime;
+
+  SpriteScheduler(Canvas canvas, Handler handler) {
+    this.canvas = canvas;
+    this.handler = handler;
+    frameCallback = (SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN)
+        ? JellybeanUtil.newFrameCallback(this)
+        : null;
+  }
+
+  /**
+   * Schedules or unschedules a sprite after its Enabled, Interval or Speed
+   * property has changed.
+   *
+   * @param sprite the sprite
+   * @param restart whether the sprite's time until its next move should
+   *        start over, as it does when a timer is started or its interval
+   *        is changed
+   */
+  void update(Sprite sprite, boolean restart) {
+    Entry entry = find(sprite);
+    if (!sprite.Enabled() || sprite.Speed() == 0) {
+      if (entry != null) {
+        entries.remove(entry);
+      }
+      return;
+    }
+    if (entry == null) {
+      entry = new Entry(sprite);
+      entries.add(entry);
+    } else if (restart) {
+      entry.elapsedMillis = 0;
+    }
+    if (!posted) {
+      lastFrameTime = SystemClock.uptimeMillis();
+      post();
+    }
+  }
+
+  /**
+   * Unschedules a sprite that was deleted or destroyed.
+   *
+   * @param sprite the sprite
+   */
+  void remove(Sprite sprite) {
+    Entry entry = find(sprite);
+    if (entry != null) {
+      entries.remove(entry);
+    }
+  }
+
+  // Runnable implementation
+
+  @Override
+  public void run() {
+    posted = false;
+    if (entries.isEmpty()) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    long elapsed = now - lastFrameTime;
+    lastFrameTime = now;
+
+    // Sprites can be unscheduled while the others move, so work from a copy.
+    List<Entry> frame = new ArrayList<Entry>(entries);
+    for (Entry entry : frame) {
+      entry.elapsedMillis += elapsed;
+    }
+    canvas.beginSpriteFrame();
+    try {
+      for (int step = 0; step < MAX_STEPS_PER_FRAME; step++) {
+        boolean moved = false;
+        for (Entry entry : frame) {
+          int interval = Math.max(entry.sprite.Interval(), 0);
+          boolean due = (interval == 0)
+              ? step == 0
+              : entry.elapsedMillis >= interval;
+          if (due && entries.contains(entry)) {
+            entry.elapsedMillis -= interval;
+            entry.sprite.alarm();
+            moved = true;
+          }
+        }
+        if (!moved) {
+          break;
+        }
+        canvas.checkSpriteFrameCollisions();
+      }
+    } finally {
+      canvas.endSpriteFrame();
+    }
+    for (Entry entry : frame) {
+      entry.elapsedMillis = Math.min(entry.elapsedMillis, Math.max(entry.sprite.Interval(), 0));
+    }
+
+    if (!entries.isEmpty()) {
+      post();
+    }
+  }
+
+  private void post() {
+    posted = true;
+    if (frameCallback != null) {
+      JellybeanUtil.postFrameCallback(frameCallback);
+    } else {
+      handler.postDelayed(this, FRAME_MILLIS);
+    }
+  }
+
+  private Entry find(Sprite sprite) {
+    for (Entry entry : entries) {
+      if (entry.sprite == sprite) {
+        return entry;
+      }
+    }
+    return null;
+  }
+}
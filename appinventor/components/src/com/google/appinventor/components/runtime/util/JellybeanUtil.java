@@ -0,0 +1,45 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.view.Choreographer;
+
+/**
+ * Helper methods for calling methods added in Jelly Bean (4.1, API level 16).
+ *
+ */
+public class JellybeanUtil {
+
+  private JellybeanUtil() {
+  }
+
+  /**
+   * Creates a {@link Choreographer.FrameCallback} that runs the given runnable.
+   * The callback is returned as an Object so that callers don't refer to
+   * Choreographer on earlier versions of Android.
+   *
+   * @param runnable what to run when the callback is called
+   * @return the frame callback
+   */
+  public static Object newFrameCallback(final Runnable runnable) {
+    return new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        runnable.run();
+      }
+    };
+  }
+
+  /**
+   * Calls {@link Choreographer#postFrameCallback} on the Choreographer of the
+   * current thread, so that the callback runs before the next frame is drawn.
+   *
+   * @param frameCallback a callback made by {@link #newFrameCallback}
+   */
+  public static void postFrameCallback(Object frameCallback) {
+    Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+  }
+}
@@ -23,6 +23,19 @@ import android.util.Log;
  * by the Kawa framework. YailList is the main list primitive used
  * by App Inventor components.
  *
+ * <p>The contents are a chain of pairs, as in any Kawa list, so code that
+ * uses car and cdr on them keeps working. In addition, a YailList keeps an
+ * array of the pairs of its contents, which makes {@link #size},
+ * {@link #getObject} and {@link #setObject} take constant time, and
+ * {@link #insertObject}, {@link #removeObject} and {@link #appendList}
+ * keep the array up to date. The pairs are created by the YailList itself
+ * and tell it when their cdr is changed by other code, for example by
+ * set-cdr!, so that the array is rebuilt the next time it is needed. If
+ * the contents include pairs that were not created by the YailList, such
+ * as a list made with cons, the array is not used and the list is walked
+ * as before. To keep a list fast, change its structure with the methods
+ * above rather than with set-cdr!.
+ *
  */
 public class YailList extends Pair {
 
@@ -38,6 +51,52 @@ public class YailList extends Pair {
   // legitimate Yail data types.  See the definition of sanitization
   // in runtime.scm.
 
+  /**
+   * A pair of the contents of a YailList, which tells the list when its cdr
+   * is changed.
+   */
+  private static final class Cell extends Pair {
+    private final YailList owner;
+
+    Cell(YailList owner, Object car, Object cdr) {
+      super(car, cdr);
+      this.owner = owner;
+    }
+
+    @Override
+    public void setCdr(Object cdr) {
+      super.setCdr(cdr);
+      owner.invalidateIndex();
+    }
+
+    @Override
+    public void setCdrBackdoor(Object cdr) {
+      super.setCdrBackdoor(cdr);
+      owner.invalidateIndex();
+    }
+
+    /*
+     * Changes the cdr for the owner, which updates its index itself.
+     */
+    void link(Object cdr) {
+      this.cdr = cdr;
+    }
+
+    /*
+     * Cells are serialized as ordinary pairs. The list they belong to is not
+     * serialized with them, so it could not be notified after they are read.
+     */
+    Object writeReplace() {
+      return new Pair(car, cdr);
+    }
+  }
+
+  // The pairs of the contents, if indexed is true. Only the first count
+  // entries are used.
+  private Cell[] cells;
+  private int count;
+  private boolean indexed;
+
   /**
    * Create an empty YailList.
    */
@@ -45,8 +104,18 @@ public class YailList extends Pair {
     super(YailConstants.YAIL_HEADER, LList.Empty);
   }
 
-  private YailList(Object cdrval) {
-    super(YailConstants.YAIL_HEADER, cdrval);
+  private YailList(Object[] objects) {
+    super(YailConstants.YAIL_HEADER, LList.Empty);
+    cells = new Cell[Math.max(objects.length, 4)];
+    Object next = LList.Empty;
+    for (int i = objects.length - 1; i >= 0; i--) {
+      Cell cell = new Cell(this, objects[i], next);
+      cells[i] = cell;
+      next = cell;
+    }
+    cdr = next;
+    count = objects.length;
+    indexed = true;
   }
 
   /**
@@ -60,24 +129,21 @@ public class YailList extends Pair {
    * Create a YailList from an array.
    */
   public static YailList makeList(Object[] objects) {
-    LList newCdr = Pair.makeList(objects, 0);
-    return new YailList(newCdr);
+    return new YailList(objects);
   }
 
   /**
    * Create a YailList from a List.
    */
   public static YailList makeList(List vals) {
-    LList newCdr = Pair.makeList(vals);
-    return new YailList(newCdr);
+    return new YailList(vals.toArray());
   }
 
   /**
    * Create a YailList from a Collection.
    */
   public static YailList makeList(Collection vals) {
-    LList newCdr = Pair.makeList(vals.toArray(), 0);
-    return new YailList(newCdr);
+    return new YailList(vals.toArray());
   }
 
   /**
@@ -85,6 +151,13 @@ public class YailList extends Pair {
    */
   @Override
   public Object[] toArray() {
+    if (ensureIndex()) {
+      Object[] objects = new Object[count];
+      for (int i = 0; i < count; i++) {
+        objects[i] = cells[i].getCar();
+      }
+      return objects;
+    }
     if (cdr instanceof Pair) {
       return ((Pair) cdr).toArray();
     } else if (cdr instanceof LList) {
@@ -156,7 +229,31 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    return ensureIndex() ? count : super.size() - 1;
+  }
+
+  /**
+   * Return the Object at the given index of the Pair, where index 0 is the
+   * list header and index 1 is the first item.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    return cellAt(index - 1).getCar();
+  }
+
+  @Override
+  public void setCdr(Object cdr) {
+    super.setCdr(cdr);
+    invalidateIndex();
+  }
+
+  @Override
+  public void setCdrBackdoor(Object cdr) {
+    super.setCdrBackdoor(cdr);
+    invalidateIndex();
   }
 
   /**
@@ -186,4 +283,130 @@ public class YailList extends Pair {
   public Object getObject(int index) {
     return get(index + 1);
   }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    cellAt(index).setCar(value);
+  }
+
+  /**
+   * Insert an Object so that it is at the given index, which may be the
+   * size of this YailList.
+   */
+  public void insertObject(int index, Object value) {
+    if (!ensureIndex()) {
+      Pair previous = (index == 0) ? this : cellAt(index - 1);
+      previous.setCdr(new Cell(this, value, previous.getCdr()));
+      return;
+    }
+    if (index < 0 || index > count) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+    Cell cell = new Cell(this, value, (index < count) ? cells[index] : LList.Empty);
+    if (index == 0) {
+      cdr = cell;
+    } else {
+      cells[index - 1].link(cell);
+    }
+    if (count == cells.length) {
+      Cell[] newCells = new Cell[count * 2];
+      System.arraycopy(cells, 0, newCells, 0, count);
+      cells = newCells;
+    }
+    System.arraycopy(cells, index, cells, index + 1, count - index);
+    cells[index] = cell;
+    count++;
+  }
+
+  /**
+   * Remove the Object at the given index.
+   */
+  public void removeObject(int index) {
+    if (!ensureIndex()) {
+      Pair previous = (index == 0) ? this : cellAt(index - 1);
+      previous.setCdr(cellAt(index).getCdr());
+      return;
+    }
+    Object next = cellAt(index).getCdr();
+    if (index == 0) {
+      cdr = next;
+    } else {
+      cells[index - 1].link(next);
+    }
+    count--;
+    System.arraycopy(cells, index + 1, cells, index, count - index);
+    cells[count] = null;
+  }
+
+  /**
+   * Add the items of another YailList, which may be this one, to the end of
+   * this YailList. The items themselves are not copied.
+   */
+  public void appendList(YailList other) {
+    Object[] objects = other.toArray();
+    for (Object object : objects) {
+      insertObject(size(), object);
+    }
+  }
+
+  /*
+   * Returns the pair that holds the item at the given index.
+   */
+  private Pair cellAt(int index) {
+    if (ensureIndex()) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+      }
+      return cells[index];
+    }
+    Object pair = cdr;
+    for (int i = 0; i < index && pair instanceof Pair; i++) {
+      pair = ((Pair) pair).getCdr();
+    }
+    if (index < 0 || !(pair instanceof Pair)) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    return (Pair) pair;
+  }
+
+  /*
+   * Makes sure that the index of the contents is up to date.
+   *
+   * @return false if the contents can't be indexed
+   */
+  private boolean ensureIndex() {
+    if (indexed) {
+      return true;
+    }
+    Cell[] newCells = (cells != null) ? cells : new Cell[4];
+    int newCount = 0;
+    Object pair = cdr;
+    while (pair instanceof Cell && ((Cell) pair).owner == this) {
+      if (newCount == newCells.length) {
+        Cell[] grownCells = new Cell[newCount * 2];
+        System.arraycopy(newCells, 0, grownCells, 0, newCount);
+        newCells = grownCells;
+      }
+      newCells[newCount++] = (Cell) pair;
+      pair = ((Cell) pair).getCdr();
+    }
+    if (pair != LList.Empty) {
+      // A pair from elsewhere, or an improper list
+      cells = null;
+      return false;
+    }
+    for (int i = newCount; i < newCells.length && newCells[i] != null; i++) {
+      newCells[i] = null;
+    }
+    cells = newCells;
+    count = newCount;
+    indexed = true;
+    return true;
+  }
+
+  private void invalidateIndex() {
+    indexed = false;
+  }
 }
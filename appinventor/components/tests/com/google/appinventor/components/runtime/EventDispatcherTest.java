@@ -0,0 +1,158 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests EventDispatcher class.
+ *
+ */
+public class EventDispatcherTest extends TestCase {
+
+  private static class TestComponent implements Component {
+    private final HandlesEventDispatching dispatchDelegate;
+
+    TestComponent(HandlesEventDispatching dispatchDelegate) {
+      this.dispatchDelegate = dispatchDelegate;
+    }
+
+    @Override
+    public HandlesEventDispatching getDispatchDelegate() {
+      return dispatchDelegate;
+    }
+  }
+
+  /*
+   * Stands for the form that runtime.scm defines. Handlers are the names of
+   * the events they handle.
+   */
+  private static class TestDelegate implements HandlesEventDispatching {
+    final Map<String, Component> components = new HashMap<String, Component>();
+    final Map<String, String> handlers = new HashMap<String, String>();
+    final List<String> dispatched = new ArrayList<String>();
+    int lookupCount;
+
+    @Override
+    public boolean canDispatchEvent(Component component, String eventName) {
+      return true;
+    }
+
+    @Override
+    public boolean dispatchEvent(Component component, String componentName, String eventName,
+        Object[] args) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object lookupEventHandler(Component component, String componentName,
+        String eventName) {
+      lookupCount++;
+      if (!components.containsKey(componentName)) {
+        EventDispatcher.unregisterEventForDelegation(this, componentName, eventName);
+        return null;
+      }
+      if (components.get(componentName) != component) {
+        return null;
+      }
+      return handlers.get(componentName + "$" + eventName);
+    }
+
+    @Override
+    public boolean dispatchToHandler(Object handler, Object[] args) {
+      dispatched.add((String) handler);
+      return true;
+    }
+  }
+
+  private TestDelegate delegate;
+  private Component button1;
+  private Component button2;
+
+  @Override
+  protected void setUp() throws Exception {
+    delegate = new TestDelegate();
+    button1 = new TestComponent(delegate);
+    button2 = new TestComponent(delegate);
+    delegate.components.put("Button1", button1);
+    delegate.components.put("Button2", button2);
+    delegate.handlers.put("Button1$Click", "Button1$Click");
+    EventDispatcher.registerEventForDelegation(delegate, "Button1", "Click");
+    EventDispatcher.registerEventForDelegation(delegate, "Button2", "Click");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    EventDispatcher.removeDispatchDelegate(delegate);
+  }
+
+  public void testHandlerIsCached() {
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    int lookupCount = delegate.lookupCount;
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertEquals(lookupCount, delegate.lookupCount);
+    assertEquals(3, delegate.dispatched.size());
+
+    // A component without a handler is cached too
+    assertFalse(EventDispatcher.dispatchEvent(button2, "Click"));
+    lookupCount = delegate.lookupCount;
+    assertFalse(EventDispatcher.dispatchEvent(button2, "Click"));
+    assertEquals(lookupCount, delegate.lookupCount);
+  }
+
+  public void testRedefinition() {
+    EventDispatcher.dispatchEvent(button2, "Click");
+    // What the REPL does when a handler is defined
+    delegate.handlers.put("Button2$Click", "new Button2$Click");
+    EventDispatcher.invalidateHandlerCache();
+    assertTrue(EventDispatcher.dispatchEvent(button2, "Click"));
+    assertEquals("new Button2$Click", delegate.dispatched.get(0));
+
+    // And when a component is replaced
+    Component newButton1 = new TestComponent(delegate);
+    delegate.components.put("Button1", newButton1);
+    EventDispatcher.invalidateHandlerCache();
+    assertFalse(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertTrue(EventDispatcher.dispatchEvent(newButton1, "Click"));
+  }
+
+  public void testUnregister() {
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    EventDispatcher.unregisterEventForDelegation(delegate, "Button1", "Click");
+    assertFalse(EventDispatcher.dispatchEvent(button1, "Click"));
+    EventDispatcher.registerEventForDelegation(delegate, "Button1", "Click");
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+  }
+
+  public void testComponentRemoved() {
+    // The delegate unregisters the events of components that no longer exist
+    EventDispatcher.registerEventForDelegation(delegate, "Gone", "Click");
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertFalse(EventDispatcher.dispatchEvent(button2, "Click"));
+    // Unregistering makes the handlers that were just found out of date
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertFalse(EventDispatcher.dispatchEvent(button2, "Click"));
+    int lookupCount = delegate.lookupCount;
+    assertTrue(EventDispatcher.dispatchEvent(button1, "Click"));
+    assertFalse(EventDispatcher.dispatchEvent(button2, "Click"));
+    assertEquals(lookupCount, delegate.lookupCount);
+  }
+
+  public void testStatistics() {
+    EventDispatcher.resetDispatchStatistics();
+    EventDispatcher.dispatchEvent(button1, "Click");
+    EventDispatcher.dispatchEvent(button1, "Click");
+    String statistics = EventDispatcher.getDispatchStatistics();
+    assertTrue(statistics, statistics.startsWith("events: 2, handler lookups: 1,"));
+    assertTrue(statistics, statistics.contains("\nButton1.Click: 2 events"));
+  }
+}
@@ -0,0 +1,164 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests SpriteGrid.java.
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Sprite.class })
+public class SpriteGridTest {
+  private static final int CELL = SpriteGrid.CELL_SIZE;
+  private static final List<Sprite> NONE = Collections.emptyList();
+
+  // The bounds of a mock sprite
+  private static class Bounds {
+    double x;
+    double y;
+    int width;
+    int height;
+
+    Bounds(double x, double y, int width, int height) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  private final SpriteGrid grid = new SpriteGrid();
+
+  private Sprite createSprite(final Bounds bounds) {
+    Sprite sprite = PowerMock.createNiceMock(Sprite.class);
+    EasyMock.expect(sprite.X()).andAnswer(new IAnswer<Double>() {
+      @Override
+      public Double answer() {
+        return bounds.x;
+      }
+    }).anyTimes();
+    EasyMock.expect(sprite.Y()).andAnswer(new IAnswer<Double>() {
+      @Override
+      public Double answer() {
+        return bounds.y;
+      }
+    }).anyTimes();
+    EasyMock.expect(sprite.Width()).andAnswer(new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        return bounds.width;
+      }
+    }).anyTimes();
+    EasyMock.expect(sprite.Height()).andAnswer(new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        return bounds.height;
+      }
+    }).anyTimes();
+    EasyMock.replay(sprite);
+    return sprite;
+  }
+
+  private Sprite addSprite(Bounds bounds) {
+    Sprite sprite = createSprite(bounds);
+    grid.update(sprite);
+    return sprite;
+  }
+
+  @Test
+  public void testSpritesAreFiledByCell() {
+    Sprite sprite = addSprite(new Bounds(10, 10, 20, 20));
+    Sprite near = addSprite(new Bounds(40, 40, 10, 10));
+    Sprite far = addSprite(new Bounds(5 * CELL, 5 * CELL, 10, 10));
+    // A sprite that spans several cells is found from each of them.
+    Sprite wide = addSprite(new Bounds(CELL - 5, 2 * CELL, 3 * CELL, 10));
+
+    assertEquals(Arrays.asList(near), grid.findCandidates(sprite, NONE));
+    assertEquals(Arrays.asList(sprite), grid.findCandidates(near, NONE));
+    assertEquals(Collections.<Sprite>emptyList(), grid.findCandidates(far, NONE));
+    Sprite underWide = addSprite(new Bounds(3 * CELL + 10, 2 * CELL + 20, 10, 10));
+    assertEquals(Arrays.asList(underWide), grid.findCandidates(wide, NONE));
+
+    grid.remove(near);
+    assertEquals(Collections.<Sprite>emptyList(), grid.findCandidates(sprite, NONE));
+  }
+
+  @Test
+  public void testAbuttingSpritesShareACell() {
+    // The sprites abut at the edge of a cell. Since bounding boxes are widened
+    // by a pixel, each is filed under the cell of the other one too.
+    Sprite left = addSprite(new Bounds(CELL - 20, 10, 20, 10));
+    Sprite right = addSprite(new Bounds(CELL, 10, 10, 10));
+    assertEquals(Arrays.asList(right), grid.findCandidates(left, NONE));
+    assertEquals(Arrays.asList(left), grid.findCandidates(right, NONE));
+  }
+
+  @Test
+  public void testSpritesAreRefiledWhenTheyMove() {
+    Bounds bounds = new Bounds(10, 10, 10, 10);
+    Sprite sprite = addSprite(bounds);
+    Sprite oldNeighbor = addSprite(new Bounds(30, 30, 10, 10));
+    Sprite newNeighbor = addSprite(new Bounds(4 * CELL + 30, 10, 10, 10));
+
+    // Moving within the same cells changes nothing.
+    bounds.x = 20;
+    grid.update(sprite);
+    assertEquals(Arrays.asList(oldNeighbor), grid.findCandidates(sprite, NONE));
+
+    bounds.x = 4 * CELL + 10;
+    grid.update(sprite);
+    assertEquals(Arrays.asList(newNeighbor), grid.findCandidates(sprite, NONE));
+    assertEquals(Collections.<Sprite>emptyList(), grid.findCandidates(oldNeighbor, NONE));
+
+    // Positions outside the canvas are filed like any other.
+    bounds.x = -3 * CELL;
+    bounds.y = -CELL - 30;
+    grid.update(sprite);
+    assertEquals(Collections.<Sprite>emptyList(), grid.findCandidates(sprite, NONE));
+    assertEquals(Collections.<Sprite>emptyList(), grid.findCandidates(newNeighbor, NONE));
+  }
+
+  @Test
+  public void testCandidatesAreInZOrder() {
+    Sprite sprite = addSprite(new Bounds(10, 10, 10, 10));
+    Sprite first = addSprite(new Bounds(20, 20, 10, 10));
+    Sprite second = addSprite(new Bounds(30, 30, 10, 10));
+    Sprite third = addSprite(new Bounds(40, 40, 10, 10));
+    assertEquals(Arrays.asList(first, second, third), grid.findCandidates(sprite, NONE));
+
+    grid.setOrder(Arrays.asList(third, sprite, first, second));
+    assertEquals(Arrays.asList(third, first, second), grid.findCandidates(sprite, NONE));
+  }
+
+  @Test
+  public void testRegisteredCollisionsFarAwayAreCandidates() {
+    Sprite sprite = addSprite(new Bounds(10, 10, 10, 10));
+    Sprite near = addSprite(new Bounds(20, 20, 10, 10));
+    Sprite far = addSprite(new Bounds(10 * CELL, 10 * CELL, 10, 10));
+    Sprite removed = createSprite(new Bounds(10, 10, 10, 10));
+
+    // A sprite it was colliding with is returned even though it moved far
+    // away, so the collision can end. Sprites that are not in the grid are
+    // left out, and those also found in a cell are returned once.
+    List<Sprite> candidates =
+        grid.findCandidates(sprite, Arrays.asList(far, near, removed, sprite));
+    assertEquals(Arrays.asList(near, far), candidates);
+  }
+}
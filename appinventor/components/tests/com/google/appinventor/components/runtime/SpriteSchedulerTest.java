@@ -0,0 +1,183 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appinventor.components.runtime.util.SdkLevel;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * Tests SpriteScheduler.java.
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Canvas.class, Handler.class, Sprite.class, SystemClock.class, SdkLevel.class })
+public class SpriteSchedulerTest {
+  // The properties of a mock sprite, and the number of times it moved
+  private static class SpriteState {
+    boolean enabled = true;
+    int interval;
+    int moves;
+
+    SpriteState(int interval) {
+      this.interval = interval;
+    }
+  }
+
+  private final Canvas canvasMock = PowerMock.createNiceMock(Canvas.class);
+  private final Handler handlerMock = PowerMock.createNiceMock(Handler.class);
+
+  private long now = 1000;
+  private int posts;
+  private SpriteScheduler scheduler;
+
+  @Before
+  public void setUp() throws Exception {
+    PowerMock.mockStatic(SystemClock.class);
+    EasyMock.expect(SystemClock.uptimeMillis()).andAnswer(new IAnswer<Long>() {
+      @Override
+      public Long answer() {
+        return now;
+      }
+    }).anyTimes();
+    // Use the handler rather than the Choreographer.
+    PowerMock.mockStatic(SdkLevel.class);
+    EasyMock.expect(SdkLevel.getLevel()).andReturn(SdkLevel.LEVEL_GINGERBREAD).anyTimes();
+    EasyMock.expect(handlerMock.postDelayed(EasyMock.<Runnable>anyObject(),
+        EasyMock.eq((long) SpriteScheduler.FRAME_MILLIS))).andAnswer(new IAnswer<Boolean>() {
+      @Override
+      public Boolean answer() {
+        posts++;
+        return true;
+      }
+    }).anyTimes();
+    PowerMock.replay(SystemClock.class, SdkLevel.class);
+    EasyMock.replay(canvasMock, handlerMock);
+    scheduler = new SpriteScheduler(canvasMock, handlerMock);
+  }
+
+  private Sprite createSprite(final SpriteState state) {
+    Sprite sprite = PowerMock.createNiceMock(Sprite.class);
+    EasyMock.expect(sprite.Enabled()).andAnswer(new IAnswer<Boolean>() {
+      @Override
+      public Boolean answer() {
+        return state.enabled;
+      }
+    }).anyTimes();
+    EasyMock.expect(sprite.Interval()).andAnswer(new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        return state.interval;
+      }
+    }).anyTimes();
+    EasyMock.expect(sprite.Speed()).andReturn(10f).anyTimes();
+    sprite.alarm();
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() {
+        state.moves++;
+        return null;
+      }
+    }).anyTimes();
+    EasyMock.replay(sprite);
+    return sprite;
+  }
+
+  // Advances the clock and runs the frame that was posted.
+  private void runFrame(int millis) {
+    now += millis;
+    scheduler.run();
+  }
+
+  @Test
+  public void testIntervalAccumulatesOverFrames() {
+    SpriteState slow = new SpriteState(50);
+    SpriteState everyFrame = new SpriteState(0);
+    scheduler.update(createSprite(slow), true);
+    scheduler.update(createSprite(everyFrame), true);
+    assertEquals(1, posts);
+
+    // Frames are shorter than the interval, but the time adds up.
+    runFrame(16);
+    runFrame(16);
+    runFrame(16);
+    assertEquals(0, slow.moves);
+    runFrame(16);
+    assertEquals(1, slow.moves);
+    for (int i = 0; i < 58; i++) {
+      runFrame(16);
+    }
+    // 62 frames of 16ms are 992ms, or 19 intervals of 50ms.
+    assertEquals(19, slow.moves);
+    assertEquals(62, everyFrame.moves);
+    assertEquals(63, posts);
+  }
+
+  @Test
+  public void testStepsPerFrameAreCapped() {
+    SpriteState state = new SpriteState(10);
+    scheduler.update(createSprite(state), true);
+
+    // The UI thread fell a second behind, which is 100 intervals.
+    runFrame(1000);
+    assertEquals(8, state.moves);
+    // The missed time is dropped, except for one interval.
+    runFrame(10);
+    assertEquals(10, state.moves);
+  }
+
+  @Test
+  public void testEnabledAndIntervalRestartTheWait() {
+    SpriteState state = new SpriteState(50);
+    Sprite sprite = createSprite(state);
+    scheduler.update(sprite, true);
+    runFrame(40);
+    assertEquals(0, state.moves);
+
+    // Setting Enabled or Interval starts the wait over, like restarting a timer.
+    scheduler.update(sprite, true);
+    runFrame(40);
+    assertEquals(0, state.moves);
+    runFrame(10);
+    assertEquals(1, state.moves);
+
+    // Setting Speed doesn't.
+    runFrame(40);
+    scheduler.update(sprite, false);
+    runFrame(10);
+    assertEquals(2, state.moves);
+
+    // A disabled sprite is unscheduled, and no more frames are posted once no
+    // sprite is scheduled.
+    state.enabled = false;
+    scheduler.update(sprite, true);
+    int postsBefore = posts;
+    runFrame(100);
+    assertEquals(2, state.moves);
+    assertEquals(postsBefore, posts);
+
+    // Enabling it again starts a new wait and posts a frame.
+    state.enabled = true;
+    scheduler.update(sprite, true);
+    assertEquals(postsBefore + 1, posts);
+    runFrame(49);
+    assertEquals(2, state.moves);
+    runFrame(1);
+    assertEquals(3, state.moves);
+  }
+}
@@ -99,6 +99,27 @@ public class SpriteTest {
     }
   }
 
+  static class TestCircleSprite extends TestSprite {
+    private TestCircleSprite(Canvas canvas, Handler handler, int radius) {
+      super(canvas, handler);
+      Width(2 * radius);
+      Height(2 * radius);
+    }
+
+    @Override
+    public boolean containsPoint(double qx, double qy) {
+      double radius = Width() / 2.0;
+      double dx = qx - (xLeft + radius);
+      double dy = qy - (yTop + radius);
+      return dx * dx + dy * dy <= radius * radius;
+    }
+
+    @Override
+    protected int getCollisionShape() {
+      return COLLISION_SHAPE_CIRCLE;
+    }
+  }
+
   private static final double DELTA = .0001;  // for floating-point comparisons
 
   private final Form formMock = PowerMock.createNiceMock(Form.class);
@@ -274,6 +295,49 @@ public class SpriteTest {
     assertTrue(Sprite.colliding(mouse, cat));
   }
 
+  @Test
+  public void testCollidingCircles() {
+    TestCircleSprite ball1 = new TestCircleSprite(canvasMock, handlerMock, 10);
+    ball1.MoveTo(50, 50);
+    TestCircleSprite ball2 = new TestCircleSprite(canvasMock, handlerMock, 10);
+
+    // Touching on a side
+    ball2.MoveTo(70, 50);
+    assertTrue(Sprite.colliding(ball1, ball2));
+    ball2.MoveTo(71, 50);
+    assertFalse(Sprite.colliding(ball1, ball2));
+
+    // The bounding boxes overlap at the corners, but the circles don't
+    ball2.MoveTo(66, 66);
+    assertFalse(Sprite.colliding(ball1, ball2));
+    ball2.MoveTo(63, 63);
+    assertTrue(Sprite.colliding(ball1, ball2));
+  }
+
+  @Test
+  public void testCollidingCircleRectangle() {
+    TestCircleSprite ball = new TestCircleSprite(canvasMock, handlerMock, 10);
+    ball.MoveTo(50, 50);
+    TestSprite box = TestSprite.createTestSprite(canvasMock, handlerMock, 10, 10);
+
+    // Touching the left edge of the box, which is part of it
+    box.MoveTo(70, 55);
+    assertTrue(Sprite.colliding(ball, box));
+    assertTrue(Sprite.colliding(box, ball));
+
+    // Touching the right edge of the box, which is not
+    box.MoveTo(40, 55);
+    assertFalse(Sprite.colliding(ball, box));
+    box.MoveTo(41, 55);
+    assertTrue(Sprite.colliding(ball, box));
+
+    // In the corner of the bounding box of the ball
+    box.MoveTo(42, 42);
+    assertFalse(Sprite.colliding(ball, box));
+    box.MoveTo(45, 45);
+    assertTrue(Sprite.colliding(ball, box));
+  }
+
   @Test
   public void testSpriteBiggerThanCanvas() throws Exception {
     // Declare cat
@@ -0,0 +1,69 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2015 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import gnu.lists.LList;
+import gnu.lists.Pair;
+
+/**
+ * Compares the indexed YailList with the plain pair chain that YailList used
+ * to be, for the "for each number from 1 to length of list, select list
+ * item" loop of the blocks. This is not run with the tests.
+ *
+ * <p>Usage: YailListBenchmark [size ...]
+ *
+ * <p>Each measurement is repeated after a warm up and the best time is
+ * reported.
+ *
+ */
+public class YailListBenchmark {
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int[] sizes = { 100, 1000, 5000 };
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    for (int size : sizes) {
+      Object[] objects = new Object[size];
+      for (int i = 0; i < size; i++) {
+        objects[i] = "row " + i;
+      }
+      // The representation before, with its size() and get()
+      Pair chain = new Pair(YailConstants.YAIL_HEADER, Pair.makeList(objects, 0));
+      YailList yailList = YailList.makeList(objects);
+
+      long chainNanos = Long.MAX_VALUE;
+      long yailListNanos = Long.MAX_VALUE;
+      for (int round = 0; round <= ROUNDS; round++) {
+        long start = System.nanoTime();
+        int result = 0;
+        for (int i = 1; i <= chain.size() - 1; i++) {
+          result += chain.get(i).hashCode();
+        }
+        long chainTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 1; i <= yailList.size(); i++) {
+          result -= yailList.getObject(i - 1).hashCode();
+        }
+        long yailListTime = System.nanoTime() - start;
+        if (result != 0) {
+          throw new AssertionError();
+        }
+        if (round > 0) {
+          chainNanos = Math.min(chainNanos, chainTime);
+          yailListNanos = Math.min(yailListNanos, yailListTime);
+        }
+      }
+      System.out.println(size + " items: pairs " + chainNanos / 1000 + " us, YailList "
+          + yailListNanos / 1000 + " us");
+    }
+  }
+}
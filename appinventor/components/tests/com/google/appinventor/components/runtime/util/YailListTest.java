@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 
 import junit.framework.TestCase;
 
@@ -203,4 +205,60 @@ public class YailListTest extends TestCase {
       // this is the intended behavior
     }
   }
+
+  public void testIndexedOperations() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    yailList.setObject(1, "B");
+    yailList.insertObject(0, "first");
+    yailList.insertObject(4, "last");
+    yailList.removeObject(2);
+    assertEquals(4, yailList.size());
+    assertEquals("(first a c last)", yailList.toString());
+    assertEquals("c", yailList.getObject(2));
+    yailList.appendList(yailList);
+    assertEquals("(first a c last first a c last)", yailList.toString());
+    assertEquals(8, yailList.size());
+    try {
+      yailList.insertObject(10, "x");
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  public void testGrowFromEmpty() {
+    YailList yailList = YailList.makeEmptyList();
+    for (int i = 0; i < 100; i++) {
+      yailList.insertObject(yailList.size(), i);
+    }
+    assertEquals(100, yailList.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, yailList.getObject(i));
+    }
+    assertEquals(100, LList.length(yailList.getCdr()));
+  }
+
+  public void testSetCdrOfContents() {
+    // What set-cdr! does to a list in runtime.scm
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(3, yailList.size());
+    ((Pair) yailList.getCdr()).setCdr(LList.Empty);
+    assertEquals(1, yailList.size());
+    assertEquals("(a)", yailList.toString());
+    yailList.setCdr(LList.Empty);
+    assertEquals(0, yailList.size());
+  }
+
+  public void testContentsFromElsewhere() {
+    // Pairs made by cons can't be indexed, but the list still works.
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    ((Pair) yailList.getCdr()).setCdr(new Pair("x", new Pair("y", LList.Empty)));
+    assertEquals(3, yailList.size());
+    assertEquals("y", yailList.getObject(2));
+    yailList.setObject(2, "z");
+    yailList.insertObject(3, "w");
+    yailList.removeObject(0);
+    assertEquals("(x z w)", yailList.toString());
+    assertEquals(3, yailList.toArray().length);
+  }
 }